@@ -0,0 +1,162 @@
+package util.dump;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import util.dump.reflection.FieldAccessor;
+import util.dump.reflection.FieldFieldAccessor;
+import util.dump.reflection.Reflection;
+
+
+/**
+ * A non-unique index with a heap budget, instead of the static choice between a {@link GroupIndex}, which keeps everything in
+ * memory, and an {@link InfiniteGroupIndex}, which keeps almost everything on disk.<p/>
+ *
+ * The postings of recently added elements are kept in memory, using {@link #RECENT_POSTINGS_SHARE} of the budget. Only when
+ * they exceed it, they are spilled to disk as a sorted run, like the overflow of an {@link InfiniteGroupIndex}, and merged
+ * with the older runs in the background. A rebuilt index is filled the same way, so an index fitting into its budget never
+ * touches the disk for lookups. The rest of the budget caches the positions of the most recently looked up keys, so hot keys
+ * of the spilled key ranges are served from memory, too.<p/>
+ *
+ * The heap usage is estimated with a fixed number of bytes per posting depending on the key type, it is not measured.
+ */
+public class AdaptiveGroupIndex<E> extends InfiniteGroupIndex<E> {
+
+   /**
+    * the share of the heap budget for the postings of recently added elements, the rest caches the positions of hot keys
+    */
+   public static final float RECENT_POSTINGS_SHARE = 0.75f;
+
+   /**
+    * the estimated heap usage of a posting in the overflow index per key type, including the overhead of the hash maps
+    */
+   private static final int INT_POSTING_BYTES    = 32;
+   private static final int LONG_POSTING_BYTES   = 40;
+   private static final int OBJECT_POSTING_BYTES = 96;
+
+   /**
+    * the estimated heap usage of a cached key besides its positions: the map entry, the key and the array header
+    */
+   private static final int CACHED_KEY_BYTES = 80;
+
+
+   /**
+    * @return the heap budget used by the constructors without an explicit budget: 1/32 of the maximum heap size
+    */
+   public static long getDefaultHeapBudget() {
+      return Runtime.getRuntime().maxMemory() / 32;
+   }
+
+   private static int getMaxLookupSizeInMemory( FieldAccessor fieldAccessor, long heapBudget ) {
+      if ( heapBudget <= 0 ) {
+         throw new IllegalArgumentException("heap budget must be positive: " + heapBudget);
+      }
+      Class type = fieldAccessor.getType();
+      int postingBytes = (type == int.class || type == Integer.class) ? INT_POSTING_BYTES
+            : (type == long.class || type == Long.class) ? LONG_POSTING_BYTES : OBJECT_POSTING_BYTES;
+      return (int)Math.max(1, Math.min(Integer.MAX_VALUE, (long)(heapBudget * RECENT_POSTINGS_SHARE) / postingBytes));
+   }
+
+
+   /**
+    * the positions of the most recently looked up keys in access order, null while the index is initialized by the super
+    * constructor
+    */
+   private final LinkedHashMap<Object, long[]> _hotPositions = new LinkedHashMap<>(16, 0.75f, true);
+   private final long                          _maxHotPositionsBytes;
+   private long                                _hotPositionsBytes;
+   /** the maximum number of cached keys, see {@link #setLRUCacheSize(int)} */
+   private int                                 _maxHotKeys = Integer.MAX_VALUE;
+
+
+   public AdaptiveGroupIndex( Dump<E> dump, FieldAccessor fieldAccessor ) {
+      this(dump, fieldAccessor, getDefaultHeapBudget());
+   }
+
+   public AdaptiveGroupIndex( Dump<E> dump, FieldAccessor fieldAccessor, long heapBudget ) {
+      super(dump, fieldAccessor, getMaxLookupSizeInMemory(fieldAccessor, heapBudget));
+      _maxHotPositionsBytes = (long)(heapBudget * (1 - RECENT_POSTINGS_SHARE));
+   }
+
+   public AdaptiveGroupIndex( Dump<E> dump, String fieldName ) throws NoSuchFieldException {
+      this(dump, fieldName, getDefaultHeapBudget());
+   }
+
+   public AdaptiveGroupIndex( Dump<E> dump, String fieldName, long heapBudget ) throws NoSuchFieldException {
+      this(dump, new FieldFieldAccessor(Reflection.getField(dump._beanClass, fieldName)), heapBudget);
+   }
+
+   /**
+    * The cache of an <code>AdaptiveGroupIndex</code> is part of its heap budget, so the size given here only caps the number
+    * of cached keys within that budget, it never lets the cache grow beyond it. A size of 0 or less disables the cache.
+    */
+   @Override
+   public void setLRUCacheSize( int lruCacheSize ) {
+      synchronized ( _dump ) {
+         _maxHotKeys = Math.max(0, lruCacheSize);
+         evictHotPositions();
+      }
+   }
+
+   @Override
+   protected boolean buildsThroughOverflow() {
+      return true;
+   }
+
+   @Override
+   protected String getIndexType() {
+      return AdaptiveGroupIndex.class.getSimpleName();
+   }
+
+   @Override
+   protected long[] getPositionsFromCache( Object key ) {
+      if ( _hotPositions == null ) {
+         return null;
+      }
+      return _hotPositions.get(key);
+   }
+
+   @Override
+   protected boolean isLookupFileMissing() {
+      // the lookup file is empty as long as all postings fit into the overflow index
+      return !getLookupFile().exists();
+   }
+
+   @Override
+   protected void putPositionsIntoCache( Object key, long[] positions ) {
+      long bytes = getCachedBytes(positions);
+      if ( _hotPositions == null || _maxHotKeys == 0 || bytes > _maxHotPositionsBytes / 16 ) {
+         return;
+      }
+      long[] old = _hotPositions.put(key, positions);
+      _hotPositionsBytes += bytes - (old == null ? 0 : getCachedBytes(old));
+      evictHotPositions();
+   }
+
+   @Override
+   protected void removePositionsFromCache( Object key ) {
+      if ( _hotPositions == null ) {
+         return;
+      }
+      long[] old = _hotPositions.remove(key);
+      if ( old != null ) {
+         _hotPositionsBytes -= getCachedBytes(old);
+      }
+   }
+
+   /**
+    * Removes the least recently looked up keys until the cache fits into its share of the budget and {@link #_maxHotKeys}.
+    */
+   private void evictHotPositions() {
+      Iterator<Map.Entry<Object, long[]>> iterator = _hotPositions.entrySet().iterator();
+      while ( _hotPositionsBytes > _maxHotPositionsBytes || _hotPositions.size() > _maxHotKeys ) {
+         _hotPositionsBytes -= getCachedBytes(iterator.next().getValue());
+         iterator.remove();
+      }
+   }
+
+   private long getCachedBytes( long[] positions ) {
+      return CACHED_KEY_BYTES + 8L * positions.length;
+   }
+}
@@ -1,9 +1,10 @@
 package util.dump;
 
-import java.util.Iterator;
-import java.util.NoSuchElementException;
-
 
+/**
+ * Looks up the elements matching a key in each of several {@link GroupIndex}es, i.e. an AND of {@link GroupIndex} lookups.
+ * Use {@link PositionQuery} for other kinds of indexes and for OR and NOT.
+ */
 public class CombinedIndex<E> {
 
    private GroupIndex<E>[] _indexes;
@@ -25,21 +26,22 @@ public class CombinedIndex<E> {
       }
    }
 
-   public synchronized Iterable<E> lookup( Object... keys ) {
-      if ( keys == null ) {
-         throw new IllegalArgumentException("Keys for CombinedIndex.lookup(keys) may not be null");
-      }
-      if ( keys.length != _indexes.length ) {
-         throw new IllegalArgumentException("The number of keys for CombinedIndex.lookup(keys) must match the number of GroupIndexes of this CombinedIndex, "
-            + keys.length + " != " + _indexes.length);
-      }
+   /**
+    * @return the number of undeleted elements matching all keys, without reading them from the dump
+    */
+   public synchronized int count( Object... keys ) {
+      return query(keys).count();
+   }
 
-      long[][] positions = new long[keys.length][];
-      for ( int i = 0, length = keys.length; i < length; i++ ) {
-         positions[i] = getPositions(_indexes[i], keys[i]);
-      }
+   public synchronized Iterable<E> lookup( Object... keys ) {
+      return query(keys).lookup();
+   }
 
-      return new CombinedGroupIterable(positions);
+   /**
+    * @return the positions of the undeleted elements matching all keys
+    */
+   public synchronized PositionSet positions( Object... keys ) {
+      return query(keys).positions();
    }
 
    protected long[] getPositions( GroupIndex<E> groupIndex, Object key ) {
@@ -62,76 +64,21 @@ public class CombinedIndex<E> {
       return groupIndex.getPositions(key);
    }
 
-   private final class CombinedGroupIterable implements Iterable<E> {
-
-      private final long[][] _pos;
-
-      public CombinedGroupIterable( long[][] pos ) {
-         _pos = pos;
-      }
-
-      public Iterator<E> iterator() {
-         return new CombinedGroupIterator(_pos);
-      }
-   }
-
-   private final class CombinedGroupIterator implements Iterator<E> {
-
-      private final long[][] _pos;
-      private final int[]    _i;
-      private boolean        _searchOnHasNext = true; // this is not thread safe in the least...
-      private boolean        _hasNext         = false;
-
-      private CombinedGroupIterator( long[][] pos ) {
-         _pos = pos;
-         _i = new int[pos.length];
-         _i[0] = -1;
+   private PositionQuery<E> query( Object... keys ) {
+      if ( keys == null ) {
+         throw new IllegalArgumentException("Keys for CombinedIndex.lookup(keys) may not be null");
       }
-
-      public boolean hasNext() {
-         if ( _searchOnHasNext ) {
-            boolean allArraysEqual = false;
-            while ( !allArraysEqual || _i[0] == -1 || _indexes[0]._dump._deletedPositions.contains(_pos[0][_i[0]]) ) {
-               allArraysEqual = true;
-               _i[0] = _i[0] + 1;
-               if ( _i[0] >= _pos[0].length ) {
-                  _hasNext = false;
-                  _searchOnHasNext = false;
-                  return _hasNext;
-               }
-               // the following works, because _pos[i] are expected to be sorted 
-               long pos0 = _pos[0][_i[0]];
-               for ( int i = 1, length = _pos.length; i < length; i++ ) {
-                  while ( _i[i] < _pos[i].length && _pos[i][_i[i]] < pos0 ) {
-                     _i[i] = _i[i] + 1;
-                  }
-                  if ( _i[i] >= _pos[i].length ) {
-                     _hasNext = false;
-                     _searchOnHasNext = false;
-                     return _hasNext;
-                  }
-                  if ( _pos[i][_i[i]] > pos0 ) {
-                     allArraysEqual = false;
-                  }
-               }
-            }
-            _hasNext = true;
-            _searchOnHasNext = false;
-         }
-         return _hasNext;
+      if ( keys.length != _indexes.length ) {
+         throw new IllegalArgumentException("The number of keys for CombinedIndex.lookup(keys) must match the number of GroupIndexes of this CombinedIndex, "
+            + keys.length + " != " + _indexes.length);
       }
 
-      public E next() {
-         if ( !_hasNext ) {
-            throw new NoSuchElementException();
+      synchronized ( _indexes[0]._dump ) {
+         PositionQuery<E>[] operands = new PositionQuery[keys.length];
+         for ( int i = 0, length = keys.length; i < length; i++ ) {
+            operands[i] = PositionQuery.of(_indexes[i]._dump, PositionSet.ofSorted(getPositions(_indexes[i], keys[i])));
          }
-         _searchOnHasNext = true;
-         return _indexes[0]._dump.get(_pos[0][_i[0]]);
-      }
-
-      public void remove() {
-         throw new UnsupportedOperationException();
+         return PositionQuery.and(operands);
       }
    }
-
 }
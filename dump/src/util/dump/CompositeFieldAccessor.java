@@ -0,0 +1,268 @@
+package util.dump;
+
+import java.util.Arrays;
+
+import util.dump.reflection.FieldAccessor;
+import util.dump.reflection.FieldFieldAccessor;
+import util.dump.reflection.Reflection;
+
+
+/**
+ * Accesses a key made of several primitive fields, e.g. <code>(int shopId, long productId)</code>, for a {@link UniqueIndex}
+ * or {@link GroupIndex}:
+ *
+ * <pre>
+ * CompositeFieldAccessor accessor = new CompositeFieldAccessor(Product.class, "_shopId", "_productId");
+ * UniqueIndex&lt;Product&gt; index = new UniqueIndex&lt;&gt;(dump, accessor);
+ * CompositeKey key = accessor.newKey();
+ * Product product = index.lookup(key.clear().add(shopId).add(productId));
+ * </pre>
+ *
+ * These indexes pack the parts of each element directly into a fixed-width binary key, which is kept in the compact key
+ * storage of {@link DumpIndex.IndexOption#compactStringKeys} and written to the lookup file as is. So neither adding elements nor
+ * lookups with a reused {@link CompositeKey} create any key instances. Other index types use the {@link CompositeKey}
+ * returned by {@link #get(Object)} like any other Externalizable key.<p/>
+ *
+ * The parts may be of the types <code>boolean</code>, <code>byte</code>, <code>char</code>, <code>short</code>, <code>int</code>
+ * and <code>long</code>.
+ */
+public class CompositeFieldAccessor implements FieldAccessor {
+
+   private final FieldAccessor[] _parts;
+   private final byte[]          _types;
+   private final int             _keyLength;
+
+
+   public CompositeFieldAccessor( Class beanClass, String... fieldNames ) throws NoSuchFieldException {
+      this(toFieldAccessors(beanClass, fieldNames));
+   }
+
+   public CompositeFieldAccessor( FieldAccessor... parts ) {
+      if ( parts == null || parts.length < 2 ) {
+         throw new IllegalArgumentException("A composite key needs at least two parts.");
+      }
+      _parts = Arrays.copyOf(parts, parts.length);
+      _types = new byte[parts.length];
+      int keyLength = 0;
+      for ( int i = 0; i < parts.length; i++ ) {
+         _types[i] = CompositeKey.typeOf(parts[i].getType());
+         if ( _types[i] < 0 ) {
+            throw new IllegalArgumentException(
+                  "The part " + parts[i].getName() + " of a composite key is of type " + parts[i].getType() + ", only primitive integral types and boolean are supported.");
+         }
+         keyLength += CompositeKey.widthOf(_types[i]);
+      }
+      _keyLength = keyLength;
+   }
+
+   private static FieldAccessor[] toFieldAccessors( Class beanClass, String[] fieldNames ) throws NoSuchFieldException {
+      FieldAccessor[] parts = new FieldAccessor[fieldNames.length];
+      for ( int i = 0; i < fieldNames.length; i++ ) {
+         parts[i] = new FieldFieldAccessor(Reflection.getField(beanClass, fieldNames[i]));
+      }
+      return parts;
+   }
+
+   @Override
+   public boolean equals( Object obj ) {
+      if ( this == obj ) {
+         return true;
+      }
+      if ( obj == null || getClass() != obj.getClass() ) {
+         return false;
+      }
+      return Arrays.equals(_parts, ((CompositeFieldAccessor)obj)._parts);
+   }
+
+   /**
+    * Creates a new key instance, better use {@link #newKey()} and reuse it for lookups.
+    */
+   @Override
+   public Object get( Object obj ) throws Exception {
+      CompositeKey key = newKey();
+      writeKey(obj, key._bytes);
+      key.complete();
+      return key;
+   }
+
+   @Override
+   public boolean getBoolean( Object obj ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public byte getByte( Object obj ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public char getChar( Object obj ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public double getDouble( Object obj ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public float getFloat( Object obj ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public Class[] getGenericTypes() {
+      return null;
+   }
+
+   @Override
+   public int getInt( Object obj ) {
+      throw new UnsupportedOperationException();
+   }
+
+   /**
+    * @return the number of bytes of the packed key
+    */
+   public int getKeyLength() {
+      return _keyLength;
+   }
+
+   @Override
+   public long getLong( Object obj ) {
+      throw new UnsupportedOperationException();
+   }
+
+   /**
+    * @return the names of the parts joined by '+', which is used in the names of the index files
+    */
+   @Override
+   public String getName() {
+      StringBuilder sb = new StringBuilder();
+      for ( FieldAccessor part : _parts ) {
+         if ( sb.length() > 0 ) {
+            sb.append('+');
+         }
+         sb.append(part.getName());
+      }
+      return sb.toString();
+   }
+
+   @Override
+   public short getShort( Object obj ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public Class getType() {
+      return CompositeKey.class;
+   }
+
+   @Override
+   public int hashCode() {
+      return Arrays.hashCode(_parts);
+   }
+
+   /**
+    * @return a new empty key for lookups, which can be reused
+    */
+   public CompositeKey newKey() {
+      return new CompositeKey(_types, _keyLength);
+   }
+
+   @Override
+   public void set( Object o, Object d ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setBoolean( Object o, boolean d ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setByte( Object o, byte d ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setChar( Object o, char d ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setDouble( Object o, double d ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setFloat( Object o, float d ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setInt( Object o, int d ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setLong( Object o, long d ) {
+      throw new UnsupportedOperationException();
+   }
+
+   @Override
+   public void setShort( Object o, short d ) {
+      throw new UnsupportedOperationException();
+   }
+
+   /**
+    * @return the packed bytes of the key, which must have been created by a {@link CompositeFieldAccessor} with the same part types
+    */
+   byte[] getBytes( CompositeKey key ) {
+      if ( key.getTypes() != null && !Arrays.equals(key.getTypes(), _types) ) {
+         throw new IllegalArgumentException("The key " + key + " has different parts than the composite key " + getName());
+      }
+      if ( key._bytes.length != _keyLength || !key.isComplete() ) {
+         throw new IllegalArgumentException("The key " + key + " is incomplete, the composite key " + getName() + " has " + _parts.length + " parts.");
+      }
+      return key._bytes;
+   }
+
+   /**
+    * Compares the keys of two elements without packing them.
+    */
+   boolean keyEquals( Object a, Object b ) throws Exception {
+      for ( int i = 0; i < _parts.length; i++ ) {
+         if ( getPart(i, a) != getPart(i, b) ) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Packs the key of the element into <code>bytes</code>, which must have at least {@link #getKeyLength()} bytes.
+    */
+   void writeKey( Object obj, byte[] bytes ) throws Exception {
+      for ( int i = 0, offset = 0; i < _parts.length; i++ ) {
+         offset = CompositeKey.write(bytes, offset, CompositeKey.widthOf(_types[i]), getPart(i, obj));
+      }
+   }
+
+   private long getPart( int i, Object obj ) throws Exception {
+      FieldAccessor part = _parts[i];
+      switch ( _types[i] ) {
+      case CompositeKey.BOOLEAN:
+         return part.getBoolean(obj) ? 1 : 0;
+      case CompositeKey.BYTE:
+         return part.getByte(obj);
+      case CompositeKey.CHAR:
+         return part.getChar(obj);
+      case CompositeKey.SHORT:
+         return part.getShort(obj);
+      case CompositeKey.INT:
+         return part.getInt(obj);
+      default:
+         return part.getLong(obj);
+      }
+   }
+}
@@ -0,0 +1,228 @@
+package util.dump;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+
+
+/**
+ * The key of an index over several primitive fields, see {@link CompositeFieldAccessor}. The parts are packed big-endian
+ * into a fixed-width byte array in the order of the fields, so a single instance can be reused for any number of lookups
+ * without allocating:
+ *
+ * <pre>
+ * CompositeKey key = accessor.newKey();
+ * ...
+ * index.lookup(key.clear().add(shopId).add(productId));
+ * </pre>
+ *
+ * The parts must be added with the exact types of the fields, e.g. a <code>short</code> field needs {@link #add(short)}.<p/>
+ *
+ * Not thread-safe.
+ */
+public final class CompositeKey implements Externalizable {
+
+   static final byte BOOLEAN = 0;
+   static final byte BYTE    = 1;
+   static final byte CHAR    = 2;
+   static final byte SHORT   = 3;
+   static final byte INT     = 4;
+   static final byte LONG    = 5;
+
+   private static final int[]    WIDTHS = { 1, 1, 2, 2, 4, 8 };
+   private static final String[] NAMES  = { "boolean", "byte", "char", "short", "int", "long" };
+
+   private static final byte[] EMPTY = new byte[0];
+
+
+   static byte typeOf( Class type ) {
+      if ( type == boolean.class ) {
+         return BOOLEAN;
+      }
+      if ( type == byte.class ) {
+         return BYTE;
+      }
+      if ( type == char.class ) {
+         return CHAR;
+      }
+      if ( type == short.class ) {
+         return SHORT;
+      }
+      if ( type == int.class ) {
+         return INT;
+      }
+      if ( type == long.class ) {
+         return LONG;
+      }
+      return -1;
+   }
+
+   static int widthOf( byte type ) {
+      return WIDTHS[type];
+   }
+
+   /**
+    * Writes the lowest <code>width</code> bytes of the value big-endian.
+    * @return the offset after the written bytes
+    */
+   static int write( byte[] bytes, int offset, int width, long value ) {
+      for ( int shift = (width - 1) * 8; shift >= 0; shift -= 8 ) {
+         bytes[offset++] = (byte)(value >>> shift);
+      }
+      return offset;
+   }
+
+
+   byte[] _bytes;
+
+   /** the types of the parts, null for keys read by {@link #readExternal(ObjectInput)}, which can't be modified */
+   private final byte[] _types;
+   private       int    _part;
+   private       int    _offset;
+
+
+   public CompositeKey() {
+      // for Externalization
+      _bytes = EMPTY;
+      _types = null;
+   }
+
+   CompositeKey( byte[] types, int length ) {
+      _bytes = new byte[length];
+      _types = types;
+   }
+
+   public CompositeKey add( boolean part ) {
+      return add(BOOLEAN, part ? 1 : 0);
+   }
+
+   public CompositeKey add( byte part ) {
+      return add(BYTE, part);
+   }
+
+   public CompositeKey add( char part ) {
+      return add(CHAR, part);
+   }
+
+   public CompositeKey add( int part ) {
+      return add(INT, part);
+   }
+
+   public CompositeKey add( long part ) {
+      return add(LONG, part);
+   }
+
+   public CompositeKey add( short part ) {
+      return add(SHORT, part);
+   }
+
+   /**
+    * Removes all parts, so the key can be reused.
+    */
+   public CompositeKey clear() {
+      _part = 0;
+      _offset = 0;
+      return this;
+   }
+
+   @Override
+   public boolean equals( Object obj ) {
+      if ( this == obj ) {
+         return true;
+      }
+      if ( !(obj instanceof CompositeKey) ) {
+         return false;
+      }
+      return Arrays.equals(_bytes, ((CompositeKey)obj)._bytes);
+   }
+
+   @Override
+   public int hashCode() {
+      return Arrays.hashCode(_bytes);
+   }
+
+   /**
+    * @return true if all parts were added
+    */
+   public boolean isComplete() {
+      return _types == null || _part == _types.length;
+   }
+
+   @Override
+   public void readExternal( ObjectInput in ) throws IOException {
+      _bytes = new byte[in.readUnsignedShort()];
+      in.readFully(_bytes);
+   }
+
+   @Override
+   public String toString() {
+      if ( _types == null ) {
+         return "CompositeKey" + Arrays.toString(_bytes);
+      }
+      StringBuilder sb = new StringBuilder("CompositeKey[");
+      for ( int i = 0, offset = 0; i < _part; i++ ) {
+         long value = 0;
+         for ( int end = offset + WIDTHS[_types[i]]; offset < end; offset++ ) {
+            value = (value << 8) | (_bytes[offset] & 0xff);
+         }
+         if ( i > 0 ) {
+            sb.append(", ");
+         }
+         switch ( _types[i] ) {
+         case BOOLEAN:
+            sb.append(value != 0);
+            break;
+         case BYTE:
+            sb.append((byte)value);
+            break;
+         case CHAR:
+            sb.append((char)value);
+            break;
+         case SHORT:
+            sb.append((short)value);
+            break;
+         case INT:
+            sb.append((int)value);
+            break;
+         default:
+            sb.append(value);
+         }
+      }
+      return sb.append(']').toString();
+   }
+
+   @Override
+   public void writeExternal( ObjectOutput out ) throws IOException {
+      out.writeShort(_bytes.length);
+      out.write(_bytes);
+   }
+
+   /**
+    * Marks all parts as added, after the bytes were written by {@link CompositeFieldAccessor}.
+    */
+   void complete() {
+      _part = _types.length;
+      _offset = _bytes.length;
+   }
+
+   byte[] getTypes() {
+      return _types;
+   }
+
+   private CompositeKey add( byte type, long value ) {
+      if ( _types == null ) {
+         throw new UnsupportedOperationException("This key was read from a stream and can't be modified.");
+      }
+      if ( _part == _types.length ) {
+         throw new IllegalStateException("All " + _types.length + " parts of this key were already added, please use clear() to reuse it.");
+      }
+      if ( _types[_part] != type ) {
+         throw new IllegalArgumentException("Part " + _part + " of this key is of type " + NAMES[_types[_part]] + ", not " + NAMES[type] + ".");
+      }
+      _offset = write(_bytes, _offset, WIDTHS[type], value);
+      _part++;
+      return this;
+   }
+}
@@ -31,11 +31,13 @@ import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
@@ -59,6 +61,7 @@ import util.dump.stream.Compression;
 import util.dump.stream.ObjectStreamProvider;
 import util.dump.stream.SingleTypeObjectStreamProvider;
 import util.dump.io.IOUtils;
+import util.dump.reflection.FieldAccessor;
 import util.dump.time.StopWatch;
 
 
@@ -98,6 +101,12 @@ public class Dump<E> implements DumpInput<E> {
    /** if the number of deleted elements exceeds the value of PRUNE_THRESHOLD, the dump is pruned during construction */
    public static final int PRUNE_THRESHOLD = 25000;
 
+   /** the key of {@link #_overwriteEpoch} in the meta data */
+   static final String OVERWRITE_EPOCH_META_KEY = "overwriteEpoch";
+
+   /** the key of {@link #_sealed} in the meta data */
+   static final String SEALED_META_KEY = "sealed";
+
    private static final Set<String> OPENED_DUMPPATHS = Collections.newSetFromMap(new ConcurrentHashMap<>());
    private static final Set<Dump>   OPENED_DUMPS     = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
@@ -142,7 +151,7 @@ public class Dump<E> implements DumpInput<E> {
    File              _deletionsFile;
    File              _metaFile;
    File              _compressionDictionaryFile;
-   Set<DumpIndex<E>> _indexes = new HashSet<>();
+   Set<DumpIndex<E>> _indexes = new CopyOnWriteArraySet<>(); // indexes may register helper indexes while the dump iterates its indexes
 
    DumpWriter<E>                 _writer;
    DumpReader<E>                 _reader;
@@ -179,6 +188,16 @@ public class Dump<E> implements DumpInput<E> {
    long                _sequence = (long)(Math.random() * 1000000);
    Map<String, String> _metaData = new ConcurrentHashMap<>();
 
+   /**
+    * changed by the first update in place or prune after an index checkpoint, which invalidates the checkpoints of the indexes,
+    * since they can only replay appended elements, see {@link DumpIndex#createOrLoad()}
+    */
+   long    _overwriteEpoch;
+   boolean _overwriteEpochCheckpointed = true;
+
+   /** true if the dump was sealed, it can't be modified anymore, see {@link #seal(Comparator)} */
+   boolean _sealed;
+
    final EnumSet<DumpAccessFlag> _mode;
 
    RandomAccessFile _metaRaf;
@@ -291,6 +310,7 @@ public class Dump<E> implements DumpInput<E> {
          _reader = new DumpReader<>(_dumpFile, false, _streamProvider);
 
          initMeta();
+         _sealed = Boolean.parseBoolean(_metaData.get(SEALED_META_KEY));
          externalizationVersion version = (externalizationVersion)_beanClass.getAnnotation(externalizationVersion.class);
          if ( version != null ) {
             _metaData.put("externalizationVersion", "" + version.version());
@@ -333,6 +353,9 @@ public class Dump<E> implements DumpInput<E> {
          if ( !_mode.contains(DumpAccessFlag.add) ) {
             throw new AccessControlException("Add operation not allowed with current modes.");
          }
+         if ( _sealed ) {
+            throw new AccessControlException("Add operation not allowed on a sealed dump.");
+         }
          assertOpen();
          for ( DumpIndex<E> index : _indexes ) {
             if ( index instanceof UniqueIndex && index.contains(((UniqueIndex<E>)index).getKey(o)) && !index.getIndexType()
@@ -434,6 +457,9 @@ public class Dump<E> implements DumpInput<E> {
       if ( !_mode.contains(DumpAccessFlag.delete) ) {
          throw new AccessControlException("Delete operation not allowed with current modes.");
       }
+      if ( _sealed ) {
+         throw new AccessControlException("Delete operation not allowed on a sealed dump.");
+      }
 
       synchronized ( this ) {
 
@@ -531,8 +557,8 @@ public class Dump<E> implements DumpInput<E> {
                flush();
             }
 
-            if ( _resettableBufferedInputStream == null || _resettableBufferedInputStream._rafPos != pos ) {
-               // only seek if we don't do sequential reads
+            if ( _resettableBufferedInputStream == null || (_resettableBufferedInputStream._rafPos != pos && !_resettableBufferedInputStream.skipBuffered(pos)) ) {
+               // only seek if we don't do sequential reads or the element is not buffered anyway
                _raf.seek(pos);
 
                if ( _resettableBufferedInputStream == null ) {
@@ -648,6 +674,13 @@ public class Dump<E> implements DumpInput<E> {
       return _isClosed;
    }
 
+   /**
+    * @return true if the dump was sealed, see {@link #seal(Comparator)}
+    */
+   public boolean isSealed() {
+      return _sealed;
+   }
+
    /**
     * Yields a DumpIterator with all (undeleted) elements in this dump.
     */
@@ -667,6 +700,83 @@ public class Dump<E> implements DumpInput<E> {
       }
    }
 
+   /**
+    * Seals this dump for read-only use, e.g. after a batch job built it: the undeleted elements are rewritten to a new dump
+    * file, optionally in the given order, and each open {@link UniqueIndex} over <code>int</code>, <code>long</code> or
+    * {@link String} keys is replaced by a {@link SealedUniqueIndex}. A sealed dump can't be modified anymore, it is usually
+    * reopened with {@link #READ_ONLY_MODE}.<p/>
+    *
+    * This instance and all its indexes are closed afterwards. The files of the other indexes are deleted, since the positions of
+    * the elements change, they are rebuilt when these indexes are opened again.
+    * @param order the order of the elements in the sealed dump, null for keeping their current order
+    */
+   public void seal( @Nullable Comparator<E> order ) throws Exception {
+      List<FieldAccessor> uniqueFields = new ArrayList<>();
+      List<File> sealedLookupFiles;
+      File sealedDumpFile = new File(_dumpFile.getAbsolutePath() + ".sealed");
+      synchronized ( this ) {
+         assertOpen();
+         if ( isReadonly() ) {
+            throw new AccessControlException("Seal operation not allowed with current modes.");
+         }
+         if ( _sealed ) {
+            throw new IllegalStateException("Dump " + _dumpFile + " is already sealed.");
+         }
+
+         for ( DumpIndex<E> index : _indexes ) {
+            if ( index.getClass() == UniqueIndex.class && SealedUniqueIndex.isKeyTypeSupported(index.getFieldAccessor()) ) {
+               uniqueFields.add(index.getFieldAccessor());
+            }
+         }
+
+         flush();
+         try (DumpWriter<E> out = new DumpWriter<>(sealedDumpFile, _streamProvider)) {
+            for ( E e : order == null ? this : sort(order, DEFAULT_SORT_MAX_ITEMS_IN_MEMORY) ) {
+               out.write(e);
+            }
+         }
+         // the sealed indexes are built before anything is changed, so a failure, e.g. because of duplicate keys, leaves this dump intact
+         try {
+            sealedLookupFiles = SealedUniqueIndex.writeLookups(sealedDumpFile, _streamProvider, uniqueFields);
+         }
+         catch ( Exception argh ) {
+            sealedDumpFile.delete();
+            throw argh;
+         }
+
+         for ( DumpIndex<E> index : new ArrayList<>(_indexes) ) {
+            index.close();
+            index.deleteAllIndexFiles();
+         }
+
+         // the positions change, so the checkpoints of the indexes must be invalid. Until the sealed dump file replaced this
+         // one, the deletions stay valid.
+         changeOverwriteEpoch();
+         _sequence++;
+         _sealed = true;
+         _metaData.put(SEALED_META_KEY, "true");
+         close();
+      }
+
+      File dumpFileWithDeletions = new File(_dumpFile.getAbsolutePath() + ".withDeletions");
+      dumpFileWithDeletions.delete();
+      if ( !_dumpFile.renameTo(dumpFileWithDeletions) ) {
+         throw new IOException("Failed to rename current dump " + _dumpFile + " to " + dumpFileWithDeletions);
+      }
+      if ( !sealedDumpFile.renameTo(_dumpFile) ) {
+         dumpFileWithDeletions.renameTo(_dumpFile);
+         throw new IOException("Failed to rename sealed dump " + sealedDumpFile + " to " + _dumpFile);
+      }
+      dumpFileWithDeletions.delete();
+      _deletionsFile.delete();
+
+      try (Dump<E> sealedDump = new Dump<>(_beanClass, _streamProvider, _dumpFile, 0, _willBeClosedDuringShutdown, READ_ONLY_MODE)) {
+         for ( int i = 0; i < uniqueFields.size(); i++ ) {
+            new SealedUniqueIndex<>(sealedDump, uniqueFields.get(i), sealedLookupFiles.get(i));
+         }
+      }
+   }
+
    /**
     * Setter for the cache to use. If you are unhappy with the default SoftLRUCache (why should you!?), you can specify your own here.
     */
@@ -737,6 +847,9 @@ public class Dump<E> implements DumpInput<E> {
       synchronized ( this ) {
 
          assertOpen();
+         if ( _sealed ) {
+            throw new AccessControlException("Update operation not allowed on a sealed dump.");
+         }
 
          try {
             if ( _cache == null ) {
@@ -769,9 +882,14 @@ public class Dump<E> implements DumpInput<E> {
                   if ( !_mode.contains(DumpAccessFlag.updateInPlace) ) {
                      throw new AccessControlException("Update in place operation not allowed with current modes.");
                   }
+                  if ( _overwriteEpochCheckpointed ) {
+                     changeOverwriteEpoch();
+                  }
                   overwrite(pos, nb);
                   for ( DumpIndex<E> index : _indexes ) {
-                     index.update(pos, oldItem, newItem);
+                     if ( index.isIndexed(pos) ) {
+                        index.update(pos, oldItem, newItem);
+                     }
                   }
                   if ( _cache != null ) {
                      _cache.put(pos, newBytes);
@@ -886,6 +1004,10 @@ public class Dump<E> implements DumpInput<E> {
    protected void prune() throws IOException {
       File prunedDumpFile = new File(_dumpFile.getAbsolutePath() + ".pruned");
       try {
+         // the positions change, so the checkpoints of the indexes must be invalid even if we crash during pruning
+         initMeta();
+         changeOverwriteEpoch();
+
          prunedDumpFile.deleteOnExit();
          DeletionAwareDumpReader input = new DeletionAwareDumpReader(_dumpFile, _streamProvider, _dumpFile.length());
          DumpWriter<E> out = new DumpWriter<>(prunedDumpFile, _streamProvider);
@@ -976,7 +1098,9 @@ public class Dump<E> implements DumpInput<E> {
       _sequence++;
 
       for ( DumpIndex<E> index : _indexes ) {
-         index.delete(e, pos);
+         if ( index.isIndexed(pos) ) {
+            index.delete(e, pos);
+         }
       }
    }
 
@@ -992,6 +1116,30 @@ public class Dump<E> implements DumpInput<E> {
             _metaData.put(key, value);
          }
       }
+      String overwriteEpoch = _metaData.get(OVERWRITE_EPOCH_META_KEY);
+      if ( overwriteEpoch != null ) {
+         _overwriteEpoch = Long.parseLong(overwriteEpoch);
+      } else {
+         // random like the sequence, so the checkpoints of the indexes of a deleted dump don't match a new one
+         _overwriteEpoch = (long)(Math.random() * Integer.MAX_VALUE);
+         _metaData.put(OVERWRITE_EPOCH_META_KEY, "" + _overwriteEpoch);
+      }
+   }
+
+   /**
+    * Opens a stream over the bytes in [<code>from</code>, <code>to</code>) of the dump file. It uses positional reads of its own,
+    * so it neither disturbs nor is disturbed by the sequential reads of {@link #get(long)}.
+    * @param exactEnd false if <code>to</code> is only an upper bound of the bytes which will be read, e.g. the end of the file,
+    *        in which case the stream starts with a small buffer instead of prefetching the whole range
+    */
+   RangeInputStream openRange( long from, long to, boolean exactEnd ) throws IOException {
+      synchronized ( this ) {
+         assertOpen();
+         if ( _dirty.get() ) {
+            flush();
+         }
+         return new RangeInputStream(_raf.getChannel(), from, to, exactEnd);
+      }
    }
 
    void overwrite( long pos, byte[] newBytes ) {
@@ -1002,6 +1150,10 @@ public class Dump<E> implements DumpInput<E> {
          }
          _updateRaf.write(newBytes);
          _updateRafPosition += newBytes.length;
+         if ( _resettableBufferedInputStream != null ) {
+            // the read buffer might contain the old bytes, so the next get(.) has to seek
+            _resettableBufferedInputStream._rafPos = -1;
+         }
       }
       catch ( IOException argh ) {
          throw new RuntimeException("Failed to update dump.", argh);
@@ -1080,6 +1232,16 @@ public class Dump<E> implements DumpInput<E> {
       }
    }
 
+   /**
+    * Invalidates the checkpoints of all indexes and persists this before the dump is overwritten.
+    */
+   private void changeOverwriteEpoch() throws IOException {
+      _overwriteEpoch++;
+      _metaData.put(OVERWRITE_EPOCH_META_KEY, "" + _overwriteEpoch);
+      writeMeta();
+      _overwriteEpochCheckpointed = false;
+   }
+
    private void checkVersion() throws IOException {
       externalizationVersion version = _beanClass.getAnnotation(externalizationVersion.class);
       if ( version != null ) {
@@ -1286,6 +1448,86 @@ public class Dump<E> implements DumpInput<E> {
    }
 
 
+   /**
+    * Streams a byte range of the dump file using positional reads. Ranges up to {@link #MAX_BUFFER_SIZE} are read with a single I/O.
+    * Ranges without an exact end start with a buffer of {@link #MIN_BUFFER_SIZE}, which doubles with each I/O.
+    */
+   static class RangeInputStream extends InputStream {
+
+      private static final int MIN_BUFFER_SIZE = 8 * 1024;
+      private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+      private final FileChannel _ch;
+      private ByteBuffer        _bb;
+      private final long        _to;
+      /** the file position of the next byte returned by read() */
+      private long              _rafPos;
+      /** the file position of the next byte to fill into the buffer */
+      private long              _fillPos;
+
+
+      RangeInputStream( FileChannel ch, long from, long to, boolean exactEnd ) {
+         _ch = ch;
+         _to = to;
+         _rafPos = from;
+         _fillPos = from;
+         _bb = ByteBuffer.allocate((int)Math.max(1, Math.min(to - from, exactEnd ? MAX_BUFFER_SIZE : MIN_BUFFER_SIZE)));
+         _bb.limit(0);
+      }
+
+      @Override
+      public int read() throws IOException {
+         if ( !_bb.hasRemaining() && !fill() ) {
+            return -1;
+         }
+         _rafPos++;
+         return _bb.get() & 0xff;
+      }
+
+      @Override
+      public int read( @Nonnull byte[] b, int off, int len ) throws IOException {
+         if ( len == 0 ) {
+            return 0;
+         }
+         if ( !_bb.hasRemaining() && !fill() ) {
+            return -1;
+         }
+         int n = Math.min(len, _bb.remaining());
+         _bb.get(b, off, n);
+         _rafPos += n;
+         return n;
+      }
+
+      long getPosition() {
+         return _rafPos;
+      }
+
+      boolean hasRemaining() {
+         return _rafPos < _to;
+      }
+
+      private boolean fill() throws IOException {
+         if ( _fillPos >= _to ) {
+            return false;
+         }
+         if ( _bb.limit() > 0 ) { // the previous buffer was read completely, so grow it for the rest of the range
+            int capacity = (int)Math.min(Math.min(_to - _fillPos, MAX_BUFFER_SIZE), 2L * _bb.capacity());
+            if ( capacity > _bb.capacity() ) {
+               _bb = ByteBuffer.allocate(capacity);
+            }
+         }
+         _bb.clear();
+         _bb.limit((int)Math.min(_bb.capacity(), _to - _fillPos));
+         while ( _bb.hasRemaining() && _ch.read(_bb, _fillPos + _bb.position()) >= 0 ) {
+            // read until the buffer is full
+         }
+         _fillPos += _bb.position();
+         _bb.flip();
+         return _bb.hasRemaining();
+      }
+   }
+
+
    static class ResettableBufferedInputStream extends InputStream {
 
       private final static int defaultBufferSize = 1024 * 1024; // this was determined by experiments on a HD
@@ -1508,6 +1750,22 @@ public class Dump<E> implements DumpInput<E> {
          return n;
       }
 
+      /**
+       * Moves forward to <code>rafPos</code> within the bytes already buffered, so reads in ascending position order need
+       * neither a seek nor a refill of the buffer as long as the gaps are small.
+       *
+       * @return false if <code>rafPos</code> is behind the current position or beyond the buffered bytes, nothing is changed then
+       */
+      boolean skipBuffered( long rafPos ) {
+         long n = rafPos - _rafPos;
+         if ( _rafPos < 0 || n < 0 || n > count - pos ) {
+            return false;
+         }
+         pos += (int)n;
+         _rafPos = rafPos;
+         return true;
+      }
+
       public synchronized void reset( FileChannel ch, long rafPos ) throws IOException {
          getBufIfOpen(); // Cause exception if closed
          if ( _ch != ch ) {
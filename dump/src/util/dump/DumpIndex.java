@@ -2,7 +2,9 @@ package util.dump;
 
 import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.DataInput;
 import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.Externalizable;
@@ -16,9 +18,12 @@ import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.security.AccessControlException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +51,24 @@ public abstract class DumpIndex<E> implements Closeable {
 
    private static final Logger LOG = LoggerFactory.getLogger(DumpIndex.class);
 
+   /** the number of elements a background rebuild reads per acquisition of the dump lock */
+   private static final int REBUILD_CHUNK_SIZE = 10000;
+
+   /** if the share of outdated entries in the lookup file exceeds this after loading, it is compacted, see {@link #compactLookupFile()} */
+   public static final float COMPACTION_THRESHOLD = 0.5f;
+   /** the minimal number of outdated entries in the lookup file for an automatic compaction */
+   public static final int   COMPACTION_MIN_OUTDATED_ENTRIES = 10000;
+
+   /** the checkpoint written by {@link #writeMeta()}, see {@link #prepareRecovery(IndexMeta)} */
+   private static final String CHECKPOINT_DUMP_POSITION_META_KEY   = "checkpointDumpPosition";
+   private static final String CHECKPOINT_LOOKUP_LENGTH_META_KEY   = "checkpointLookupLength";
+   private static final String CHECKPOINT_UPDATES_LENGTH_META_KEY  = "checkpointUpdatesLength";
+   private static final String CHECKPOINT_OVERWRITE_EPOCH_META_KEY = "checkpointOverwriteEpoch";
+   /** only written for lookup files with {@link IndexOption#packedPositions}, absent means 8 bytes per position */
+   private static final String POSITION_BYTES_META_KEY             = "positionBytes";
+
+   private static final int PACKED_POSITION_BYTES = 5;
+
    public static List<IndexMeta> discoverIndexes( final Dump dump ) {
       File[] indexFiles = dump.getDumpFile().getParentFile().listFiles(new FilenameFilter() {
 
@@ -133,24 +156,42 @@ public abstract class DumpIndex<E> implements Closeable {
    protected final boolean          _fieldIsLongObject;
    protected final boolean          _fieldIsString;
    protected final boolean          _fieldIsExternalizable;
+   /** true for a {@link CompositeFieldAccessor}, whose keys are packed into {@link #_compositeKey} */
+   protected final boolean          _fieldIsComposite;
+
+   protected final EnumSet<IndexOption> _options;
 
    private final File             _updatesFile;
    private       DataOutputStream _updatesOutput;
 
+   private final byte[] _compositeKey;
+
+   /** the number of entries read from the lookup file by {@link #load()}, including the outdated ones */
+   protected int _numLoadedLookupEntries;
+
+   /** the positions in [_rebuildPos, _rebuildEnd) are still to be read by the background rebuild */
+   private volatile long      _rebuildPos;
+   private volatile long      _rebuildEnd;
+   private volatile Thread    _rebuildThread;
+   private volatile boolean   _rebuildCancelled;
+   private volatile Throwable _rebuildFailure;
+   private          long      _rebuildWaitTimeoutNanos = Long.MAX_VALUE;
+
    /**
     * Creates an index and adds it to the {@link Dump}.
     * @param dump the parent dump to add this index to
     * @param fieldAccessor the accessor to the field containing the index key
+    * @param options optional tuning of the in-memory representation, ignored by index types not supporting them
     */
-   public DumpIndex( Dump<E> dump, FieldAccessor fieldAccessor ) {
-      this(dump, fieldAccessor, null);
+   public DumpIndex( Dump<E> dump, FieldAccessor fieldAccessor, IndexOption... options ) {
+      this(dump, fieldAccessor, (File)null, options);
    }
 
-   public DumpIndex( Dump<E> dump, String fieldName ) throws NoSuchFieldException {
-      this(dump, new FieldFieldAccessor(Reflection.getField(dump._beanClass, fieldName)));
+   public DumpIndex( Dump<E> dump, String fieldName, IndexOption... options ) throws NoSuchFieldException {
+      this(dump, new FieldFieldAccessor(Reflection.getField(dump._beanClass, fieldName)), options);
    }
 
-   DumpIndex( Dump<E> dump, FieldAccessor fieldAccessor, File lookupFile ) {
+   DumpIndex( Dump<E> dump, FieldAccessor fieldAccessor, File lookupFile, IndexOption... options ) {
       if ( !dump.getMode().contains(DumpAccessFlag.indices) ) {
          throw new AccessControlException("Using indices is not allowed with current modes.");
       }
@@ -179,6 +220,29 @@ public abstract class DumpIndex<E> implements Closeable {
       _fieldIsLongObject = fieldType == Long.class;
       _fieldIsString = fieldType == String.class;
       _fieldIsExternalizable = Externalizable.class.isAssignableFrom(_fieldAccessor.getType());
+      _fieldIsComposite = fieldAccessor instanceof CompositeFieldAccessor;
+      _compositeKey = _fieldIsComposite ? new byte[((CompositeFieldAccessor)fieldAccessor).getKeyLength()] : null;
+
+      _options = EnumSet.noneOf(IndexOption.class);
+      _options.addAll(Arrays.asList(options));
+   }
+
+   /**
+    * Waits until a background rebuild finished, see {@link IndexOption#backgroundRebuild}.
+    * @return false if the rebuild is still running after the timeout
+    */
+   public boolean awaitRebuild( long timeout, TimeUnit unit ) throws InterruptedException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      synchronized ( _dump ) {
+         while ( _rebuildThread != null ) {
+            long remaining = deadline - System.nanoTime();
+            if ( remaining <= 0 ) {
+               return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(_dump, remaining);
+         }
+         return true;
+      }
    }
 
    /**
@@ -186,6 +250,19 @@ public abstract class DumpIndex<E> implements Closeable {
     */
    @Override
    public void close() throws IOException {
+      Thread rebuildThread = _rebuildThread;
+      if ( rebuildThread != null ) {
+         _rebuildCancelled = true;
+         // the rebuild thread stops before reading its next chunk, which needs the lock
+         if ( !Thread.holdsLock(_dump) ) {
+            try {
+               rebuildThread.join();
+            }
+            catch ( InterruptedException argh ) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      }
       writeMeta();
       if ( _metaRaf != null ) {
          _metaRaf.close();
@@ -198,6 +275,48 @@ public abstract class DumpIndex<E> implements Closeable {
       _dump.removeIndex(this);
    }
 
+   /**
+    * Rewrites the lookup file to the entries of the undeleted elements and deletes the updates file. Deletions and updates
+    * leave outdated entries in these append-only files, which are read and skipped by each {@link #load()}. The entries are
+    * derived from the undeleted elements, which are read from the dump in the order of their positions.<p/>
+    * This is done automatically when the index is loaded and the share of outdated entries exceeds {@link #COMPACTION_THRESHOLD}.
+    * @throws UnsupportedOperationException if the index type doesn't support this
+    */
+   public void compactLookupFile() throws IOException {
+      if ( !supportsReplay() ) {
+         throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support the compaction of its lookup file");
+      }
+      checkRebuilt();
+      synchronized ( _dump ) {
+         long t = System.currentTimeMillis();
+         long length = _lookupFile.length() + _updatesFile.length();
+         TLongList positions = getAllPositions(); // sorted, but an element has several entries in a MultiValueGroupIndex
+
+         // an interrupted compaction leaves an invalid meta, so the index is rebuilt
+         RandomAccessFile metaRAF = getMetaRAF();
+         metaRAF.setLength(0);
+         metaRAF.getChannel().force(false);
+
+         _lookupOutputStream.close();
+         closeAndDeleteUpdatesOutput();
+         if ( !_lookupFile.delete() ) {
+            throw new IOException("Failed to delete lookup file " + _lookupFile);
+         }
+         initLookupOutputStream();
+         initLookupMap();
+         long lastPos = -1;
+         for ( int i = 0, size = positions.size(); i < size; i++ ) {
+            long pos = positions.get(i);
+            if ( pos != lastPos ) {
+               add(_dump.get(pos), pos);
+               lastPos = pos;
+            }
+         }
+         writeMeta();
+         LOG.info("Compacted index {} from {} to {} bytes in {} ms", _lookupFile, length, _lookupFile.length(), System.currentTimeMillis() - t);
+      }
+   }
+
    public abstract boolean contains( int key );
 
    public abstract boolean contains( long key );
@@ -250,6 +369,34 @@ public abstract class DumpIndex<E> implements Closeable {
     */
    public abstract int getNumKeys();
 
+   /**
+    * @return the share of the dump already read by a background rebuild, between 0 and 1, 1 if no rebuild is running
+    */
+   public float getRebuildProgress() {
+      long pos = _rebuildPos;
+      long end = _rebuildEnd;
+      return pos < end ? pos / (float)end : 1f;
+   }
+
+   public boolean hasOption( IndexOption option ) {
+      return _options.contains(option);
+   }
+
+   /**
+    * @return true while the index is rebuilt in the background, see {@link IndexOption#backgroundRebuild}
+    */
+   public boolean isRebuilding() {
+      return _rebuildThread != null;
+   }
+
+   /**
+    * Sets how long queries wait for a background rebuild before they throw an {@link IndexRebuildingException}. By default
+    * they wait until the rebuild finished.
+    */
+   public void setRebuildWaitTimeout( long timeout, TimeUnit unit ) {
+      _rebuildWaitTimeoutNanos = unit.toNanos(timeout);
+   }
+
    @Override
    public int hashCode() {
       final int prime = 31;
@@ -258,6 +405,28 @@ public abstract class DumpIndex<E> implements Closeable {
       return result;
    }
 
+   /**
+    * Invoked by queries, which have to wait while the index is rebuilt in the background.
+    * @throws IndexRebuildingException if the rebuild didn't finish within the timeout set with {@link #setRebuildWaitTimeout(long, TimeUnit)}
+    */
+   protected void checkRebuilt() {
+      if ( _rebuildThread != null && Thread.currentThread() != _rebuildThread ) {
+         try {
+            if ( !awaitRebuild(_rebuildWaitTimeoutNanos, TimeUnit.NANOSECONDS) ) {
+               throw new IndexRebuildingException(
+                     "Index " + _lookupFile + " is still being rebuilt, " + (int)(getRebuildProgress() * 100) + "% done after waiting for the rebuild timeout.");
+            }
+         }
+         catch ( InterruptedException argh ) {
+            Thread.currentThread().interrupt();
+            throw new IndexRebuildingException("Interrupted while waiting for the rebuild of index " + _lookupFile);
+         }
+      }
+      if ( _rebuildFailure != null ) {
+         throw new RuntimeException("Failed to rebuild index " + _lookupFile, _rebuildFailure);
+      }
+   }
+
    protected boolean checkMeta() {
       return checkMeta(_dump, _metaFile, getIndexType(), null);
    }
@@ -283,7 +452,17 @@ public abstract class DumpIndex<E> implements Closeable {
     */
    protected void createOrLoad() {
 
-      boolean indexInvalid = !_lookupFile.exists() || (_lookupFile.length() == 0 && _lookupFile.isFile()) || !checkMeta();
+      IndexMeta meta = new IndexMeta();
+      boolean indexInvalid = isLookupFileMissing() || !checkMeta(_dump, _metaFile, getIndexType(), meta);
+      // a lookup file written with another width of the positions can't be read, e.g. after packedPositions was switched on
+      boolean positionBytesChanged = !String.valueOf(getPositionBytes()).equals(meta._metaData.getOrDefault(POSITION_BYTES_META_KEY, "8"));
+      indexInvalid |= positionBytesChanged;
+      long checkpointPos = -1;
+      if ( supportsReplay() && !positionBytesChanged && meta.getMetaValue(CHECKPOINT_DUMP_POSITION_META_KEY) != null ) {
+         // the sequence doesn't tell whether the dump was appended to after the index was written, the checkpoint does
+         checkpointPos = prepareRecovery(meta);
+         indexInvalid = checkpointPos < 0;
+      }
       if ( indexInvalid ) {
          deleteAllIndexFiles();
       }
@@ -297,11 +476,21 @@ public abstract class DumpIndex<E> implements Closeable {
          throw new RuntimeException("failed to flush dump", e);
       }
 
-      if ( _dump.getDumpFile().length() > 0 && indexInvalid ) {
+      if ( checkpointPos >= 0 ) {
+         load();
+         recover(checkpointPos);
+         compactIfNeeded();
+      } else if ( _dump.getDumpFile().length() > 0 && indexInvalid ) {
          // rebuild index if it is not current
-         initFromDump();
+         if ( hasOption(IndexOption.backgroundRebuild) && supportsBackgroundRebuild() ) {
+            _rebuildPos = 0;
+            _rebuildEnd = _dump.getDumpSize(); // the rebuild thread is started by init() after the index was added to the dump
+         } else {
+            initFromDump();
+         }
       } else {
          load();
+         compactIfNeeded();
       }
    }
 
@@ -324,6 +513,13 @@ public abstract class DumpIndex<E> implements Closeable {
       }
    }
 
+   /**
+    * @return the packed bytes of a {@link CompositeKey} used for a lookup, or null if the key is no {@link CompositeKey}
+    */
+   protected byte[] getCompositeKeyBytes( Object key ) {
+      return key instanceof CompositeKey ? ((CompositeFieldAccessor)_fieldAccessor).getBytes((CompositeKey)key) : null;
+   }
+
    protected abstract String getIndexType();
 
    protected int getIntKey( E o ) {
@@ -376,6 +572,14 @@ public abstract class DumpIndex<E> implements Closeable {
       return key;
    }
 
+   /**
+    * @return the number of bytes of a position in the lookup file, 5 with {@link IndexOption#packedPositions} if the index type
+    *          supports it, otherwise 8
+    */
+   protected int getPositionBytes() {
+      return hasOption(IndexOption.packedPositions) && supportsPackedPositions() ? PACKED_POSITION_BYTES : 8;
+   }
+
    protected File getUpdatesFile() {
       return _updatesFile;
    }
@@ -412,6 +616,9 @@ public abstract class DumpIndex<E> implements Closeable {
          try {
             createOrLoad();
             _dump.addIndex(this);
+            if ( _rebuildPos < _rebuildEnd ) {
+               startRebuild();
+            }
          }
          catch ( Exception argh ) {
             try {
@@ -450,13 +657,20 @@ public abstract class DumpIndex<E> implements Closeable {
 
    protected abstract void initLookupMap();
 
+   /**
+    * @return true, if the lookup file doesn't exist or is empty, so the index has to be rebuilt from a non-empty dump
+    */
+   protected boolean isLookupFileMissing() {
+      return !_lookupFile.exists() || (_lookupFile.length() == 0 && _lookupFile.isFile());
+   }
+
    protected void initLookupOutputStream() {
       try {
 
          FileOutputStream fileOutputStream = new FileOutputStream(_lookupFile, true);
          _lookupOutputStreamChannel = fileOutputStream.getChannel();
 
-         if ( !_fieldIsInt && !_fieldIsLong && !_fieldIsString ) {
+         if ( !_fieldIsInt && !_fieldIsLong && !_fieldIsString && !_fieldIsComposite ) {
             if ( _fieldIsExternalizable ) {
                _lookupOutputStream = new SingleTypeObjectOutputStream(new BufferedOutputStream(fileOutputStream), _fieldAccessor.getType());
             } else {
@@ -473,21 +687,126 @@ public abstract class DumpIndex<E> implements Closeable {
 
    protected abstract void load();
 
+   /**
+    * Packs the composite key of the element without creating a {@link CompositeKey}.
+    * @return a buffer of {@link CompositeFieldAccessor#getKeyLength()} bytes, which is overwritten by the next invocation
+    */
+   protected byte[] packCompositeKey( E o ) {
+      try {
+         ((CompositeFieldAccessor)_fieldAccessor).writeKey(o, _compositeKey);
+      }
+      catch ( Exception argh ) {
+         throw new RuntimeException(argh);
+      }
+      return _compositeKey;
+   }
+
+   /**
+    * Reads a position written by {@link #writePosition(DataOutput, long)}.
+    */
+   protected long readPosition( DataInput in ) throws IOException {
+      if ( getPositionBytes() == 8 ) {
+         return in.readLong();
+      }
+      long high = in.readUnsignedByte();
+      return (high << 32) | (in.readInt() & 0xFFFFFFFFL);
+   }
+
+   /**
+    * @return true if the index type can be queried consistently while it is rebuilt in the background, i.e. it waits in all
+    *          its queries using {@link #checkRebuilt()}
+    */
+   protected boolean supportsBackgroundRebuild() {
+      return false;
+   }
+
+   /**
+    * @return true if {@link #add(Object, long)} of the undeleted elements yields the same index as a rebuild, starting with
+    *          a loaded or an empty lookup. Such an index can be recovered from the checkpoint written with its meta by adding the
+    *          elements appended to the dump since, and its lookup file can be compacted, see {@link #compactLookupFile()}
+    */
+   protected boolean supportsReplay() {
+      return false;
+   }
+
+   /**
+    * @return true if the index type reads and writes all positions of its lookup file with {@link #readPosition(DataInput)} and
+    *          {@link #writePosition(DataOutput, long)}, so it can use {@link IndexOption#packedPositions}
+    */
+   protected boolean supportsPackedPositions() {
+      return false;
+   }
+
    protected void writeMeta() throws IOException {
+      boolean rebuilding = _rebuildPos < _rebuildEnd;
+      boolean checkpoint = !rebuilding && supportsReplay();
+      if ( checkpoint ) {
+         flush();
+         if ( _updatesOutput != null ) {
+            _updatesOutput.flush();
+         }
+      }
       RandomAccessFile metaRAF = getMetaRAF();
       metaRAF.seek(0);
-      metaRAF.writeLong(_dump._sequence);
+      metaRAF.writeLong(rebuilding ? -1 : _dump._sequence); // an incomplete rebuild must be restarted
       metaRAF.writeUTF(_dump._beanClass.getName());
       metaRAF.writeUTF(getIndexType());
+      if ( checkpoint ) {
+         metaRAF.writeUTF(CHECKPOINT_DUMP_POSITION_META_KEY);
+         metaRAF.writeUTF("" + _dump.getDumpSize());
+         metaRAF.writeUTF(CHECKPOINT_LOOKUP_LENGTH_META_KEY);
+         metaRAF.writeUTF("" + _lookupFile.length());
+         metaRAF.writeUTF(CHECKPOINT_UPDATES_LENGTH_META_KEY);
+         metaRAF.writeUTF("" + _updatesFile.length());
+         metaRAF.writeUTF(CHECKPOINT_OVERWRITE_EPOCH_META_KEY);
+         metaRAF.writeUTF("" + _dump._overwriteEpoch);
+         _dump._overwriteEpochCheckpointed = true;
+      }
+      if ( getPositionBytes() != 8 ) {
+         metaRAF.writeUTF(POSITION_BYTES_META_KEY);
+         metaRAF.writeUTF("" + getPositionBytes());
+      }
       metaRAF.setLength(metaRAF.getFilePointer());
       metaRAF.getChannel().force(false);
    }
 
+   /**
+    * Writes a position to the lookup file, in 5 bytes with {@link IndexOption#packedPositions}.
+    * @throws IOException if a packed position exceeds 40 bits, i.e. the dump is larger than 1 TB
+    */
+   protected void writePosition( DataOutput out, long pos ) throws IOException {
+      if ( getPositionBytes() == 8 ) {
+         out.writeLong(pos);
+         return;
+      }
+      if ( pos > PackedPositionMap.MAX_POSITION ) {
+         throw new IOException("Position " + pos + " of dump " + _dump.getDumpFile() + " doesn't fit into the 40 bits of packedPositions");
+      }
+      out.writeByte((int)(pos >>> 32));
+      out.writeInt((int)pos);
+   }
+
    abstract void add( E o, long pos );
 
    abstract void delete( E o, long pos );
 
+   /**
+    * @return false if the element at <code>pos</code> is still to be read by the background rebuild, changes of this element
+    *          must not be applied to the index then, the rebuild reads its current state
+    */
+   boolean isIndexed( long pos ) {
+      return pos < _rebuildPos || pos >= _rebuildEnd;
+   }
+
    boolean isUpdatable( E oldItem, E newItem ) {
+      if ( _fieldIsComposite ) {
+         try {
+            return ((CompositeFieldAccessor)_fieldAccessor).keyEquals(oldItem, newItem);
+         }
+         catch ( Exception argh ) {
+            throw new RuntimeException(argh);
+         }
+      }
       Object oldKey = getObjectKey(oldItem);
       if ( oldKey == null ) {
          return false;
@@ -501,6 +820,203 @@ public abstract class DumpIndex<E> implements Closeable {
 
    abstract void update( long pos, E oldItem, E newItem );
 
+   /**
+    * Adds the undeleted elements in [<code>pos</code>, <code>end</code>) of the dump to the index, at most <code>maxElements</code>.
+    * The caller must hold the lock of the dump.
+    * @return the position after the last element read
+    */
+   private long addFromDump( long pos, long end, int maxElements ) throws IOException {
+      for ( int i = 0; i < maxElements && pos < end; i++ ) {
+         E e = _dump.get(pos); // null for deleted elements
+         long nextPos = _dump._nextItemPos.get();
+         if ( nextPos <= pos ) {
+            throw new IOException("Failed to read element at position " + pos + " from dump " + _dump.getDumpFile());
+         }
+         if ( e != null ) {
+            add(e, pos);
+         }
+         pos = nextPos;
+      }
+      return pos;
+   }
+
+   /**
+    * Compacts the lookup file after loading if the share of outdated entries exceeds {@link #COMPACTION_THRESHOLD}.
+    */
+   private void compactIfNeeded() {
+      if ( !supportsReplay() ) {
+         return;
+      }
+      int numOutdatedEntries = _numLoadedLookupEntries - getAllPositions().size();
+      if ( numOutdatedEntries > COMPACTION_MIN_OUTDATED_ENTRIES && numOutdatedEntries > _numLoadedLookupEntries * COMPACTION_THRESHOLD ) {
+         try {
+            compactLookupFile();
+         }
+         catch ( IOException argh ) {
+            throw new RuntimeException("Failed to compact index " + _lookupFile, argh);
+         }
+      }
+   }
+
+   /**
+    * Checks whether the index can be recovered from the checkpoint in its meta and truncates the lookup and updates files to
+    * the checkpoint then. The checkpoint is unusable if the dump was overwritten in place or pruned since, or if any of the
+    * files is shorter than at the checkpoint, e.g. because the dump wasn't flushed before a crash.
+    * @return the position in the dump from which on the elements must be added to the index, or -1 if it must be rebuilt
+    */
+   private long prepareRecovery( IndexMeta meta ) {
+      if ( !_dump._beanClass.getName().equals(meta._beanClassName) || !getIndexType().equals(meta._indexType) || !_lookupFile.isFile() ) {
+         return -1;
+      }
+      long dumpPos, lookupLength, updatesLength, overwriteEpoch;
+      try {
+         dumpPos = Long.parseLong(meta.getMetaValue(CHECKPOINT_DUMP_POSITION_META_KEY));
+         lookupLength = Long.parseLong(meta.getMetaValue(CHECKPOINT_LOOKUP_LENGTH_META_KEY));
+         updatesLength = Long.parseLong(meta.getMetaValue(CHECKPOINT_UPDATES_LENGTH_META_KEY));
+         overwriteEpoch = Long.parseLong(meta.getMetaValue(CHECKPOINT_OVERWRITE_EPOCH_META_KEY));
+      }
+      catch ( NumberFormatException argh ) {
+         LOG.warn("Ignoring invalid checkpoint of index " + _lookupFile, argh);
+         return -1;
+      }
+      if ( overwriteEpoch != _dump._overwriteEpoch || dumpPos > _dump.getDumpFile().length() || lookupLength > _lookupFile.length()
+         || updatesLength > _updatesFile.length() ) {
+         return -1;
+      }
+
+      try {
+         truncate(_lookupFile, lookupLength);
+         if ( _updatesFile.exists() ) {
+            truncate(_updatesFile, updatesLength);
+         }
+      }
+      catch ( IOException argh ) {
+         LOG.warn("Failed to truncate index " + _lookupFile + " to its checkpoint", argh);
+         return -1;
+      }
+      return dumpPos;
+   }
+
+   /**
+    * Adds the elements appended to the dump after the checkpoint at <code>pos</code> to the loaded index. Elements deleted
+    * since are skipped by {@link #load()} already.
+    */
+   private void recover( long pos ) {
+      long end = _dump.getDumpSize();
+      if ( pos == end ) {
+         return;
+      }
+      long t = System.currentTimeMillis();
+      try {
+         addFromDump(pos, end, Integer.MAX_VALUE);
+         writeMeta();
+      }
+      catch ( IOException argh ) {
+         throw new RuntimeException("Failed to recover index " + _lookupFile + " from its checkpoint", argh);
+      }
+      LOG.info("Recovered index {} from its checkpoint by reading {} bytes of the dump in {} ms", _lookupFile, end - pos,
+            System.currentTimeMillis() - t);
+   }
+
+   private void rebuild() {
+      long t = System.currentTimeMillis();
+      try {
+         while ( true ) {
+            synchronized ( _dump ) {
+               if ( _rebuildCancelled ) {
+                  LOG.info("Cancelled rebuild of index {} at {}%", _lookupFile, (int)(getRebuildProgress() * 100));
+                  return;
+               }
+               long pos = addFromDump(_rebuildPos, _rebuildEnd, REBUILD_CHUNK_SIZE);
+               if ( pos < _rebuildEnd ) {
+                  _rebuildPos = pos;
+               } else {
+                  _rebuildPos = 0;
+                  _rebuildEnd = 0;
+                  writeMeta();
+                  LOG.info("Rebuilt index {} in background in {} ms", _lookupFile, System.currentTimeMillis() - t);
+                  return;
+               }
+            }
+         }
+      }
+      catch ( Throwable argh ) {
+         LOG.error("Failed to rebuild index " + _lookupFile + " in background", argh);
+         _rebuildFailure = argh;
+      }
+      finally {
+         synchronized ( _dump ) {
+            _rebuildThread = null;
+            _dump.notifyAll();
+         }
+      }
+   }
+
+   private void truncate( File file, long length ) throws IOException {
+      if ( file.length() > length ) {
+         try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+         }
+      }
+   }
+
+   private void startRebuild() {
+      LOG.info("Rebuilding index {} of {} bytes in background", _lookupFile, _rebuildEnd);
+      _rebuildThread = new Thread(this::rebuild, "DumpIndex rebuild " + _lookupFile.getName());
+      _rebuildThread.setDaemon(true);
+      _rebuildThread.start();
+   }
+
+   /**
+    * This enum is used to tune the in-memory representation of an index.
+    */
+   public enum IndexOption {
+      /**
+       * keep String keys of {@link UniqueIndex} and {@link GroupIndex} as UTF-8 bytes in a few large arrays instead of one
+       * String instance per key. Lookups are a bit slower, but the memory footprint is much smaller and the gc has far less
+       * objects to trace
+       */
+      compactStringKeys, //
+      /**
+       * keep only a 64-bit hash of Object keys of {@link UniqueIndex} and the position in memory. Lookups read the element from
+       * the dump and compare its key, colliding hashes are kept in a small overflow map. The memory footprint is about 20 bytes
+       * per key, regardless of the size of the key, which pays off for long String keys like URLs or large Externalizable keys.
+       * Takes precedence over {@link #compactStringKeys}
+       */
+      hashedKeys, //
+      /**
+       * rebuild an invalid index in a background thread instead of in the constructor, so the dump is usable right away.
+       * Queries of the index wait until the rebuild finished, see {@link DumpIndex#setRebuildWaitTimeout(long, TimeUnit)},
+       * {@link DumpIndex#awaitRebuild(long, TimeUnit)} and {@link DumpIndex#getRebuildProgress()}. The dump is only locked for short chunks of
+       * the rebuild, so other indexes and the dump itself can be used meanwhile. Ignored by index types which don't support
+       * it, currently only {@link UniqueIndex} and {@link GroupIndex} do.
+       */
+      backgroundRebuild, //
+      /**
+       * store positions in 5 instead of 8 bytes, in the lookup file and, for <code>int</code> and <code>long</code> keys of a
+       * {@link UniqueIndex}, in memory, which limits the dump to 1 TB. The positions take almost 40% less space then, and a
+       * {@link UniqueIndex} over int keys needs about half the memory, since its map has a higher load factor, too. Switching
+       * this on or off rebuilds the index. Ignored by index types which don't support it, currently only {@link UniqueIndex}
+       * and {@link GroupIndex} do. A {@link GroupIndex} packs the positions of its lookup file only, its posting lists in
+       * memory are compressed anyway.
+       */
+      packedPositions, //
+   }
+
+
+   /**
+    * This Exception is thrown by queries of an index which is still being rebuilt in the background after the configured timeout.
+    */
+   public static class IndexRebuildingException extends RuntimeException {
+
+      private static final long serialVersionUID = 3151460286436389562L;
+
+      public IndexRebuildingException( String message ) {
+         super(message);
+      }
+   }
+
+
    public static class IndexMeta {
 
       long                _dumpSequence;
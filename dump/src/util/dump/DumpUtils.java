@@ -251,6 +251,15 @@ public class DumpUtils {
          bytearr = new byte[utflen * 2];
          _readUTFReusableByteArray.set(bytearr);
       }
+      in.readFully(bytearr, 0, utflen);
+      return decodeUTF(bytearr, utflen);
+   }
+
+   /**
+    * @return the String of the first <code>utflen</code> bytes of <code>bytearr</code> in modified UTF-8 encoding, the inverse of
+    *         {@link #encodeUTF(CharSequence, byte[], int)}
+    */
+   static String decodeUTF( byte[] bytearr, int utflen ) throws UTFDataFormatException {
       char[] chararr = _readUTFReusableCharArray.get();
       if ( chararr.length < utflen ) {
          chararr = new char[utflen * 2];
@@ -261,8 +270,6 @@ public class DumpUtils {
       int count = 0;
       int chararr_count = 0;
 
-      in.readFully(bytearr, 0, utflen);
-
       while ( count < utflen ) {
          c = bytearr[count] & 0xff;
          if ( c > 127 ) {
@@ -356,21 +363,8 @@ public class DumpUtils {
    /** this is an extension of {@link java.io.DataOutputStream.writeUTF()} which allows more than 65535 chars. 
     * Use with readUtf() from this class. */
    public static int writeUTF( String str, DataOutput out ) throws IOException {
-      int strlen = str.length();
-      int utflen = 0;
-      int c, count = 0;
-
-      /* use charAt instead of copying String to char array */
-      for ( int i = 0; i < strlen; i++ ) {
-         c = str.charAt(i);
-         if ( (c >= 0x0001) && (c <= 0x007F) ) {
-            utflen++;
-         } else if ( c > 0x07FF ) {
-            utflen += 3;
-         } else {
-            utflen += 2;
-         }
-      }
+      int utflen = utfLength(str);
+      int count = 0;
 
       int headerLength = utflen >= 65535 ? 6 : 2;
 
@@ -390,30 +384,60 @@ public class DumpUtils {
       bytearr[count++] = (byte)((utflen >>> 8) & 0xFF);
       bytearr[count++] = (byte)((utflen >>> 0) & 0xFF);
 
+      encodeUTF(str, bytearr, count);
+      out.write(bytearr, 0, utflen + headerLength);
+      return utflen + headerLength;
+   }
+
+   /**
+    * @return the length of the modified UTF-8 encoding of <code>s</code> without the length header of
+    *         {@link java.io.DataOutput#writeUTF(String)}
+    */
+   static int utfLength( CharSequence s ) {
+      int strlen = s.length();
+      int utflen = strlen;
+      for ( int i = 0; i < strlen; i++ ) {
+         char c = s.charAt(i);
+         if ( !((c >= 0x0001) && (c <= 0x007F)) ) {
+            utflen += c > 0x07FF ? 2 : 1;
+         }
+      }
+      return utflen;
+   }
+
+   /**
+    * Writes the modified UTF-8 encoding of <code>s</code> to <code>bytes</code>, which needs room for
+    * {@link #utfLength(CharSequence)} bytes after <code>offset</code>.
+    * @return the offset after the last byte written
+    */
+   static int encodeUTF( CharSequence s, byte[] bytes, int offset ) {
+      int strlen = s.length();
+      int count = offset;
+
+      /* use charAt instead of copying the chars to an array */
       int i = 0;
       for ( i = 0; i < strlen; i++ ) {
-         c = str.charAt(i);
+         char c = s.charAt(i);
          if ( !((c >= 0x0001) && (c <= 0x007F)) ) {
             break;
          }
-         bytearr[count++] = (byte)c;
+         bytes[count++] = (byte)c;
       }
 
       for ( ; i < strlen; i++ ) {
-         c = str.charAt(i);
+         char c = s.charAt(i);
          if ( (c >= 0x0001) && (c <= 0x007F) ) {
-            bytearr[count++] = (byte)c;
+            bytes[count++] = (byte)c;
 
          } else if ( c > 0x07FF ) {
-            bytearr[count++] = (byte)(0xE0 | ((c >> 12) & 0x0F));
-            bytearr[count++] = (byte)(0x80 | ((c >> 6) & 0x3F));
-            bytearr[count++] = (byte)(0x80 | ((c >> 0) & 0x3F));
+            bytes[count++] = (byte)(0xE0 | ((c >> 12) & 0x0F));
+            bytes[count++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            bytes[count++] = (byte)(0x80 | ((c >> 0) & 0x3F));
          } else {
-            bytearr[count++] = (byte)(0xC0 | ((c >> 6) & 0x1F));
-            bytearr[count++] = (byte)(0x80 | ((c >> 0) & 0x3F));
+            bytes[count++] = (byte)(0xC0 | ((c >> 6) & 0x1F));
+            bytes[count++] = (byte)(0x80 | ((c >> 0) & 0x3F));
          }
       }
-      out.write(bytearr, 0, utflen + headerLength);
-      return utflen + headerLength;
+      return count;
    }
 }
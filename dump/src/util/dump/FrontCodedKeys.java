@@ -0,0 +1,252 @@
+package util.dump;
+
+import java.util.Arrays;
+
+
+/**
+ * An immutable dictionary of distinct byte string keys in ascending unsigned byte order, used for the modified UTF-8
+ * encoded keys of a {@link PrefixIndex}.<p/>
+ *
+ * The keys are front coded in blocks of {@link #BLOCK_SIZE} keys: the first key of each block is stored completely, all
+ * others as the length of the prefix they share with their predecessor and the remaining suffix. Sorted keys like SKUs or
+ * URLs share long prefixes, so this usually takes less memory than the keys themselves, and there are no objects per key.<p/>
+ *
+ * A key is found by a binary search over the first keys of the blocks followed by a scan of at most one block. Keys are
+ * addressed by their index in the sort order. Thread-safe, but a {@link Cursor} is not.
+ */
+final class FrontCodedKeys {
+
+   static final int BLOCK_SIZE = 16;
+
+   static final FrontCodedKeys EMPTY = new Builder().build();
+
+
+   static int compare( byte[] a, int aLength, byte[] b, int bLength ) {
+      for ( int i = 0, length = Math.min(aLength, bLength); i < length; i++ ) {
+         int diff = (a[i] & 0xff) - (b[i] & 0xff);
+         if ( diff != 0 ) {
+            return diff;
+         }
+      }
+      return aLength - bLength;
+   }
+
+   private final byte[] _bytes;
+   private final int[]  _blockOffsets;
+   private final int    _size;
+
+
+   private FrontCodedKeys( byte[] bytes, int[] blockOffsets, int size ) {
+      _bytes = bytes;
+      _blockOffsets = blockOffsets;
+      _size = size;
+   }
+
+   /**
+    * @return the index of the smallest key not less than the given key, or {@link #size()}
+    */
+   int ceilingIndex( byte[] key, int length ) {
+      // the last block starting with a key not greater than the given one
+      int low = 0;
+      int high = _blockOffsets.length - 1;
+      while ( low < high ) {
+         int mid = (low + high + 1) >>> 1;
+         if ( compareBlockHead(mid, key, length) <= 0 ) {
+            low = mid;
+         } else {
+            high = mid - 1;
+         }
+      }
+      Cursor cursor = cursor(low * BLOCK_SIZE);
+      while ( cursor.hasKey() && compare(cursor._key, cursor._length, key, length) < 0 ) {
+         cursor.next();
+      }
+      return cursor._index;
+   }
+
+   /**
+    * @return a cursor positioned at the key with the given index
+    */
+   Cursor cursor( int index ) {
+      return new Cursor(index);
+   }
+
+   /**
+    * @return the index of the key, or -1 if it is not contained
+    */
+   int indexOf( byte[] key, int length ) {
+      int index = ceilingIndex(key, length);
+      if ( index < _size ) {
+         Cursor cursor = cursor(index);
+         if ( compare(cursor._key, cursor._length, key, length) == 0 ) {
+            return index;
+         }
+      }
+      return -1;
+   }
+
+   int size() {
+      return _size;
+   }
+
+   private int compareBlockHead( int block, byte[] key, int length ) {
+      int p = _blockOffsets[block] + 1; // the shared length of the first key of a block is a single 0 byte
+      int headLength = 0;
+      for ( int shift = 0; ; shift += 7 ) {
+         int b = _bytes[p++];
+         headLength |= (b & 0x7F) << shift;
+         if ( b >= 0 ) {
+            break;
+         }
+      }
+      for ( int i = 0, n = Math.min(headLength, length); i < n; i++ ) {
+         int diff = (_bytes[p + i] & 0xff) - (key[i] & 0xff);
+         if ( diff != 0 ) {
+            return diff;
+         }
+      }
+      return headLength - length;
+   }
+
+
+   /**
+    * Collects keys in strictly ascending order.
+    */
+   static final class Builder {
+
+      private byte[] _bytes        = new byte[256];
+      private int    _n;
+      private int[]  _blockOffsets = new int[16];
+      private int    _size;
+      private byte[] _lastKey      = new byte[64];
+      private int    _lastLength;
+
+
+      void add( byte[] key, int offset, int length ) {
+         int shared = 0;
+         if ( _size % BLOCK_SIZE == 0 ) {
+            if ( _size / BLOCK_SIZE == _blockOffsets.length ) {
+               _blockOffsets = Arrays.copyOf(_blockOffsets, _blockOffsets.length * 2);
+            }
+            _blockOffsets[_size / BLOCK_SIZE] = _n;
+         } else {
+            int max = Math.min(_lastLength, length);
+            while ( shared < max && _lastKey[shared] == key[offset + shared] ) {
+               shared++;
+            }
+         }
+         ensureCapacity(10 + length - shared);
+         writeVarInt(shared);
+         writeVarInt(length - shared);
+         System.arraycopy(key, offset + shared, _bytes, _n, length - shared);
+         _n += length - shared;
+
+         if ( length > _lastKey.length ) {
+            _lastKey = Arrays.copyOf(_lastKey, Math.max(length, _lastKey.length * 2));
+         }
+         System.arraycopy(key, offset, _lastKey, 0, length);
+         _lastLength = length;
+         _size++;
+      }
+
+      FrontCodedKeys build() {
+         int numBlocks = (_size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+         return new FrontCodedKeys(Arrays.copyOf(_bytes, _n), Arrays.copyOf(_blockOffsets, numBlocks), _size);
+      }
+
+      private void ensureCapacity( int needed ) {
+         if ( _n + needed > _bytes.length ) {
+            _bytes = Arrays.copyOf(_bytes, Math.max(_n + needed, _bytes.length * 2));
+         }
+      }
+
+      private void writeVarInt( int i ) {
+         while ( i >= 0x80 ) {
+            _bytes[_n++] = (byte)(i | 0x80);
+            i >>>= 7;
+         }
+         _bytes[_n++] = (byte)i;
+      }
+   }
+
+
+   /**
+    * Decodes the keys one after the other, starting at any index.
+    */
+   final class Cursor {
+
+      private byte[] _key = new byte[64];
+      private int    _length;
+      private int    _index;
+      private int    _offset;
+
+
+      private Cursor( int index ) {
+         _index = index - index % BLOCK_SIZE;
+         if ( _index < _size ) {
+            _offset = _blockOffsets[_index / BLOCK_SIZE];
+            decode();
+            while ( _index < index && hasKey() ) {
+               next();
+            }
+         }
+      }
+
+      boolean hasKey() {
+         return _index < _size;
+      }
+
+      int index() {
+         return _index;
+      }
+
+      byte[] key() {
+         return _key;
+      }
+
+      int length() {
+         return _length;
+      }
+
+      void next() {
+         _index++;
+         if ( _index < _size ) {
+            decode();
+         }
+      }
+
+      boolean startsWith( byte[] prefix, int length ) {
+         if ( _length < length ) {
+            return false;
+         }
+         for ( int i = 0; i < length; i++ ) {
+            if ( _key[i] != prefix[i] ) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      private void decode() {
+         int shared = readVarInt();
+         int suffixLength = readVarInt();
+         _length = shared + suffixLength;
+         if ( _length > _key.length ) {
+            _key = Arrays.copyOf(_key, Math.max(_length, _key.length * 2));
+         }
+         System.arraycopy(_bytes, _offset, _key, shared, suffixLength);
+         _offset += suffixLength;
+      }
+
+      private int readVarInt() {
+         int i = 0;
+         for ( int shift = 0; ; shift += 7 ) {
+            int b = _bytes[_offset++];
+            i |= (b & 0x7F) << shift;
+            if ( b >= 0 ) {
+               return i;
+            }
+         }
+      }
+   }
+}
@@ -9,22 +9,28 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
+import gnu.trove.impl.Constants;
 import gnu.trove.list.TLongList;
 import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TLongIntMap;
 import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TIntLongHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongLongHashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
 import gnu.trove.procedure.TIntObjectProcedure;
 import gnu.trove.procedure.TLongObjectProcedure;
+import gnu.trove.procedure.TLongProcedure;
 import util.dump.stream.ExternalizableObjectInputStream;
 import util.dump.stream.SingleTypeObjectInputStream;
 import util.dump.reflection.FieldAccessor;
@@ -42,28 +48,7 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
       if ( positions == null ) {
          return new Positions();
       }
-      int length = positions.size();
-      if ( length == 0 ) {
-         return positions;
-      }
-
-      if ( length == 1 ) {
-         return pos == positions.get(0) ? new Positions() : positions;
-      }
-
-      int idx = length - 1;
-      for ( ; idx >= 0; idx-- ) {
-         if ( positions.getQuick(idx) == pos ) {
-            break;
-         }
-      }
-
-      if ( idx < 0 ) {
-         // no element found
-         return positions;
-      }
-
-      positions.remove(idx, 1);
+      positions.remove(pos);
 
       return positions;
    }
@@ -72,15 +57,23 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
    protected Map<Object, Positions>    _lookupObject;
    protected TLongObjectMap<Positions> _lookupLong;
    protected TIntObjectMap<Positions>  _lookupInt;
+   /** only used instead of {@link #_lookupObject} with {@link IndexOption#compactStringKeys} */
+   protected StringKeyObjectMap<Positions> _lookupString;
+
+   /* keys with a single position are kept in these maps instead of the maps above, to save the Positions instances */
+   protected TObjectLongHashMap<Object> _singleObject;
+   protected TLongLongHashMap           _singleLong;
+   protected TIntLongHashMap            _singleInt;
+   protected StringKeyLongMap           _singleString;
 
 
-   public GroupIndex( Dump<E> dump, FieldAccessor fieldAccessor ) {
-      super(dump, fieldAccessor);
+   public GroupIndex( Dump<E> dump, FieldAccessor fieldAccessor, IndexOption... options ) {
+      super(dump, fieldAccessor, options);
       init();
    }
 
-   public GroupIndex( Dump<E> dump, String fieldName ) throws NoSuchFieldException {
-      super(dump, fieldName);
+   public GroupIndex( Dump<E> dump, String fieldName, IndexOption... options ) throws NoSuchFieldException {
+      super(dump, fieldName, options);
       init();
    }
 
@@ -91,69 +84,67 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
 
    @Override
    public void add( E o, long pos ) {
-      try {
-         if ( _fieldIsInt ) {
-            int key = getIntKey(o);
-            Positions positions = _lookupInt.get(key);
-            positions = addPosition(positions, pos);
-            _lookupInt.put(key, positions);
-            _lookupOutputStream.writeInt(key);
-         } else if ( _fieldIsLong ) {
-            long key = getLongKey(o);
-            Positions positions = _lookupLong.get(key);
-            positions = addPosition(positions, pos);
-            _lookupLong.put(key, positions);
-            _lookupOutputStream.writeLong(key);
-         } else {
-            Object key = getObjectKey(o);
-            if ( key == null ) {
-               return;
-            }
-            Positions positions = _lookupObject.get(key);
-            positions = addPosition(positions, pos);
-            _lookupObject.put(key, positions);
-            if ( _fieldIsString ) {
-               _lookupOutputStream.writeUTF(key.toString());
-            } else {
-               ((ObjectOutput)_lookupOutputStream).writeObject(key);
-            }
+      if ( _fieldIsInt ) {
+         addKey(getIntKey(o), pos);
+      } else if ( _fieldIsLong ) {
+         addKey(getLongKey(o), pos);
+      } else if ( _fieldIsComposite ) {
+         try {
+            byte[] key = packCompositeKey(o);
+            addPosition(_lookupString, key, pos);
+            // the same framing as writeUTF(.), so the lookup file is loaded like compact String keys
+            _lookupOutputStream.writeShort(key.length);
+            _lookupOutputStream.write(key);
+            writePosition(_lookupOutputStream, pos);
+         }
+         catch ( IOException argh ) {
+            throw new RuntimeException("Failed to add key to index " + getLookupFile(), argh);
+         }
+      } else {
+         Object key = getObjectKey(o);
+         if ( key != null ) {
+            addKey(key, pos);
          }
-
-         _lookupOutputStream.writeLong(pos);
-      }
-      catch ( IOException argh ) {
-         throw new RuntimeException("Failed to add key to index " + getLookupFile(), argh);
       }
    }
 
    @Override
    public boolean contains( int key ) {
+      checkRebuilt();
       synchronized ( _dump ) {
          if ( !_fieldIsInt ) {
             throw new IllegalArgumentException(
                "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate contains(.) method.");
          }
+         long single = _singleInt.get(key);
+         if ( single >= 0 ) {
+            return !_dump._deletedPositions.contains(single);
+         }
          Positions pos = _lookupInt.get(key);
-         ensureSorting(pos);
          return contains(pos);
       }
    }
 
    @Override
    public boolean contains( long key ) {
+      checkRebuilt();
       synchronized ( _dump ) {
          if ( !_fieldIsLong ) {
             throw new IllegalArgumentException(
                "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate contains(.) method.");
          }
+         long single = _singleLong.get(key);
+         if ( single >= 0 ) {
+            return !_dump._deletedPositions.contains(single);
+         }
          Positions pos = _lookupLong.get(key);
-         ensureSorting(pos);
          return contains(pos);
       }
    }
 
    @Override
    public boolean contains( Object key ) {
+      checkRebuilt();
       synchronized ( _dump ) {
          if ( (_fieldIsLong || _fieldIsLongObject) && key instanceof Long ) {
             return contains(((Long)key).longValue());
@@ -165,24 +156,89 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
             throw new IllegalArgumentException(
                "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate contains(.) method.");
          }
-         Positions pos = _lookupObject.get(key);
-         ensureSorting(pos);
+         long single = getObjectSingle(key);
+         if ( single >= 0 ) {
+            return !_dump._deletedPositions.contains(single);
+         }
+         Positions pos = getObjectPositions(key);
          return contains(pos);
       }
    }
 
+   @Override
+   public int count( int key ) {
+      checkRebuilt();
+      synchronized ( _dump ) {
+         if ( !_fieldIsInt ) {
+            throw new IllegalArgumentException(
+               "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate count(.) method.");
+         }
+         long single = _singleInt.get(key);
+         if ( single >= 0 ) {
+            return _dump._deletedPositions.contains(single) ? 0 : 1;
+         }
+         return countLivePositions(_lookupInt.get(key));
+      }
+   }
+
+   @Override
+   public int count( long key ) {
+      checkRebuilt();
+      synchronized ( _dump ) {
+         if ( !_fieldIsLong ) {
+            throw new IllegalArgumentException(
+               "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate count(.) method.");
+         }
+         long single = _singleLong.get(key);
+         if ( single >= 0 ) {
+            return _dump._deletedPositions.contains(single) ? 0 : 1;
+         }
+         return countLivePositions(_lookupLong.get(key));
+      }
+   }
+
+   @Override
+   public int count( Object key ) {
+      checkRebuilt();
+      synchronized ( _dump ) {
+         if ( (_fieldIsLong || _fieldIsLongObject) && key instanceof Long ) {
+            return count(((Long)key).longValue());
+         }
+         if ( (_fieldIsInt || _fieldIsIntObject) && key instanceof Integer ) {
+            return count(((Integer)key).intValue());
+         }
+         if ( _fieldIsLong || _fieldIsInt ) {
+            throw new IllegalArgumentException(
+               "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate count(.) method.");
+         }
+         long single = getObjectSingle(key);
+         if ( single >= 0 ) {
+            return _dump._deletedPositions.contains(single) ? 0 : 1;
+         }
+         return countLivePositions(getObjectPositions(key));
+      }
+   }
+
    @Override
    public TLongList getAllPositions() {
+      checkRebuilt();
       TLongList pos = new TLongArrayList(100000);
-      Collection<Positions> c = _fieldIsInt ? _lookupInt.valueCollection() : (_fieldIsLong ? _lookupLong.valueCollection() : _lookupObject.values());
+      long[] singles = _fieldIsInt ? _singleInt.values()
+            : (_fieldIsLong ? _singleLong.values() : (_singleString != null ? _singleString.values() : _singleObject.values()));
+      for ( long p : singles ) {
+         if ( !_dump._deletedPositions.contains(p) ) {
+            pos.add(p);
+         }
+      }
+      Collection<Positions> c = _fieldIsInt ? _lookupInt.valueCollection()
+            : (_fieldIsLong ? _lookupLong.valueCollection() : (_lookupString != null ? _lookupString.values() : _lookupObject.values()));
       for ( Positions p : c ) {
-         ensureSorting(p);
-         for ( int i = 0, length = p.size(); i < length; i++ ) {
-            long pp = p.get(i);
+         p.forEach(pp -> {
             if ( !_dump._deletedPositions.contains(pp) ) {
                pos.add(pp);
             }
-         }
+            return true;
+         });
       }
       pos.sort();
       return pos;
@@ -190,41 +246,77 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
 
    @Override
    public int getNumKeys() {
+      checkRebuilt();
+      if ( _lookupString != null ) {
+         return _lookupString.size() + _singleString.size();
+      }
       if ( _lookupObject != null ) {
-         return _lookupObject.size();
+         return _lookupObject.size() + _singleObject.size();
       }
       if ( _lookupLong != null ) {
-         return _lookupLong.size();
+         return _lookupLong.size() + _singleLong.size();
       }
       if ( _lookupInt != null ) {
-         return _lookupInt.size();
+         return _lookupInt.size() + _singleInt.size();
       }
       throw new IllegalStateException("weird, all lookup maps are null");
    }
 
+   /**
+    * Same as {@link #count(long)}.
+    */
    public int getNumValues( long key ) {
-      synchronized ( _dump ) {
-         long[] pos = getPositions(key);
-         return countLivePositions(pos);
-      }
+      return count(key);
    }
 
+   /**
+    * Same as {@link #count(Object)}.
+    */
    public int getNumValues( Object key ) {
-      synchronized ( _dump ) {
-         long[] pos = getPositions(key);
-         return countLivePositions(pos);
-      }
+      return count(key);
    }
 
+   /**
+    * Same as {@link #count(int)}.
+    */
    public int getNumValues( int key ) {
-      synchronized ( _dump ) {
-         long[] pos = getPositions(key);
-         return countLivePositions(pos);
+      return count(key);
+   }
+
+   /**
+    * @return the number of positions stored for the key without decoding them, including deleted positions
+    */
+   int getNumPositions( Object key ) {
+      if ( _fieldIsInt && key instanceof Integer ) {
+         int k = (Integer)key;
+         if ( _singleInt.get(k) >= 0 ) {
+            return 1;
+         }
+         Positions pos = _lookupInt.get(k);
+         return pos == null ? 0 : pos.size();
+      }
+      if ( _fieldIsLong && key instanceof Long ) {
+         long k = (Long)key;
+         if ( _singleLong.get(k) >= 0 ) {
+            return 1;
+         }
+         Positions pos = _lookupLong.get(k);
+         return pos == null ? 0 : pos.size();
+      }
+      if ( _fieldIsLong || _fieldIsInt ) {
+         throw new IllegalArgumentException(
+            "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate lookup(.) method.");
+      }
+      if ( getObjectSingle(key) >= 0 ) {
+         return 1;
       }
+      Positions pos = getObjectPositions(key);
+      return pos == null ? 0 : pos.size();
    }
 
    @Override
    public Iterable<E> lookup( int key ) {
+      checkRebuilt();
       synchronized ( _dump ) {
          long[] pos = getPositions(key);
          return new GroupIterable(pos);
@@ -233,6 +325,7 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
 
    @Override
    public Iterable<E> lookup( long key ) {
+      checkRebuilt();
       synchronized ( _dump ) {
          long[] pos = getPositions(key);
          return new GroupIterable(pos);
@@ -241,12 +334,136 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
 
    @Override
    public Iterable<E> lookup( Object key ) {
+      checkRebuilt();
       synchronized ( _dump ) {
          long[] pos = getPositions(key);
          return new GroupIterable(pos);
       }
    }
 
+   @Override
+   public PositionSet positions( int key ) {
+      checkRebuilt();
+      synchronized ( _dump ) {
+         return PositionSet.ofSorted(getPositions(key)).withoutDeleted(_dump._deletedPositions);
+      }
+   }
+
+   @Override
+   public PositionSet positions( long key ) {
+      checkRebuilt();
+      synchronized ( _dump ) {
+         return PositionSet.ofSorted(getPositions(key)).withoutDeleted(_dump._deletedPositions);
+      }
+   }
+
+   @Override
+   public PositionSet positions( Object key ) {
+      checkRebuilt();
+      synchronized ( _dump ) {
+         return PositionSet.ofSorted(getPositions(key)).withoutDeleted(_dump._deletedPositions);
+      }
+   }
+
+   /**
+    * Adds a position of a key to the lookup maps and appends it to the lookup file.
+    */
+   protected void addKey( int key, long pos ) {
+      addPosition(_lookupInt, key, pos);
+      writeKey(key, pos);
+   }
+
+   /**
+    * Adds a position of a key to the lookup maps and appends it to the lookup file.
+    */
+   protected void addKey( long key, long pos ) {
+      addPosition(_lookupLong, key, pos);
+      writeKey(key, pos);
+   }
+
+   /**
+    * Adds a position of a key to the lookup maps and appends it to the lookup file.
+    */
+   protected void addKey( Object key, long pos ) {
+      if ( _lookupString != null ) {
+         addPosition(_lookupString, (String)key, pos);
+      } else {
+         addPosition(_lookupObject, key, pos);
+      }
+      writeKey(key, pos);
+   }
+
+   /**
+    * Removes a position of a key from the lookup maps, the lookup file is not changed.
+    */
+   protected void deleteKey( int key, long pos ) {
+      Positions positions = _lookupInt.get(key);
+      if ( positions == null ) {
+         if ( _singleInt.get(key) == pos ) {
+            _singleInt.remove(key);
+         }
+         return;
+      }
+      positions = removePosition(positions, pos);
+      if ( positions.size() <= 1 ) {
+         _lookupInt.remove(key);
+         if ( positions.size() == 1 ) {
+            _singleInt.put(key, positions.toArray()[0]);
+         }
+      }
+   }
+
+   /**
+    * Removes a position of a key from the lookup maps, the lookup file is not changed.
+    */
+   protected void deleteKey( long key, long pos ) {
+      Positions positions = _lookupLong.get(key);
+      if ( positions == null ) {
+         if ( _singleLong.get(key) == pos ) {
+            _singleLong.remove(key);
+         }
+         return;
+      }
+      positions = removePosition(positions, pos);
+      if ( positions.size() <= 1 ) {
+         _lookupLong.remove(key);
+         if ( positions.size() == 1 ) {
+            _singleLong.put(key, positions.toArray()[0]);
+         }
+      }
+   }
+
+   /**
+    * Removes a position of a key from the lookup maps, the lookup file is not changed.
+    */
+   protected void deleteKey( Object key, long pos ) {
+      Positions positions = getObjectPositions(key);
+      if ( positions == null ) {
+         if ( getObjectSingle(key) == pos ) {
+            if ( _singleString != null ) {
+               _singleString.remove((String)key);
+            } else {
+               _singleObject.remove(key);
+            }
+         }
+         return;
+      }
+      positions = removePosition(positions, pos);
+      if ( positions.size() <= 1 ) {
+         if ( _lookupString != null ) {
+            _lookupString.remove((String)key);
+            if ( positions.size() == 1 ) {
+               _singleString.put((String)key, positions.toArray()[0]);
+            }
+         } else {
+            _lookupObject.remove(key);
+            if ( positions.size() == 1 ) {
+               _singleObject.put(key, positions.toArray()[0]);
+            }
+         }
+      }
+   }
+
    @Override
    protected String getIndexType() {
       return GroupIndex.class.getSimpleName();
@@ -260,6 +477,10 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
          throw new IllegalArgumentException(
             "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate lookup(.) method.");
       }
+      long single = _singleInt.get(key);
+      if ( single >= 0 ) {
+         return new long[] { single };
+      }
       Positions pos = _lookupInt.get(key);
       if ( pos == null ) {
          return new long[0];
@@ -276,6 +497,10 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
          throw new IllegalArgumentException(
             "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate lookup(.) method.");
       }
+      long single = _singleLong.get(key);
+      if ( single >= 0 ) {
+         return new long[] { single };
+      }
       Positions pos = _lookupLong.get(key);
       if ( pos == null ) {
          return new long[0];
@@ -298,7 +523,11 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
          throw new IllegalArgumentException(
             "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate lookup(.) method.");
       }
-      Positions pos = _lookupObject.get(key);
+      long single = getObjectSingle(key);
+      if ( single >= 0 ) {
+         return new long[] { single };
+      }
+      Positions pos = getObjectPositions(key);
       if ( pos == null ) {
          return new long[0];
       }
@@ -322,10 +551,16 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
    protected void initLookupMap() {
       if ( _fieldIsInt ) {
          _lookupInt = new TIntObjectHashMap<>();
+         _singleInt = new TIntLongHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, 0, -1);
       } else if ( _fieldIsLong ) {
          _lookupLong = new TLongObjectHashMap<>();
+         _singleLong = new TLongLongHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, 0, -1);
+      } else if ( (_fieldIsString && hasOption(IndexOption.compactStringKeys)) || _fieldIsComposite ) {
+         _lookupString = new StringKeyObjectMap<>();
+         _singleString = new StringKeyLongMap();
       } else {
          _lookupObject = new HashMap<>();
+         _singleObject = new TObjectLongHashMap<>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1);
       }
    }
 
@@ -364,19 +599,15 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
                while ( true ) {
                   int key = in.readInt();
                   mayEOF = false;
-                  long pos = in.readLong();
+                  long pos = readPosition(in);
                   mayEOF = true;
+                  _numLoadedLookupEntries++;
                   if ( positionsToIgnore.get(pos) > 0 ) {
                      positionsToIgnore.adjustValue(pos, -1);
                      continue;
                   }
                   if ( !_dump._deletedPositions.contains(pos) ) {
-                     Positions positions = dynamicLookupInt.get(key);
-                     if ( positions == null ) {
-                        positions = new Positions();
-                        dynamicLookupInt.put(key, positions);
-                     }
-                     positions.add(pos);
+                     addPosition(dynamicLookupInt, key, pos);
                   }
                }
             }
@@ -405,11 +636,13 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
                @Override
                public boolean execute( int key, Positions positions ) {
                   positions.sort();
+                  positions.trimToSize();
                   lookupInt.put(key, positions);
                   return true;
                }
             });
             _lookupInt = lookupInt;
+            _singleInt.compact();
 
          } else if ( _fieldIsLong ) {
             TLongObjectMap<Positions> dynamicLookupLong = new TLongObjectHashMap<>(10000);
@@ -419,19 +652,15 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
                while ( true ) {
                   long key = in.readLong();
                   mayEOF = false;
-                  long pos = in.readLong();
+                  long pos = readPosition(in);
                   mayEOF = true;
+                  _numLoadedLookupEntries++;
                   if ( positionsToIgnore.get(pos) > 0 ) {
                      positionsToIgnore.adjustValue(pos, -1);
                      continue;
                   }
                   if ( !_dump._deletedPositions.contains(pos) ) {
-                     Positions positions = dynamicLookupLong.get(key);
-                     if ( positions == null ) {
-                        positions = new Positions();
-                        dynamicLookupLong.put(key, positions);
-                     }
-                     positions.add(pos);
+                     addPosition(dynamicLookupLong, key, pos);
                   }
                }
             }
@@ -460,11 +689,75 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
                @Override
                public boolean execute( long key, Positions positions ) {
                   positions.sort();
+                  positions.trimToSize();
                   lookupLong.put(key, positions);
                   return true;
                }
             });
             _lookupLong = lookupLong;
+            _singleLong.compact();
+
+         } else if ( _lookupString != null ) {
+            StringKeyObjectMap<Positions> lookupString = new StringKeyObjectMap<>(10000);
+            byte[] utf = new byte[256];
+            DataInputStream in = null;
+            try {
+               in = new DataInputStream(new BufferedInputStream(new FileInputStream(getLookupFile())));
+               while ( true ) {
+                  // the key is read as the raw bytes of writeUTF, to avoid creating a String instance per entry
+                  int length = in.readUnsignedShort();
+                  mayEOF = false;
+                  if ( length > utf.length ) {
+                     utf = new byte[Math.max(length, utf.length * 2)];
+                  }
+                  in.readFully(utf, 0, length);
+                  long pos = readPosition(in);
+                  mayEOF = true;
+                  _numLoadedLookupEntries++;
+                  if ( positionsToIgnore.get(pos) > 0 ) {
+                     positionsToIgnore.adjustValue(pos, -1);
+                     continue;
+                  }
+                  if ( !_dump._deletedPositions.contains(pos) ) {
+                     Positions positions = lookupString.get(utf, length);
+                     if ( positions != null ) {
+                        positions.add(pos);
+                     } else {
+                        long single = _singleString.putIfAbsent(utf, length, pos);
+                        if ( single >= 0 ) {
+                           _singleString.remove(utf, length);
+                           lookupString.put(utf, length, promote(single, pos));
+                        }
+                     }
+                  }
+               }
+            }
+            catch ( EOFException argh ) {
+               if ( !mayEOF ) {
+                  throw new RuntimeException("Failed to read lookup from " + getLookupFile() + ", file is unbalanced - unexpected EoF", argh);
+               }
+            }
+            catch ( IOException argh ) {
+               throw new RuntimeException("Failed to read lookup from " + getLookupFile(), argh);
+            }
+            finally {
+               if ( in != null ) {
+                  try {
+                     in.close();
+                  }
+                  catch ( IOException argh ) {
+                     throw new RuntimeException("Failed to close input stream.", argh);
+                  }
+               }
+            }
+            // optimize memory consumption of lookup
+            for ( Positions positions : lookupString.values() ) {
+               positions.sort();
+               positions.trimToSize();
+            }
+            lookupString.compact();
+            _lookupString = lookupString;
+            _singleString.compact();
 
          } else if ( _fieldIsString ) {
             HashMap<Object, Positions> lookupObject = new HashMap<>(10000);
@@ -474,19 +767,15 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
                while ( true ) {
                   String key = in.readUTF();
                   mayEOF = false;
-                  long pos = in.readLong();
+                  long pos = readPosition(in);
                   mayEOF = true;
+                  _numLoadedLookupEntries++;
                   if ( positionsToIgnore.get(pos) > 0 ) {
                      positionsToIgnore.adjustValue(pos, -1);
                      continue;
                   }
                   if ( !_dump._deletedPositions.contains(pos) ) {
-                     Positions positions = lookupObject.get(key);
-                     if ( positions == null ) {
-                        positions = new Positions();
-                        lookupObject.put(key, positions);
-                     }
-                     positions.add(pos);
+                     addPosition(lookupObject, key, pos);
                   }
                }
             }
@@ -515,9 +804,11 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
                Object key = e.getKey();
                Positions positions = e.getValue();
                positions.sort();
+               positions.trimToSize();
                _lookupObject.put(key, positions);
                iterator.remove(); // for gc
             }
+            _singleObject.compact();
 
          } else {
             HashMap<Object, Positions> lookupObject = new HashMap<>(10000);
@@ -536,19 +827,15 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
                while ( true ) {
                   Object key = in.readObject();
                   mayEOF = false;
-                  long pos = in.readLong();
+                  long pos = readPosition(in);
                   mayEOF = true;
+                  _numLoadedLookupEntries++;
                   if ( positionsToIgnore.get(pos) > 0 ) {
                      positionsToIgnore.adjustValue(pos, -1);
                      continue;
                   }
                   if ( !_dump._deletedPositions.contains(pos) ) {
-                     Positions positions = lookupObject.get(key);
-                     if ( positions == null ) {
-                        positions = new Positions();
-                        lookupObject.put(key, positions);
-                     }
-                     positions.add(pos);
+                     addPosition(lookupObject, key, pos);
                   }
                }
             }
@@ -575,9 +862,11 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
                Object key = e.getKey();
                Positions positions = e.getValue();
                positions.sort();
+               positions.trimToSize();
                _lookupObject.put(key, positions);
                iterator.remove(); // for gc
             }
+            _singleObject.compact();
          }
       }
       finally {
@@ -607,31 +896,90 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
       }
    };
 
+   @Override
+   protected boolean supportsBackgroundRebuild() {
+      return true;
+   }
+
+   @Override
+   protected boolean supportsPackedPositions() {
+      return true;
+   }
+
+   @Override
+   protected boolean supportsReplay() {
+      return true;
+   }
+
+   /**
+    * Appends a position of a key to the lookup file without changing the lookup maps.
+    */
+   protected void writeKey( int key, long pos ) {
+      try {
+         _lookupOutputStream.writeInt(key);
+         writePosition(_lookupOutputStream, pos);
+      }
+      catch ( IOException argh ) {
+         throw new RuntimeException("Failed to add key to index " + getLookupFile(), argh);
+      }
+   }
+
+   /**
+    * Appends a position of a key to the lookup file without changing the lookup maps.
+    */
+   protected void writeKey( long key, long pos ) {
+      try {
+         _lookupOutputStream.writeLong(key);
+         writePosition(_lookupOutputStream, pos);
+      }
+      catch ( IOException argh ) {
+         throw new RuntimeException("Failed to add key to index " + getLookupFile(), argh);
+      }
+   }
+
+   /**
+    * Appends a position of a key to the lookup file without changing the lookup maps.
+    */
+   protected void writeKey( Object key, long pos ) {
+      try {
+         if ( _fieldIsString ) {
+            _lookupOutputStream.writeUTF(key.toString());
+         } else {
+            ((ObjectOutput)_lookupOutputStream).writeObject(key);
+         }
+         writePosition(_lookupOutputStream, pos);
+      }
+      catch ( IOException argh ) {
+         throw new RuntimeException("Failed to add key to index " + getLookupFile(), argh);
+      }
+   }
+
    @Override
    void delete( E o, long pos ) {
       if ( _fieldIsInt ) {
-         int key = getIntKey(o);
-         Positions positions = _lookupInt.get(key);
-         positions = removePosition(positions, pos);
-         if ( positions.size() == 0 ) {
-            _lookupInt.remove(key);
-         }
+         deleteKey(getIntKey(o), pos);
       } else if ( _fieldIsLong ) {
-         long key = getLongKey(o);
-         Positions positions = _lookupLong.get(key);
+         deleteKey(getLongKey(o), pos);
+      } else if ( _fieldIsComposite ) {
+         byte[] key = packCompositeKey(o);
+         Positions positions = _lookupString.get(key, key.length);
+         if ( positions == null ) {
+            if ( _singleString.get(key, key.length) == pos ) {
+               _singleString.remove(key, key.length);
+            }
+            return;
+         }
          positions = removePosition(positions, pos);
-         if ( positions.size() == 0 ) {
-            _lookupLong.remove(key);
+         if ( positions.size() <= 1 ) {
+            _lookupString.remove(key, key.length);
+            if ( positions.size() == 1 ) {
+               _singleString.put(key, key.length, positions.toArray()[0]);
+            }
          }
       } else {
          Object key = getObjectKey(o);
-         if ( key == null ) {
-            return;
-         }
-         Positions positions = _lookupObject.get(key);
-         positions = removePosition(positions, pos);
-         if ( positions.size() == 0 ) {
-            _lookupObject.remove(key);
+         if ( key != null ) {
+            deleteKey(key, pos);
          }
       }
    }
@@ -662,32 +1010,91 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
        * This is handled during load() using getUpdatesFile() */
    }
 
-   private Positions addPosition( Positions positions, long pos ) {
-      if ( positions == null ) {
-         positions = new Positions();
+   private void addPosition( Map<Object, Positions> lookup, Object key, long pos ) {
+      Positions positions = lookup.get(key);
+      if ( positions != null ) {
+         positions.add(pos);
+         return;
+      }
+      long single = _singleObject.putIfAbsent(key, pos);
+      if ( single >= 0 ) {
+         _singleObject.remove(key);
+         lookup.put(key, promote(single, pos));
       }
-      positions.add(pos);
-      return positions;
    }
 
-   private boolean contains( Positions pos ) {
-      if ( pos != null ) {
-         for ( int i = 0, length = pos.size(); i < length; i++ ) {
-            if ( !_dump._deletedPositions.contains(pos.getQuick(i)) ) {
-               return true;
-            }
-         }
+   private void addPosition( StringKeyObjectMap<Positions> lookup, String key, long pos ) {
+      Positions positions = lookup.get(key);
+      if ( positions != null ) {
+         positions.add(pos);
+         return;
+      }
+      long single = _singleString.putIfAbsent(key, pos);
+      if ( single >= 0 ) {
+         _singleString.remove(key);
+         lookup.put(key, promote(single, pos));
       }
-      return false;
    }
 
-   private int countLivePositions( long[] pos ) {
-      int n = 0;
-      for ( int i = 0, length = pos.length; i < length; i++ ) {
-         if ( !_dump._deletedPositions.contains(pos[i]) )
-            n++;
+   private void addPosition( StringKeyObjectMap<Positions> lookup, byte[] key, long pos ) {
+      Positions positions = lookup.get(key, key.length);
+      if ( positions != null ) {
+         positions.add(pos);
+         return;
+      }
+      long single = _singleString.putIfAbsent(key, key.length, pos);
+      if ( single >= 0 ) {
+         _singleString.remove(key, key.length);
+         lookup.put(key, key.length, promote(single, pos));
       }
-      return n;
+   }
+
+   private void addPosition( TIntObjectMap<Positions> lookup, int key, long pos ) {
+      Positions positions = lookup.get(key);
+      if ( positions != null ) {
+         positions.add(pos);
+         return;
+      }
+      long single = _singleInt.putIfAbsent(key, pos);
+      if ( single >= 0 ) {
+         _singleInt.remove(key);
+         lookup.put(key, promote(single, pos));
+      }
+   }
+
+   private void addPosition( TLongObjectMap<Positions> lookup, long key, long pos ) {
+      Positions positions = lookup.get(key);
+      if ( positions != null ) {
+         positions.add(pos);
+         return;
+      }
+      long single = _singleLong.putIfAbsent(key, pos);
+      if ( single >= 0 ) {
+         _singleLong.remove(key);
+         lookup.put(key, promote(single, pos));
+      }
+   }
+
+   private boolean contains( Positions pos ) {
+      // forEach() stops with false at the first live position
+      return pos != null && !pos.forEach(p -> _dump._deletedPositions.contains(p));
+   }
+
+   private int countLivePositions( Positions pos ) {
+      if ( pos == null ) {
+         return 0;
+      }
+      if ( _dump._deletedPositions.isEmpty() ) {
+         return pos.size();
+      }
+      int[] n = { 0 };
+      pos.forEach(p -> {
+         if ( !_dump._deletedPositions.contains(p) ) {
+            n[0]++;
+         }
+         return true;
+      });
+      return n[0];
    }
 
    private void ensureSorting( Positions pos ) {
@@ -699,26 +1106,308 @@ public class GroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
       }
    }
 
+   /**
+    * @return the position of a key with a single position, or -1
+    */
+   private long getObjectSingle( Object key ) {
+      if ( _fieldIsComposite ) {
+         byte[] bytes = getCompositeKeyBytes(key);
+         return bytes == null ? -1 : _singleString.get(bytes, bytes.length);
+      }
+      if ( _singleString != null ) {
+         return key instanceof String ? _singleString.get((String)key) : -1;
+      }
+      return _singleObject.get(key);
+   }
+
+   private Positions getObjectPositions( Object key ) {
+      if ( _fieldIsComposite ) {
+         byte[] bytes = getCompositeKeyBytes(key);
+         return bytes == null ? null : _lookupString.get(bytes, bytes.length);
+      }
+      if ( _lookupString != null ) {
+         return key instanceof String ? _lookupString.get((String)key) : null;
+      }
+      return _lookupObject.get(key);
+   }
+
+   /**
+    * Creates the Positions for a key, which had a single position so far.
+    */
+   private Positions promote( long single, long pos ) {
+      Positions positions = new Positions();
+      positions.add(single);
+      positions.add(pos);
+      return positions;
+   }
+
 
-   static class Positions extends TLongArrayList {
+   /**
+    * The positions of a key as a compressed posting list. Positions added in ascending order - the common case, since
+    * elements are appended to the dump - are delta and varint encoded into a byte array, mostly needing 2 to 4 bytes per
+    * position. Positions out of order go to a small unsorted tail, which is merged into the encoded part by {@link #sort()}
+    * or when it grows too large. Removals of encoded positions are likewise collected and applied in one pass by
+    * {@link #sort()} or when there are too many of them, so that deleting many positions doesn't re-encode the list each time.
+    */
+   static class Positions {
 
-      private boolean _sorted;
+      private static final byte[] EMPTY = new byte[0];
+
+      private static final int MIN_TAIL_MERGE_SIZE = 8;
+
+      /** every SKIP_INTERVAL-th encoded position gets an entry in the skip arrays, so that lookups don't decode from the start */
+      private static final int SKIP_INTERVAL = 64;
+
+      private byte[]          _packed = EMPTY;
+      private int             _packedLength;
+      private int             _packedSize;
+      private long            _last;
+      /** byte offsets and preceding values of the encoded positions number SKIP_INTERVAL, 2 * SKIP_INTERVAL, ... */
+      private int[]           _skipOffsets;
+      private long[]          _skipBases;
+      private int             _numSkips;
+      private long[]          _tail;
+      private int             _tailSize;
+      /** the number of pending removals for each encoded position */
+      private TLongIntHashMap _removed;
+      private int             _removedSize;
 
 
-      @Override
       public boolean add( long val ) {
-         _sorted = false;
-         return super.add(val);
+         if ( _tailSize == 0 && (_packedSize == 0 || val >= _last) ) {
+            appendPacked(val);
+            return true;
+         }
+         if ( _tail == null ) {
+            _tail = new long[4];
+         } else if ( _tailSize == _tail.length ) {
+            _tail = Arrays.copyOf(_tail, _tailSize * 2);
+         }
+         _tail[_tailSize++] = val;
+         if ( _tailSize >= Math.max(MIN_TAIL_MERGE_SIZE, _packedSize >> 3) ) {
+            sort();
+         }
+         return true;
+      }
+
+      /**
+       * Iterates all positions without decoding them into an array, in ascending order if {@link #isSorted()}.
+       * @return false if the procedure returned false for any position
+       */
+      public boolean forEach( TLongProcedure procedure ) {
+         if ( !forEachPacked(procedure) ) {
+            return false;
+         }
+         for ( int i = 0; i < _tailSize; i++ ) {
+            if ( !procedure.execute(_tail[i]) ) {
+               return false;
+            }
+         }
+         return true;
       }
 
       public boolean isSorted() {
-         return _sorted;
+         return _tailSize == 0;
       }
 
-      @Override
+      /**
+       * Removes one occurrence of the position.
+       * @return false if the position was not contained
+       */
+      public boolean remove( long val ) {
+         for ( int i = _tailSize - 1; i >= 0; i-- ) {
+            if ( _tail[i] == val ) {
+               _tail[i] = _tail[--_tailSize];
+               return true;
+            }
+         }
+         if ( _packedSize == 0 || val > _last ) {
+            return false;
+         }
+         int pending = _removed == null ? 0 : _removed.get(val);
+         if ( countPacked(val) <= pending ) {
+            return false;
+         }
+         if ( _removed == null ) {
+            _removed = new TLongIntHashMap();
+         }
+         _removed.put(val, pending + 1);
+         _removedSize++;
+         if ( _removedSize >= Math.max(MIN_TAIL_MERGE_SIZE, _packedSize >> 3) ) {
+            sort();
+         }
+         return true;
+      }
+
+      public int size() {
+         return _packedSize - _removedSize + _tailSize;
+      }
+
+      /**
+       * Merges the unsorted tail into the encoded positions and applies the pending removals.
+       */
       public void sort() {
-         _sorted = true;
-         super.sort();
+         if ( _tailSize == 0 && _removedSize == 0 ) {
+            return;
+         }
+         long[] positions = toArray();
+         Arrays.sort(positions);
+         _packed = new byte[positions.length * 4];
+         _packedLength = 0;
+         _packedSize = 0;
+         _skipOffsets = null;
+         _skipBases = null;
+         _numSkips = 0;
+         _tail = null;
+         _tailSize = 0;
+         _removed = null;
+         _removedSize = 0;
+         for ( long pos : positions ) {
+            appendPacked(pos);
+         }
+      }
+
+      /**
+       * @return all positions, in ascending order if {@link #isSorted()}
+       */
+      public long[] toArray() {
+         long[] positions = decodePacked();
+         if ( _tailSize > 0 ) {
+            int packedSize = positions.length;
+            positions = Arrays.copyOf(positions, packedSize + _tailSize);
+            System.arraycopy(_tail, 0, positions, packedSize, _tailSize);
+         }
+         return positions;
+      }
+
+      /**
+       * Drops the spare capacity reserved for further additions.
+       */
+      public void trimToSize() {
+         if ( _packed.length > _packedLength ) {
+            _packed = Arrays.copyOf(_packed, _packedLength);
+         }
+         if ( _numSkips > 0 && _skipOffsets.length > _numSkips ) {
+            _skipOffsets = Arrays.copyOf(_skipOffsets, _numSkips);
+            _skipBases = Arrays.copyOf(_skipBases, _numSkips);
+         }
+         if ( _tailSize == 0 ) {
+            _tail = null;
+         } else if ( _tail.length > _tailSize ) {
+            _tail = Arrays.copyOf(_tail, _tailSize);
+         }
+      }
+
+      private void appendPacked( long val ) {
+         if ( _packedLength + 10 > _packed.length ) {
+            _packed = Arrays.copyOf(_packed, Math.max(_packedLength + 10, _packed.length + (_packed.length >> 1)));
+         }
+         if ( _packedSize > 0 && _packedSize % SKIP_INTERVAL == 0 ) {
+            if ( _skipOffsets == null ) {
+               _skipOffsets = new int[4];
+               _skipBases = new long[4];
+            } else if ( _numSkips == _skipOffsets.length ) {
+               _skipOffsets = Arrays.copyOf(_skipOffsets, _numSkips * 2);
+               _skipBases = Arrays.copyOf(_skipBases, _numSkips * 2);
+            }
+            _skipOffsets[_numSkips] = _packedLength;
+            _skipBases[_numSkips++] = _last;
+         }
+         long delta = _packedSize == 0 ? val : val - _last;
+         while ( (delta & ~0x7FL) != 0 ) {
+            _packed[_packedLength++] = (byte)((delta & 0x7F) | 0x80);
+            delta >>>= 7;
+         }
+         _packed[_packedLength++] = (byte)delta;
+         _last = val;
+         _packedSize++;
+      }
+
+      /**
+       * @return the number of occurrences of the position in the encoded part, ignoring pending removals
+       */
+      private int countPacked( long val ) {
+         // start decoding at the last skip entry which is preceded by a smaller position, since all positions before are smaller, too
+         int low = 0, high = _numSkips - 1;
+         while ( low <= high ) {
+            int mid = (low + high) >>> 1;
+            if ( _skipBases[mid] < val ) {
+               low = mid + 1;
+            } else {
+               high = mid - 1;
+            }
+         }
+         int i = 0, p = 0;
+         long value = 0;
+         if ( high >= 0 ) {
+            i = (high + 1) * SKIP_INTERVAL;
+            p = _skipOffsets[high];
+            value = _skipBases[high];
+         }
+         int count = 0;
+         for ( ; i < _packedSize; i++ ) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+               b = _packed[p++];
+               delta |= (long)(b & 0x7F) << shift;
+               shift += 7;
+            }
+            while ( b < 0 );
+            value += delta;
+            if ( value > val ) {
+               break;
+            }
+            if ( value == val ) {
+               count++;
+            }
+         }
+         return count;
+      }
+
+      private long[] decodePacked() {
+         long[] positions = new long[_packedSize - _removedSize];
+         int[] i = { 0 };
+         forEachPacked(pos -> {
+            positions[i[0]++] = pos;
+            return true;
+         });
+         return positions;
+      }
+
+      /**
+       * Iterates the encoded positions in ascending order, skipping the pending removals.
+       */
+      private boolean forEachPacked( TLongProcedure procedure ) {
+         long value = 0;
+         int skip = 0;
+         for ( int i = 0, p = 0; i < _packedSize; i++ ) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+               b = _packed[p++];
+               delta |= (long)(b & 0x7F) << shift;
+               shift += 7;
+            }
+            while ( b < 0 );
+            value += delta;
+            if ( _removedSize > 0 ) {
+               // equal positions are adjacent, so the pending removals of a position drop its first occurrences
+               if ( i == 0 || delta != 0 ) {
+                  skip = _removed.get(value);
+               }
+               if ( skip > 0 ) {
+                  skip--;
+                  continue;
+               }
+            }
+            if ( !procedure.execute(value) ) {
+               return false;
+            }
+         }
+         return true;
       }
    }
 
@@ -1,8 +1,13 @@
 package util.dump;
 
+import java.io.IOException;
+import java.io.ObjectInput;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import util.dump.Dump.RangeInputStream;
 import util.dump.UniqueIndex.DuplicateKeyException;
 import util.dump.reflection.FieldAccessor;
 
@@ -17,11 +22,20 @@ import util.dump.reflection.FieldAccessor;
  * <b>Beware</b>: Your key instances are used in a HashMap, so you probably want to implement <nobr><code>hashCode()</code></nobr> and 
  * <nobr><code>equals()</code></nobr> accordingly, if you use a custom key instance (i.e. not <code>int</code>, <code>long</code>, 
  * {@link String}, any {@link Number}, ...)<p/>
+ * Since a group is a contiguous byte range of the dump file, which ends where the next group starts, lookups read a group
+ * sequentially with a buffer of its own, using a single I/O for groups up to 1 MB. The last group and groups of unknown end are
+ * read with a small buffer growing with each I/O, and reading stops at the first element of another group.<p/>
  */
 public class GroupedIndex<E> implements NonUniqueIndex<E> {
 
    private MyUniqueIndex _index;
 
+   /**
+    * the positions of the first elements of all groups in ascending order, each group ends where the next one starts. After a
+    * restart groups whose first element was deleted are missing, so the keys of the elements read are still checked.
+    */
+   private final TLongArrayList _groupStarts = new TLongArrayList();
+
    private E             _lastKey;
    private int           _lastKeyNumber;
    private long          _lastKeyPos;
@@ -29,10 +43,12 @@ public class GroupedIndex<E> implements NonUniqueIndex<E> {
 
    public GroupedIndex( Dump<E> dump, FieldAccessor fieldAccessor ) {
       _index = new MyUniqueIndex(dump, fieldAccessor);
+      initGroupStarts();
    }
 
    public GroupedIndex( Dump<E> dump, String fieldName ) throws NoSuchFieldException {
       _index = new MyUniqueIndex(dump, fieldName);
+      initGroupStarts();
    }
 
    public void add( E o, long pos ) {
@@ -47,6 +63,7 @@ public class GroupedIndex<E> implements NonUniqueIndex<E> {
             _lastKeyNumber = 1;
             _lastKeyPos = pos;
             _index.superAdd(_lastKey, _lastKeyPos);
+            _groupStarts.add(pos);
          }
       } else if ( _index._fieldIsLong ) {
          long key = _index.getLongKey(o);
@@ -59,6 +76,7 @@ public class GroupedIndex<E> implements NonUniqueIndex<E> {
             _lastKeyNumber = 1;
             _lastKeyPos = pos;
             _index.superAdd(_lastKey, _lastKeyPos);
+            _groupStarts.add(pos);
          }
       } else {
          Object key = _index.getObjectKey(o);
@@ -71,6 +89,7 @@ public class GroupedIndex<E> implements NonUniqueIndex<E> {
             _lastKeyNumber = 1;
             _lastKeyPos = pos;
             _index.superAdd(_lastKey, _lastKeyPos);
+            _groupStarts.add(pos);
          }
       }
    }
@@ -90,6 +109,30 @@ public class GroupedIndex<E> implements NonUniqueIndex<E> {
       return _index.contains(key);
    }
 
+   /**
+    * BEWARE: Only the position of the first element of each group is indexed, so this reads the group from the dump.
+    */
+   @Override
+   public int count( int key ) {
+      return positions(key).size();
+   }
+
+   /**
+    * BEWARE: Only the position of the first element of each group is indexed, so this reads the group from the dump.
+    */
+   @Override
+   public int count( long key ) {
+      return positions(key).size();
+   }
+
+   /**
+    * BEWARE: Only the position of the first element of each group is indexed, so this reads the group from the dump.
+    */
+   @Override
+   public int count( Object key ) {
+      return positions(key).size();
+   }
+
    @Override
    public synchronized Iterable<E> lookup( int key ) {
       if ( !_index._fieldIsInt ) {
@@ -132,6 +175,73 @@ public class GroupedIndex<E> implements NonUniqueIndex<E> {
       return new GroupIterable(key, -1);
    }
 
+   /**
+    * BEWARE: Only the position of the first element of each group is indexed, so this reads the group from the dump.
+    */
+   @Override
+   public PositionSet positions( int key ) {
+      return positions((Object)key);
+   }
+
+   /**
+    * BEWARE: Only the position of the first element of each group is indexed, so this reads the group from the dump.
+    */
+   @Override
+   public PositionSet positions( long key ) {
+      return positions((Object)key);
+   }
+
+   /**
+    * BEWARE: Only the position of the first element of each group is indexed, so this reads the group from the dump.
+    */
+   @Override
+   public PositionSet positions( Object key ) {
+      return PositionSet.ofSorted(getPositions(key));
+   }
+
+   /**
+    * Only the position of the first element of each group is indexed, so this reads the whole group from the dump.
+    * @return the positions of the undeleted elements of the group in ascending order
+    */
+   long[] getPositions( Object key ) {
+      synchronized ( _index._dump ) {
+         TLongList positions = new TLongArrayList();
+         for ( GroupIterator iterator = new GroupIterator(key, _index.getPosition(key)); iterator.hasNext(); iterator.next() ) {
+            positions.add(iterator._ePos);
+         }
+         return positions.toArray();
+      }
+   }
+
+   Dump<E> getDump() {
+      return _index._dump;
+   }
+
+   /**
+    * @return the position after the last element of the group starting at <code>start</code>, or -1 if it is unknown, i.e. for
+    *         the last group and for groups missing from {@link #_groupStarts}
+    */
+   private long getGroupEnd( long start ) {
+      int i = _groupStarts.binarySearch(start);
+      if ( i >= 0 && i + 1 < _groupStarts.size() ) {
+         return _groupStarts.getQuick(i + 1);
+      }
+      return -1;
+   }
+
+   private void initGroupStarts() {
+      if ( _groupStarts.isEmpty() ) { // the lookup was loaded from file, otherwise add(.) already collected the group starts
+         if ( _index._fieldIsInt ) {
+            _groupStarts.add(_index._lookupInt.values());
+         } else if ( _index._fieldIsLong ) {
+            _groupStarts.add(_index._lookupLong.values());
+         } else {
+            _groupStarts.add(_index._lookupObject.values());
+         }
+         _groupStarts.sort();
+      }
+   }
+
 
    private final class GroupIterable implements Iterable<E> {
 
@@ -152,20 +262,37 @@ public class GroupedIndex<E> implements NonUniqueIndex<E> {
 
    private final class GroupIterator implements Iterator<E> {
 
-      private final Object _key;
-      private long         _pos;
-      private E            _e;
+      private final Object     _key;
+      private RangeInputStream _in;
+      private ObjectInput      _objectInput;
+      private E                _e;
+      private long             _ePos;
 
 
       private GroupIterator( Object key, long pos ) {
          _key = key;
-         _pos = pos;
+         if ( pos >= 0 ) {
+            try {
+               synchronized ( _index._dump ) {
+                  long end = getGroupEnd(pos);
+                  if ( end < 0 ) {
+                     _in = _index._dump.openRange(pos, _index._dump._outputStream._n, false);
+                  } else {
+                     _in = _index._dump.openRange(pos, end, true);
+                  }
+               }
+               _objectInput = _index._dump._streamProvider.createObjectInput(_in);
+            }
+            catch ( IOException argh ) {
+               throw new RuntimeException("Failed to read group at position " + pos + " from dump " + _index._dump._dumpFile, argh);
+            }
+         }
          findNextUndeleted(); // sets _e if an undeleted instance exists
       }
 
       @Override
       public boolean hasNext() {
-         return _pos >= 0 && _e != null;
+         return _e != null;
       }
 
       @Override
@@ -174,11 +301,6 @@ public class GroupedIndex<E> implements NonUniqueIndex<E> {
             throw new NoSuchElementException();
          }
 
-         synchronized ( _index._dump ) { // we have to synchronize because of the access on _nextItemPos
-            _e = _index._dump.get(_pos);
-            _pos = _index._dump._nextItemPos.get();
-         }
-
          E e = _e;
          findNextUndeleted();
          return e;
@@ -190,24 +312,28 @@ public class GroupedIndex<E> implements NonUniqueIndex<E> {
       }
 
       private void findNextUndeleted() {
-         if ( _pos < 0 ) {
-            return;
-         }
-
-         synchronized ( _index._dump ) {
-            _e = _index._dump.get(_pos);
-            while ( _e == null ) { // we have to synchronize because of the access on _nextItemPos
-               _pos = _index._dump._nextItemPos.get();
-               if ( _pos >= _index._dump._outputStream._n ) {
-                  break;
+         _e = null;
+         while ( _in != null && _in.hasRemaining() ) {
+            long pos = _in.getPosition();
+            E e;
+            try {
+               e = (E)_objectInput.readObject();
+            }
+            catch ( Exception argh ) {
+               throw new RuntimeException("Failed to read from dump " + _index._dump._dumpFile + " at position " + pos, argh);
+            }
+            boolean deleted;
+            synchronized ( _index._dump ) {
+               deleted = _index._dump._deletedPositions.contains(pos);
+            }
+            if ( !deleted ) {
+               if ( _index.getObjectKey(e).equals(_key) ) {
+                  _e = e;
+                  _ePos = pos;
                }
-               _e = _index._dump.get(_pos);
+               return;
             }
          }
-
-         if ( _e != null && !_index.getObjectKey(_e).equals(_key) ) {
-            _e = (E)null;
-         }
       }
    }
 
@@ -239,6 +365,12 @@ public class GroupedIndex<E> implements NonUniqueIndex<E> {
          return GroupedIndex.class.getSimpleName();
       }
 
+      @Override
+      protected boolean supportsReplay() {
+         // a group continued after the checkpoint would be added as a duplicate key
+         return false;
+      }
+
       @Override
       void delete( E o, long pos ) {
          // don't delete the whole group!
@@ -0,0 +1,57 @@
+package util.dump;
+
+/**
+ * 64-bit hashing of index keys. Strings are hashed over their modified UTF-8 representation (see {@link java.io.DataOutput#writeUTF(String)}),
+ * so a key gives the same hash whether it is hashed as {@link CharSequence} or as the bytes written to a lookup file.
+ */
+final class HashUtils {
+
+   private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+   private static final long FNV_PRIME        = 0x100000001b3L;
+
+   private static final ThreadLocal<byte[]> _utfBuffer = ThreadLocal.withInitial(() -> new byte[256]);
+
+   static long hash64( CharSequence s ) {
+      int length = DumpUtils.utfLength(s);
+      byte[] utf = _utfBuffer.get();
+      if ( utf.length < length ) {
+         utf = new byte[Math.max(length, utf.length * 2)];
+         _utfBuffer.set(utf);
+      }
+      DumpUtils.encodeUTF(s, utf, 0);
+      return hash64(utf, 0, length);
+   }
+
+   static long hash64( byte[] bytes, int offset, int length ) {
+      long h = FNV_OFFSET_BASIS;
+      for ( int i = offset, end = offset + length; i < end; i++ ) {
+         h = (h ^ (bytes[i] & 0xff)) * FNV_PRIME;
+      }
+      return mix64(h);
+   }
+
+   /**
+    * {@link CharSequence}s are hashed over their content, all other keys only have the 32 bits of entropy of their <code>hashCode()</code>.
+    */
+   static long hash64( Object key ) {
+      if ( key instanceof CharSequence ) {
+         return hash64((CharSequence)key);
+      }
+      return mix64(key.hashCode());
+   }
+
+   static long hash64( long key ) {
+      return mix64(key);
+   }
+
+   /**
+    * The finalizer of MurmurHash3, spreads the entropy of all input bits over all output bits.
+    */
+   static long mix64( long z ) {
+      z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+      z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+      return z ^ (z >>> 33);
+   }
+
+   private HashUtils() {}
+}
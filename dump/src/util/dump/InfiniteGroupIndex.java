@@ -1,18 +1,26 @@
 package util.dump;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
-import java.io.EOFException;
+import java.io.DataOutputStream;
 import java.io.Externalizable;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
@@ -22,10 +30,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import gnu.trove.iterator.TLongIterator;
+import gnu.trove.iterator.TObjectLongIterator;
 import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.list.array.TLongArrayList;
-import gnu.trove.procedure.TIntObjectProcedure;
-import gnu.trove.procedure.TLongObjectProcedure;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import util.dump.cache.SoftLRUCache;
 import util.dump.GroupIndex.Positions;
 import util.dump.sort.InfiniteSorter;
@@ -37,26 +52,88 @@ import util.dump.reflection.FieldAccessor;
  * <b>Beware</b>: Your key instances <i>must</i> implement <nobr><code>hashCode()</code></nobr> and
  * <nobr><code>equals()</code></nobr>, if you use a custom key instance (i.e. not <code>int</code>, <code>long</code>,
  * {@link String}, any {@link Number}, ...)<p/>
- * 
- * <b>Beware 2</b>: this implementation is currently not thread-safe! It will fail hard in a multi-threaded environment. 
+ *
+ * New keys are collected in an in-memory overflow index. As soon as it exceeds <code>maxLookupSizeInMemory</code> entries, it is
+ * written to disk as a new sorted run. Whenever {@value #RUN_MERGE_FACTOR} runs of the same size tier pile up, they are merged
+ * into one run of the next tier, so each key position is rewritten only a logarithmic number of times. Lookups consult the
+ * overflow index and all runs, newest first. Each run has a Bloom filter, so runs without the key are skipped without any I/O.<p/>
+ *
+ * This index is thread-safe, all access is synchronized on the dump like for all other indexes. Merging runs is the only
+ * expensive reorganization, it runs in a background thread without holding the lock. The run list is never modified
+ * in place but replaced as a whole (copy-on-write), so the merge works on a stable snapshot and the merged run is swapped in
+ * atomically. Runs being merged are not written to, elements updated meanwhile are filtered in memory until the swap.
  */
 public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex<E> {
 
    private static final Logger LOG = LoggerFactory.getLogger(InfiniteGroupIndex.class);
 
    private static final int MAX_POSITIONS_LENGTH_IN_CACHE = 1000;
-   /* TODO [MKR 08.06.2009] add following two methods for efficient lookup of many keys at once:
-      public IntKeyMap fullIndexScan(IntSet keys);
-      public LongKeyMap fullIndexScan(LongSet keys);
-   
-      Check if it is possible to add
-      public Map<Object, E> fullIndexScan(Set keys);
+
+   private static final int DEFAULT_MAX_LOOKUP_SIZE_IN_MEMORY = 25000;
+
+   /**
+    * the number of runs of the same size tier, which are merged into a single run of the next tier
     */
+   private static final int RUN_MERGE_FACTOR = 4;
 
-   /* TODO synchronization */
+   private static final int MAX_RUN_LEVEL = 20;
 
-   private static final int DEFAULT_MAX_LOOKUP_SIZE_IN_MEMORY = 25000;
+   /**
+    * a full index scan reads a run sequentially only if there is at least one key per this number of entries in the run,
+    * otherwise the keys are looked up with binary searches
+    */
+   private static final int FULL_SCAN_ENTRIES_PER_KEY = 64;
 
+   /**
+    * version 2 stores object keys as 64-bit hashes, or inline if they are short, older object key indexes are rebuilt
+    */
+   private static final int    VERSION          = 2;
+   private static final String VERSION_META_KEY = "infiniteGroupIndexVersion";
+
+   /**
+    * {@link String} keys with at most this number of bytes in modified UTF-8 are stored inline in the key of a run entry
+    */
+   private static final int MAX_INLINE_KEY_LENGTH = 7;
+
+
+   /**
+    * @return the inverse of {@link #getInlineKey(String)}
+    */
+   private static String decodeInlineKey( long keyHash ) {
+      int length = (int)((keyHash >>> 56) & 0x7);
+      byte[] bytes = new byte[2 + length];
+      bytes[1] = (byte)length;
+      for ( int i = 0; i < length; i++ ) {
+         bytes[2 + i] = (byte)(keyHash >>> (8 * (MAX_INLINE_KEY_LENGTH - 1 - i)));
+      }
+      try {
+         return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+      }
+      catch ( IOException argh ) {
+         throw new RuntimeException("Failed to decode inline key " + keyHash, argh);
+      }
+   }
+
+   /**
+    * @return the modified UTF-8 bytes of the key packed into a negative long (sign bit, 3 bits length, 7 bytes), or 0 if the
+    *         key is too long to be stored inline. Hashed keys are never negative.
+    */
+   private static long getInlineKey( String key ) {
+      if ( key.length() > MAX_INLINE_KEY_LENGTH ) {
+         return 0;
+      }
+      int length = DumpUtils.utfLength(key);
+      if ( length > MAX_INLINE_KEY_LENGTH ) {
+         return 0;
+      }
+      byte[] utf = new byte[MAX_INLINE_KEY_LENGTH];
+      DumpUtils.encodeUTF(key, utf, 0);
+      long bytes = 0;
+      for ( int i = 0; i < length; i++ ) {
+         bytes = (bytes << 8) | (utf[i] & 0xff);
+      }
+      return Long.MIN_VALUE | ((long)length << 56) | (bytes << (8 * (MAX_INLINE_KEY_LENGTH - length)));
+   }
 
    private static File getOverflowIndexFile( Dump<?> dump, FieldAccessor fieldAccessor ) {
       File dumpFile = dump.getDumpFile();
@@ -75,28 +152,36 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
    private int _currentLookupSize;
 
    /**
-    * case 1:
-    *  - key is a real int: this dump is used to point to the first position of to store all positions per key (see {@link #findIntKey(int, int)})
-    *
-    * case 2:
-    *  - key is a complex object: the dump contains the hash codes of the objects and points to a dump position with
-    *                             that specific hashcode (see {@link #getObjectKeyPositions(Object)}) in _externalizableKeyDump or _stringKeyDump (resp.)
+    * the sorted runs of this index, oldest first. The oldest run always lives in the lookup file of this index, the ids of
+    * the newer runs are persisted in <code>_runsFile</code>. The list is unmodifiable and replaced on each change.
     */
-   private Dump<IntKeyPosition> _intKeyDump;
+   private volatile List<SortedRun> _runs = Collections.emptyList();
+   private File                      _runsFile;
+   private int                       _nextRunId = 1;
 
    /**
-    * see case 1 of _intKeyDump
+    * the thread merging runs in the background, null if no merge is running
     */
-   private Dump<LongKeyPosition> _longKeyDump;
+   private Thread           _mergeThread;
+   private volatile boolean _closed;
+
+   /**
+    * key and position pairs of the elements updated while their runs are merged, they are marked in the merged run
+    */
+   private final TLongArrayList _updatesDuringMerge           = new TLongArrayList();
+   private final TLongHashSet   _positionsUpdatedDuringMerge = new TLongHashSet();
 
    private Dump<StringKeyPosition> _stringKeyDump;
 
    private Dump<ExternalizableKeyPosition> _externalizableKeyDump;
 
-   private long _lookupFileLength;
-
    private Map<Object, long[]> _cache = null; // default is to have no cache
 
+   /**
+    * true if the index was rebuilt with an empty lookup file, the elements of the dump are added once the overflow index exists
+    */
+   private boolean _addDumpToOverflow;
+
 
    public InfiniteGroupIndex( Dump<E> dump, FieldAccessor fieldAccessor, int maxLookupSizeInMemory ) {
       super(dump, fieldAccessor);
@@ -141,15 +226,27 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
 
    @Override
    public void close() throws IOException {
+      _closed = true;
+      Thread mergeThread;
+      synchronized ( _dump ) {
+         mergeThread = _mergeThread;
+      }
+      // the merge thread needs the lock for finishing, if we hold it, it abandons the merge instead
+      if ( mergeThread != null && !Thread.holdsLock(_dump) ) {
+         try {
+            mergeThread.join();
+         }
+         catch ( InterruptedException argh ) {
+            Thread.currentThread().interrupt();
+         }
+      }
+
       super.close();
       if ( _overflowIndex != null ) {
          _overflowIndex.close();
       }
-      if ( _intKeyDump != null ) {
-         _intKeyDump.close();
-      }
-      if ( _longKeyDump != null ) {
-         _longKeyDump.close();
+      for ( SortedRun run : _runs ) {
+         run.close();
       }
       if ( _stringKeyDump != null ) {
          _stringKeyDump.close();
@@ -161,147 +258,289 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
 
    @Override
    public boolean contains( int key ) {
-      return getPositions(key).length > 0;
+      synchronized ( _dump ) {
+         return getPositions(key).length > 0;
+      }
    }
 
    @Override
    public boolean contains( long key ) {
-      return getPositions(key).length > 0;
+      synchronized ( _dump ) {
+         return getPositions(key).length > 0;
+      }
    }
 
    @Override
    public boolean contains( Object key ) {
-      return getPositions(key).length > 0;
+      synchronized ( _dump ) {
+         return getPositions(key).length > 0;
+      }
    }
 
    @Override
-   public TLongList getAllPositions() {
-      TLongList pos = new TLongArrayList((int)(_lookupFileLength / (8 + (_fieldIsLong ? 8 : 4))));
+   public int count( int key ) {
+      return positions(key).size();
+   }
 
-      if ( _fieldIsInt || _fieldIsLong ) {
-         DataInputStream in = null;
-         try {
-            in = new DataInputStream(new BufferedInputStream(new FileInputStream(getLookupFile())));
-            while ( true ) {
-               if ( _fieldIsLong ) {
-                  in.readLong();
-               } else {
-                  in.readInt();
-               }
-               long p = in.readLong();
-               if ( !_dump._deletedPositions.contains(p) ) {
-                  pos.add(p);
-               }
+   @Override
+   public int count( long key ) {
+      return positions(key).size();
+   }
+
+   /**
+    * BEWARE: Object keys, which are not inlined into the sorted runs, are compared with the keys read from the key dump.
+    */
+   @Override
+   public int count( Object key ) {
+      return positions(key).size();
+   }
+
+   /**
+    * Looks up the positions of many keys at once. Instead of one binary search per key, the sorted keys are merged with each
+    * sorted run in a single sequential pass.
+    * @return the ascending positions per key, keys without any element are missing in the result
+    */
+   public TIntObjectMap<long[]> fullIndexScan( TIntSet keys ) {
+      if ( !_fieldIsInt ) {
+         throw new IllegalArgumentException(
+            "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate fullIndexScan(.) method.");
+      }
+
+      synchronized ( _dump ) {
+         int[] sortedKeys = keys.toArray();
+         Arrays.sort(sortedKeys);
+
+         TIntObjectMap<TLongList> positions = new TIntObjectHashMap<>();
+         for ( int key : sortedKeys ) {
+            long[] overflowPositions = _overflowIndex.getPositions(key);
+            if ( overflowPositions.length > 0 ) {
+               positions.put(key, new TLongArrayList(overflowPositions));
             }
          }
-         catch ( EOFException e ) {
-            // ignore, since all is good
-         }
-         catch ( Exception e ) {
-            throw new RuntimeException("Failed to read dump positions", e);
+         for ( int i = _runs.size() - 1; i >= 0; i-- ) {
+            _runs.get(i).scanPositions(sortedKeys, positions);
          }
-         finally {
-            if ( in != null ) {
-               try {
-                  in.close();
-               }
-               catch ( IOException e ) {
-                  LOG.error("Failed to close inputstream.");
-               }
+
+         TIntObjectMap<long[]> result = new TIntObjectHashMap<>(positions.size());
+         positions.forEachEntry(( key, pos ) -> {
+            pos.sort();
+            result.put(key, pos.toArray());
+            return true;
+         });
+         return result;
+      }
+   }
+
+   /**
+    * Looks up the positions of many keys at once. Instead of one binary search per key, the sorted keys are merged with each
+    * sorted run in a single sequential pass.
+    * @return the ascending positions per key, keys without any element are missing in the result
+    */
+   public TLongObjectMap<long[]> fullIndexScan( TLongSet keys ) {
+      if ( !_fieldIsLong ) {
+         throw new IllegalArgumentException(
+            "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate fullIndexScan(.) method.");
+      }
+
+      synchronized ( _dump ) {
+         long[] sortedKeys = keys.toArray();
+         Arrays.sort(sortedKeys);
+
+         TLongObjectMap<TLongList> positions = new TLongObjectHashMap<>();
+         for ( long key : sortedKeys ) {
+            long[] overflowPositions = _overflowIndex.getPositions(key);
+            if ( overflowPositions.length > 0 ) {
+               positions.put(key, new TLongArrayList(overflowPositions));
             }
          }
-      } else if ( _fieldIsExternalizable ) {
-         for ( ExternalizableKeyPosition kp : _externalizableKeyDump ) {
-            if ( !_dump._deletedPositions.contains(kp._pos) ) {
-               pos.add(kp._pos);
+         for ( int i = _runs.size() - 1; i >= 0; i-- ) {
+            _runs.get(i).scanPositions(sortedKeys, positions, false);
+         }
+
+         TLongObjectMap<long[]> result = new TLongObjectHashMap<>(positions.size());
+         positions.forEachEntry(( key, pos ) -> {
+            pos.sort();
+            result.put(key, pos.toArray());
+            return true;
+         });
+         return result;
+      }
+   }
+
+   /**
+    * Looks up the positions of many {@link String} or {@link Externalizable} keys at once. The keys are sorted by the 64-bit
+    * hash they are stored with in the sorted runs, which are merged with each run in a single sequential pass.<p/>
+    *
+    * BEWARE: Object keys, which are not inlined into the sorted runs, are compared with the keys read from the key dump.
+    * @return the ascending positions per key, keys without any element are missing in the result
+    */
+   public <K> Map<K, long[]> fullIndexScan( Set<K> keys ) {
+      if ( !(_fieldIsString || _fieldIsExternalizable) ) {
+         throw new IllegalArgumentException(
+            "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate fullIndexScan(.) method.");
+      }
+
+      synchronized ( _dump ) {
+         TLongObjectMap<List<K>> keysByHash = new TLongObjectHashMap<>();
+         Map<K, TLongList> positions = new HashMap<>();
+         for ( K key : keys ) {
+            checkObjectKeyType(key);
+            long keyHash = getObjectKeyHash(key);
+            List<K> hashKeys = keysByHash.get(keyHash);
+            if ( hashKeys == null ) {
+               hashKeys = new ArrayList<>(1);
+               keysByHash.put(keyHash, hashKeys);
+            }
+            hashKeys.add(key);
+
+            long[] overflowPositions = _overflowIndex.getPositions(key);
+            if ( overflowPositions.length > 0 ) {
+               positions.put(key, new TLongArrayList(overflowPositions));
             }
          }
-      } else if ( _fieldIsString ) {
-         for ( StringKeyPosition kp : _stringKeyDump ) {
-            if ( !_dump._deletedPositions.contains(kp._pos) ) {
-               pos.add(kp._pos);
+
+         long[] sortedHashes = keysByHash.keys();
+         Arrays.sort(sortedHashes);
+         TLongObjectMap<TLongList> hashPositions = new TLongObjectHashMap<>();
+         for ( int i = _runs.size() - 1; i >= 0; i-- ) {
+            _runs.get(i).scanPositions(sortedHashes, hashPositions, true);
+         }
+
+         hashPositions.forEachEntry(( keyHash, pos ) -> {
+            List<K> hashKeys = keysByHash.get(keyHash);
+            if ( isInlineKey(keyHash) ) {
+               positions.computeIfAbsent(hashKeys.get(0), k -> new TLongArrayList()).addAll(pos);
+               return true;
             }
+            for ( int i = 0; i < pos.size(); i++ ) {
+               Object key;
+               long kp;
+               if ( _fieldIsExternalizable ) {
+                  ExternalizableKeyPosition keyPosition = _externalizableKeyDump.get(pos.get(i));
+                  key = keyPosition._key;
+                  kp = keyPosition._pos;
+               } else {
+                  StringKeyPosition keyPosition = _stringKeyDump.get(pos.get(i));
+                  key = keyPosition._key;
+                  kp = keyPosition._pos;
+               }
+               int k = hashKeys.indexOf(key);
+               if ( kp >= 0 && k >= 0 && !_dump._deletedPositions.contains(kp) ) {
+                  positions.computeIfAbsent(hashKeys.get(k), x -> new TLongArrayList()).add(kp);
+               }
+            }
+            return true;
+         });
+
+         Map<K, long[]> result = new HashMap<>(positions.size());
+         for ( Entry<K, TLongList> e : positions.entrySet() ) {
+            TLongList pos = e.getValue();
+            pos.sort();
+            result.put(e.getKey(), pos.toArray());
          }
+         return result;
       }
-      pos.addAll(_overflowIndex.getAllPositions());
-      // TODO sort since we added the positions from groupIndex?
-      return pos;
    }
 
    @Override
-   public int getNumKeys() {
+   public TLongList getAllPositions() {
+      synchronized ( _dump ) {
+         long numEntries = 0;
+         for ( SortedRun run : _runs ) {
+            numEntries += run.getNumEntries();
+         }
+         TLongList pos = new TLongArrayList((int)Math.min(numEntries, Integer.MAX_VALUE - 8));
 
-      boolean first = true;
-      int numKeys = 0;
-      if ( _fieldIsInt ) {
-         int before = 0;
-         for ( IntKeyPosition keyPos : _intKeyDump ) {
-            if ( _dump._deletedPositions.contains(keyPos._pos) ) {
-               continue;
+         if ( _fieldIsInt || _fieldIsLong ) {
+            for ( SortedRun run : _runs ) {
+               run.addAllPositions(pos);
             }
-
-            int key = keyPos._key;
-            if ( first || key != before ) {
-               first = false;
-               if ( !_overflowIndex.contains(key) ) {
-                  numKeys++;
+         } else if ( _fieldIsExternalizable ) {
+            for ( ExternalizableKeyPosition kp : _externalizableKeyDump ) {
+               if ( kp._pos >= 0 && !_dump._deletedPositions.contains(kp._pos) ) {
+                  pos.add(kp._pos);
                }
             }
-            before = key;
-         }
-      } else if ( _fieldIsLong ) {
-         long before = 0;
-         for ( LongKeyPosition keyPos : _longKeyDump ) {
-            if ( _dump._deletedPositions.contains(keyPos._pos) ) {
-               continue;
-            }
-
-            long key = keyPos._key;
-            if ( first || key != before ) {
-               first = false;
-               if ( !_overflowIndex.contains(key) ) {
-                  numKeys++;
+         } else if ( _fieldIsString ) {
+            for ( StringKeyPosition kp : _stringKeyDump ) {
+               if ( kp._pos >= 0 && !_dump._deletedPositions.contains(kp._pos) ) {
+                  pos.add(kp._pos);
                }
             }
-            before = key;
-         }
-      } else {
-         if ( !_fieldIsExternalizable && !_fieldIsString ) {
-            throw new IllegalStateException("must not happen");
+            // inline keys are negative and point to the dump directly
+            for ( SortedRun run : _runs ) {
+               run.addRangePositions(Long.MIN_VALUE, 0, pos);
+            }
          }
+         pos.addAll(_overflowIndex.getAllPositions());
+         // TODO sort since we added the positions from groupIndex?
+         return pos;
+      }
+   }
 
-         int before = 0;
-         Set<Object> set = new HashSet<>();
-         for ( IntKeyPosition keyPos : _intKeyDump ) {
+   @Override
+   public int getNumKeys() {
+      synchronized ( _dump ) {
+         boolean first = true;
+         int numKeys = 0;
+         SortedLookupFile.Cursor entries = getSortedEntries(_runs);
+         if ( _fieldIsInt || _fieldIsLong ) {
+            long before = 0;
+            while ( entries.next() ) {
+               if ( !isValidPosition(entries.file(), entries.position()) ) {
+                  continue;
+               }
 
-            int hashCode = keyPos._key;
-            if ( first || hashCode != before ) {
-               numKeys += countDistinctObjects(set);
-               first = false;
+               long key = entries.key();
+               if ( first || key != before ) {
+                  first = false;
+                  if ( !(_fieldIsInt ? _overflowIndex.contains((int)key) : _overflowIndex.contains(key)) ) {
+                     numKeys++;
+                  }
+               }
+               before = key;
             }
-
-            Object objectKey = null;
-            long objectPos = -1;
-            if ( _fieldIsString ) {
-               StringKeyPosition object = _stringKeyDump.get(keyPos._pos);
-               objectPos = object._pos;
-               objectKey = object._key;
-            } else {
-               ExternalizableKeyPosition object = _externalizableKeyDump.get(keyPos._pos);
-               objectPos = object._pos;
-               objectKey = _externalizableKeyDump.get(keyPos._pos)._key;
+         } else {
+            if ( !_fieldIsExternalizable && !_fieldIsString ) {
+               throw new IllegalStateException("must not happen");
             }
-            if ( _dump._deletedPositions.contains(objectPos) ) {
-               continue;
+
+            long before = 0;
+            Set<Object> set = new HashSet<>();
+            while ( entries.next() ) {
+
+               long keyHash = entries.key();
+               if ( first || keyHash != before ) {
+                  numKeys += countDistinctObjects(set);
+                  first = false;
+               }
+
+               Object objectKey = null;
+               boolean valid;
+               if ( isInlineKey(keyHash) ) {
+                  objectKey = decodeInlineKey(keyHash);
+                  valid = isValidPosition(entries.file(), entries.position());
+               } else if ( _fieldIsString ) {
+                  StringKeyPosition object = _stringKeyDump.get(entries.position());
+                  objectKey = object._key;
+                  valid = object._pos >= 0 && !_dump._deletedPositions.contains(object._pos);
+               } else {
+                  ExternalizableKeyPosition object = _externalizableKeyDump.get(entries.position());
+                  objectKey = object._key;
+                  valid = object._pos >= 0 && !_dump._deletedPositions.contains(object._pos);
+               }
+               if ( !valid ) {
+                  continue;
+               }
+               set.add(objectKey);
+               before = keyHash;
             }
-            set.add(objectKey);
-            before = hashCode;
+
+            numKeys += countDistinctObjects(set);
          }
 
-         numKeys += countDistinctObjects(set);
+         return numKeys + _overflowIndex.getNumKeys();
       }
-
-      return numKeys + _overflowIndex.getNumKeys();
    }
 
    @Override
@@ -328,6 +567,27 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
       }
    }
 
+   @Override
+   public PositionSet positions( int key ) {
+      synchronized ( _dump ) {
+         return PositionSet.of(getPositions(key)).withoutDeleted(_dump._deletedPositions);
+      }
+   }
+
+   @Override
+   public PositionSet positions( long key ) {
+      synchronized ( _dump ) {
+         return PositionSet.of(getPositions(key)).withoutDeleted(_dump._deletedPositions);
+      }
+   }
+
+   @Override
+   public PositionSet positions( Object key ) {
+      synchronized ( _dump ) {
+         return PositionSet.of(getPositions(key)).withoutDeleted(_dump._deletedPositions);
+      }
+   }
+
    /**
     * @param lowerKey inclusive
     * @param upperKey exclusive
@@ -337,20 +597,17 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
          TLongList pos = new TLongArrayList();
          _overflowIndex._lookupLong.forEachEntry(( key, positions ) -> {
             if ( key >= lowerKey && key < upperKey )
-               pos.addAll(positions);
+               pos.addAll(positions.toArray());
+            return true;
+         });
+         _overflowIndex._singleLong.forEachEntry(( key, p ) -> {
+            if ( key >= lowerKey && key < upperKey )
+               pos.add(p);
             return true;
          });
 
-         int keyLength = 8 + 8; // in bytes
-         long lowerIndex = Math.abs(findLongKey(lowerKey, keyLength));
-         long upperIndex = Math.abs(findLongKey(upperKey, keyLength)) + 1;
-         if ( upperIndex - lowerIndex > 0 ) {
-            for ( long p = lowerIndex * keyLength, maxIndex = Math.min(upperIndex * keyLength, _lookupFileLength); p < maxIndex; p += keyLength ) {
-               LongKeyPosition ip = _longKeyDump.get(p);
-               if ( ip._pos >= 0 && !_dump._deletedPositions.contains(ip._pos) && ip._key >= lowerKey && ip._key < upperKey ) {
-                  pos.add(ip._pos);
-               }
-            }
+         for ( int i = _runs.size() - 1; i >= 0; i-- ) {
+            _runs.get(i).addRangePositions(lowerKey, upperKey, pos);
          }
          pos.sort();
          return new GroupIterable(pos.toArray());
@@ -371,8 +628,40 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
 
       _overflowIndex = new MyGroupIndex(_dump, _fieldAccessor);
 
-      _currentLookupSize = _fieldIsInt ? _overflowIndex._lookupInt.size()
-            : (_fieldIsLong ? _overflowIndex._lookupLong.size() : _overflowIndex._lookupObject.size());
+      _currentLookupSize = _overflowIndex.getNumKeys();
+
+      if ( _addDumpToOverflow ) {
+         _addDumpToOverflow = false;
+         try (DumpIterator<E> iterator = _dump.iterator()) {
+            while ( iterator.hasNext() ) {
+               add(iterator.next(), iterator.getPosition());
+            }
+         }
+         catch ( IOException argh ) {
+            throw new RuntimeException("Failed to init InfiniteGroupIndex from dump", argh);
+         }
+      }
+   }
+
+   /**
+    * @return true, if a rebuilt index starts with an empty lookup file and all elements are added to the overflow index,
+    *         which is written to sorted runs as it fills up. Otherwise, the dump is sorted into the lookup file on disk.
+    */
+   protected boolean buildsThroughOverflow() {
+      return false;
+   }
+
+   @Override
+   protected boolean checkMeta() {
+      IndexMeta indexMeta = new IndexMeta();
+      checkMeta(_dump, getMetaFile(), getIndexType(), indexMeta);
+      String versionString = indexMeta.getMetaValue(VERSION_META_KEY);
+      int version = versionString == null ? 1 : Integer.parseInt(versionString);
+      if ( version != VERSION && (_fieldIsString || _fieldIsExternalizable) ) {
+         LOG.warn("InfiniteGroupIndex version {} of {} does not match current version {}, will rebuild index", version, getLookupFile(), VERSION);
+         return false;
+      }
+      return indexMeta._valid;
    }
 
    @Override
@@ -392,20 +681,8 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
       }
 
       TLongList pos = new TLongArrayList(_overflowIndex.getPositions(key));
-
-      int keyLength = 4 + 8; // in bytes
-
-      long firstIndex = findIntKey(key, keyLength);
-      if ( firstIndex >= 0 ) {
-         for ( long p = firstIndex * keyLength; p < _lookupFileLength; p += keyLength ) {
-            IntKeyPosition ip = _intKeyDump.get(p);
-            if ( ip._key != key ) {
-               break;
-            }
-            if ( ip._pos >= 0 && !_dump._deletedPositions.contains(ip._pos) ) {
-               pos.add(ip._pos);
-            }
-         }
+      for ( int i = _runs.size() - 1; i >= 0; i-- ) {
+         _runs.get(i).addPositions(key, pos);
       }
 
       long[] positions = pos.toArray();
@@ -425,20 +702,8 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
       }
 
       TLongList pos = new TLongArrayList(_overflowIndex.getPositions(key));
-
-      int keyLength = 8 + 8; // in bytes
-
-      long firstIndex = findLongKey(key, keyLength);
-      if ( firstIndex >= 0 ) {
-         for ( long p = firstIndex * keyLength; p < _lookupFileLength; p += keyLength ) {
-            LongKeyPosition ip = _longKeyDump.get(p);
-            if ( ip._key != key ) {
-               break;
-            }
-            if ( ip._pos >= 0 && !_dump._deletedPositions.contains(ip._pos) ) {
-               pos.add(ip._pos);
-            }
-         }
+      for ( int i = _runs.size() - 1; i >= 0; i-- ) {
+         _runs.get(i).addPositions(key, pos);
       }
 
       long[] positions = pos.toArray();
@@ -457,19 +722,22 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
          throw new IllegalArgumentException(
             "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate lookup(.) method.");
       }
-      if ( (_fieldIsExternalizable && !(key instanceof Externalizable)) || (_fieldIsString && !(key instanceof String)) ) {
-         throw new IllegalArgumentException("Incompatible key type. The type of the used key class of this index is " + _fieldAccessor.getType()
-            + ". You tried to using the index with a key of type " + key.getClass() + ".");
-      }
+      checkObjectKeyType(key);
 
       long[] cachedPositions = getPositionsFromCache(key);
       if ( cachedPositions != null ) {
          return cachedPositions;
       }
 
-      TLongList keyPositions = getObjectKeyPositions(key);
-
       TLongList positions = new TLongArrayList(_overflowIndex.getPositions(key));
+      long keyHash = getObjectKeyHash(key);
+      if ( isInlineKey(keyHash) ) {
+         for ( int i = _runs.size() - 1; i >= 0; i-- ) {
+            _runs.get(i).addPositions(keyHash, positions);
+         }
+      }
+
+      TLongList keyPositions = isInlineKey(keyHash) ? new TLongArrayList(0) : getObjectKeyPositions(keyHash);
       for ( TLongIterator iterator = keyPositions.iterator(); iterator.hasNext(); ) {
          long pos = iterator.next();
          if ( _fieldIsExternalizable ) {
@@ -504,68 +772,71 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
    protected void initFromDump() {
 
       try {
+         if ( buildsThroughOverflow() ) {
+            new SortedLookupFile.Writer(getLookupFile(), !_fieldIsInt, 0).close();
+            load();
+            _addDumpToOverflow = true;
+            return;
+         }
+
+         long numEntries = 0;
          if ( _fieldIsInt ) {
-            final InfiniteSorter<IntKeyPosition> sorter = new InfiniteSorter<IntKeyPosition>(_maxLookupSizeInMemory, -1, _dump.getDumpFile().getParentFile(),
-               new SingleTypeObjectStreamProvider<>(IntKeyPosition.class), Comparator.naturalOrder());
+            final InfiniteSorter<IntKeyPosition> sorter = newSorter(IntKeyPosition.class);
             try (DumpIterator<E> iterator = _dump.iterator()) {
                while ( iterator.hasNext() ) {
                   sorter.add(new IntKeyPosition(getIntKey(iterator.next()), iterator.getPosition()));
+                  numEntries++;
                }
             }
             catch ( IOException argh ) {
                throw new RuntimeException("Failed to sort InfiniteGroupIndex on disk", argh);
             }
-            _intKeyDump = new Dump<>(IntKeyPosition.class, getLookupFile());
-            _intKeyDump.addAll(sorter);
-            _intKeyDump.flush();
-            _lookupFileLength = getLookupFile().length();
+            writeRunFile(getLookupFile(), sorter, numEntries);
          } else if ( _fieldIsLong ) {
-            final InfiniteSorter<LongKeyPosition> sorter = new InfiniteSorter<LongKeyPosition>(_maxLookupSizeInMemory, -1, _dump.getDumpFile().getParentFile(),
-               new SingleTypeObjectStreamProvider<>(LongKeyPosition.class), Comparator.naturalOrder());
+            final InfiniteSorter<LongKeyPosition> sorter = newSorter(LongKeyPosition.class);
             try (DumpIterator<E> iterator = _dump.iterator()) {
                while ( iterator.hasNext() ) {
                   sorter.add(new LongKeyPosition(getLongKey(iterator.next()), iterator.getPosition()));
+                  numEntries++;
                }
             }
             catch ( IOException argh ) {
                throw new RuntimeException("Failed to sort InfiniteGroupIndex on disk", argh);
             }
-            _longKeyDump = new Dump<>(LongKeyPosition.class, getLookupFile());
-            _longKeyDump.addAll(sorter);
-            _longKeyDump.flush();
-            _lookupFileLength = getLookupFile().length();
+            writeRunFile(getLookupFile(), sorter, numEntries);
          } else if ( _fieldIsString || _fieldIsExternalizable ) {
             if ( _fieldIsExternalizable ) {
                _externalizableKeyDump = new Dump<>(ExternalizableKeyPosition.class, _objectKeyDumpFile);
             } else {
                _stringKeyDump = new Dump<>(StringKeyPosition.class, _objectKeyDumpFile);
             }
-            final InfiniteSorter<IntKeyPosition> sorter = new InfiniteSorter<IntKeyPosition>(_maxLookupSizeInMemory, -1, _dump.getDumpFile().getParentFile(),
-               new SingleTypeObjectStreamProvider<>(IntKeyPosition.class), Comparator.naturalOrder());
+            final InfiniteSorter<LongKeyPosition> sorter = newSorter(LongKeyPosition.class);
             try (DumpIterator<E> iterator = _dump.iterator()) {
                while ( iterator.hasNext() ) {
                   long keyPos = -1;
                   Object objectKey = getObjectKey(iterator.next());
-                  if ( _fieldIsExternalizable ) {
+                  long keyHash = getObjectKeyHash(objectKey);
+                  if ( isInlineKey(keyHash) ) {
+                     keyPos = iterator.getPosition();
+                  } else if ( _fieldIsExternalizable ) {
                      keyPos = _externalizableKeyDump._outputStream._n;
                      _externalizableKeyDump.add(new ExternalizableKeyPosition((Externalizable)objectKey, iterator.getPosition()));
                   } else if ( _fieldIsString ) {
                      keyPos = _stringKeyDump._outputStream._n;
                      _stringKeyDump.add(new StringKeyPosition((String)objectKey, iterator.getPosition()));
                   }
-                  sorter.add(new IntKeyPosition(objectKey.hashCode(), keyPos));
+                  sorter.add(new LongKeyPosition(keyHash, keyPos));
+                  numEntries++;
                }
             }
             catch ( IOException argh ) {
                throw new RuntimeException("Failed to sort InfiniteGroupIndex on disk", argh);
             }
-            _intKeyDump = new Dump<>(IntKeyPosition.class, getLookupFile());
-            _intKeyDump.addAll(sorter);
-            _intKeyDump.flush();
-            _lookupFileLength = getLookupFile().length();
+            writeRunFile(getLookupFile(), sorter, numEntries);
          } else {
             throw new UnsupportedOperationException("unsupported key type: " + _fieldAccessor.getType());
          }
+         _runs = Collections.singletonList(new SortedRun(0, getLookupFile()));
       }
       catch ( IOException argh ) {
          throw new RuntimeException("Failed to init InfiniteGroupIndex from dump", argh);
@@ -577,6 +848,7 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
       if ( _fieldIsExternalizable || _fieldIsString ) {
          _objectKeyDumpFile = new File(_dump.getDumpFile().getParentFile(), getLookupFile().getName().replaceAll("lookup$", "keys"));
       }
+      _runsFile = new File(_dump.getDumpFile().getParentFile(), getLookupFile().getName().replaceAll("lookup$", "runs"));
    }
 
    @Override
@@ -587,116 +859,83 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
    @Override
    protected void load() {
       // we load nothing, since this is a disk-based index.
-      if ( _fieldIsInt ) {
-         _intKeyDump = new Dump<>(IntKeyPosition.class, getLookupFile());
-      } else if ( _fieldIsLong ) {
-         _longKeyDump = new Dump<>(LongKeyPosition.class, getLookupFile());
-      } else if ( _fieldIsExternalizable || _fieldIsString ) {
-         _intKeyDump = new Dump<>(IntKeyPosition.class, getLookupFile());
-      } else {
+      if ( !_fieldIsInt && !_fieldIsLong && !_fieldIsExternalizable && !_fieldIsString ) {
          throw new UnsupportedOperationException("unsupported key type: " + _fieldAccessor.getType());
       }
+      _runs = Collections.singletonList(new SortedRun(0, getLookupFile()));
+      if ( _runsFile.exists() ) {
+         try {
+            readRuns();
+         }
+         catch ( IOException argh ) {
+            throw new RuntimeException("Failed to read sorted runs of InfiniteGroupIndex from " + _runsFile, argh);
+         }
+      }
 
       if ( _fieldIsExternalizable ) {
          _externalizableKeyDump = new Dump<>(ExternalizableKeyPosition.class, _objectKeyDumpFile);
       } else if ( _fieldIsString ) {
          _stringKeyDump = new Dump<>(StringKeyPosition.class, _objectKeyDumpFile);
       }
-
-      _lookupFileLength = getLookupFile().length();
    }
 
+   /**
+    * Writes the overflow index as a new sorted run and starts merging the runs of the smallest size tier, if there are enough
+    * of them.
+    */
    protected void mergeOverflowIntoIndex() {
       try {
-         String tmpLookupFileName = getLookupFile().getName() + ".tmp";
-         if ( _fieldIsInt ) {
-            final InfiniteSorter<IntKeyPosition> sorter = new InfiniteSorter<IntKeyPosition>(_maxLookupSizeInMemory, -1, _dump.getDumpFile().getParentFile(),
-               new SingleTypeObjectStreamProvider<>(IntKeyPosition.class), Comparator.naturalOrder());
-            // the existing dump is already sorted, so this is an optimization to avoid re-externalization and re-sorting of the existing objects
-            sorter.addSortedSegment(_intKeyDump);
-
-            _overflowIndex._lookupInt.forEachEntry(new TIntObjectProcedure<Positions>() {
-
-               @Override
-               public boolean execute( int key, Positions positions ) {
-                  try {
-                     for ( long pos : positions.toArray() ) {
-                        sorter.add(new IntKeyPosition(key, pos));
-                     }
-                     return true;
-                  }
-                  catch ( IOException argh ) {
-                     throw new RuntimeException(argh);
-                  }
+         // an empty lookup file is simply replaced, all other runs stay untouched
+         boolean replaceLookupFile = _runs.size() == 1 && _runs.get(0).getNumEntries() == 0;
+         int id = _nextRunId++;
+         File runFile = getRunFile(id);
+         long numKeys = _fieldIsInt ? _overflowIndex._lookupInt.size() + _overflowIndex._singleInt.size()
+               : _fieldIsLong ? _overflowIndex._lookupLong.size() + _overflowIndex._singleLong.size()
+               : _overflowIndex._lookupObject.size() + _overflowIndex._singleObject.size();
+         try (SortedLookupFile.Writer writer = new SortedLookupFile.Writer(runFile, !_fieldIsInt, numKeys)) {
+            if ( _fieldIsInt ) {
+               TIntArrayList keys = new TIntArrayList(_overflowIndex._lookupInt.keys());
+               keys.add(_overflowIndex._singleInt.keys());
+               keys.sort();
+               for ( int i = 0; i < keys.size(); i++ ) {
+                  int key = keys.get(i);
+                  writePositions(writer, key, _overflowIndex._singleInt.get(key), _overflowIndex._lookupInt.get(key));
                }
-            });
-            File tmpLookupFile = new File(getLookupFile().getParent(), tmpLookupFileName);
-            Dump<IntKeyPosition> intKeyDump = new Dump<>(IntKeyPosition.class, tmpLookupFile);
-            intKeyDump.addAll(sorter);
-            intKeyDump.close();
-            _intKeyDump.close();
-            renameTmpLookupFile(tmpLookupFileName, tmpLookupFile);
-            _intKeyDump = new Dump<>(IntKeyPosition.class, getLookupFile());
-         } else if ( _fieldIsLong ) {
-            final InfiniteSorter<LongKeyPosition> sorter = new InfiniteSorter<LongKeyPosition>(_maxLookupSizeInMemory, -1, _dump.getDumpFile().getParentFile(),
-               new SingleTypeObjectStreamProvider<>(LongKeyPosition.class), Comparator.naturalOrder());
-            // the existing dump is already sorted, so this is an optimisation to avoid re-externalization and re-sorting of the existing objects
-            sorter.addSortedSegment(_longKeyDump);
-
-            _overflowIndex._lookupLong.forEachEntry(new TLongObjectProcedure<Positions>() {
-
-               @Override
-               public boolean execute( long key, Positions positions ) {
-                  try {
-                     for ( long pos : positions.toArray() ) {
-                        sorter.add(new LongKeyPosition(key, pos));
-                     }
-                     return true;
-                  }
-                  catch ( IOException argh ) {
-                     throw new RuntimeException(argh);
+            } else if ( _fieldIsLong ) {
+               TLongArrayList keys = new TLongArrayList(_overflowIndex._lookupLong.keys());
+               keys.add(_overflowIndex._singleLong.keys());
+               keys.sort();
+               for ( int i = 0; i < keys.size(); i++ ) {
+                  long key = keys.get(i);
+                  writePositions(writer, key, _overflowIndex._singleLong.get(key), _overflowIndex._lookupLong.get(key));
+               }
+            } else {
+               TLongObjectMap<TLongList> keyPositions = new TLongObjectHashMap<>();
+               for ( Entry<Object, Positions> e : _overflowIndex._lookupObject.entrySet() ) {
+                  for ( long pos : e.getValue().toArray() ) {
+                     addObjectKeyPosition(keyPositions, e.getKey(), pos);
                   }
                }
-            });
-
-            File tmpLookupFile = new File(getLookupFile().getParent(), tmpLookupFileName);
-            Dump<LongKeyPosition> longKeyDump = new Dump<>(LongKeyPosition.class, tmpLookupFile);
-            longKeyDump.addAll(sorter);
-            longKeyDump.close();
-            _longKeyDump.close();
-            renameTmpLookupFile(tmpLookupFileName, tmpLookupFile);
-            _longKeyDump = new Dump<>(LongKeyPosition.class, getLookupFile());
-         } else {
-            InfiniteSorter<IntKeyPosition> sorter = new InfiniteSorter<IntKeyPosition>(_maxLookupSizeInMemory, -1, _dump.getDumpFile().getParentFile(),
-               new SingleTypeObjectStreamProvider<>(IntKeyPosition.class), Comparator.naturalOrder());
-            // the existing dump is already sorted, so this is an optimisation to avoid re-externalization and re-sorting of the existing objects
-            sorter.addSortedSegment(_intKeyDump);
-
-            for ( Entry<Object, Positions> e : _overflowIndex._lookupObject.entrySet() ) {
-               Object objectKey = e.getKey();
-               Positions positions = e.getValue();
-               for ( long pos : positions.toArray() ) {
-                  long keyPos = -1;
-                  if ( _fieldIsExternalizable ) {
-                     keyPos = _externalizableKeyDump._outputStream._n;
-                     _externalizableKeyDump.add(new ExternalizableKeyPosition((Externalizable)objectKey, pos));
-                  } else if ( _fieldIsString ) {
-                     keyPos = _stringKeyDump._outputStream._n;
-                     _stringKeyDump.add(new StringKeyPosition((String)objectKey, pos));
+               for ( TObjectLongIterator<Object> iterator = _overflowIndex._singleObject.iterator(); iterator.hasNext(); ) {
+                  iterator.advance();
+                  addObjectKeyPosition(keyPositions, iterator.key(), iterator.value());
+               }
+               long[] keyHashes = keyPositions.keys();
+               Arrays.sort(keyHashes);
+               for ( long keyHash : keyHashes ) {
+                  TLongList positions = keyPositions.get(keyHash);
+                  for ( int i = 0; i < positions.size(); i++ ) {
+                     writer.add(keyHash, positions.get(i));
                   }
-                  sorter.add(new IntKeyPosition(objectKey.hashCode(), keyPos));
                }
             }
-            File tmpLookupFile = new File(getLookupFile().getParent(), tmpLookupFileName);
-            Dump<IntKeyPosition> intKeyDump = new Dump<>(IntKeyPosition.class, tmpLookupFile);
-            intKeyDump.addAll(sorter);
-            intKeyDump.close();
-            _intKeyDump.close();
-            renameTmpLookupFile(tmpLookupFileName, tmpLookupFile);
-            _intKeyDump = new Dump<>(IntKeyPosition.class, getLookupFile());
          }
-
-         _lookupFileLength = getLookupFile().length();
+         if ( replaceLookupFile ) {
+            replaceRuns(0, 1, id, runFile);
+         } else {
+            replaceRuns(_runs.size(), 0, id, runFile);
+         }
+         startMerge();
 
          _overflowIndex.close();
          _overflowIndex.getLookupFile().delete();
@@ -724,12 +963,35 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
       }
    }
 
+   @Override
+   protected void writeMeta() throws IOException {
+      super.writeMeta();
+      RandomAccessFile metaRAF = getMetaRAF();
+      metaRAF.writeUTF(VERSION_META_KEY);
+      metaRAF.writeUTF("" + VERSION);
+   }
+
    @Override
    void delete( E o, long pos ) {
       _overflowIndex.delete(o, pos);
       // we have no cache in memory, so there's nothing to do
    }
 
+   /**
+    * waits until the background merge of runs finished
+    */
+   void awaitMerge() throws InterruptedException {
+      synchronized ( _dump ) {
+         while ( _mergeThread != null ) {
+            _dump.wait();
+         }
+      }
+   }
+
+   int getNumRuns() {
+      return _runs.size();
+   }
+
    @Override
    boolean isUpdatable( E oldItem, E newItem ) {
       return true;
@@ -753,43 +1015,19 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
 
          if ( _fieldIsInt ) {
             int key = getIntKey(oldItem);
-            int keyLength = 4 + 8; // in bytes
-
-            long firstIndex = findIntKey(key, keyLength);
-            if ( firstIndex >= 0 ) {
-               for ( long p = firstIndex * keyLength; p < _lookupFileLength; p += keyLength ) {
-                  IntKeyPosition ip = _intKeyDump.get(p);
-                  if ( ip._key != key ) {
-                     break;
-                  }
-                  if ( ip._pos == pos ) {
-                     ip._pos = -1; // mark element as deleted
-                     _intKeyDump.update(p, ip);
-                  }
-               }
-            }
+            markUpdated(key, pos);
             removePositionsFromCache(key);
          } else if ( _fieldIsLong ) {
             long key = getLongKey(oldItem);
-            int keyLength = 8 + 8; // in bytes
-
-            long firstIndex = findLongKey(key, keyLength);
-            if ( firstIndex >= 0 ) {
-               for ( long p = firstIndex * keyLength; p < _lookupFileLength; p += keyLength ) {
-                  LongKeyPosition ip = _longKeyDump.get(p);
-                  if ( ip._key != key ) {
-                     break;
-                  }
-                  if ( ip._pos == pos ) {
-                     ip._pos = -1; // mark element as deleted
-                     _longKeyDump.update(p, ip);
-                  }
-               }
-            }
+            markUpdated(key, pos);
             removePositionsFromCache(key);
          } else {
             Object key = getObjectKey(oldItem);
-            TLongList keyPositions = getObjectKeyPositions(key);
+            long keyHash = getObjectKeyHash(key);
+            if ( isInlineKey(keyHash) ) {
+               markUpdated(keyHash, pos);
+            }
+            TLongList keyPositions = isInlineKey(keyHash) ? new TLongArrayList(0) : getObjectKeyPositions(keyHash);
 
             for ( TLongIterator iterator = keyPositions.iterator(); iterator.hasNext(); ) {
                long p = iterator.next();
@@ -817,6 +1055,26 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
       }
    }
 
+   private void addObjectKeyPosition( TLongObjectMap<TLongList> keyPositions, Object objectKey, long pos ) throws IOException {
+      long keyPos = -1;
+      long keyHash = getObjectKeyHash(objectKey);
+      if ( isInlineKey(keyHash) ) {
+         keyPos = pos;
+      } else if ( _fieldIsExternalizable ) {
+         keyPos = _externalizableKeyDump._outputStream._n;
+         _externalizableKeyDump.add(new ExternalizableKeyPosition((Externalizable)objectKey, pos));
+      } else if ( _fieldIsString ) {
+         keyPos = _stringKeyDump._outputStream._n;
+         _stringKeyDump.add(new StringKeyPosition((String)objectKey, pos));
+      }
+      TLongList positions = keyPositions.get(keyHash);
+      if ( positions == null ) {
+         positions = new TLongArrayList();
+         keyPositions.put(keyHash, positions);
+      }
+      positions.add(keyPos);
+   }
+
    private int countDistinctObjects( Set<Object> set ) {
       int num = 0;
       for ( Object object : set ) {
@@ -828,100 +1086,81 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
       return num;
    };
 
-   private long findFirst( int key, int keyLength, long low, long high ) {
-      long mid = -1;
-      while ( low <= high ) {
-         mid = (low + high) >>> 1;
-         IntKeyPosition midVal = _intKeyDump.get(mid * keyLength);
-
-         if ( midVal._key < key ) {
-            low = mid + 1;
-         } else if ( midVal._key == key ) {
-            high = mid - 1;
+   private void deleteRunFile( File runFile ) {
+      for ( File file : new File[] { runFile, SortedLookupFile.getBloomFile(runFile) } ) {
+         if ( file.exists() && !file.delete() ) {
+            throw new RuntimeException("Failed to delete InfiniteGroupIndex run " + file);
          }
       }
-
-      return low;
    }
 
-   private long findFirst( long key, int keyLength, long low, long high ) {
-      long mid = -1;
-      while ( low <= high ) {
-         mid = (low + high) >>> 1;
-         LongKeyPosition midVal = _longKeyDump.get(mid * keyLength);
+   private void checkObjectKeyType( Object key ) {
+      if ( (_fieldIsExternalizable && !(key instanceof Externalizable)) || (_fieldIsString && !(key instanceof String)) ) {
+         throw new IllegalArgumentException("Incompatible key type. The type of the used key class of this index is " + _fieldAccessor.getType()
+            + ". You tried to using the index with a key of type " + key.getClass() + ".");
+      }
+   }
 
-         if ( midVal._key < key ) {
-            low = mid + 1;
-         } else if ( midVal._key == key ) {
-            high = mid - 1;
+   /**
+    * @return a negative inline key for short {@link String}s (see {@link #getInlineKey(String)}), otherwise a non-negative
+    *         64-bit hash of the key. Since {@link Externalizable} keys are compared by <code>equals()</code>, their hash is
+    *         derived from <code>hashCode()</code>.
+    */
+   private long getObjectKeyHash( Object key ) {
+      if ( _fieldIsString ) {
+         long inlineKey = getInlineKey((String)key);
+         if ( inlineKey != 0 ) {
+            return inlineKey;
          }
       }
-
-      return low;
+      return HashUtils.hash64(key) & Long.MAX_VALUE;
    }
 
    /**
-    * binary search in the _intKeyDump
+    * @return the positions in the key dump of all objects with the given hash
     */
-   private long findIntKey( int key, int keyLength ) {
-      long low = 0;
-      long high = (int)_lookupFileLength / keyLength - 1;
-
-      while ( low <= high ) {
-         long mid = (low + high) >>> 1;
-         IntKeyPosition midVal = _intKeyDump.get(mid * keyLength);
-
-         if ( midVal._key < key ) {
-            low = mid + 1;
-         } else if ( midVal._key > key ) {
-            high = mid - 1;
-         } else {
-            return findFirst(key, keyLength, low, mid);
-         }
+   private TLongList getObjectKeyPositions( long keyHash ) {
+      TLongList keyPositions = new TLongArrayList();
+      for ( int i = _runs.size() - 1; i >= 0; i-- ) {
+         _runs.get(i).addKeyPositions(keyHash, keyPositions);
       }
-      return -1; // not found
+      return keyPositions;
+   }
+
+   private File getRunFile( int id ) {
+      return new File(getLookupFile().getParent(), getLookupFile().getName().replaceFirst("lookup$", "run" + id));
    }
 
    /**
-    * binary search in the _longKeyDump
-    * @return index of first value with the given key, or -index of the correct insert position for the key if it is missing in the dump
+    * @return the entries of the given runs in the order of their keys
     */
-   private long findLongKey( long key, int keyLength ) {
-      long low = 0;
-      long high = _lookupFileLength / keyLength - 1;
-      long mid = 1;
-
-      while ( low <= high ) {
-         mid = (low + high) >>> 1;
-         LongKeyPosition midVal = _longKeyDump.get(mid * keyLength);
-
-         if ( midVal._key < key ) {
-            low = mid + 1;
-         } else if ( midVal._key > key ) {
-            high = mid - 1;
-         } else {
-            return findFirst(key, keyLength, low, mid);
-         }
+   private SortedLookupFile.Cursor getSortedEntries( List<SortedRun> runs ) {
+      List<SortedLookupFile> lookupFiles = new ArrayList<>(runs.size());
+      for ( SortedRun run : runs ) {
+         lookupFiles.add(run._lookupFile);
       }
-      return -mid; // not found
+      return SortedLookupFile.merge(lookupFiles);
    }
 
-   private TLongList getObjectKeyPositions( Object key ) {
-      TLongList keyPositions = new TLongArrayList();
-      int keyLength = 4 + 8; // in bytes
-
-      int keyHashCode = key.hashCode();
-      long firstIndex = findIntKey(keyHashCode, keyLength);
-      if ( firstIndex >= 0 ) {
-         for ( long p = firstIndex * keyLength; p < _lookupFileLength; p += keyLength ) {
-            IntKeyPosition ip = _intKeyDump.get(p);
-            if ( ip._key != keyHashCode ) {
-               break;
+   private boolean isInlineKey( long keyHash ) {
+      return keyHash < 0;
+   }
+
+   /**
+    * @return true, if the position of an entry of the given run file belongs to an existing element, which wasn't updated
+    */
+   private boolean isValidPosition( SortedLookupFile lookupFile, long pos ) {
+      if ( pos < 0 || _dump._deletedPositions.contains(pos) ) {
+         return false;
+      }
+      if ( _positionsUpdatedDuringMerge.contains(pos) ) {
+         for ( SortedRun run : _runs ) {
+            if ( run._lookupFile == lookupFile ) {
+               return !run._merging;
             }
-            keyPositions.add(ip._pos);
          }
       }
-      return keyPositions;
+      return true;
    }
 
    private void isFieldCompatible() {
@@ -950,16 +1189,250 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
       }
    }
 
-   private void renameTmpLookupFile( String tmpLookupFileName, File tmpLookupFile ) {
-      if ( getLookupFile().exists() && !getLookupFile().delete() ) {
-         throw new RuntimeException("Failed to delete old InfiniteGroupIndex lookup " + getLookupFile());
+   /**
+    * Finishes a merge: the merged run replaces the input runs and gets the updates, which happened during the merge. If
+    * the merge failed or was abandoned, the updates are written to the input runs instead.
+    */
+   private void finishMerge( int first, List<SortedRun> inputs, int id, File runFile ) throws IOException {
+      for ( SortedRun run : inputs ) {
+         run._merging = false;
+      }
+      List<SortedRun> updatedRuns = inputs;
+      if ( runFile != null ) {
+         updatedRuns = Collections.singletonList(replaceRuns(first, inputs.size(), id, runFile));
+      }
+      for ( SortedRun run : updatedRuns ) {
+         for ( int i = 0; i < _updatesDuringMerge.size(); i += 2 ) {
+            run.markUpdated(_updatesDuringMerge.get(i), _updatesDuringMerge.get(i + 1));
+         }
+      }
+      _updatesDuringMerge.clear();
+      _positionsUpdatedDuringMerge.clear();
+   }
+
+   /**
+    * @return the index of the first run to merge, i.e. the newest runs as long as there are at least {@link #RUN_MERGE_FACTOR}
+    *         runs in the tier of the newest run. Older runs of a lower tier (i.e. a small lookup file) are merged along with
+    *         them. -1 if there is nothing to merge.
+    */
+   private int getMergeStart( List<SortedRun> runs ) {
+      if ( runs.size() < RUN_MERGE_FACTOR ) {
+         return -1;
+      }
+      int level = runs.get(runs.size() - 1).getLevel();
+      int first = runs.size() - 1;
+      while ( first > 0 && runs.get(first - 1).getLevel() <= level ) {
+         first--;
+      }
+      return runs.size() - first < RUN_MERGE_FACTOR ? -1 : first;
+   }
+
+   private void markUpdated( long key, long pos ) {
+      boolean merging = false;
+      for ( SortedRun run : _runs ) {
+         if ( run._merging ) {
+            merging = true;
+         } else {
+            run.markUpdated(key, pos);
+         }
+      }
+      if ( merging ) {
+         _updatesDuringMerge.add(key);
+         _updatesDuringMerge.add(pos);
+         _positionsUpdatedDuringMerge.add(pos);
+      }
+   }
+
+   /**
+    * The body of the merge thread, merges runs until there is nothing left to merge.
+    */
+   private void mergeRuns() {
+      List<SortedRun> inputs = Collections.emptyList();
+      try {
+         while ( true ) {
+            int first;
+            int id;
+            synchronized ( _dump ) {
+               List<SortedRun> runs = _runs;
+               first = getMergeStart(runs);
+               if ( first < 0 || _closed ) {
+                  return;
+               }
+               inputs = runs.subList(first, runs.size());
+               for ( SortedRun run : inputs ) {
+                  run._merging = true;
+               }
+               // the id is persisted, so it is not reused in case this merge is abandoned
+               id = _nextRunId++;
+               writeRuns();
+            }
+
+            File runFile = getRunFile(id);
+            boolean complete = writeMergedRun(inputs, runFile);
+
+            synchronized ( _dump ) {
+               if ( !complete || _closed ) {
+                  deleteRunFile(runFile);
+                  finishMerge(first, inputs, id, null);
+                  return;
+               }
+               finishMerge(first, inputs, id, runFile);
+               inputs = Collections.emptyList();
+            }
+         }
+      }
+      catch ( Exception argh ) {
+         LOG.error("Failed to merge sorted runs of InfiniteGroupIndex " + getLookupFile(), argh);
+         synchronized ( _dump ) {
+            try {
+               finishMerge(0, inputs, 0, null);
+            }
+            catch ( IOException e ) {
+               LOG.error("Failed to update sorted runs of InfiniteGroupIndex " + getLookupFile(), e);
+            }
+         }
+      }
+      finally {
+         synchronized ( _dump ) {
+            _mergeThread = null;
+            _dump.notifyAll();
+         }
+      }
+   }
+
+   private <T extends Externalizable & Comparable<T>> InfiniteSorter<T> newSorter( Class<T> keyPositionClass ) {
+      return new InfiniteSorter<T>(_maxLookupSizeInMemory, -1, _dump.getDumpFile().getParentFile(), new SingleTypeObjectStreamProvider<>(keyPositionClass),
+         Comparator.naturalOrder());
+   }
+
+   private void readRuns() throws IOException {
+      List<SortedRun> runs = new ArrayList<>(_runs);
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_runsFile)))) {
+         _nextRunId = in.readInt();
+         for ( int i = 0, numRuns = in.readInt(); i < numRuns; i++ ) {
+            int id = in.readInt();
+            File runFile = getRunFile(id);
+            if ( !runFile.isFile() ) {
+               throw new IOException("missing run " + runFile);
+            }
+            runs.add(new SortedRun(id, runFile));
+         }
+      }
+      _runs = Collections.unmodifiableList(runs);
+   }
+
+   private void renameToLookupFile( File runFile ) {
+      deleteRunFile(getLookupFile());
+      if ( !runFile.renameTo(getLookupFile()) ) {
+         throw new RuntimeException("Failed to rename run " + runFile + " to lookup file");
+      }
+      if ( !SortedLookupFile.getBloomFile(runFile).renameTo(SortedLookupFile.getBloomFile(getLookupFile())) ) {
+         throw new RuntimeException("Failed to rename run " + SortedLookupFile.getBloomFile(runFile) + " to lookup file");
+      }
+   }
+
+   /**
+    * Replaces <code>numReplaced</code> runs starting at index <code>first</code> with the new run written to <code>runFile</code>.
+    * If the oldest run is replaced, the new run becomes the lookup file of this index.
+    * @return the new run
+    */
+   private SortedRun replaceRuns( int first, int numReplaced, int id, File runFile ) throws IOException {
+      List<SortedRun> runs = new ArrayList<>(_runs);
+      List<SortedRun> replacedRuns = runs.subList(first, first + numReplaced);
+      for ( SortedRun run : replacedRuns ) {
+         run.close();
+         if ( run._id > 0 ) {
+            deleteRunFile(run.getFile());
+         }
+      }
+      replacedRuns.clear();
+
+      SortedRun run;
+      if ( first == 0 ) {
+         renameToLookupFile(runFile);
+         run = new SortedRun(0, getLookupFile());
+      } else {
+         run = new SortedRun(id, runFile);
+      }
+      runs.add(first, run);
+      _runs = Collections.unmodifiableList(runs);
+      writeRuns();
+      return run;
+   }
+
+   private void startMerge() {
+      if ( _mergeThread == null && !_closed && getMergeStart(_runs) >= 0 ) {
+         _mergeThread = new Thread(this::mergeRuns, "InfiniteGroupIndex merge " + getLookupFile().getName());
+         _mergeThread.setDaemon(true);
+         _mergeThread.start();
       }
-      if ( !tmpLookupFile.renameTo(getLookupFile()) ) {
-         throw new RuntimeException("Failed to rename temporary lookup " + tmpLookupFile);
+   }
+
+   /**
+    * Merges the input runs into a new run, skipping the entries of updated elements.
+    * @return false, if the merge was abandoned because this index was closed
+    */
+   private boolean writeMergedRun( List<SortedRun> inputs, File runFile ) throws IOException {
+      long numEntries = 0;
+      for ( SortedRun run : inputs ) {
+         numEntries += run.getNumEntries();
+      }
+      try (SortedLookupFile.Writer writer = new SortedLookupFile.Writer(runFile, !_fieldIsInt, numEntries)) {
+         long n = 0;
+         for ( SortedLookupFile.Cursor entries = getSortedEntries(inputs); entries.next(); ) {
+            if ( entries.position() >= 0 ) {
+               writer.add(entries.key(), entries.position());
+            }
+            if ( ++n % 65536 == 0 && _closed ) {
+               return false;
+            }
+         }
       }
-      File meta = new File(getLookupFile().getParent(), tmpLookupFileName + ".meta");
-      if ( meta.exists() && !meta.delete() ) {
-         throw new RuntimeException("Failed to delete temporary lookup meta file " + meta);
+      return true;
+   }
+
+   private void writePositions( SortedLookupFile.Writer writer, long key, long singlePosition, Positions positions ) throws IOException {
+      if ( positions == null ) {
+         writer.add(key, singlePosition);
+         return;
+      }
+      long[] pos = positions.toArray();
+      Arrays.sort(pos);
+      for ( long p : pos ) {
+         writer.add(key, p);
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   private void writeRunFile( File runFile, InfiniteSorter<?> sorter, long numEntries ) throws IOException {
+      try (SortedLookupFile.Writer writer = new SortedLookupFile.Writer(runFile, !_fieldIsInt, numEntries)) {
+         if ( !_fieldIsInt ) {
+            for ( LongKeyPosition kp : (InfiniteSorter<LongKeyPosition>)sorter ) {
+               writer.add(kp._key, kp._pos);
+            }
+         } else {
+            for ( IntKeyPosition kp : (InfiniteSorter<IntKeyPosition>)sorter ) {
+               writer.add(kp._key, kp._pos);
+            }
+         }
+      }
+   }
+
+   private void writeRuns() throws IOException {
+      File tmpRunsFile = new File(_runsFile.getPath() + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpRunsFile)))) {
+         List<SortedRun> runs = _runs;
+         out.writeInt(_nextRunId);
+         out.writeInt(runs.size() - 1);
+         for ( SortedRun run : runs.subList(1, runs.size()) ) {
+            out.writeInt(run._id);
+         }
+      }
+      if ( _runsFile.exists() && !_runsFile.delete() ) {
+         throw new IOException("Failed to delete old InfiniteGroupIndex runs " + _runsFile);
+      }
+      if ( !tmpRunsFile.renameTo(_runsFile) ) {
+         throw new IOException("Failed to rename temporary runs " + tmpRunsFile);
       }
    }
 
@@ -1105,6 +1578,12 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
          super.load();
       }
 
+      @Override
+      protected boolean supportsReplay() {
+         // the overflow is only filled by InfiniteGroupIndex.this, replaying the dump into it would add nothing
+         return false;
+      }
+
       void superUpdate( long pos, E oldItem, E newItem ) {
          super.update(pos, oldItem, newItem);
       }
@@ -1167,4 +1646,201 @@ public class InfiniteGroupIndex<E> extends DumpIndex<E>implements NonUniqueIndex
          throw new UnsupportedOperationException();
       }
    }
+
+   /**
+    * A sorted run of key positions, stored in a {@link SortedLookupFile}.
+    *
+    * case 1:
+    *  - key is a real int or long: the run is used to store all positions per key (see {@link #addPositions(long, TLongList)})
+    *
+    * case 2:
+    *  - key is a complex object: the run contains 64-bit hashes of the objects and points to a dump position with
+    *                             that specific hash (see {@link InfiniteGroupIndex#getObjectKeyPositions(long)}) in _externalizableKeyDump or _stringKeyDump (resp.)
+    *
+    * case 3:
+    *  - key is a short String: the run contains the key inline (see {@link InfiniteGroupIndex#getInlineKey(String)}) and points to the dump
+    *                           position of the element directly, like in case 1
+    */
+   private final class SortedRun {
+
+      private final int              _id;
+      private final SortedLookupFile _lookupFile;
+
+      /**
+       * true while this run is merged in the background, it is not written to in the meantime
+       */
+      private boolean _merging;
+
+
+      private SortedRun( int id, File file ) {
+         _id = id;
+         try {
+            _lookupFile = new SortedLookupFile(file, !_fieldIsInt);
+         }
+         catch ( IOException argh ) {
+            throw new RuntimeException("Failed to open InfiniteGroupIndex run " + file, argh);
+         }
+      }
+
+      void addAllPositions( TLongList positions ) {
+         for ( SortedLookupFile.Cursor entries = _lookupFile.cursor(); entries.next(); ) {
+            long pos = entries.position();
+            if ( isValid(pos) ) {
+               positions.add(pos);
+            }
+         }
+      }
+
+      /**
+       * adds the positions of the key dump of all objects with the given hash
+       */
+      void addKeyPositions( long keyHash, TLongList keyPositions ) {
+         _lookupFile.forEachEntry(keyHash, keyHash, ( key, pos, index ) -> keyPositions.add(pos));
+      }
+
+      void addPositions( long key, TLongList positions ) {
+         addPositions(key, key, positions);
+      }
+
+      /**
+       * @param lowerKey inclusive
+       * @param upperKey exclusive
+       */
+      void addRangePositions( long lowerKey, long upperKey, TLongList positions ) {
+         if ( upperKey > lowerKey ) {
+            addPositions(lowerKey, upperKey - 1, positions);
+         }
+      }
+
+      void close() throws IOException {
+         _lookupFile.close();
+      }
+
+      File getFile() {
+         return _lookupFile.getFile();
+      }
+
+      /**
+       * @return the size tier of this run, runs of the same tier have roughly the same number of entries
+       */
+      int getLevel() {
+         int level = 0;
+         for ( long n = (long)_maxLookupSizeInMemory * RUN_MERGE_FACTOR; getNumEntries() > n && level < MAX_RUN_LEVEL; n *= RUN_MERGE_FACTOR ) {
+            level++;
+         }
+         return level;
+      }
+
+      long getNumEntries() {
+         return _lookupFile.getNumEntries();
+      }
+
+      void markUpdated( long key, long pos ) {
+         _lookupFile.forEachEntry(key, key, ( k, p, index ) -> {
+            if ( p == pos ) {
+               _lookupFile.setPosition(index, -1); // mark element as deleted
+            }
+            return true;
+         });
+      }
+
+      void scanPositions( int[] sortedKeys, TIntObjectMap<TLongList> positions ) {
+         if ( sortedKeys.length == 0 || getNumEntries() == 0 ) {
+            return;
+         }
+         if ( (long)sortedKeys.length * FULL_SCAN_ENTRIES_PER_KEY < getNumEntries() ) {
+            for ( int key : sortedKeys ) {
+               TLongList pos = new TLongArrayList();
+               addPositions(key, pos);
+               for ( int i = 0; i < pos.size(); i++ ) {
+                  addScannedPosition(positions, key, pos.get(i));
+               }
+            }
+            return;
+         }
+
+         int k = 0;
+         for ( SortedLookupFile.Cursor entries = _lookupFile.cursor(); entries.next(); ) {
+            int key = (int)entries.key();
+            while ( sortedKeys[k] < key ) {
+               if ( ++k == sortedKeys.length ) {
+                  return;
+               }
+            }
+            long pos = entries.position();
+            if ( sortedKeys[k] == key && isValid(pos) ) {
+               addScannedPosition(positions, key, pos);
+            }
+         }
+      }
+
+      /**
+       * @param objectKeys if true, the entries of the non-negative hashes of Object keys point into the key dump, and their
+       *                   positions are only checked by the caller
+       */
+      void scanPositions( long[] sortedKeys, TLongObjectMap<TLongList> positions, boolean objectKeys ) {
+         if ( sortedKeys.length == 0 || getNumEntries() == 0 ) {
+            return;
+         }
+         if ( (long)sortedKeys.length * FULL_SCAN_ENTRIES_PER_KEY < getNumEntries() ) {
+            for ( long key : sortedKeys ) {
+               TLongList pos = new TLongArrayList();
+               if ( objectKeys && key >= 0 ) {
+                  addKeyPositions(key, pos);
+               } else {
+                  addPositions(key, pos);
+               }
+               for ( int i = 0; i < pos.size(); i++ ) {
+                  addScannedPosition(positions, key, pos.get(i));
+               }
+            }
+            return;
+         }
+
+         int k = 0;
+         for ( SortedLookupFile.Cursor entries = _lookupFile.cursor(); entries.next(); ) {
+            long key = entries.key();
+            while ( sortedKeys[k] < key ) {
+               if ( ++k == sortedKeys.length ) {
+                  return;
+               }
+            }
+            long pos = entries.position();
+            if ( sortedKeys[k] == key && (objectKeys && key >= 0 ? pos >= 0 : isValid(pos)) ) {
+               addScannedPosition(positions, key, pos);
+            }
+         }
+      }
+
+      private void addPositions( long lowerKey, long upperKey, TLongList positions ) {
+         _lookupFile.forEachEntry(lowerKey, upperKey, ( k, pos, index ) -> {
+            if ( isValid(pos) ) {
+               positions.add(pos);
+            }
+            return true;
+         });
+      }
+
+      private boolean isValid( long pos ) {
+         return pos >= 0 && !_dump._deletedPositions.contains(pos) && !(_merging && _positionsUpdatedDuringMerge.contains(pos));
+      }
+
+      private void addScannedPosition( TIntObjectMap<TLongList> positions, int key, long pos ) {
+         TLongList keyPositions = positions.get(key);
+         if ( keyPositions == null ) {
+            keyPositions = new TLongArrayList();
+            positions.put(key, keyPositions);
+         }
+         keyPositions.add(pos);
+      }
+
+      private void addScannedPosition( TLongObjectMap<TLongList> positions, long key, long pos ) {
+         TLongList keyPositions = positions.get(key);
+         if ( keyPositions == null ) {
+            keyPositions = new TLongArrayList();
+            positions.put(key, keyPositions);
+         }
+         keyPositions.add(pos);
+      }
+   }
 }
@@ -0,0 +1,103 @@
+package util.dump;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+
+/**
+ * A Bloom filter over <code>long</code> keys, used to answer lookups of missing keys from memory without touching the
+ * lookup file. With {@link #BITS_PER_KEY} bits per key and {@link #NUM_HASH_FUNCTIONS} hash functions about 1% of the
+ * missing keys are false positives.<p/>
+ *
+ * The bit positions are derived from a single {@link HashUtils#mix64(long)} of the key by double hashing.
+ */
+final class LongBloomFilter {
+
+   static final int BITS_PER_KEY       = 10;
+   static final int NUM_HASH_FUNCTIONS = 7;
+
+
+   /**
+    * @return the filter persisted in the given file, or null, if the file doesn't exist or was written for a different
+    *         number of entries
+    */
+   static LongBloomFilter read( File file, long numEntries ) throws IOException {
+      if ( !file.exists() ) {
+         return null;
+      }
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), DumpReader.DEFAULT_BUFFER_SIZE))) {
+         if ( in.readLong() != numEntries ) {
+            return null;
+         }
+         int numHashFunctions = in.readInt();
+         long[] bits = new long[in.readInt()];
+         for ( int i = 0; i < bits.length; i++ ) {
+            bits[i] = in.readLong();
+         }
+         return new LongBloomFilter(bits, numHashFunctions);
+      }
+   }
+
+
+   private final long[] _bits;
+   private final long   _numBits;
+   private final int    _numHashFunctions;
+
+
+   /**
+    * @param expectedKeys an upper bound of the number of distinct keys, which will be added
+    */
+   LongBloomFilter( long expectedKeys ) {
+      this(new long[(int)Math.min(Integer.MAX_VALUE - 8, Math.max(1, (expectedKeys * BITS_PER_KEY + 63) / 64))], NUM_HASH_FUNCTIONS);
+   }
+
+   private LongBloomFilter( long[] bits, int numHashFunctions ) {
+      _bits = bits;
+      _numBits = (long)bits.length * 64;
+      _numHashFunctions = numHashFunctions;
+   }
+
+   void add( long key ) {
+      long h = HashUtils.mix64(key);
+      long delta = (h >>> 32) | 1;
+      for ( int i = 0; i < _numHashFunctions; i++, h += delta ) {
+         long bit = (h & Long.MAX_VALUE) % _numBits;
+         _bits[(int)(bit >>> 6)] |= 1L << bit;
+      }
+   }
+
+   /**
+    * @return false, if the key was definitely not added
+    */
+   boolean mightContain( long key ) {
+      long h = HashUtils.mix64(key);
+      long delta = (h >>> 32) | 1;
+      for ( int i = 0; i < _numHashFunctions; i++, h += delta ) {
+         long bit = (h & Long.MAX_VALUE) % _numBits;
+         if ( (_bits[(int)(bit >>> 6)] & (1L << bit)) == 0 ) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * @param numEntries the number of entries of the lookup file this filter belongs to, see {@link #read(File, long)}
+    */
+   void write( File file, long numEntries ) throws IOException {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), DumpWriter.DEFAULT_BUFFER_SIZE))) {
+         out.writeLong(numEntries);
+         out.writeInt(_numHashFunctions);
+         out.writeInt(_bits.length);
+         for ( long word : _bits ) {
+            out.writeLong(word);
+         }
+      }
+   }
+}
@@ -0,0 +1,193 @@
+package util.dump;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * A minimal perfect hash function over a set of distinct 64-bit key hashes: each of the <code>n</code> hashes is mapped to a
+ * distinct index in <code>[0, n)</code>, using about 3 bits per hash. Other hashes are mapped to an arbitrary index or to -1,
+ * so the caller has to verify the key found at the index.<p/>
+ *
+ * The construction follows BBHash: on each level, the remaining hashes are hashed into a bit array with one bit per hash. The
+ * hashes without a collision on this level set their bit, all others are passed on to the next level. The index of a hash is
+ * the rank of its bit among the bits of all levels, which is counted with a rank directory of one int per
+ * {@value #RANK_BLOCK_WORDS} words. Hashes still colliding after {@value #MAX_LEVELS} levels are stored sorted.<p/>
+ *
+ * The bit arrays and the rank directory are buffers, so they can be used right from a memory mapped file, see
+ * {@link #write(DataOutput)} and {@link #read(ByteBuffer)}. Thread-safe.
+ */
+final class MinimalPerfectHash {
+
+   private static final int MAX_LEVELS       = 32;
+   private static final int RANK_BLOCK_WORDS = 8;
+
+
+   /**
+    * @param hashes distinct hashes, the array is not modified
+    * @throws IllegalArgumentException if a hash is contained twice
+    */
+   static MinimalPerfectHash build( long[] hashes ) {
+      long[] remaining = hashes.clone();
+      int numRemaining = remaining.length;
+      List<long[]> levels = new ArrayList<>();
+      while ( numRemaining > 0 && levels.size() < MAX_LEVELS ) {
+         int level = levels.size();
+         int numWords = (numRemaining + 63) / 64;
+         long[] bits = new long[numWords];
+         long[] collisions = new long[numWords];
+         for ( int i = 0; i < numRemaining; i++ ) {
+            long bit = getBit(remaining[i], level, numWords);
+            int word = (int)(bit >>> 6);
+            if ( (bits[word] & (1L << bit)) != 0 ) {
+               collisions[word] |= 1L << bit;
+            } else {
+               bits[word] |= 1L << bit;
+            }
+         }
+         int n = 0;
+         for ( int i = 0; i < numRemaining; i++ ) {
+            long bit = getBit(remaining[i], level, numWords);
+            if ( (collisions[(int)(bit >>> 6)] & (1L << bit)) != 0 ) {
+               remaining[n++] = remaining[i];
+            }
+         }
+         for ( int w = 0; w < numWords; w++ ) {
+            bits[w] &= ~collisions[w];
+         }
+         levels.add(bits);
+         numRemaining = n;
+      }
+
+      long[] unplacedHashes = Arrays.copyOf(remaining, numRemaining);
+      Arrays.sort(unplacedHashes);
+      for ( int i = 1; i < unplacedHashes.length; i++ ) {
+         if ( unplacedHashes[i] == unplacedHashes[i - 1] ) {
+            throw new IllegalArgumentException("The hash " + unplacedHashes[i] + " is contained more than once");
+         }
+      }
+
+      int[] levelOffsets = new int[levels.size() + 1];
+      for ( int l = 0; l < levels.size(); l++ ) {
+         levelOffsets[l + 1] = levelOffsets[l] + levels.get(l).length;
+      }
+      long[] bits = new long[levelOffsets[levels.size()]];
+      for ( int l = 0; l < levels.size(); l++ ) {
+         System.arraycopy(levels.get(l), 0, bits, levelOffsets[l], levels.get(l).length);
+      }
+      int[] ranks = new int[bits.length / RANK_BLOCK_WORDS + 1];
+      for ( int w = 0, rank = 0; w < bits.length; w++ ) {
+         if ( w % RANK_BLOCK_WORDS == 0 ) {
+            ranks[w / RANK_BLOCK_WORDS] = rank;
+         }
+         rank += Long.bitCount(bits[w]);
+      }
+      return new MinimalPerfectHash(hashes.length, levelOffsets, LongBuffer.wrap(bits), IntBuffer.wrap(ranks), unplacedHashes);
+   }
+
+   /**
+    * Reads a function written by {@link #write(DataOutput)}. The bit arrays and the rank directory are not copied, but used
+    * from the buffer, the position of the buffer is moved behind the function.
+    */
+   static MinimalPerfectHash read( ByteBuffer buffer ) {
+      int size = buffer.getInt();
+      int[] levelOffsets = new int[buffer.getInt() + 1];
+      for ( int l = 0; l < levelOffsets.length; l++ ) {
+         levelOffsets[l] = buffer.getInt();
+      }
+      LongBuffer bits = slice(buffer, levelOffsets[levelOffsets.length - 1] * 8).asLongBuffer();
+      IntBuffer ranks = slice(buffer, buffer.getInt() * 4).asIntBuffer();
+      long[] unplacedHashes = new long[buffer.getInt()];
+      for ( int i = 0; i < unplacedHashes.length; i++ ) {
+         unplacedHashes[i] = buffer.getLong();
+      }
+      return new MinimalPerfectHash(size, levelOffsets, bits, ranks, unplacedHashes);
+   }
+
+   /**
+    * @return a view of the next <code>length</code> bytes of the buffer, whose position is moved behind them
+    */
+   static ByteBuffer slice( ByteBuffer buffer, int length ) {
+      ByteBuffer slice = buffer.slice();
+      slice.limit(length);
+      buffer.position(buffer.position() + length);
+      return slice;
+   }
+
+   private static long getBit( long hash, int level, int numWords ) {
+      long h = HashUtils.mix64(hash + (level + 1) * 0x9E3779B97F4A7C15L);
+      return (h >>> 1) % (numWords * 64L);
+   }
+
+
+   private final int        _size;
+   /**
+    * the first word of each level in <code>_bits</code>, followed by the number of words of all levels
+    */
+   private final int[]      _levelOffsets;
+   private final LongBuffer _bits;
+   private final IntBuffer  _ranks;
+   /**
+    * the hashes, which still collided on the last level, in ascending order. Their indexes follow those of the placed hashes.
+    */
+   private final long[]     _unplacedHashes;
+
+
+   private MinimalPerfectHash( int size, int[] levelOffsets, LongBuffer bits, IntBuffer ranks, long[] unplacedHashes ) {
+      _size = size;
+      _levelOffsets = levelOffsets;
+      _bits = bits;
+      _ranks = ranks;
+      _unplacedHashes = unplacedHashes;
+   }
+
+   /**
+    * @return the index of the hash in <code>[0, size())</code> if it is contained in the set, otherwise any index or -1
+    */
+   int index( long hash ) {
+      for ( int l = 0; l < _levelOffsets.length - 1; l++ ) {
+         long bit = getBit(hash, l, _levelOffsets[l + 1] - _levelOffsets[l]);
+         int word = _levelOffsets[l] + (int)(bit >>> 6);
+         long bits = _bits.get(word);
+         if ( (bits & (1L << bit)) != 0 ) {
+            int block = word / RANK_BLOCK_WORDS;
+            int rank = _ranks.get(block);
+            for ( int w = block * RANK_BLOCK_WORDS; w < word; w++ ) {
+               rank += Long.bitCount(_bits.get(w));
+            }
+            return rank + Long.bitCount(bits & ((1L << bit) - 1));
+         }
+      }
+      int i = Arrays.binarySearch(_unplacedHashes, hash);
+      return i < 0 ? -1 : _size - _unplacedHashes.length + i;
+   }
+
+   int size() {
+      return _size;
+   }
+
+   void write( DataOutput out ) throws IOException {
+      out.writeInt(_size);
+      out.writeInt(_levelOffsets.length - 1);
+      for ( int offset : _levelOffsets ) {
+         out.writeInt(offset);
+      }
+      for ( int w = 0; w < _bits.limit(); w++ ) {
+         out.writeLong(_bits.get(w));
+      }
+      out.writeInt(_ranks.limit());
+      for ( int i = 0; i < _ranks.limit(); i++ ) {
+         out.writeInt(_ranks.get(i));
+      }
+      out.writeInt(_unplacedHashes.length);
+      for ( long hash : _unplacedHashes ) {
+         out.writeLong(hash);
+      }
+   }
+}
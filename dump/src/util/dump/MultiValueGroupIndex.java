@@ -0,0 +1,378 @@
+package util.dump;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TIntHashSet;
+import gnu.trove.set.hash.TLongHashSet;
+import util.dump.reflection.FieldAccessor;
+import util.dump.reflection.FieldFieldAccessor;
+import util.dump.reflection.Reflection;
+
+
+/**
+ * A {@link GroupIndex} over a {@link Collection} or array field, which indexes each element of the field as a key of its own,
+ * so e.g. an index over <code>List&lt;String&gt; tags</code> answers <code>lookup("x")</code> with all elements having the
+ * tag "x". Null elements are not indexed, an element contained several times is indexed once.<p/>
+ *
+ * The keys are the elements of <code>int[]</code>, <code>long[]</code>, Object arrays and Collections. The type of the elements
+ * of a Collection is taken from the generic type of the field, so <code>List&lt;Long&gt;</code> is indexed with long keys like
+ * <code>long[]</code>.<p/>
+ *
+ * Updates only change the lookup of the added and removed elements. The lookup file stays append-only: all elements of the
+ * new version are appended, and the postings of the old version are masked by the updates file just like in a
+ * {@link GroupIndex}.
+ */
+public class MultiValueGroupIndex<E> extends GroupIndex<E> {
+
+   private static FieldAccessor checkFieldType( FieldAccessor fieldAccessor ) {
+      Class type = fieldAccessor.getType();
+      Class elementType;
+      if ( type.isArray() ) {
+         elementType = type.getComponentType();
+         if ( elementType.isPrimitive() && elementType != int.class && elementType != long.class ) {
+            throw new IllegalArgumentException("Arrays of " + elementType + " are not supported by a MultiValueGroupIndex, only int[], long[] and Object arrays.");
+         }
+      } else if ( Collection.class.isAssignableFrom(type) ) {
+         Class[] genericTypes = fieldAccessor.getGenericTypes();
+         elementType = genericTypes != null && genericTypes.length == 1 ? genericTypes[0] : Object.class;
+      } else {
+         throw new IllegalArgumentException("The field " + fieldAccessor.getName() + " of type " + type + " is neither an array nor a Collection.");
+      }
+      return new ElementAccessor(fieldAccessor, elementType);
+   }
+
+   public MultiValueGroupIndex( Dump<E> dump, FieldAccessor fieldAccessor, IndexOption... options ) {
+      super(dump, checkFieldType(fieldAccessor), options);
+   }
+
+   public MultiValueGroupIndex( Dump<E> dump, String fieldName, IndexOption... options ) throws NoSuchFieldException {
+      this(dump, new FieldFieldAccessor(Reflection.getField(dump._beanClass, fieldName)), options);
+   }
+
+   @Override
+   public void add( E o, long pos ) {
+      if ( _fieldIsInt ) {
+         intKeys(o).forEach(key -> {
+            addKey(key, pos);
+            return true;
+         });
+      } else if ( _fieldIsLong ) {
+         longKeys(o).forEach(key -> {
+            addKey(key, pos);
+            return true;
+         });
+      } else {
+         for ( Object key : objectKeys(o) ) {
+            addKey(key, pos);
+         }
+      }
+   }
+
+   /**
+    * @return the accessor of the Collection or array field, {@link #getFieldAccessor()} returns the one of its elements
+    */
+   public FieldAccessor getCollectionAccessor() {
+      return ((ElementAccessor)_fieldAccessor)._collectionAccessor;
+   }
+
+   @Override
+   protected String getIndexType() {
+      return MultiValueGroupIndex.class.getSimpleName();
+   }
+
+   @Override
+   void delete( E o, long pos ) {
+      if ( _fieldIsInt ) {
+         intKeys(o).forEach(key -> {
+            deleteKey(key, pos);
+            return true;
+         });
+      } else if ( _fieldIsLong ) {
+         longKeys(o).forEach(key -> {
+            deleteKey(key, pos);
+            return true;
+         });
+      } else {
+         for ( Object key : objectKeys(o) ) {
+            deleteKey(key, pos);
+         }
+      }
+   }
+
+   @Override
+   void update( long pos, E oldItem, E newItem ) {
+      if ( _fieldIsInt ) {
+         TIntSet oldKeys = intKeys(oldItem);
+         TIntSet newKeys = intKeys(newItem);
+         if ( oldKeys.equals(newKeys) ) {
+            return;
+         }
+         ignoreOldPostings(pos, oldKeys.size());
+         oldKeys.forEach(key -> {
+            if ( !newKeys.contains(key) ) {
+               deleteKey(key, pos);
+            }
+            return true;
+         });
+         newKeys.forEach(key -> {
+            if ( oldKeys.contains(key) ) {
+               writeKey(key, pos);
+            } else {
+               addKey(key, pos);
+            }
+            return true;
+         });
+      } else if ( _fieldIsLong ) {
+         TLongSet oldKeys = longKeys(oldItem);
+         TLongSet newKeys = longKeys(newItem);
+         if ( oldKeys.equals(newKeys) ) {
+            return;
+         }
+         ignoreOldPostings(pos, oldKeys.size());
+         oldKeys.forEach(key -> {
+            if ( !newKeys.contains(key) ) {
+               deleteKey(key, pos);
+            }
+            return true;
+         });
+         newKeys.forEach(key -> {
+            if ( oldKeys.contains(key) ) {
+               writeKey(key, pos);
+            } else {
+               addKey(key, pos);
+            }
+            return true;
+         });
+      } else {
+         Set<Object> oldKeys = objectKeys(oldItem);
+         Set<Object> newKeys = objectKeys(newItem);
+         if ( oldKeys.equals(newKeys) ) {
+            return;
+         }
+         ignoreOldPostings(pos, oldKeys.size());
+         for ( Object key : oldKeys ) {
+            if ( !newKeys.contains(key) ) {
+               deleteKey(key, pos);
+            }
+         }
+         for ( Object key : newKeys ) {
+            if ( oldKeys.contains(key) ) {
+               writeKey(key, pos);
+            } else {
+               addKey(key, pos);
+            }
+         }
+      }
+      /* The old postings of this position are still in the lookup file, followed by all new ones.
+       * During load() the old ones are skipped using getUpdatesFile() */
+   }
+
+   private Object getCollection( E o ) {
+      try {
+         return getCollectionAccessor().get(o);
+      }
+      catch ( Exception argh ) {
+         throw new RuntimeException(argh);
+      }
+   }
+
+   /**
+    * load() skips as many postings of the position as are written to the updates file, which are the oldest ones
+    */
+   private void ignoreOldPostings( long pos, int numPostings ) {
+      try {
+         for ( int i = 0; i < numPostings; i++ ) {
+            getUpdatesOutput().writeLong(pos);
+         }
+      }
+      catch ( IOException argh ) {
+         throw new RuntimeException("Failed to append to updates file " + getUpdatesFile(), argh);
+      }
+   }
+
+   private TIntSet intKeys( E o ) {
+      Object collection = getCollection(o);
+      TIntSet keys = new TIntHashSet();
+      if ( collection instanceof int[] ) {
+         keys.addAll((int[])collection);
+      } else if ( collection != null ) {
+         for ( Object key : toIterable(collection) ) {
+            if ( key != null ) {
+               keys.add((Integer)key);
+            }
+         }
+      }
+      return keys;
+   }
+
+   private TLongSet longKeys( E o ) {
+      Object collection = getCollection(o);
+      TLongSet keys = new TLongHashSet();
+      if ( collection instanceof long[] ) {
+         keys.addAll((long[])collection);
+      } else if ( collection != null ) {
+         for ( Object key : toIterable(collection) ) {
+            if ( key != null ) {
+               keys.add((Long)key);
+            }
+         }
+      }
+      return keys;
+   }
+
+   private Set<Object> objectKeys( E o ) {
+      Object collection = getCollection(o);
+      Set<Object> keys = new HashSet<>();
+      if ( collection != null ) {
+         for ( Object key : toIterable(collection) ) {
+            if ( key != null ) {
+               keys.add(key);
+            }
+         }
+      }
+      return keys;
+   }
+
+   private Iterable<Object> toIterable( Object collection ) {
+      if ( collection instanceof Collection ) {
+         return (Collection<Object>)collection;
+      }
+      int length = Array.getLength(collection);
+      Object[] elements = new Object[length];
+      for ( int i = 0; i < length; i++ ) {
+         elements[i] = Array.get(collection, i);
+      }
+      return Arrays.asList(elements);
+   }
+
+
+   /**
+    * Makes {@link DumpIndex} see the type of the elements as the type of the key, it's never used to access the key of an element.
+    */
+   private static final class ElementAccessor implements FieldAccessor {
+
+      private final FieldAccessor _collectionAccessor;
+      private final Class         _elementType;
+
+
+      private ElementAccessor( FieldAccessor collectionAccessor, Class elementType ) {
+         _collectionAccessor = collectionAccessor;
+         _elementType = elementType;
+      }
+
+      @Override
+      public Object get( Object obj ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public boolean getBoolean( Object obj ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public byte getByte( Object obj ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public char getChar( Object obj ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public double getDouble( Object obj ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public float getFloat( Object obj ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Class[] getGenericTypes() {
+         return null;
+      }
+
+      @Override
+      public int getInt( Object obj ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public long getLong( Object obj ) {
+         throw new UnsupportedOperationException();
+      }
+
+      /**
+       * the name of the Collection field, so the index files are named after it
+       */
+      @Override
+      public String getName() {
+         return _collectionAccessor.getName();
+      }
+
+      @Override
+      public short getShort( Object obj ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Class getType() {
+         return _elementType;
+      }
+
+      @Override
+      public void set( Object o, Object d ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void setBoolean( Object o, boolean d ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void setByte( Object o, byte d ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void setChar( Object o, char d ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void setDouble( Object o, double d ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void setFloat( Object o, float d ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void setInt( Object o, int d ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void setLong( Object o, long d ) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void setShort( Object o, short d ) {
+         throw new UnsupportedOperationException();
+      }
+   }
+}
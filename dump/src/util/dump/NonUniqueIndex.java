@@ -24,4 +24,70 @@ public interface NonUniqueIndex<E> {
     */
    Iterable<E> lookup( Object key );
 
-}
\ No newline at end of file
+   /**
+    * The default implementation iterates {@link #lookup(int)}, so it reads the elements from the dump. The indexes of this
+    * package override it and count the positions without reading the elements.
+    * @return the number of undeleted elements with the key
+    */
+   default int count( int key ) {
+      int n = 0;
+      for ( @SuppressWarnings("unused") E e : lookup(key) ) {
+         n++;
+      }
+      return n;
+   }
+
+   /**
+    * The default implementation iterates {@link #lookup(long)}, so it reads the elements from the dump. The indexes of this
+    * package override it and count the positions without reading the elements.
+    * @return the number of undeleted elements with the key
+    */
+   default int count( long key ) {
+      int n = 0;
+      for ( @SuppressWarnings("unused") E e : lookup(key) ) {
+         n++;
+      }
+      return n;
+   }
+
+   /**
+    * The default implementation iterates {@link #lookup(Object)}, so it reads the elements from the dump. The indexes of this
+    * package override it and count the positions without reading the elements.
+    * @return the number of undeleted elements with the key
+    */
+   default int count( Object key ) {
+      int n = 0;
+      for ( @SuppressWarnings("unused") E e : lookup(key) ) {
+         n++;
+      }
+      return n;
+   }
+
+   /**
+    * {@link #lookup(int)} doesn't expose positions, so the default implementation throws an
+    * {@link UnsupportedOperationException}. The indexes of this package override it.
+    * @return the positions of the undeleted elements with the key, e.g. for combining them in a {@link PositionQuery}
+    */
+   default PositionSet positions( int key ) {
+      throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support positions(.)");
+   }
+
+   /**
+    * {@link #lookup(long)} doesn't expose positions, so the default implementation throws an
+    * {@link UnsupportedOperationException}. The indexes of this package override it.
+    * @return the positions of the undeleted elements with the key, e.g. for combining them in a {@link PositionQuery}
+    */
+   default PositionSet positions( long key ) {
+      throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support positions(.)");
+   }
+
+   /**
+    * {@link #lookup(Object)} doesn't expose positions, so the default implementation throws an
+    * {@link UnsupportedOperationException}. The indexes of this package override it.
+    * @return the positions of the undeleted elements with the key, e.g. for combining them in a {@link PositionQuery}
+    */
+   default PositionSet positions( Object key ) {
+      throw new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support positions(.)");
+   }
+
+}
@@ -0,0 +1,246 @@
+package util.dump;
+
+/**
+ * Hash table from int or long keys to positions in a dump, which stores each position in 5 bytes instead of the 8 bytes of a
+ * <code>TIntLongHashMap</code> or <code>TLongLongHashMap</code>: the low 32 bits in an <code>int[]</code> and the high 8 bits
+ * in a <code>byte[]</code>. This limits the positions to {@link #MAX_POSITION}, i.e. to dumps of up to 1 TB.<p/>
+ *
+ * The table uses open addressing with linear probing. Removals shift the following entries back instead of leaving tombstones,
+ * so the table never degrades with deletions and needs no separate state array. Int keys are stored in an <code>int[]</code>,
+ * which makes 9 bytes per slot instead of 13 bytes for a <code>TIntLongHashMap</code>. Not thread-safe.
+ */
+final class PackedPositionMap {
+
+   public static final long NO_ENTRY_VALUE = -1;
+
+   /**
+    * the largest position which can be stored. The position + 1 is stored, so a slot with 0 in both arrays is free.
+    */
+   static final long MAX_POSITION = (1L << 40) - 2;
+
+   private static final float LOAD_FACTOR = 0.75f;
+
+   private static int tableSizeFor( int expectedSize ) {
+      int minCapacity = (int)Math.min(1 << 30, (long)Math.ceil(expectedSize / LOAD_FACTOR) + 1);
+      int capacity = 16;
+      while ( capacity < minCapacity ) {
+         capacity <<= 1;
+      }
+      return capacity;
+   }
+
+   private final boolean _hasLongKeys;
+
+   /** only used for int keys */
+   private int[]  _intKeys;
+   /** only used for long keys */
+   private long[] _longKeys;
+   private int[]  _lowBits;
+   private byte[] _highBits;
+   private int    _mask;
+   private int    _maxSize;
+   private int    _size;
+
+
+   /**
+    * @param hasLongKeys false for int keys, which are passed to the methods of this map as long
+    */
+   PackedPositionMap( boolean hasLongKeys ) {
+      this(hasLongKeys, 16);
+   }
+
+   PackedPositionMap( boolean hasLongKeys, int expectedSize ) {
+      _hasLongKeys = hasLongKeys;
+      allocate(tableSizeFor(expectedSize));
+   }
+
+   public int capacity() {
+      return _mask + 1;
+   }
+
+   /**
+    * Shrinks the table to the size needed by the current number of entries.
+    */
+   public void compact() {
+      int capacity = tableSizeFor(_size);
+      if ( capacity < capacity() ) {
+         rehash(capacity);
+      }
+   }
+
+   public boolean containsKey( long key ) {
+      return slotOf(key) >= 0;
+   }
+
+   /**
+    * @return the position of the key or {@link #NO_ENTRY_VALUE} if the key is not contained
+    */
+   public long get( long key ) {
+      int slot = slotOf(key);
+      return slot < 0 ? NO_ENTRY_VALUE : valueAt(slot);
+   }
+
+   public int[] intKeys() {
+      int[] keys = new int[_size];
+      for ( int slot = 0, i = 0; slot <= _mask; slot++ ) {
+         if ( !isFree(slot) ) {
+            keys[i++] = _intKeys[slot];
+         }
+      }
+      return keys;
+   }
+
+   public long[] longKeys() {
+      long[] keys = new long[_size];
+      for ( int slot = 0, i = 0; slot <= _mask; slot++ ) {
+         if ( !isFree(slot) ) {
+            keys[i++] = keyAt(slot);
+         }
+      }
+      return keys;
+   }
+
+   /**
+    * @return the previous position of the key or {@link #NO_ENTRY_VALUE} if the key was not contained
+    * @throws IllegalArgumentException if the position is negative or larger than {@link #MAX_POSITION}
+    */
+   public long put( long key, long pos ) {
+      if ( pos < 0 || pos > MAX_POSITION ) {
+         throw new IllegalArgumentException("Position " + pos + " doesn't fit into the 40 bits of a packed position");
+      }
+      int slot = slotOf(key);
+      if ( slot >= 0 ) {
+         long previous = valueAt(slot);
+         setValue(slot, pos);
+         return previous;
+      }
+      slot = -slot - 1;
+      if ( _hasLongKeys ) {
+         _longKeys[slot] = key;
+      } else {
+         _intKeys[slot] = (int)key;
+      }
+      setValue(slot, pos);
+      if ( ++_size > _maxSize ) {
+         rehash(capacity() * 2);
+      }
+      return NO_ENTRY_VALUE;
+   }
+
+   /**
+    * @return the removed position of the key or {@link #NO_ENTRY_VALUE} if the key was not contained
+    */
+   public long remove( long key ) {
+      int slot = slotOf(key);
+      if ( slot < 0 ) {
+         return NO_ENTRY_VALUE;
+      }
+      long previous = valueAt(slot);
+      // shift back the entries of the cluster, which would not be found anymore behind the free slot
+      int free = slot;
+      for ( int i = (free + 1) & _mask; !isFree(i); i = (i + 1) & _mask ) {
+         int home = homeSlotOf(keyAt(i));
+         if ( ((i - home) & _mask) >= ((i - free) & _mask) ) {
+            move(i, free);
+            free = i;
+         }
+      }
+      _lowBits[free] = 0;
+      _highBits[free] = 0;
+      _size--;
+      return previous;
+   }
+
+   public int size() {
+      return _size;
+   }
+
+   public long[] values() {
+      long[] values = new long[_size];
+      for ( int slot = 0, i = 0; slot <= _mask; slot++ ) {
+         if ( !isFree(slot) ) {
+            values[i++] = valueAt(slot);
+         }
+      }
+      return values;
+   }
+
+   private void allocate( int capacity ) {
+      if ( _hasLongKeys ) {
+         _longKeys = new long[capacity];
+      } else {
+         _intKeys = new int[capacity];
+      }
+      _lowBits = new int[capacity];
+      _highBits = new byte[capacity];
+      _mask = capacity - 1;
+      _maxSize = (int)(capacity * LOAD_FACTOR);
+   }
+
+   private int homeSlotOf( long key ) {
+      return (int)HashUtils.mix64(key) & _mask;
+   }
+
+   private boolean isFree( int slot ) {
+      return _lowBits[slot] == 0 && _highBits[slot] == 0;
+   }
+
+   private long keyAt( int slot ) {
+      return _hasLongKeys ? _longKeys[slot] : _intKeys[slot];
+   }
+
+   private void move( int fromSlot, int toSlot ) {
+      if ( _hasLongKeys ) {
+         _longKeys[toSlot] = _longKeys[fromSlot];
+      } else {
+         _intKeys[toSlot] = _intKeys[fromSlot];
+      }
+      _lowBits[toSlot] = _lowBits[fromSlot];
+      _highBits[toSlot] = _highBits[fromSlot];
+   }
+
+   private void rehash( int capacity ) {
+      int[] intKeys = _intKeys;
+      long[] longKeys = _longKeys;
+      int[] lowBits = _lowBits;
+      byte[] highBits = _highBits;
+      allocate(capacity);
+      for ( int slot = 0; slot < lowBits.length; slot++ ) {
+         if ( lowBits[slot] != 0 || highBits[slot] != 0 ) {
+            long key = _hasLongKeys ? longKeys[slot] : intKeys[slot];
+            int newSlot = -slotOf(key) - 1;
+            if ( _hasLongKeys ) {
+               _longKeys[newSlot] = key;
+            } else {
+               _intKeys[newSlot] = (int)key;
+            }
+            _lowBits[newSlot] = lowBits[slot];
+            _highBits[newSlot] = highBits[slot];
+         }
+      }
+   }
+
+   private void setValue( int slot, long pos ) {
+      long value = pos + 1;
+      _lowBits[slot] = (int)value;
+      _highBits[slot] = (byte)(value >>> 32);
+   }
+
+   /**
+    * @return the slot of the key, or <code>-(freeSlot + 1)</code> with the slot where it would be inserted
+    */
+   private int slotOf( long key ) {
+      for ( int slot = homeSlotOf(key);; slot = (slot + 1) & _mask ) {
+         if ( isFree(slot) ) {
+            return -slot - 1;
+         }
+         if ( keyAt(slot) == key ) {
+            return slot;
+         }
+      }
+   }
+
+   private long valueAt( int slot ) {
+      return (((_highBits[slot] & 0xFFL) << 32) | (_lowBits[slot] & 0xFFFFFFFFL)) - 1;
+   }
+}
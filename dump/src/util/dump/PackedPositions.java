@@ -0,0 +1,86 @@
+package util.dump;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+
+/**
+ * An immutable array of non-negative longs, each packed into as many bits as the largest one needs, e.g. 33 bits per
+ * position of a 5 GB dump instead of 64. Like {@link MinimalPerfectHash}, it can be used right from a memory mapped file, see
+ * {@link #write(DataOutput)} and {@link #read(ByteBuffer)}. Thread-safe.
+ */
+final class PackedPositions {
+
+   static PackedPositions pack( long[] positions ) {
+      long max = 0;
+      for ( long pos : positions ) {
+         if ( pos < 0 ) {
+            throw new IllegalArgumentException("Negative positions can't be packed: " + pos);
+         }
+         max = Math.max(max, pos);
+      }
+      int bitsPerPosition = Math.max(1, 64 - Long.numberOfLeadingZeros(max));
+      long[] words = new long[(int)(((long)positions.length * bitsPerPosition + 63) / 64)];
+      for ( int i = 0; i < positions.length; i++ ) {
+         long bit = (long)i * bitsPerPosition;
+         int word = (int)(bit >>> 6);
+         int shift = (int)(bit & 63);
+         words[word] |= positions[i] << shift;
+         if ( shift + bitsPerPosition > 64 ) {
+            words[word + 1] |= positions[i] >>> (64 - shift);
+         }
+      }
+      return new PackedPositions(positions.length, bitsPerPosition, LongBuffer.wrap(words));
+   }
+
+   /**
+    * Reads an array written by {@link #write(DataOutput)}. The packed words are not copied, but used from the buffer, the
+    * position of the buffer is moved behind the array.
+    */
+   static PackedPositions read( ByteBuffer buffer ) {
+      int size = buffer.getInt();
+      int bitsPerPosition = buffer.getInt();
+      int numWords = buffer.getInt();
+      return new PackedPositions(size, bitsPerPosition, MinimalPerfectHash.slice(buffer, numWords * 8).asLongBuffer());
+   }
+
+
+   private final int        _size;
+   private final int        _bitsPerPosition;
+   private final long       _mask;
+   private final LongBuffer _words;
+
+
+   private PackedPositions( int size, int bitsPerPosition, LongBuffer words ) {
+      _size = size;
+      _bitsPerPosition = bitsPerPosition;
+      _mask = bitsPerPosition == 64 ? -1L : (1L << bitsPerPosition) - 1;
+      _words = words;
+   }
+
+   long get( int index ) {
+      long bit = (long)index * _bitsPerPosition;
+      int word = (int)(bit >>> 6);
+      int shift = (int)(bit & 63);
+      long value = _words.get(word) >>> shift;
+      if ( shift + _bitsPerPosition > 64 ) {
+         value |= _words.get(word + 1) << (64 - shift);
+      }
+      return value & _mask;
+   }
+
+   int size() {
+      return _size;
+   }
+
+   void write( DataOutput out ) throws IOException {
+      out.writeInt(_size);
+      out.writeInt(_bitsPerPosition);
+      out.writeInt(_words.limit());
+      for ( int w = 0; w < _words.limit(); w++ ) {
+         out.writeLong(_words.get(w));
+      }
+   }
+}
@@ -0,0 +1,364 @@
+package util.dump;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+
+/**
+ * A query over the positions of a {@link Dump}, combining lookups of any of its indexes with {@link #and(PositionQuery...)},
+ * {@link #or(PositionQuery...)} and {@link #not(PositionQuery)}. The whole query is evaluated on {@link PositionSet}s, so
+ * elements are read from the dump only for the final result:
+ *
+ * <pre>
+ * PositionQuery.and(PositionQuery.of(groupIndexA, a), PositionQuery.of(groupIndexB, b), PositionQuery.not(PositionQuery.of(groupIndexC, c))).lookup()
+ * </pre>
+ *
+ * The operands of an AND are evaluated in the order of their {@link #estimateSize() estimated size}, so the smallest set
+ * drives the intersection and the evaluation stops as soon as the intersection is empty. A NOT is only allowed as operand
+ * of an AND with at least one other operand, it is subtracted after all other operands have been intersected.<p/>
+ *
+ * Leaves for a <code>SearchIndex</code> are created by <code>SearchIndex.query(String)</code>, any other source of positions can
+ * be used with {@link #of(Dump, PositionSet)} or by extending this class.
+ */
+public abstract class PositionQuery<E> {
+
+   /**
+    * the {@link #estimateSize() estimated size} of operands, which can't tell their size without evaluating them
+    */
+   protected static final long UNKNOWN_SIZE = Long.MAX_VALUE;
+
+
+   @SafeVarargs
+   public static <E> PositionQuery<E> and( PositionQuery<E>... operands ) {
+      return new And<>(checkOperands(operands));
+   }
+
+   public static <E> PositionQuery<E> not( PositionQuery<E> operand ) {
+      return new Not<>(operand);
+   }
+
+   public static <E> PositionQuery<E> of( Dump<E> dump, PositionSet positions ) {
+      return new PositionQuery<E>(dump) {
+
+         @Override
+         protected long estimateSize() {
+            return positions.size();
+         }
+
+         @Override
+         protected PositionSet evaluate() {
+            return positions;
+         }
+      };
+   }
+
+   public static <E> PositionQuery<E> of( GroupedIndex<E> index, Object key ) {
+      return new PositionQuery<E>(index.getDump()) {
+
+         @Override
+         protected long estimateSize() {
+            return UNKNOWN_SIZE;
+         }
+
+         @Override
+         protected PositionSet evaluate() {
+            return PositionSet.ofSorted(index.getPositions(key));
+         }
+      };
+   }
+
+   public static <E> PositionQuery<E> of( GroupIndex<E> index, Object key ) {
+      return new PositionQuery<E>(index._dump) {
+
+         @Override
+         protected long estimateSize() {
+            return index.getNumPositions(key);
+         }
+
+         @Override
+         protected PositionSet evaluate() {
+            return PositionSet.ofSorted(index.getPositions(key));
+         }
+      };
+   }
+
+   public static <E> PositionQuery<E> of( InfiniteGroupIndex<E> index, Object key ) {
+      return new PositionQuery<E>(index._dump) {
+
+         @Override
+         protected long estimateSize() {
+            long[] positions = index.getPositionsFromCache(key);
+            return positions == null ? UNKNOWN_SIZE : positions.length;
+         }
+
+         @Override
+         protected PositionSet evaluate() {
+            // the positions of int and long keys are ordered by run, not by position
+            return PositionSet.of(index.getPositions(key));
+         }
+      };
+   }
+
+   public static <E> PositionQuery<E> of( UniqueIndex<E> index, Object key ) {
+      return new PositionQuery<E>(index._dump) {
+
+         @Override
+         protected long estimateSize() {
+            return index.getPosition(key) >= 0 ? 1 : 0;
+         }
+
+         @Override
+         protected PositionSet evaluate() {
+            long pos = index.getPosition(key);
+            return pos >= 0 ? PositionSet.of(pos) : PositionSet.EMPTY;
+         }
+      };
+   }
+
+   @SafeVarargs
+   public static <E> PositionQuery<E> or( PositionQuery<E>... operands ) {
+      for ( PositionQuery<E> operand : checkOperands(operands) ) {
+         if ( operand instanceof Not ) {
+            throw new IllegalArgumentException("A NOT can't be an operand of an OR, only of an AND.");
+         }
+      }
+      return new Or<>(operands);
+   }
+
+   private static <E> PositionQuery<E>[] checkOperands( PositionQuery<E>[] operands ) {
+      if ( operands == null || operands.length == 0 ) {
+         throw new IllegalArgumentException("You need at least one operand for a PositionQuery.");
+      }
+      for ( int i = 1, length = operands.length; i < length; i++ ) {
+         if ( operands[0]._dump != operands[i]._dump ) {
+            throw new IllegalArgumentException("All operands of a PositionQuery must belong to the same dump. " + operands[0]._dump.getDumpFile() + " != "
+               + operands[i]._dump.getDumpFile());
+         }
+      }
+      return Arrays.copyOf(operands, operands.length);
+   }
+
+
+   protected final Dump<E> _dump;
+
+
+   protected PositionQuery( Dump<E> dump ) {
+      if ( dump == null ) {
+         throw new IllegalArgumentException("The dump of a PositionQuery may not be null.");
+      }
+      _dump = dump;
+   }
+
+   /**
+    * @return the number of undeleted elements matching this query
+    */
+   public int count() {
+      return positions().size();
+   }
+
+   /**
+    * BEWARE: While this method is synchronized, the iteration afterwards is not! You have to synchronize using
+    * the dump as monitor while iterating the Iterable, otherwise you might miss values in the iteration or get
+    * null values.
+    */
+   public Iterable<E> lookup() {
+      PositionSet positions = positions();
+      return () -> new PositionIterator(positions);
+   }
+
+   /**
+    * @return the positions of the undeleted elements matching this query
+    */
+   public PositionSet positions() {
+      synchronized ( _dump ) {
+         return evaluate().withoutDeleted(_dump._deletedPositions);
+      }
+   }
+
+   /**
+    * Is invoked while holding the lock of the dump.
+    * @return an estimate of the number of positions matching this query, which must be cheap to compute, or
+    *         {@link #UNKNOWN_SIZE}
+    */
+   protected abstract long estimateSize();
+
+   /**
+    * Is invoked while holding the lock of the dump.
+    * @return the positions matching this query, which may include deleted positions
+    */
+   protected abstract PositionSet evaluate();
+
+
+   private static final class And<E> extends PositionQuery<E> {
+
+      private final PositionQuery<E>[] _operands;
+
+
+      private And( PositionQuery<E>[] operands ) {
+         super(operands[0]._dump);
+         _operands = operands;
+         for ( PositionQuery<E> operand : operands ) {
+            if ( !(operand instanceof Not) ) {
+               return;
+            }
+         }
+         throw new IllegalArgumentException("An AND needs at least one operand, which is not a NOT.");
+      }
+
+      @Override
+      protected long estimateSize() {
+         long size = UNKNOWN_SIZE;
+         for ( PositionQuery<E> operand : _operands ) {
+            if ( !(operand instanceof Not) ) {
+               size = Math.min(size, operand.estimateSize());
+            }
+         }
+         return size;
+      }
+
+      @Override
+      protected PositionSet evaluate() {
+         List<PositionQuery<E>> positive = new ArrayList<>(_operands.length);
+         List<PositionQuery<E>> negative = new ArrayList<>(_operands.length);
+         List<Long> sizes = new ArrayList<>(_operands.length);
+         for ( PositionQuery<E> operand : _operands ) {
+            if ( operand instanceof Not ) {
+               negative.add(((Not<E>)operand)._operand);
+            } else {
+               long size = operand.estimateSize();
+               if ( size == 0 ) {
+                  return PositionSet.EMPTY;
+               }
+               positive.add(operand);
+               sizes.add(size);
+            }
+         }
+
+         Integer[] order = new Integer[positive.size()];
+         for ( int i = 0; i < order.length; i++ ) {
+            order[i] = i;
+         }
+         Arrays.sort(order, Comparator.comparingLong(sizes::get)); // stable, so operands of unknown size keep their order
+
+         PositionSet result = null;
+         for ( int i : order ) {
+            PositionSet positions = positive.get(i).evaluate();
+            result = result == null ? positions : result.and(positions);
+            if ( result.isEmpty() ) {
+               return result;
+            }
+         }
+         for ( PositionQuery<E> operand : negative ) {
+            result = result.andNot(operand.evaluate());
+            if ( result.isEmpty() ) {
+               return result;
+            }
+         }
+         return result;
+      }
+   }
+
+   private static final class Not<E> extends PositionQuery<E> {
+
+      private final PositionQuery<E> _operand;
+
+
+      private Not( PositionQuery<E> operand ) {
+         super(operand._dump);
+         _operand = operand;
+      }
+
+      @Override
+      protected long estimateSize() {
+         throw new UnsupportedOperationException("A NOT can only be evaluated as operand of an AND.");
+      }
+
+      @Override
+      protected PositionSet evaluate() {
+         throw new UnsupportedOperationException("A NOT can only be evaluated as operand of an AND.");
+      }
+   }
+
+   private static final class Or<E> extends PositionQuery<E> {
+
+      private final PositionQuery<E>[] _operands;
+
+
+      private Or( PositionQuery<E>[] operands ) {
+         super(operands[0]._dump);
+         _operands = operands;
+      }
+
+      @Override
+      protected long estimateSize() {
+         long size = 0;
+         for ( PositionQuery<E> operand : _operands ) {
+            long s = operand.estimateSize();
+            if ( s == UNKNOWN_SIZE ) {
+               return UNKNOWN_SIZE;
+            }
+            size += s;
+         }
+         return size;
+      }
+
+      @Override
+      protected PositionSet evaluate() {
+         List<PositionSet> sets = new ArrayList<>(_operands.length);
+         for ( PositionQuery<E> operand : _operands ) {
+            sets.add(operand.evaluate());
+         }
+         // merge pairwise, so each position is copied only log(n) times
+         while ( sets.size() > 1 ) {
+            List<PositionSet> merged = new ArrayList<>((sets.size() + 1) / 2);
+            for ( int i = 0; i < sets.size(); i += 2 ) {
+               merged.add(i + 1 < sets.size() ? sets.get(i).or(sets.get(i + 1)) : sets.get(i));
+            }
+            sets = merged;
+         }
+         return sets.get(0);
+      }
+   }
+
+   private final class PositionIterator implements Iterator<E> {
+
+      private final PositionSet _positions;
+      private int               _i;
+
+
+      private PositionIterator( PositionSet positions ) {
+         _positions = positions;
+         skipDeleted();
+      }
+
+      @Override
+      public boolean hasNext() {
+         return _i < _positions.size();
+      }
+
+      @Override
+      public E next() {
+         if ( _i >= _positions.size() ) {
+            throw new NoSuchElementException();
+         }
+         E e = _dump.get(_positions.get(_i++));
+         skipDeleted();
+         return e;
+      }
+
+      @Override
+      public void remove() {
+         throw new UnsupportedOperationException();
+      }
+
+      private void skipDeleted() {
+         while ( _i < _positions.size() && _dump._deletedPositions.contains(_positions.get(_i)) ) {
+            _i++;
+         }
+      }
+   }
+}
@@ -0,0 +1,257 @@
+package util.dump;
+
+import java.util.Arrays;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.procedure.TLongProcedure;
+import gnu.trove.set.TLongSet;
+
+
+/**
+ * An immutable set of dump positions, kept as a sorted array without duplicates. This is the currency of
+ * {@link PositionQuery}: index lookups produce position sets, which are combined by {@link #and(PositionSet)},
+ * {@link #or(PositionSet)} and {@link #andNot(PositionSet)} before a single element is read from the dump.<p/>
+ *
+ * Intersections gallop through the larger set, i.e. they need <code>O(m * log(n / m))</code> comparisons for sets of
+ * the sizes <code>m &lt;= n</code>, so a small set intersected with a huge one costs about as much as the small set.
+ */
+public final class PositionSet {
+
+   public static final PositionSet EMPTY = new PositionSet(new long[0], 0);
+
+   /**
+    * below this size ratio two sorted arrays are merged linearly instead of galloping through the larger one
+    */
+   private static final int GALLOP_SIZE_RATIO = 8;
+
+
+   /**
+    * @param positions arbitrary positions, which are copied, sorted and deduplicated
+    */
+   public static PositionSet of( long... positions ) {
+      return of(positions, positions.length);
+   }
+
+   /**
+    * @param positions arbitrary positions, which are copied, sorted and deduplicated
+    */
+   public static PositionSet of( TLongList positions ) {
+      return of(positions.toArray(), positions.size());
+   }
+
+   /**
+    * @param positions positions in ascending order, which may contain duplicates. The array is not copied, so it must
+    *          not be modified afterwards.
+    */
+   static PositionSet ofSorted( long[] positions ) {
+      int size = 0;
+      for ( int i = 0; i < positions.length; i++ ) {
+         if ( i == 0 || positions[i] != positions[size - 1] ) {
+            positions[size++] = positions[i];
+         }
+      }
+      return size == 0 ? EMPTY : new PositionSet(positions, size);
+   }
+
+   /**
+    * @return the index of the first element in <code>a[from..to)</code> not less than <code>key</code>, or <code>to</code>
+    */
+   private static int gallop( long[] a, int from, int to, long key ) {
+      int step = 1;
+      int low = from;
+      int high = from;
+      while ( high < to && a[high] < key ) {
+         low = high + 1;
+         high += step;
+         step <<= 1;
+      }
+      high = Math.min(high, to);
+      while ( low < high ) {
+         int mid = (low + high) >>> 1;
+         if ( a[mid] < key ) {
+            low = mid + 1;
+         } else {
+            high = mid;
+         }
+      }
+      return low;
+   }
+
+   private static PositionSet of( long[] positions, int length ) {
+      long[] sorted = Arrays.copyOf(positions, length);
+      Arrays.sort(sorted);
+      return ofSorted(sorted);
+   }
+
+
+   private final long[] _positions;
+   private final int    _size;
+
+
+   private PositionSet( long[] positions, int size ) {
+      _positions = positions;
+      _size = size;
+   }
+
+   /**
+    * @return the positions contained in both sets
+    */
+   public PositionSet and( PositionSet other ) {
+      PositionSet small = _size <= other._size ? this : other;
+      PositionSet large = small == this ? other : this;
+      if ( small._size == 0 ) {
+         return EMPTY;
+      }
+      long[] result = new long[small._size];
+      int n = 0;
+      long[] a = small._positions;
+      long[] b = large._positions;
+      if ( large._size / small._size < GALLOP_SIZE_RATIO ) {
+         for ( int i = 0, j = 0; i < small._size && j < large._size; ) {
+            if ( a[i] < b[j] ) {
+               i++;
+            } else if ( a[i] > b[j] ) {
+               j++;
+            } else {
+               result[n++] = a[i++];
+               j++;
+            }
+         }
+      } else {
+         for ( int i = 0, j = 0; i < small._size && j < large._size; i++ ) {
+            j = gallop(b, j, large._size, a[i]);
+            if ( j < large._size && b[j] == a[i] ) {
+               result[n++] = a[i];
+            }
+         }
+      }
+      return n == 0 ? EMPTY : new PositionSet(result, n);
+   }
+
+   /**
+    * @return the positions contained in this set but not in the other one
+    */
+   public PositionSet andNot( PositionSet other ) {
+      if ( _size == 0 || other._size == 0 ) {
+         return this;
+      }
+      long[] result = new long[_size];
+      int n = 0;
+      long[] b = other._positions;
+      boolean gallop = other._size / _size >= GALLOP_SIZE_RATIO;
+      for ( int i = 0, j = 0; i < _size; i++ ) {
+         long pos = _positions[i];
+         if ( gallop ) {
+            j = gallop(b, j, other._size, pos);
+         } else {
+            while ( j < other._size && b[j] < pos ) {
+               j++;
+            }
+         }
+         if ( j >= other._size || b[j] != pos ) {
+            result[n++] = pos;
+         }
+      }
+      return n == _size ? this : (n == 0 ? EMPTY : new PositionSet(result, n));
+   }
+
+   public boolean contains( long pos ) {
+      return Arrays.binarySearch(_positions, 0, _size, pos) >= 0;
+   }
+
+   /**
+    * @return false if the procedure returned false for any position
+    */
+   public boolean forEach( TLongProcedure procedure ) {
+      for ( int i = 0; i < _size; i++ ) {
+         if ( !procedure.execute(_positions[i]) ) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   public long get( int index ) {
+      if ( index < 0 || index >= _size ) {
+         throw new IndexOutOfBoundsException("index " + index + ", size " + _size);
+      }
+      return _positions[index];
+   }
+
+   public boolean isEmpty() {
+      return _size == 0;
+   }
+
+   /**
+    * @return the positions contained in any of both sets
+    */
+   public PositionSet or( PositionSet other ) {
+      if ( other._size == 0 ) {
+         return this;
+      }
+      if ( _size == 0 ) {
+         return other;
+      }
+      long[] a = _positions;
+      long[] b = other._positions;
+      long[] result = new long[_size + other._size];
+      int n = 0;
+      int i = 0;
+      int j = 0;
+      while ( i < _size && j < other._size ) {
+         if ( a[i] < b[j] ) {
+            result[n++] = a[i++];
+         } else if ( a[i] > b[j] ) {
+            result[n++] = b[j++];
+         } else {
+            result[n++] = a[i++];
+            j++;
+         }
+      }
+      while ( i < _size ) {
+         result[n++] = a[i++];
+      }
+      while ( j < other._size ) {
+         result[n++] = b[j++];
+      }
+      return new PositionSet(result, n);
+   }
+
+   public int size() {
+      return _size;
+   }
+
+   /**
+    * @return the positions in ascending order
+    */
+   public long[] toArray() {
+      return Arrays.copyOf(_positions, _size);
+   }
+
+   @Override
+   public String toString() {
+      return Arrays.toString(toArray());
+   }
+
+   /**
+    * @return the positions, which are not contained in the given set of deleted positions
+    */
+   PositionSet withoutDeleted( TLongSet deletedPositions ) {
+      if ( deletedPositions.isEmpty() ) {
+         return this;
+      }
+      long[] result = null;
+      int n = 0;
+      for ( int i = 0; i < _size; i++ ) {
+         if ( deletedPositions.contains(_positions[i]) ) {
+            if ( result == null ) {
+               result = Arrays.copyOf(_positions, _size);
+               n = i;
+            }
+         } else if ( result != null ) {
+            result[n++] = _positions[i];
+         }
+      }
+      return result == null ? this : (n == 0 ? EMPTY : new PositionSet(result, n));
+   }
+}
@@ -0,0 +1,516 @@
+package util.dump;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import util.dump.reflection.FieldAccessor;
+import util.dump.reflection.FieldFieldAccessor;
+import util.dump.reflection.Reflection;
+
+
+/**
+ * A non-unique index over {@link String} keys, which answers prefix lookups like "all SKUs starting with ABC-12" using
+ * {@link #prefixLookup(String)}, in addition to the lookups of single keys.<p/>
+ *
+ * The keys are kept in a front coded dictionary sorted by their modified UTF-8 bytes, see {@link FrontCodedKeys}, and the
+ * positions of all keys in a single <code>long[]</code>. Without any object per key, this takes far less memory than a
+ * <code>HashMap&lt;String, Positions&gt;</code>: about the length of the distinct suffixes plus 12 bytes per key and 8 bytes
+ * per position. Added keys are buffered in a small sorted map, which is merged into the dictionary as soon as it holds more
+ * than an eighth of its keys, so adding a key costs amortized <code>O(log(n))</code>.<p/>
+ *
+ * The lookup file has the format of the one of a {@link GroupIndex} over String keys.
+ */
+public class PrefixIndex<E> extends DumpIndex<E> implements NonUniqueIndex<E> {
+
+   private static final int  MIN_BUFFER_SIZE = 1024;
+   /** marks the position of a removed key in {@link #_positions} */
+   private static final long REMOVED         = -1;
+
+
+   private static FieldAccessor checkKeyType( FieldAccessor fieldAccessor ) {
+      if ( fieldAccessor.getType() != String.class ) {
+         throw new IllegalArgumentException("A PrefixIndex supports String keys only, the type of the key is " + fieldAccessor.getType());
+      }
+      return fieldAccessor;
+   }
+
+   /**
+    * @return the modified UTF-8 encoding of the key, the same as the one of {@link java.io.DataOutput#writeUTF(String)}
+    */
+   private static byte[] encode( String key ) {
+      byte[] utf = new byte[DumpUtils.utfLength(key)];
+      DumpUtils.encodeUTF(key, utf, 0);
+      return utf;
+   }
+
+   private FrontCodedKeys _keys;
+   /** the positions of the key with index i are in <code>_positions[_positionOffsets[i] .. _positionOffsets[i + 1])</code> */
+   private int[]          _positionOffsets;
+   private long[]         _positions;
+
+   /** keys added since the last merge with their positions, not contained in {@link #_keys} */
+   private TreeMap<String, TLongArrayList> _buffer;
+
+
+   public PrefixIndex( Dump<E> dump, FieldAccessor fieldAccessor ) {
+      super(dump, checkKeyType(fieldAccessor));
+      init();
+   }
+
+   public PrefixIndex( Dump<E> dump, String fieldName ) throws NoSuchFieldException {
+      this(dump, new FieldFieldAccessor(Reflection.getField(dump._beanClass, fieldName)));
+   }
+
+   @Override
+   public void add( E o, long pos ) {
+      String key = (String)getObjectKey(o);
+      if ( key == null ) {
+         return;
+      }
+      addToBuffer(key, pos);
+      try {
+         _lookupOutputStream.writeUTF(key);
+         _lookupOutputStream.writeLong(pos);
+      }
+      catch ( IOException argh ) {
+         throw new RuntimeException("Failed to add key to index " + getLookupFile(), argh);
+      }
+      if ( _buffer.size() > Math.max(MIN_BUFFER_SIZE, _keys.size() / 8) ) {
+         merge();
+      }
+   }
+
+   @Override
+   public boolean contains( int key ) {
+      throw new IllegalArgumentException("The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use contains(Object).");
+   }
+
+   @Override
+   public boolean contains( long key ) {
+      throw new IllegalArgumentException("The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use contains(Object).");
+   }
+
+   @Override
+   public boolean contains( Object key ) {
+      return count(key) > 0;
+   }
+
+   @Override
+   public int count( int key ) {
+      throw new IllegalArgumentException("The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use count(Object).");
+   }
+
+   @Override
+   public int count( long key ) {
+      throw new IllegalArgumentException("The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use count(Object).");
+   }
+
+   @Override
+   public int count( Object key ) {
+      return positions(key).size();
+   }
+
+   @Override
+   public TLongList getAllPositions() {
+      synchronized ( _dump ) {
+         merge();
+         TLongList positions = new TLongArrayList(_positions.length);
+         for ( long pos : _positions ) {
+            if ( pos != REMOVED && !_dump._deletedPositions.contains(pos) ) {
+               positions.add(pos);
+            }
+         }
+         positions.sort();
+         return positions;
+      }
+   }
+
+   @Override
+   public int getNumKeys() {
+      synchronized ( _dump ) {
+         merge(); // drops keys without positions
+         return _keys.size();
+      }
+   }
+
+   @Override
+   public Iterable<E> lookup( int key ) {
+      throw new IllegalArgumentException("The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use lookup(Object).");
+   }
+
+   @Override
+   public Iterable<E> lookup( long key ) {
+      throw new IllegalArgumentException("The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use lookup(Object).");
+   }
+
+   /**
+    * BEWARE: While this method is synchronized, the iteration afterwards is not! You have to synchronize using
+    * the dump as monitor while iterating the Iterable, otherwise you might miss values in the iteration or get
+    * null values.
+    * @return the elements with the key in the order of their positions
+    */
+   @Override
+   public Iterable<E> lookup( Object key ) {
+      return SortedKeys.lookup(_dump, new TLongArrayList(positions(key).toArray()));
+   }
+
+   @Override
+   public PositionSet positions( int key ) {
+      throw new IllegalArgumentException("The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use positions(Object).");
+   }
+
+   @Override
+   public PositionSet positions( long key ) {
+      throw new IllegalArgumentException("The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use positions(Object).");
+   }
+
+   @Override
+   public PositionSet positions( Object key ) {
+      if ( !(key instanceof String) ) {
+         throw new IllegalArgumentException("The type of the used key class of this index is " + _fieldAccessor.getType() + ", not " + key.getClass());
+      }
+      synchronized ( _dump ) {
+         TLongList positions = new TLongArrayList();
+         byte[] utf = encode((String)key);
+         int index = _keys.indexOf(utf, utf.length);
+         if ( index >= 0 ) {
+            addLivePositions(index, positions);
+         }
+         TLongArrayList buffered = _buffer.get(key);
+         if ( buffered != null ) {
+            addLivePositions(buffered, positions);
+         }
+         return PositionSet.of(positions);
+      }
+   }
+
+   /**
+    * @return the positions of all undeleted elements with a key starting with the prefix
+    */
+   public PositionSet prefixLookup( String prefix ) {
+      synchronized ( _dump ) {
+         TLongList positions = new TLongArrayList();
+         byte[] utf = encode(prefix);
+         for ( FrontCodedKeys.Cursor cursor = _keys.cursor(_keys.ceilingIndex(utf, utf.length)); cursor.hasKey() && cursor.startsWith(utf, utf.length);
+               cursor.next() ) {
+            addLivePositions(cursor.index(), positions);
+         }
+         // all Strings starting with the prefix are contiguous in the order of String.compareTo(.), too
+         for ( Map.Entry<String, TLongArrayList> e : _buffer.tailMap(prefix).entrySet() ) {
+            if ( !e.getKey().startsWith(prefix) ) {
+               break;
+            }
+            addLivePositions(e.getValue(), positions);
+         }
+         return PositionSet.of(positions);
+      }
+   }
+
+   @Override
+   protected String getIndexType() {
+      return PrefixIndex.class.getSimpleName();
+   }
+
+   @Override
+   protected void initLookupMap() {
+      _keys = FrontCodedKeys.EMPTY;
+      _positionOffsets = new int[1];
+      _positions = new long[0];
+      _buffer = new TreeMap<>();
+   }
+
+   @Override
+   protected void load() {
+      if ( !getLookupFile().exists() || getLookupFile().length() == 0 ) {
+         return;
+      }
+
+      TLongIntMap positionsToIgnore = new TLongIntHashMap();
+      if ( getUpdatesFile().exists() ) {
+         if ( getUpdatesFile().length() % 8 != 0 ) {
+            throw new RuntimeException("Index corrupted: " + getUpdatesFile() + " has unbalanced size.");
+         }
+         try (DataInputStream updatesInput = new DataInputStream(
+               new BufferedInputStream(new FileInputStream(getUpdatesFile()), DumpReader.DEFAULT_BUFFER_SIZE))) {
+            for ( long i = getUpdatesFile().length() / 8; i > 0; i-- ) {
+               positionsToIgnore.adjustOrPutValue(updatesInput.readLong(), 1, 1);
+            }
+         }
+         catch ( IOException argh ) {
+            throw new RuntimeException("Failed read updates from " + getUpdatesFile(), argh);
+         }
+      }
+
+      // the keys are read into a single byte array without creating a String per key, and sorted by their offsets
+      byte[] keyBytes = new byte[(int)Math.min(Integer.MAX_VALUE - 8, Math.max(1024, getLookupFile().length()))];
+      int keyBytesLength = 0;
+      TIntArrayList keyOffsets = new TIntArrayList();
+      TLongArrayList keyPositions = new TLongArrayList();
+      boolean mayEOF = true;
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getLookupFile()), DumpReader.DEFAULT_BUFFER_SIZE))) {
+         byte[] utf = new byte[256];
+         while ( true ) {
+            int length = in.readUnsignedShort();
+            mayEOF = false;
+            if ( length > utf.length ) {
+               utf = new byte[Math.max(length, utf.length * 2)];
+            }
+            in.readFully(utf, 0, length);
+            long pos = in.readLong();
+            mayEOF = true;
+            _numLoadedLookupEntries++;
+            if ( positionsToIgnore.get(pos) > 0 ) {
+               positionsToIgnore.adjustValue(pos, -1);
+               continue;
+            }
+            if ( !_dump._deletedPositions.contains(pos) ) {
+               if ( keyBytesLength + 2 + length > keyBytes.length ) {
+                  keyBytes = Arrays.copyOf(keyBytes, (int)Math.min(Integer.MAX_VALUE - 8, keyBytes.length * 2L + length));
+               }
+               keyOffsets.add(keyBytesLength);
+               keyBytes[keyBytesLength++] = (byte)(length >>> 8);
+               keyBytes[keyBytesLength++] = (byte)length;
+               System.arraycopy(utf, 0, keyBytes, keyBytesLength, length);
+               keyBytesLength += length;
+               keyPositions.add(pos);
+            }
+         }
+      }
+      catch ( EOFException argh ) {
+         if ( !mayEOF ) {
+            throw new RuntimeException("Failed to read lookup from " + getLookupFile() + ", file is unbalanced - unexpected EoF", argh);
+         }
+      }
+      catch ( IOException argh ) {
+         throw new RuntimeException("Failed to read lookup from " + getLookupFile(), argh);
+      }
+
+      int n = keyOffsets.size();
+      int[] order = new int[n];
+      for ( int i = 0; i < n; i++ ) {
+         order[i] = i;
+      }
+      sortByKey(order, new int[n], 0, n, keyBytes, keyOffsets.toArray());
+
+      FrontCodedKeys.Builder keys = new FrontCodedKeys.Builder();
+      TIntArrayList positionOffsets = new TIntArrayList();
+      long[] positions = new long[n];
+      for ( int i = 0; i < n; ) {
+         int offset = keyOffsets.get(order[i]);
+         int length = keyLength(keyBytes, offset);
+         positionOffsets.add(i);
+         int j = i;
+         do {
+            positions[j] = keyPositions.get(order[j]);
+            j++;
+         } while ( j < n && compareKeys(keyBytes, keyOffsets.get(order[j]), offset) == 0 );
+         Arrays.sort(positions, i, j);
+         keys.add(keyBytes, offset + 2, length);
+         i = j;
+      }
+      positionOffsets.add(n);
+      _keys = keys.build();
+      _positionOffsets = positionOffsets.toArray();
+      _positions = positions;
+   }
+
+   @Override
+   protected boolean supportsReplay() {
+      return true;
+   }
+
+   @Override
+   void delete( E o, long pos ) {
+      String key = (String)getObjectKey(o);
+      if ( key == null ) {
+         return;
+      }
+      TLongArrayList buffered = _buffer.get(key);
+      if ( buffered != null && buffered.remove(pos) ) {
+         if ( buffered.isEmpty() ) {
+            _buffer.remove(key);
+         }
+         return;
+      }
+      byte[] utf = encode(key);
+      int index = _keys.indexOf(utf, utf.length);
+      if ( index >= 0 ) {
+         for ( int i = _positionOffsets[index]; i < _positionOffsets[index + 1]; i++ ) {
+            if ( _positions[i] == pos ) {
+               _positions[i] = REMOVED;
+               return;
+            }
+         }
+      }
+   }
+
+   @Override
+   boolean isUpdatable( E oldItem, E newItem ) {
+      return true;
+   }
+
+   @Override
+   void update( long pos, E oldItem, E newItem ) {
+      boolean noChange = super.isUpdatable(oldItem, newItem);
+      if ( noChange ) {
+         return;
+      }
+      delete(oldItem, pos); // remove from memory
+
+      try {
+         // we add this position to the stream of ignored positions used during load()
+         getUpdatesOutput().writeLong(pos);
+      }
+      catch ( IOException argh ) {
+         throw new RuntimeException("Failed to append to updates file " + getUpdatesFile(), argh);
+      }
+
+      add(newItem, pos);
+   }
+
+   private int keyLength( byte[] keyBytes, int offset ) {
+      return ((keyBytes[offset] & 0xff) << 8) | (keyBytes[offset + 1] & 0xff);
+   }
+
+   private int compareKeys( byte[] keyBytes, int offset, int otherOffset ) {
+      int length = keyLength(keyBytes, offset);
+      int otherLength = keyLength(keyBytes, otherOffset);
+      for ( int i = 0, n = Math.min(length, otherLength); i < n; i++ ) {
+         int diff = (keyBytes[offset + 2 + i] & 0xff) - (keyBytes[otherOffset + 2 + i] & 0xff);
+         if ( diff != 0 ) {
+            return diff;
+         }
+      }
+      return length - otherLength;
+   }
+
+   /**
+    * A stable merge sort of the entries in <code>order[from..to)</code> by their keys.
+    */
+   private void sortByKey( int[] order, int[] tmp, int from, int to, byte[] keyBytes, int[] keyOffsets ) {
+      if ( to - from < 2 ) {
+         return;
+      }
+      int mid = (from + to) >>> 1;
+      sortByKey(order, tmp, from, mid, keyBytes, keyOffsets);
+      sortByKey(order, tmp, mid, to, keyBytes, keyOffsets);
+      if ( compareKeys(keyBytes, keyOffsets[order[mid - 1]], keyOffsets[order[mid]]) <= 0 ) {
+         return; // the lookup file is often sorted already
+      }
+      System.arraycopy(order, from, tmp, from, to - from);
+      for ( int i = from, l = from, r = mid; i < to; i++ ) {
+         if ( r >= to || (l < mid && compareKeys(keyBytes, keyOffsets[tmp[l]], keyOffsets[tmp[r]]) <= 0) ) {
+            order[i] = tmp[l++];
+         } else {
+            order[i] = tmp[r++];
+         }
+      }
+   }
+
+   private void addLivePositions( int index, TLongList positions ) {
+      for ( int i = _positionOffsets[index]; i < _positionOffsets[index + 1]; i++ ) {
+         long pos = _positions[i];
+         if ( pos != REMOVED && !_dump._deletedPositions.contains(pos) ) {
+            positions.add(pos);
+         }
+      }
+   }
+
+   private void addLivePositions( TLongArrayList buffered, TLongList positions ) {
+      for ( int i = 0; i < buffered.size(); i++ ) {
+         long pos = buffered.getQuick(i);
+         if ( !_dump._deletedPositions.contains(pos) ) {
+            positions.add(pos);
+         }
+      }
+   }
+
+   private void addToBuffer( String key, long pos ) {
+      TLongArrayList positions = _buffer.get(key);
+      if ( positions == null ) {
+         positions = new TLongArrayList(1);
+         _buffer.put(key, positions);
+      }
+      positions.add(pos);
+   }
+
+   /**
+    * Merges the buffer into the dictionary and drops removed and deleted positions as well as keys without positions.
+    */
+   private void merge() {
+      // the buffer is sorted by String.compareTo(.), which differs from the order of the encoded keys for some chars
+      List<byte[]> bufferedKeys = new ArrayList<>(_buffer.size());
+      List<TLongArrayList> bufferedPositions = new ArrayList<>(_buffer.size());
+      for ( Map.Entry<String, TLongArrayList> e : _buffer.entrySet() ) {
+         bufferedKeys.add(encode(e.getKey()));
+         bufferedPositions.add(e.getValue());
+      }
+      Integer[] bufferOrder = new Integer[bufferedKeys.size()];
+      for ( int i = 0; i < bufferOrder.length; i++ ) {
+         bufferOrder[i] = i;
+      }
+      Arrays.sort(bufferOrder, ( x, y ) -> FrontCodedKeys.compare(bufferedKeys.get(x), bufferedKeys.get(x).length, bufferedKeys.get(y),
+            bufferedKeys.get(y).length));
+
+      FrontCodedKeys.Builder keys = new FrontCodedKeys.Builder();
+      TIntArrayList positionOffsets = new TIntArrayList(_keys.size() + bufferOrder.length + 1);
+      TLongArrayList positions = new TLongArrayList(_positions.length + bufferOrder.length);
+      FrontCodedKeys.Cursor cursor = _keys.cursor(0);
+      int b = 0;
+      while ( cursor.hasKey() || b < bufferOrder.length ) {
+         int start = positions.size();
+         byte[] key;
+         int length;
+         int c;
+         if ( !cursor.hasKey() ) {
+            c = 1;
+         } else if ( b == bufferOrder.length ) {
+            c = -1;
+         } else {
+            byte[] bufferedKey = bufferedKeys.get(bufferOrder[b]);
+            c = FrontCodedKeys.compare(cursor.key(), cursor.length(), bufferedKey, bufferedKey.length);
+         }
+         if ( c <= 0 ) {
+            addLivePositions(cursor.index(), positions);
+            key = cursor.key();
+            length = cursor.length();
+         } else {
+            key = bufferedKeys.get(bufferOrder[b]);
+            length = key.length;
+         }
+         if ( c >= 0 ) {
+            addLivePositions(bufferedPositions.get(bufferOrder[b]), positions);
+         }
+         if ( positions.size() > start ) {
+            positions.sort(start, positions.size());
+            positionOffsets.add(start);
+            keys.add(key, 0, length);
+         }
+         if ( c <= 0 ) {
+            cursor.next();
+         }
+         if ( c >= 0 ) {
+            b++;
+         }
+      }
+      positionOffsets.add(positions.size());
+
+      _keys = keys.build();
+      _positionOffsets = positionOffsets.toArray();
+      _positions = positions.toArray();
+      _buffer.clear();
+   }
+}
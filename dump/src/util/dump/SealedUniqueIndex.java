@@ -0,0 +1,463 @@
+package util.dump;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import util.dump.Dump.RangeInputStream;
+import util.dump.UniqueIndex.DuplicateKeyException;
+import util.dump.reflection.FieldAccessor;
+import util.dump.reflection.FieldFieldAccessor;
+import util.dump.reflection.Reflection;
+import util.dump.stream.ObjectStreamProvider;
+
+
+/**
+ * A read-only unique index over <code>int</code>, <code>long</code> or {@link String} keys of a sealed dump, see
+ * {@link Dump#seal(java.util.Comparator)}.<p/>
+ *
+ * Instead of hash maps, the lookup file contains a {@link MinimalPerfectHash} over the 64-bit hashes of the keys, which maps
+ * each key to an index into {@link PackedPositions}. The lookup file is memory mapped, so the index is opened in
+ * milliseconds, uses almost no heap and answers lookups in constant time. The hash function takes about 3 bits per key, a
+ * position as many bits as the size of the dump needs.<p/>
+ *
+ * Keys not in the index are mapped to arbitrary positions, so a lookup reads the element and compares its key. For the same
+ * reason, {@link #contains(int)} reads the element, too. The rare distinct String keys with the same hash are kept in a small
+ * collision table.
+ */
+public class SealedUniqueIndex<E> extends DumpIndex<E> {
+
+   private static final int VERSION = 1;
+
+
+   static boolean isKeyTypeSupported( FieldAccessor fieldAccessor ) {
+      Class type = fieldAccessor.getType();
+      return type == int.class || type == Integer.class || type == long.class || type == Long.class || type == String.class;
+   }
+
+   private static FieldAccessor checkKeyType( FieldAccessor fieldAccessor ) {
+      if ( !isKeyTypeSupported(fieldAccessor) ) {
+         throw new IllegalArgumentException("A SealedUniqueIndex supports int, long and String keys only, the type of the key is " + fieldAccessor.getType());
+      }
+      return fieldAccessor;
+   }
+
+   private static <E> Dump<E> checkSealed( Dump<E> dump ) {
+      if ( !dump.isSealed() ) {
+         throw new IllegalArgumentException("A SealedUniqueIndex needs a sealed dump, but " + dump.getDumpFile() + " isn't sealed");
+      }
+      return dump;
+   }
+
+   private static Object getKey( FieldAccessor fieldAccessor, Object o ) {
+      try {
+         return fieldAccessor.get(o);
+      }
+      catch ( Exception argh ) {
+         throw new RuntimeException(argh);
+      }
+   }
+
+
+   /**
+    * Writes the lookup files of sealed indexes over the given fields of a dump file, which is read once. {@link Dump#seal(java.util.Comparator)}
+    * builds its indexes this way from the rewritten dump file, before it replaces the dump file, so that a failure leaves the dump
+    * unchanged.
+    * @return the lookup files named after <code>dumpFile</code>, one per field accessor
+    * @throws DuplicateKeyException if any field contains a key more than once, no lookup file is left behind then
+    */
+   static List<File> writeLookups( File dumpFile, ObjectStreamProvider streamProvider, List<FieldAccessor> fieldAccessors ) throws IOException {
+      List<LookupBuilder> builders = new ArrayList<>();
+      for ( FieldAccessor fieldAccessor : fieldAccessors ) {
+         builders.add(new LookupBuilder(fieldAccessor.getType() == String.class));
+      }
+      try (FileChannel channel = FileChannel.open(dumpFile.toPath(), StandardOpenOption.READ)) {
+         RangeInputStream in = new RangeInputStream(channel, 0, channel.size(), true);
+         ObjectInput objectInput = streamProvider.createObjectInput(in);
+         while ( in.hasRemaining() ) {
+            long pos = in.getPosition();
+            Object e = objectInput.readObject();
+            for ( int i = 0; i < fieldAccessors.size(); i++ ) {
+               builders.get(i).add(getKey(fieldAccessors.get(i), e), pos);
+            }
+         }
+      }
+      catch ( ClassNotFoundException argh ) {
+         throw new IOException("Failed to read dump " + dumpFile, argh);
+      }
+
+      List<File> lookupFiles = new ArrayList<>();
+      try {
+         for ( int i = 0; i < fieldAccessors.size(); i++ ) {
+            File lookupFile = new File(dumpFile.getParentFile(), getIndexFileName(dumpFile, fieldAccessors.get(i)));
+            lookupFiles.add(lookupFile);
+            builders.get(i).write(lookupFile);
+         }
+      }
+      catch ( RuntimeException argh ) {
+         for ( File lookupFile : lookupFiles ) {
+            lookupFile.delete();
+         }
+         throw argh;
+      }
+      return lookupFiles;
+   }
+
+
+   /** the lookup file written by {@link #writeLookups(File, ObjectStreamProvider, List)} during the seal, or null */
+   private final File         _sealedLookupFile;
+
+   private MinimalPerfectHash _hash;
+   private PackedPositions    _positions;
+
+   /**
+    * the further positions of keys, whose hash equals the hash of another key, sorted by the index of the hash
+    */
+   private int[]  _collisionIndexes;
+   private long[] _collisionPositions;
+
+
+   public SealedUniqueIndex( Dump<E> dump, FieldAccessor fieldAccessor ) {
+      this(dump, fieldAccessor, null);
+   }
+
+   public SealedUniqueIndex( Dump<E> dump, String fieldName ) throws NoSuchFieldException {
+      this(dump, new FieldFieldAccessor(Reflection.getField(dump._beanClass, fieldName)));
+   }
+
+   /**
+    * @param sealedLookupFile the lookup file written by {@link #writeLookups(File, ObjectStreamProvider, List)}, which is moved
+    *        into place instead of building the index from the dump
+    */
+   SealedUniqueIndex( Dump<E> dump, FieldAccessor fieldAccessor, @Nullable File sealedLookupFile ) {
+      super(checkSealed(dump), checkKeyType(fieldAccessor));
+      _sealedLookupFile = sealedLookupFile;
+      init();
+   }
+
+   @Override
+   public void close() throws IOException {
+      super.close();
+      // the mapping is released by the garbage collector
+      _hash = null;
+      _positions = null;
+   }
+
+   /**
+    * BEWARE: This reads the element with the key from the dump.
+    */
+   @Override
+   public boolean contains( int key ) {
+      return lookup(key) != null;
+   }
+
+   /**
+    * BEWARE: This reads the element with the key from the dump.
+    */
+   @Override
+   public boolean contains( long key ) {
+      return lookup(key) != null;
+   }
+
+   /**
+    * BEWARE: This reads the element with the key from the dump.
+    */
+   @Override
+   public boolean contains( Object key ) {
+      return lookup(key) != null;
+   }
+
+   @Override
+   public TLongList getAllPositions() {
+      synchronized ( _dump ) {
+         TLongList positions = new TLongArrayList(_positions.size() + _collisionPositions.length);
+         for ( int i = 0; i < _positions.size(); i++ ) {
+            positions.add(_positions.get(i));
+         }
+         positions.add(_collisionPositions);
+         return positions;
+      }
+   }
+
+   @Override
+   public int getNumKeys() {
+      return _positions.size() + _collisionPositions.length;
+   }
+
+   public E lookup( int key ) {
+      synchronized ( _dump ) {
+         if ( !_fieldIsInt ) {
+            throw new IllegalArgumentException(
+                  "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate lookup(.) method.");
+         }
+         return lookup(HashUtils.hash64((long)key), key);
+      }
+   }
+
+   public E lookup( long key ) {
+      synchronized ( _dump ) {
+         if ( !_fieldIsLong ) {
+            throw new IllegalArgumentException(
+                  "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate lookup(.) method.");
+         }
+         return lookup(HashUtils.hash64(key), key);
+      }
+   }
+
+   public E lookup( Object key ) {
+      synchronized ( _dump ) {
+         if ( _fieldIsLong && key instanceof Long ) {
+            return lookup(((Long)key).longValue());
+         }
+         if ( _fieldIsInt && key instanceof Integer ) {
+            return lookup(((Integer)key).intValue());
+         }
+         if ( !_fieldIsString || !(key instanceof String) ) {
+            throw new IllegalArgumentException(
+                  "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate lookup(.) method.");
+         }
+         return lookup(HashUtils.hash64((String)key), key);
+      }
+   }
+
+   @Override
+   protected String getIndexType() {
+      return SealedUniqueIndex.class.getSimpleName();
+   }
+
+   /**
+    * Builds the hash function and the packed positions from the keys of all elements and writes them to the lookup file, unless
+    * {@link Dump#seal(java.util.Comparator)} already wrote it.
+    * @throws DuplicateKeyException if the dump contains a key more than once
+    */
+   @Override
+   protected void initFromDump() {
+      if ( _sealedLookupFile != null && _sealedLookupFile.exists() ) {
+         if ( !_sealedLookupFile.renameTo(getLookupFile()) ) {
+            throw new RuntimeException("Failed to rename sealed index " + _sealedLookupFile + " to " + getLookupFile());
+         }
+      } else {
+         LookupBuilder builder = new LookupBuilder(_fieldIsString);
+         try (DumpIterator<E> iterator = _dump.iterator()) {
+            while ( iterator.hasNext() ) {
+               builder.add(getKey(iterator.next()), iterator.getPosition());
+            }
+         }
+         catch ( IOException argh ) {
+            throw new RuntimeException("Failed to read dump " + _dump.getDumpFile(), argh);
+         }
+         builder.write(getLookupFile());
+      }
+      load();
+   }
+
+   @Override
+   protected void initLookupMap() {
+      // the lookup file is mapped by load()
+   }
+
+   @Override
+   protected void initLookupOutputStream() {
+      // the lookup file is written at once by initFromDump()
+   }
+
+   @Override
+   protected void load() {
+      if ( !getLookupFile().exists() ) {
+         // the lookup file of an empty dump is written here, since createOrLoad() only rebuilds indexes of non-empty dumps
+         initFromDump();
+         return;
+      }
+      try (FileChannel channel = FileChannel.open(getLookupFile().toPath(), StandardOpenOption.READ)) {
+         MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+         int version = buffer.getInt();
+         if ( version != VERSION ) {
+            throw new IOException("Unsupported version " + version + " of sealed index " + getLookupFile());
+         }
+         _hash = MinimalPerfectHash.read(buffer);
+         _positions = PackedPositions.read(buffer);
+         _collisionIndexes = new int[buffer.getInt()];
+         _collisionPositions = new long[_collisionIndexes.length];
+         for ( int i = 0; i < _collisionIndexes.length; i++ ) {
+            _collisionIndexes[i] = buffer.getInt();
+         }
+         for ( int i = 0; i < _collisionPositions.length; i++ ) {
+            _collisionPositions[i] = buffer.getLong();
+         }
+      }
+      catch ( IOException argh ) {
+         throw new RuntimeException("Failed to map sealed index " + getLookupFile(), argh);
+      }
+   }
+
+   @Override
+   void add( E o, long pos ) {
+      throw new UnsupportedOperationException("A SealedUniqueIndex is read-only");
+   }
+
+   @Override
+   void delete( E o, long pos ) {
+      throw new UnsupportedOperationException("A SealedUniqueIndex is read-only");
+   }
+
+   @Override
+   void update( long pos, E oldItem, E newItem ) {
+      throw new UnsupportedOperationException("A SealedUniqueIndex is read-only");
+   }
+
+   private long getHash( Object key ) {
+      if ( _fieldIsString ) {
+         return HashUtils.hash64((String)key);
+      }
+      return HashUtils.hash64(((Number)key).longValue());
+   }
+
+   private Object getKey( E o ) {
+      if ( _fieldIsInt && !_fieldIsIntObject ) {
+         return getIntKey(o);
+      }
+      if ( _fieldIsLong && !_fieldIsLongObject ) {
+         return getLongKey(o);
+      }
+      return getObjectKey(o);
+   }
+
+   private E lookup( long hash, Object key ) {
+      int index = _hash.index(hash);
+      if ( index < 0 ) {
+         return null;
+      }
+      E e = _dump.get(_positions.get(index));
+      if ( e != null && key.equals(getKey(e)) ) {
+         return e;
+      }
+      int i = Arrays.binarySearch(_collisionIndexes, index);
+      if ( i < 0 ) {
+         return null;
+      }
+      while ( i > 0 && _collisionIndexes[i - 1] == index ) {
+         i--;
+      }
+      for ( ; i < _collisionIndexes.length && _collisionIndexes[i] == index; i++ ) {
+         e = _dump.get(_collisionPositions[i]);
+         if ( e != null && key.equals(getKey(e)) ) {
+            return e;
+         }
+      }
+      return null;
+   }
+
+
+   /**
+    * Collects the keys and positions of all elements and writes the lookup file of a sealed index over them.
+    */
+   private static final class LookupBuilder {
+
+      private final TLongArrayList    _hashes    = new TLongArrayList();
+      private final TLongArrayList    _positions = new TLongArrayList();
+      /** the String keys, whose hashes may collide, the hash of an int or long key is unique */
+      private final ArrayList<String> _stringKeys;
+      private final TLongArrayList    _longKeys;
+
+
+      private LookupBuilder( boolean stringKeys ) {
+         _stringKeys = stringKeys ? new ArrayList<>() : null;
+         _longKeys = stringKeys ? null : new TLongArrayList();
+      }
+
+      private void add( @Nullable Object key, long pos ) {
+         if ( key == null ) {
+            return;
+         }
+         if ( _stringKeys != null ) {
+            _hashes.add(HashUtils.hash64((String)key));
+            _stringKeys.add((String)key);
+         } else {
+            long k = ((Number)key).longValue();
+            _hashes.add(HashUtils.hash64(k));
+            _longKeys.add(k);
+         }
+         _positions.add(pos);
+      }
+
+      private Object getKey( int i ) {
+         return _stringKeys != null ? _stringKeys.get(i) : (Object)_longKeys.get(i);
+      }
+
+      /**
+       * @throws DuplicateKeyException if a key was added more than once
+       */
+      private void write( File lookupFile ) {
+         long[] distinctHashes = _hashes.toArray();
+         Arrays.sort(distinctHashes);
+         int n = 0;
+         for ( int i = 0; i < distinctHashes.length; i++ ) {
+            if ( n == 0 || distinctHashes[i] != distinctHashes[n - 1] ) {
+               distinctHashes[n++] = distinctHashes[i];
+            }
+         }
+         MinimalPerfectHash hash = MinimalPerfectHash.build(Arrays.copyOf(distinctHashes, n));
+
+         long[] indexPositions = new long[n];
+         int[] indexKeys = new int[n];
+         Arrays.fill(indexPositions, -1);
+         // the index of the hash in the upper and the number of the key in the lower 32 bits, sorted by both
+         TLongArrayList collisions = new TLongArrayList();
+         for ( int i = 0; i < _hashes.size(); i++ ) {
+            int index = hash.index(_hashes.get(i));
+            if ( indexPositions[index] < 0 ) {
+               indexPositions[index] = _positions.get(i);
+               indexKeys[index] = i;
+            } else if ( _stringKeys == null ) {
+               throw new DuplicateKeyException("Dump already contains an instance with the key " + getKey(i));
+            } else {
+               collisions.add((long)index << 32 | i);
+            }
+         }
+         long[] sortedCollisions = collisions.toArray();
+         Arrays.sort(sortedCollisions);
+         for ( int c = 0; c < sortedCollisions.length; c++ ) {
+            int index = (int)(sortedCollisions[c] >>> 32);
+            String key = _stringKeys.get((int)sortedCollisions[c]);
+            boolean duplicate = key.equals(_stringKeys.get(indexKeys[index]));
+            for ( int d = c - 1; !duplicate && d >= 0 && (int)(sortedCollisions[d] >>> 32) == index; d-- ) {
+               duplicate = key.equals(_stringKeys.get((int)sortedCollisions[d]));
+            }
+            if ( duplicate ) {
+               throw new DuplicateKeyException("Dump already contains an instance with the key " + key);
+            }
+         }
+
+         try (DataOutputStream out = new DataOutputStream(
+               new BufferedOutputStream(new FileOutputStream(lookupFile), DumpWriter.DEFAULT_BUFFER_SIZE))) {
+            out.writeInt(VERSION);
+            hash.write(out);
+            PackedPositions.pack(indexPositions).write(out);
+            out.writeInt(sortedCollisions.length);
+            for ( long collision : sortedCollisions ) {
+               out.writeInt((int)(collision >>> 32));
+            }
+            for ( long collision : sortedCollisions ) {
+               out.writeLong(_positions.get((int)collision));
+            }
+         }
+         catch ( IOException argh ) {
+            throw new RuntimeException("Failed to write sealed index " + lookupFile, argh);
+         }
+      }
+   }
+}
@@ -0,0 +1,95 @@
+package util.dump;
+
+import util.dump.reflection.FieldAccessor;
+import util.dump.reflection.FieldFieldAccessor;
+import util.dump.reflection.Reflection;
+
+
+/**
+ * A {@link GroupIndex} over <code>int</code>, <code>long</code> or {@link String} keys, which additionally answers queries
+ * by the order of the keys: range lookups, floor and ceiling keys, prefix lookups of String keys and the iteration of all
+ * elements in key order, see {@link SortedIndex}.<p/>
+ *
+ * The lookup file is the same as the one of a {@link GroupIndex}, so a {@link GroupIndex} can be replaced by a
+ * {@link SortedGroupIndex} without rebuilding it. The sorted keys are built from the lookup maps when they are needed for
+ * the first time and are kept up to date afterwards, see {@link SortedKeys}.<p/>
+ *
+ * All lookups return the elements in key order, elements with the same key in the order of their positions.
+ */
+public class SortedGroupIndex<E> extends GroupIndex<E> implements SortedIndex<E> {
+
+   private SortedKeys<E> _sortedKeys;
+
+
+   public SortedGroupIndex( Dump<E> dump, FieldAccessor fieldAccessor, IndexOption... options ) {
+      super(dump, SortedKeys.checkKeyType(fieldAccessor), options);
+   }
+
+   public SortedGroupIndex( Dump<E> dump, String fieldName, IndexOption... options ) throws NoSuchFieldException {
+      this(dump, new FieldFieldAccessor(Reflection.getField(dump._beanClass, fieldName)), options);
+   }
+
+   @Override
+   public void add( E o, long pos ) {
+      super.add(o, pos);
+      // during the initialization the sorted keys don't exist yet, they will be built from the maps
+      if ( _sortedKeys != null ) {
+         _sortedKeys.add(this, o);
+      }
+   }
+
+   @Override
+   public SortedKeys<E> getSortedKeys() {
+      synchronized ( _dump ) {
+         if ( _sortedKeys == null ) {
+            SortedKeys.KeyPositions keyPositions = new SortedKeys.KeyPositions() {
+
+               @Override
+               public long[] getPositions( long key ) {
+                  return _fieldIsInt ? SortedGroupIndex.this.getPositions((int)key) : SortedGroupIndex.this.getPositions(key);
+               }
+
+               @Override
+               public long[] getPositions( String key ) {
+                  return SortedGroupIndex.this.getPositions((Object)key);
+               }
+            };
+            if ( _fieldIsInt ) {
+               int[] keys = _lookupInt.keys();
+               int[] singleKeys = _singleInt.keys();
+               long[] allKeys = new long[keys.length + singleKeys.length];
+               for ( int i = 0; i < keys.length; i++ ) {
+                  allKeys[i] = keys[i];
+               }
+               for ( int i = 0; i < singleKeys.length; i++ ) {
+                  allKeys[keys.length + i] = singleKeys[i];
+               }
+               _sortedKeys = new SortedKeys<>(_dump, _fieldAccessor, keyPositions, allKeys);
+            } else if ( _fieldIsLong ) {
+               long[] keys = _lookupLong.keys();
+               long[] singleKeys = _singleLong.keys();
+               long[] allKeys = new long[keys.length + singleKeys.length];
+               System.arraycopy(keys, 0, allKeys, 0, keys.length);
+               System.arraycopy(singleKeys, 0, allKeys, keys.length, singleKeys.length);
+               _sortedKeys = new SortedKeys<>(_dump, _fieldAccessor, keyPositions, allKeys);
+            } else {
+               Object[] keys = _lookupString != null ? _lookupString.keys() : _lookupObject.keySet().toArray();
+               Object[] singleKeys = _singleString != null ? _singleString.keys() : _singleObject.keys();
+               Object[] allKeys = new Object[keys.length + singleKeys.length];
+               System.arraycopy(keys, 0, allKeys, 0, keys.length);
+               System.arraycopy(singleKeys, 0, allKeys, keys.length, singleKeys.length);
+               _sortedKeys = new SortedKeys<>(_dump, _fieldAccessor, keyPositions, allKeys);
+            }
+         }
+         return _sortedKeys;
+      }
+   }
+
+   /**
+    * The ordered queries don't wait for a background rebuild.
+    */
+   @Override
+   protected boolean supportsBackgroundRebuild() {
+      return false;
+   }
+}
@@ -0,0 +1,127 @@
+package util.dump;
+
+import gnu.trove.list.TLongList;
+
+
+/**
+ * The queries by the order of the keys of {@link SortedGroupIndex} and {@link SortedUniqueIndex}, which only differ in the
+ * source of their {@link SortedKeys}. All queries synchronize on the dump and skip deleted elements.<p/>
+ *
+ * BEWARE: While the lookup methods are synchronized, the iteration afterwards is not! You have to synchronize using
+ * the dump as monitor while iterating the Iterable, otherwise you might miss values in the iteration or get
+ * null values.
+ */
+interface SortedIndex<E> {
+
+   /**
+    * @return the smallest key not less than the given key with an undeleted element, or null
+    */
+   default Integer ceilingKey( int key ) {
+      return getSortedKeys().ceilingKey(key);
+   }
+
+   /**
+    * @return the smallest key not less than the given key with an undeleted element, or null
+    */
+   default Long ceilingKey( long key ) {
+      return getSortedKeys().ceilingKey(key);
+   }
+
+   /**
+    * @return the smallest key not less than the given key with an undeleted element, or null
+    */
+   default String ceilingKey( String key ) {
+      return getSortedKeys().ceilingKey(key);
+   }
+
+   /**
+    * @return the largest key not greater than the given key with an undeleted element, or null
+    */
+   default Integer floorKey( int key ) {
+      return getSortedKeys().floorKey(key);
+   }
+
+   /**
+    * @return the largest key not greater than the given key with an undeleted element, or null
+    */
+   default Long floorKey( long key ) {
+      return getSortedKeys().floorKey(key);
+   }
+
+   /**
+    * @return the largest key not greater than the given key with an undeleted element, or null
+    */
+   default String floorKey( String key ) {
+      return getSortedKeys().floorKey(key);
+   }
+
+   /**
+    * Builds the sorted keys from the maps of the index when they are needed for the first time.
+    */
+   SortedKeys<E> getSortedKeys();
+
+   /**
+    * @return all elements in key order
+    */
+   default Iterable<E> orderedLookup() {
+      return getSortedKeys().orderedLookup();
+   }
+
+   /**
+    * @return the elements with a key starting with the prefix in key order
+    */
+   default Iterable<E> prefixLookup( String prefix ) {
+      return getSortedKeys().prefixLookup(prefix);
+   }
+
+   /**
+    * @param lowerKey inclusive
+    * @param upperKey exclusive
+    */
+   default Iterable<E> rangeLookup( int lowerKey, int upperKey ) {
+      return getSortedKeys().rangeLookup(lowerKey, upperKey);
+   }
+
+   /**
+    * @param lowerKey inclusive
+    * @param upperKey exclusive
+    */
+   default Iterable<E> rangeLookup( long lowerKey, long upperKey ) {
+      return getSortedKeys().rangeLookup(lowerKey, upperKey);
+   }
+
+   /**
+    * @param lowerKey inclusive, null for no lower bound
+    * @param upperKey exclusive, null for no upper bound
+    */
+   default Iterable<E> rangeLookup( String lowerKey, String upperKey ) {
+      return getSortedKeys().rangeLookup(lowerKey, upperKey);
+   }
+
+   /**
+    * @param lowerKey inclusive
+    * @param upperKey exclusive
+    * @return the positions of the undeleted elements in key order
+    */
+   default TLongList rangePositions( int lowerKey, int upperKey ) {
+      return getSortedKeys().rangePositions(lowerKey, upperKey);
+   }
+
+   /**
+    * @param lowerKey inclusive
+    * @param upperKey exclusive
+    * @return the positions of the undeleted elements in key order
+    */
+   default TLongList rangePositions( long lowerKey, long upperKey ) {
+      return getSortedKeys().rangePositions(lowerKey, upperKey);
+   }
+
+   /**
+    * @param lowerKey inclusive, null for no lower bound
+    * @param upperKey exclusive, null for no upper bound
+    * @return the positions of the undeleted elements in key order
+    */
+   default TLongList rangePositions( String lowerKey, String upperKey ) {
+      return getSortedKeys().rangePositions(lowerKey, upperKey);
+   }
+}
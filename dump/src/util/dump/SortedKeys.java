@@ -0,0 +1,534 @@
+package util.dump;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.procedure.TLongProcedure;
+import gnu.trove.procedure.TObjectProcedure;
+import util.dump.reflection.FieldAccessor;
+
+
+/**
+ * The keys of a {@link SortedGroupIndex} or {@link SortedUniqueIndex} in ascending order, either <code>int</code> and
+ * <code>long</code> keys or {@link String} keys, together with the queries of {@link SortedIndex} answered from them.<p/>
+ *
+ * The keys are kept in a sorted array and a small sorted write buffer. The buffer is merged into the array as soon as it
+ * grows beyond the square root of the array size, so adding a key costs amortized <code>O(sqrt(n))</code>, while range
+ * queries cost <code>O(log(n))</code> plus the number of keys in the range.<p/>
+ *
+ * Keys are never removed one by one, the maps of the index stay authoritative: keys without positions are skipped by all
+ * queries and dropped by the next merge. The queries synchronize on the dump, {@link #add(DumpIndex, Object)} must be invoked
+ * while holding the lock of the dump.
+ */
+final class SortedKeys<E> {
+
+   private static final int MIN_BUFFER_SIZE = 256;
+
+
+   static FieldAccessor checkKeyType( FieldAccessor fieldAccessor ) {
+      Class type = fieldAccessor.getType();
+      if ( type != int.class && type != Integer.class && type != long.class && type != Long.class && type != String.class ) {
+         throw new IllegalArgumentException("Sorted indexes support int, long and String keys only, the type of the key is " + type);
+      }
+      return fieldAccessor;
+   }
+
+   static <E> Iterable<E> lookup( Dump<E> dump, TLongList positions ) {
+      return () -> new Iterator<E>() {
+
+         int _i = 0;
+
+
+         @Override
+         public boolean hasNext() {
+            while ( _i < positions.size() && dump._deletedPositions.contains(positions.get(_i)) ) {
+               _i++;
+            }
+            return _i < positions.size();
+         }
+
+         @Override
+         public E next() {
+            if ( !hasNext() ) {
+               throw new NoSuchElementException();
+            }
+            return dump.get(positions.get(_i++));
+         }
+      };
+   }
+
+
+   private final Dump<E>      _dump;
+   private final Class        _keyType;
+   private final boolean      _keyIsInt;
+   private final KeyPositions _keyPositions;
+   private final LongKeys     _longKeys;
+   private final StringKeys   _stringKeys;
+
+
+   /**
+    * @param keys the initial keys in any order
+    */
+   SortedKeys( Dump<E> dump, FieldAccessor fieldAccessor, KeyPositions keyPositions, long[] keys ) {
+      _dump = dump;
+      _keyType = fieldAccessor.getType();
+      _keyIsInt = _keyType == int.class || _keyType == Integer.class;
+      _keyPositions = keyPositions;
+      _longKeys = new LongKeys(keys, key -> keyPositions.getPositions(key).length > 0);
+      _stringKeys = null;
+   }
+
+   /**
+    * @param keys the initial keys in any order
+    */
+   SortedKeys( Dump<E> dump, FieldAccessor fieldAccessor, KeyPositions keyPositions, Object[] keys ) {
+      _dump = dump;
+      _keyType = fieldAccessor.getType();
+      _keyIsInt = false;
+      _keyPositions = keyPositions;
+      _longKeys = null;
+      _stringKeys = new StringKeys(keys, key -> keyPositions.getPositions(key).length > 0);
+   }
+
+   /**
+    * Adds the key of an element which was just added to the index.
+    */
+   void add( DumpIndex<E> index, E o ) {
+      if ( index._fieldIsInt ) {
+         _longKeys.add(index.getIntKey(o));
+      } else if ( index._fieldIsLong ) {
+         _longKeys.add(index.getLongKey(o));
+      } else {
+         Object key = index.getObjectKey(o);
+         if ( key != null ) {
+            _stringKeys.add((String)key);
+         }
+      }
+   }
+
+   Integer ceilingKey( int key ) {
+      synchronized ( _dump ) {
+         checkIntKeys();
+         Long k = ceilingLongKey(key);
+         return k == null ? null : k.intValue();
+      }
+   }
+
+   Long ceilingKey( long key ) {
+      synchronized ( _dump ) {
+         checkLongKeys();
+         return ceilingLongKey(key);
+      }
+   }
+
+   String ceilingKey( String key ) {
+      synchronized ( _dump ) {
+         checkStringKeys();
+         String[] result = { null };
+         _stringKeys.forEach(key, true, null, false, false, k -> {
+            if ( hasLivePositions(_keyPositions.getPositions(k)) ) {
+               result[0] = k;
+               return false;
+            }
+            return true;
+         });
+         return result[0];
+      }
+   }
+
+   Integer floorKey( int key ) {
+      synchronized ( _dump ) {
+         checkIntKeys();
+         Long k = floorLongKey(key);
+         return k == null ? null : k.intValue();
+      }
+   }
+
+   Long floorKey( long key ) {
+      synchronized ( _dump ) {
+         checkLongKeys();
+         return floorLongKey(key);
+      }
+   }
+
+   String floorKey( String key ) {
+      synchronized ( _dump ) {
+         checkStringKeys();
+         String[] result = { null };
+         _stringKeys.forEach(null, false, key, true, true, k -> {
+            if ( hasLivePositions(_keyPositions.getPositions(k)) ) {
+               result[0] = k;
+               return false;
+            }
+            return true;
+         });
+         return result[0];
+      }
+   }
+
+   Iterable<E> orderedLookup() {
+      synchronized ( _dump ) {
+         TLongList positions = new TLongArrayList();
+         if ( _longKeys != null ) {
+            _longKeys.forEach(Long.MIN_VALUE, Long.MAX_VALUE, false, k -> addLivePositions(_keyPositions.getPositions(k), positions));
+         } else {
+            _stringKeys.forEach(null, false, null, false, false, k -> addLivePositions(_keyPositions.getPositions(k), positions));
+         }
+         return lookup(_dump, positions);
+      }
+   }
+
+   Iterable<E> prefixLookup( String prefix ) {
+      synchronized ( _dump ) {
+         checkStringKeys();
+         TLongList positions = new TLongArrayList();
+         _stringKeys.forEach(prefix, true, null, false, false,
+            k -> k.startsWith(prefix) && addLivePositions(_keyPositions.getPositions(k), positions));
+         return lookup(_dump, positions);
+      }
+   }
+
+   Iterable<E> rangeLookup( int lowerKey, int upperKey ) {
+      return lookup(_dump, rangePositions(lowerKey, upperKey));
+   }
+
+   Iterable<E> rangeLookup( long lowerKey, long upperKey ) {
+      return lookup(_dump, rangePositions(lowerKey, upperKey));
+   }
+
+   Iterable<E> rangeLookup( String lowerKey, String upperKey ) {
+      return lookup(_dump, rangePositions(lowerKey, upperKey));
+   }
+
+   TLongList rangePositions( int lowerKey, int upperKey ) {
+      synchronized ( _dump ) {
+         checkIntKeys();
+         return longRangePositions(lowerKey, upperKey);
+      }
+   }
+
+   TLongList rangePositions( long lowerKey, long upperKey ) {
+      synchronized ( _dump ) {
+         checkLongKeys();
+         return longRangePositions(lowerKey, upperKey);
+      }
+   }
+
+   TLongList rangePositions( String lowerKey, String upperKey ) {
+      synchronized ( _dump ) {
+         checkStringKeys();
+         TLongList positions = new TLongArrayList();
+         _stringKeys.forEach(lowerKey, true, upperKey, false, false, k -> addLivePositions(_keyPositions.getPositions(k), positions));
+         return positions;
+      }
+   }
+
+   private boolean addLivePositions( long[] keyPositions, TLongList positions ) {
+      for ( long pos : keyPositions ) {
+         if ( !_dump._deletedPositions.contains(pos) ) {
+            positions.add(pos);
+         }
+      }
+      return true;
+   }
+
+   private Long ceilingLongKey( long key ) {
+      Long[] result = { null };
+      _longKeys.forEach(key, Long.MAX_VALUE, false, k -> {
+         if ( hasLivePositions(_keyPositions.getPositions(k)) ) {
+            result[0] = k;
+            return false;
+         }
+         return true;
+      });
+      return result[0];
+   }
+
+   private void checkIntKeys() {
+      if ( !_keyIsInt ) {
+         throw new IllegalArgumentException("The type of the used key class of this index is " + _keyType + ". Please use the appropriate method.");
+      }
+   }
+
+   private void checkLongKeys() {
+      if ( _longKeys == null || _keyIsInt ) {
+         throw new IllegalArgumentException("The type of the used key class of this index is " + _keyType + ". Please use the appropriate method.");
+      }
+   }
+
+   private void checkStringKeys() {
+      if ( _stringKeys == null ) {
+         throw new IllegalArgumentException("The type of the used key class of this index is " + _keyType + ". Please use the appropriate method.");
+      }
+   }
+
+   private Long floorLongKey( long key ) {
+      Long[] result = { null };
+      _longKeys.forEach(Long.MIN_VALUE, key, true, k -> {
+         if ( hasLivePositions(_keyPositions.getPositions(k)) ) {
+            result[0] = k;
+            return false;
+         }
+         return true;
+      });
+      return result[0];
+   }
+
+   private boolean hasLivePositions( long[] keyPositions ) {
+      for ( long pos : keyPositions ) {
+         if ( !_dump._deletedPositions.contains(pos) ) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * @param lowerKey inclusive
+    * @param upperKey exclusive
+    */
+   private TLongList longRangePositions( long lowerKey, long upperKey ) {
+      TLongList positions = new TLongArrayList();
+      if ( upperKey > lowerKey ) {
+         _longKeys.forEach(lowerKey, upperKey - 1, false, k -> addLivePositions(_keyPositions.getPositions(k), positions));
+      }
+      return positions;
+   }
+
+
+   /**
+    * Provides the positions of a key from the maps of the index.
+    */
+   interface KeyPositions {
+
+      /**
+       * @return the positions of the key in ascending order, which may include deleted positions
+       */
+      long[] getPositions( long key );
+
+      /**
+       * @return the positions of the key in ascending order, which may include deleted positions
+       */
+      long[] getPositions( String key );
+   }
+
+   private static final class LongKeys {
+
+      private final LongPredicate _isUsed;
+      private long[]              _keys;
+      private int                 _size;
+      private long[]              _buffer = new long[16];
+      private int                 _bufferSize;
+
+
+      private LongKeys( long[] keys, LongPredicate isUsed ) {
+         _isUsed = isUsed;
+         _keys = keys.clone();
+         Arrays.sort(_keys);
+         _size = _keys.length;
+      }
+
+      private void add( long key ) {
+         if ( Arrays.binarySearch(_keys, 0, _size, key) >= 0 ) {
+            return;
+         }
+         int i = Arrays.binarySearch(_buffer, 0, _bufferSize, key);
+         if ( i >= 0 ) {
+            return;
+         }
+         i = -i - 1;
+         if ( _bufferSize == _buffer.length ) {
+            _buffer = Arrays.copyOf(_buffer, _bufferSize * 2);
+         }
+         System.arraycopy(_buffer, i, _buffer, i + 1, _bufferSize - i);
+         _buffer[i] = key;
+         _bufferSize++;
+         if ( _bufferSize > Math.max(MIN_BUFFER_SIZE, (int)Math.sqrt(_size)) ) {
+            merge();
+         }
+      }
+
+      /**
+       * Calls the procedure for all keys with <code>lowerKey &lt;= key &lt;= upperKey</code>.
+       * @return false, if the procedure returned false
+       */
+      private boolean forEach( long lowerKey, long upperKey, boolean descending, TLongProcedure procedure ) {
+         if ( lowerKey > upperKey ) {
+            return true;
+         }
+         if ( !descending ) {
+            int i = ceilingIndex(_keys, _size, lowerKey);
+            int j = ceilingIndex(_buffer, _bufferSize, lowerKey);
+            while ( true ) {
+               boolean hasKey = i < _size && _keys[i] <= upperKey;
+               boolean hasBuffered = j < _bufferSize && _buffer[j] <= upperKey;
+               if ( !hasKey && !hasBuffered ) {
+                  return true;
+               }
+               long key = hasKey && (!hasBuffered || _keys[i] < _buffer[j]) ? _keys[i++] : _buffer[j++];
+               if ( !procedure.execute(key) ) {
+                  return false;
+               }
+            }
+         }
+         int i = ceilingIndex(_keys, _size, upperKey) - (Arrays.binarySearch(_keys, 0, _size, upperKey) >= 0 ? 0 : 1);
+         int j = ceilingIndex(_buffer, _bufferSize, upperKey) - (Arrays.binarySearch(_buffer, 0, _bufferSize, upperKey) >= 0 ? 0 : 1);
+         while ( true ) {
+            boolean hasKey = i >= 0 && _keys[i] >= lowerKey;
+            boolean hasBuffered = j >= 0 && _buffer[j] >= lowerKey;
+            if ( !hasKey && !hasBuffered ) {
+               return true;
+            }
+            long key = hasKey && (!hasBuffered || _keys[i] > _buffer[j]) ? _keys[i--] : _buffer[j--];
+            if ( !procedure.execute(key) ) {
+               return false;
+            }
+         }
+      }
+
+      /**
+       * @return the index of the first key not less than the given key
+       */
+      private int ceilingIndex( long[] keys, int size, long key ) {
+         int i = Arrays.binarySearch(keys, 0, size, key);
+         return i >= 0 ? i : -i - 1;
+      }
+
+      private void merge() {
+         long[] keys = new long[_size + _bufferSize];
+         int n = 0;
+         for ( int i = 0, j = 0; i < _size || j < _bufferSize; ) {
+            long key = j >= _bufferSize || (i < _size && _keys[i] < _buffer[j]) ? _keys[i++] : _buffer[j++];
+            if ( _isUsed.test(key) ) {
+               keys[n++] = key;
+            }
+         }
+         _keys = keys;
+         _size = n;
+         _bufferSize = 0;
+      }
+   }
+
+   private static final class StringKeys {
+
+      private final Predicate<String> _isUsed;
+      private String[]                _keys;
+      private int                     _size;
+      private String[]                _buffer = new String[16];
+      private int                     _bufferSize;
+
+
+      private StringKeys( Object[] keys, Predicate<String> isUsed ) {
+         _isUsed = isUsed;
+         _keys = new String[keys.length];
+         for ( int i = 0; i < keys.length; i++ ) {
+            _keys[i] = (String)keys[i];
+         }
+         Arrays.sort(_keys);
+         _size = _keys.length;
+      }
+
+      private void add( String key ) {
+         if ( Arrays.binarySearch(_keys, 0, _size, key) >= 0 ) {
+            return;
+         }
+         int i = Arrays.binarySearch(_buffer, 0, _bufferSize, key);
+         if ( i >= 0 ) {
+            return;
+         }
+         i = -i - 1;
+         if ( _bufferSize == _buffer.length ) {
+            _buffer = Arrays.copyOf(_buffer, _bufferSize * 2);
+         }
+         System.arraycopy(_buffer, i, _buffer, i + 1, _bufferSize - i);
+         _buffer[i] = key;
+         _bufferSize++;
+         if ( _bufferSize > Math.max(MIN_BUFFER_SIZE, (int)Math.sqrt(_size)) ) {
+            merge();
+         }
+      }
+
+      /**
+       * Calls the procedure for all keys between the bounds, a bound of null means no bound.
+       * @return false, if the procedure returned false
+       */
+      private boolean forEach( String lowerKey, boolean lowerInclusive, String upperKey, boolean upperInclusive, boolean descending,
+            TObjectProcedure<String> procedure ) {
+         if ( !descending ) {
+            int i = lowerKey == null ? 0 : ceilingIndex(_keys, _size, lowerKey, lowerInclusive);
+            int j = lowerKey == null ? 0 : ceilingIndex(_buffer, _bufferSize, lowerKey, lowerInclusive);
+            while ( true ) {
+               boolean hasKey = i < _size && isBelow(_keys[i], upperKey, upperInclusive);
+               boolean hasBuffered = j < _bufferSize && isBelow(_buffer[j], upperKey, upperInclusive);
+               if ( !hasKey && !hasBuffered ) {
+                  return true;
+               }
+               String key = hasKey && (!hasBuffered || _keys[i].compareTo(_buffer[j]) < 0) ? _keys[i++] : _buffer[j++];
+               if ( !procedure.execute(key) ) {
+                  return false;
+               }
+            }
+         }
+         int i = upperKey == null ? _size - 1 : ceilingIndex(_keys, _size, upperKey, !upperInclusive) - 1;
+         int j = upperKey == null ? _bufferSize - 1 : ceilingIndex(_buffer, _bufferSize, upperKey, !upperInclusive) - 1;
+         while ( true ) {
+            boolean hasKey = i >= 0 && isAbove(_keys[i], lowerKey, lowerInclusive);
+            boolean hasBuffered = j >= 0 && isAbove(_buffer[j], lowerKey, lowerInclusive);
+            if ( !hasKey && !hasBuffered ) {
+               return true;
+            }
+            String key = hasKey && (!hasBuffered || _keys[i].compareTo(_buffer[j]) > 0) ? _keys[i--] : _buffer[j--];
+            if ( !procedure.execute(key) ) {
+               return false;
+            }
+         }
+      }
+
+      /**
+       * @return the index of the first key not less than the given key, or greater than the given key, if not inclusive
+       */
+      private int ceilingIndex( String[] keys, int size, String key, boolean inclusive ) {
+         int i = Arrays.binarySearch(keys, 0, size, key);
+         if ( i >= 0 ) {
+            return inclusive ? i : i + 1;
+         }
+         return -i - 1;
+      }
+
+      private boolean isAbove( String key, String lowerKey, boolean inclusive ) {
+         if ( lowerKey == null ) {
+            return true;
+         }
+         int c = key.compareTo(lowerKey);
+         return c > 0 || (inclusive && c == 0);
+      }
+
+      private boolean isBelow( String key, String upperKey, boolean inclusive ) {
+         if ( upperKey == null ) {
+            return true;
+         }
+         int c = key.compareTo(upperKey);
+         return c < 0 || (inclusive && c == 0);
+      }
+
+      private void merge() {
+         String[] keys = new String[_size + _bufferSize];
+         int n = 0;
+         for ( int i = 0, j = 0; i < _size || j < _bufferSize; ) {
+            String key = j >= _bufferSize || (i < _size && _keys[i].compareTo(_buffer[j]) < 0) ? _keys[i++] : _buffer[j++];
+            if ( _isUsed.test(key) ) {
+               keys[n++] = key;
+            }
+         }
+         _keys = keys;
+         _size = n;
+         Arrays.fill(_buffer, 0, _bufferSize, null);
+         _bufferSize = 0;
+      }
+   }
+}
@@ -0,0 +1,343 @@
+package util.dump;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * A file of fixed-width <code>(key, position)</code> entries sorted by key, used by {@link InfiniteGroupIndex}. Keys are
+ * either <code>int</code> (12 bytes per entry) or <code>long</code> (16 bytes per entry), all values are big-endian and
+ * there is no header, i.e. the entry with index <code>i</code> starts at byte <code>i * entryLength</code>.<p/>
+ *
+ * The file is memory mapped, so lookups read the primitives directly from the page cache without any allocation. The first
+ * key of each block of {@link #BLOCK_SIZE} bytes is kept in memory, a lookup binary searches these fence keys and then
+ * touches a single block (unless the key spans several blocks).<p/>
+ *
+ * A {@link LongBloomFilter} of all keys is persisted beside the file (see {@link #getBloomFile(File)}) and kept in memory,
+ * so most lookups of missing keys don't touch the mapping at all. Files without a Bloom filter get one when they are
+ * opened.<p/>
+ *
+ * The only mutation of an existing file is {@link #setPosition(long, long)}, which is used to mark entries of updated
+ * elements as deleted. Reads may run concurrently, but mutations must not run concurrently with reads of the same entries. New files are written with a {@link Writer}, which is usually fed by {@link #merge(List)}.
+ */
+final class SortedLookupFile implements Closeable {
+
+   /**
+    * the size of the blocks with one fence key each
+    */
+   static final int BLOCK_SIZE = 4096;
+
+
+   static File getBloomFile( File file ) {
+      return new File(file.getPath() + ".bloom");
+   }
+
+   /**
+    * @return a cursor over the entries of all files in the order of their keys
+    */
+   static Cursor merge( List<SortedLookupFile> files ) {
+      if ( files.size() == 1 ) {
+         return files.get(0).cursor();
+      }
+      return new MergeCursor(files);
+   }
+
+
+   private final File        _file;
+   private final boolean     _longKeys;
+   private final int         _entryLength;
+   private final int         _blockLength;
+   private final int         _segmentLength;
+   private final long        _numEntries;
+   private final FileChannel _channel;
+
+   /**
+    * files larger than 2 GB are mapped in several segments, which always contain complete blocks
+    */
+   private final MappedByteBuffer[] _segments;
+   private final long[]             _fenceKeys;
+   private final LongBloomFilter    _bloomFilter;
+
+
+   SortedLookupFile( File file, boolean longKeys ) throws IOException {
+      _file = file;
+      _longKeys = longKeys;
+      _entryLength = (longKeys ? 8 : 4) + 8;
+      _blockLength = (BLOCK_SIZE / _entryLength) * _entryLength;
+      _segmentLength = (Integer.MAX_VALUE / _blockLength) * _blockLength;
+
+      _channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      long length = _channel.size();
+      if ( length % _entryLength != 0 ) {
+         _channel.close();
+         throw new IOException("Length " + length + " of sorted lookup file " + file + " is not a multiple of " + _entryLength);
+      }
+      _numEntries = length / _entryLength;
+
+      _segments = new MappedByteBuffer[(int)((length + _segmentLength - 1) / _segmentLength)];
+      for ( int i = 0; i < _segments.length; i++ ) {
+         long offset = (long)i * _segmentLength;
+         _segments[i] = _channel.map(MapMode.READ_WRITE, offset, Math.min(_segmentLength, length - offset));
+      }
+
+      int entriesPerBlock = _blockLength / _entryLength;
+      _fenceKeys = new long[(int)((_numEntries + entriesPerBlock - 1) / entriesPerBlock)];
+      for ( int b = 0; b < _fenceKeys.length; b++ ) {
+         _fenceKeys[b] = getKey((long)b * entriesPerBlock);
+      }
+
+      _bloomFilter = _numEntries > 0 ? readOrCreateBloomFilter() : null;
+   }
+
+   @Override
+   public void close() throws IOException {
+      // the mappings are released by the gc
+      _channel.close();
+   }
+
+   Cursor cursor() {
+      return new FileCursor();
+   }
+
+   /**
+    * calls the procedure for all entries with <code>lowerKey &lt;= key &lt;= upperKey</code> in the order of their keys
+    */
+   void forEachEntry( long lowerKey, long upperKey, EntryProcedure procedure ) {
+      if ( lowerKey == upperKey && !mightContain(lowerKey) ) {
+         return;
+      }
+      int entriesPerBlock = _blockLength / _entryLength;
+      for ( long i = (long)findBlock(lowerKey) * entriesPerBlock; i < _numEntries; i++ ) {
+         long key = getKey(i);
+         if ( key > upperKey ) {
+            return;
+         }
+         if ( key >= lowerKey && !procedure.execute(key, getPosition(i), i) ) {
+            return;
+         }
+      }
+   }
+
+   File getFile() {
+      return _file;
+   }
+
+   long getKey( long index ) {
+      long offset = index * _entryLength;
+      MappedByteBuffer segment = _segments[(int)(offset / _segmentLength)];
+      int o = (int)(offset % _segmentLength);
+      return _longKeys ? segment.getLong(o) : segment.getInt(o);
+   }
+
+   long getNumEntries() {
+      return _numEntries;
+   }
+
+   long getPosition( long index ) {
+      long offset = index * _entryLength + _entryLength - 8;
+      return _segments[(int)(offset / _segmentLength)].getLong((int)(offset % _segmentLength));
+   }
+
+   /**
+    * @return false, if there definitely is no entry with the given key
+    */
+   boolean mightContain( long key ) {
+      return _bloomFilter != null && _bloomFilter.mightContain(key);
+   }
+
+   void setPosition( long index, long pos ) {
+      long offset = index * _entryLength + _entryLength - 8;
+      _segments[(int)(offset / _segmentLength)].putLong((int)(offset % _segmentLength), pos);
+   }
+
+   /**
+    * @return the index of the block, where the first entry with a key not less than the given key might be
+    */
+   private int findBlock( long key ) {
+      int low = 0;
+      int high = _fenceKeys.length - 1;
+      while ( low <= high ) {
+         int mid = (low + high) >>> 1;
+         if ( _fenceKeys[mid] < key ) {
+            low = mid + 1;
+         } else {
+            high = mid - 1;
+         }
+      }
+      // low is the first block starting with a key not less than key, so the first matching entry might be at the end of the block before
+      return Math.max(0, low - 1);
+   }
+
+   private LongBloomFilter readOrCreateBloomFilter() throws IOException {
+      File bloomFile = getBloomFile(_file);
+      LongBloomFilter bloomFilter = LongBloomFilter.read(bloomFile, _numEntries);
+      if ( bloomFilter == null ) {
+         long numKeys = 0;
+         for ( long i = 0; i < _numEntries; i++ ) {
+            if ( i == 0 || getKey(i) != getKey(i - 1) ) {
+               numKeys++;
+            }
+         }
+         bloomFilter = new LongBloomFilter(numKeys);
+         for ( long i = 0; i < _numEntries; i++ ) {
+            bloomFilter.add(getKey(i));
+         }
+         bloomFilter.write(bloomFile, _numEntries);
+      }
+      return bloomFilter;
+   }
+
+
+   /**
+    * Sequential access to sorted entries, which doesn't allocate anything per entry.
+    */
+   interface Cursor {
+
+      /**
+       * @return the file of the current entry
+       */
+      SortedLookupFile file();
+
+      long key();
+
+      /**
+       * @return false, if there are no more entries
+       */
+      boolean next();
+
+      long position();
+   }
+
+   interface EntryProcedure {
+
+      /**
+       * @return false, if the iteration should stop
+       */
+      boolean execute( long key, long pos, long index );
+   }
+
+   /**
+    * Writes a new sorted lookup file and its Bloom filter. The entries must be added in the order of their keys.
+    */
+   static final class Writer implements Closeable {
+
+      private final File             _file;
+      private final DataOutputStream _out;
+      private final boolean          _longKeys;
+      private final LongBloomFilter  _bloomFilter;
+      private long                   _numEntries;
+      private long                   _lastKey;
+
+
+      /**
+       * @param expectedKeys an upper bound of the number of distinct keys, used to size the Bloom filter
+       */
+      Writer( File file, boolean longKeys, long expectedKeys ) throws IOException {
+         _file = file;
+         _out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), DumpWriter.DEFAULT_BUFFER_SIZE));
+         _longKeys = longKeys;
+         _bloomFilter = new LongBloomFilter(expectedKeys);
+      }
+
+      @Override
+      public void close() throws IOException {
+         _out.close();
+         _bloomFilter.write(getBloomFile(_file), _numEntries);
+      }
+
+      void add( long key, long pos ) throws IOException {
+         if ( _numEntries > 0 && key < _lastKey ) {
+            throw new IllegalArgumentException("keys must be added in ascending order, but " + key + " < " + _lastKey);
+         }
+         if ( _numEntries == 0 || key != _lastKey ) {
+            _bloomFilter.add(key);
+         }
+         _lastKey = key;
+         _numEntries++;
+         if ( _longKeys ) {
+            _out.writeLong(key);
+         } else {
+            _out.writeInt((int)key);
+         }
+         _out.writeLong(pos);
+      }
+   }
+
+   private static final class MergeCursor implements Cursor {
+
+      private final PriorityQueue<Cursor> _cursors;
+      private Cursor                      _current;
+
+
+      private MergeCursor( List<SortedLookupFile> files ) {
+         _cursors = new PriorityQueue<>(Math.max(1, files.size()), Comparator.comparingLong(Cursor::key));
+         for ( SortedLookupFile file : files ) {
+            Cursor cursor = file.cursor();
+            if ( cursor.next() ) {
+               _cursors.add(cursor);
+            }
+         }
+      }
+
+      @Override
+      public SortedLookupFile file() {
+         return _current.file();
+      }
+
+      @Override
+      public long key() {
+         return _current.key();
+      }
+
+      @Override
+      public boolean next() {
+         if ( _current != null && _current.next() ) {
+            _cursors.add(_current);
+         }
+         _current = _cursors.poll();
+         return _current != null;
+      }
+
+      @Override
+      public long position() {
+         return _current.position();
+      }
+   }
+
+   private final class FileCursor implements Cursor {
+
+      private long _index = -1;
+
+
+      @Override
+      public SortedLookupFile file() {
+         return SortedLookupFile.this;
+      }
+
+      @Override
+      public long key() {
+         return getKey(_index);
+      }
+
+      @Override
+      public boolean next() {
+         return ++_index < _numEntries;
+      }
+
+      @Override
+      public long position() {
+         return getPosition(_index);
+      }
+   }
+}
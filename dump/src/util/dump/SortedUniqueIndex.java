@@ -0,0 +1,97 @@
+package util.dump;
+
+import util.dump.reflection.FieldAccessor;
+import util.dump.reflection.FieldFieldAccessor;
+import util.dump.reflection.Reflection;
+
+
+/**
+ * A {@link UniqueIndex} over <code>int</code>, <code>long</code> or {@link String} keys, which additionally answers queries
+ * by the order of the keys: range lookups, floor and ceiling keys, prefix lookups of String keys and the iteration of all
+ * elements in key order, see {@link SortedIndex}.<p/>
+ *
+ * The lookup file is the same as the one of a {@link UniqueIndex}, so a {@link UniqueIndex} can be replaced by a
+ * {@link SortedUniqueIndex} without rebuilding it. The sorted keys are built from the lookup map when they are needed for
+ * the first time and are kept up to date afterwards, see {@link SortedKeys}. {@link IndexOption#hashedKeys} is not
+ * supported, since it doesn't keep the keys in memory.<p/>
+ *
+ * All lookups return the elements in key order.
+ */
+public class SortedUniqueIndex<E> extends UniqueIndex<E> implements SortedIndex<E> {
+
+   private static IndexOption[] checkOptions( IndexOption[] options ) {
+      for ( IndexOption option : options ) {
+         if ( option == IndexOption.hashedKeys ) {
+            throw new IllegalArgumentException("A SortedUniqueIndex needs the keys in memory, it doesn't support " + option);
+         }
+      }
+      return options;
+   }
+
+
+   private SortedKeys<E> _sortedKeys;
+
+
+   public SortedUniqueIndex( Dump<E> dump, FieldAccessor fieldAccessor, IndexOption... options ) {
+      super(dump, SortedKeys.checkKeyType(fieldAccessor), checkOptions(options));
+   }
+
+   public SortedUniqueIndex( Dump<E> dump, String fieldName, IndexOption... options ) throws NoSuchFieldException {
+      this(dump, new FieldFieldAccessor(Reflection.getField(dump._beanClass, fieldName)), options);
+   }
+
+   @Override
+   public void add( E o, long pos ) {
+      super.add(o, pos); // throws a DuplicateKeyException before the key is added here
+      // during the initialization the sorted keys don't exist yet, they will be built from the maps
+      if ( _sortedKeys != null ) {
+         _sortedKeys.add(this, o);
+      }
+   }
+
+   @Override
+   public SortedKeys<E> getSortedKeys() {
+      synchronized ( _dump ) {
+         if ( _sortedKeys == null ) {
+            SortedKeys.KeyPositions keyPositions = new SortedKeys.KeyPositions() {
+
+               @Override
+               public long[] getPositions( long key ) {
+                  return toPositions(_fieldIsInt ? getPosition((int)key) : getPosition(key));
+               }
+
+               @Override
+               public long[] getPositions( String key ) {
+                  return toPositions(getPosition((Object)key));
+               }
+            };
+            if ( _fieldIsInt ) {
+               int[] keys = getAllIntKeys();
+               long[] allKeys = new long[keys.length];
+               for ( int i = 0; i < keys.length; i++ ) {
+                  allKeys[i] = keys[i];
+               }
+               _sortedKeys = new SortedKeys<>(_dump, _fieldAccessor, keyPositions, allKeys);
+            } else if ( _fieldIsLong ) {
+               _sortedKeys = new SortedKeys<>(_dump, _fieldAccessor, keyPositions, getAllLongKeys());
+            } else {
+               Object[] keys = _lookupString != null ? _lookupString.keys() : _lookupObject.keys();
+               _sortedKeys = new SortedKeys<>(_dump, _fieldAccessor, keyPositions, keys);
+            }
+         }
+         return _sortedKeys;
+      }
+   }
+
+   /**
+    * The ordered queries don't wait for a background rebuild.
+    */
+   @Override
+   protected boolean supportsBackgroundRebuild() {
+      return false;
+   }
+
+   private long[] toPositions( long pos ) {
+      return pos < 0 ? new long[0] : new long[] { pos };
+   }
+}
@@ -0,0 +1,417 @@
+package util.dump;
+
+import java.util.Arrays;
+
+
+/**
+ * Hash table for String keys which doesn't keep any String instances. The keys are stored as modified UTF-8 (the encoding of
+ * {@link java.io.DataOutput#writeUTF(String)}) in large byte pages, the hash table itself is a plain <code>int[]</code> pointing to
+ * entries, and each entry has the arena offset of its key. Lookups hash and compare the String char by char, so they don't allocate.<p/>
+ *
+ * Compared to a String in a <code>HashMap</code> or <code>TObjectLongHashMap</code> this saves the String and byte[] headers and the
+ * reference per key, which is most of the memory for short keys like SKUs.<p/>
+ *
+ * Entries are identified by an int, which is stable until {@link #compact()} is called. Subclasses store the values per entry.
+ * Not thread-safe.
+ */
+abstract class StringKeyArenaMap {
+
+   private static final int PAGE_BITS           = 20;
+   private static final int PAGE_SIZE           = 1 << PAGE_BITS;
+   private static final int PAGE_MASK           = PAGE_SIZE - 1;
+   private static final int MIN_FIRST_PAGE_SIZE = 4096;
+   private static final int MAX_KEY_LENGTH      = 65535;
+
+   private static final int FREE    = -1;
+   private static final int REMOVED = -2;
+
+   private static final float LOAD_FACTOR = 0.75f;
+
+   private static int tableSizeFor( int expectedSize ) {
+      int minCapacity = (int)Math.min(1 << 30, (long)Math.ceil(expectedSize / LOAD_FACTOR) + 1);
+      int capacity = 16;
+      while ( capacity < minCapacity ) {
+         capacity <<= 1;
+      }
+      return capacity;
+   }
+
+   private static int varIntLength( int length ) {
+      return length < (1 << 7) ? 1 : (length < (1 << 14) ? 2 : 3);
+   }
+
+   private final int _initialEntries;
+
+   private byte[][] _pages = new byte[0][];
+   private int      _pageFill;
+   private long     _liveBytes;
+   private long     _garbageBytes;
+
+   private int[] _slots;
+   private int   _removedSlots;
+
+   /** the arena offset of the key of each entry, or for unused entries <code>-(nextFreeEntry + 2)</code> */
+   private long[] _keyOffsets     = new long[0];
+   private int    _entryLimit;
+   private int    _firstFreeEntry = -1;
+   private int    _size;
+
+   private byte[] _encodeBuffer = new byte[256];
+
+   StringKeyArenaMap( int expectedSize ) {
+      _initialEntries = Math.max(16, expectedSize);
+      _slots = newSlots(tableSizeFor(expectedSize));
+   }
+
+   /**
+    * @return the size of the hash table, which is always larger than {@link #size()}
+    */
+   public int capacity() {
+      return _slots.length;
+   }
+
+   /**
+    * Rebuilds the hash table with the minimal capacity, renumbers the entries without gaps and drops the bytes of removed keys from the arena.
+    */
+   public void compact() {
+      int next = 0;
+      for ( int entry = 0; entry < _entryLimit; entry++ ) {
+         if ( _keyOffsets[entry] < 0 ) {
+            continue;
+         }
+         if ( entry != next ) {
+            _keyOffsets[next] = _keyOffsets[entry];
+            moveValue(entry, next);
+         }
+         next++;
+      }
+      _entryLimit = next;
+      _firstFreeEntry = -1;
+      _keyOffsets = Arrays.copyOf(_keyOffsets, next);
+      resizeValues(next);
+      compactArena();
+      rehash(tableSizeFor(_size));
+   }
+
+   public boolean containsKey( String key ) {
+      return entryOf(key) >= 0;
+   }
+
+   public Object[] keys() {
+      Object[] keys = new Object[_size];
+      int i = 0;
+      for ( int entry = 0; entry < _entryLimit; entry++ ) {
+         if ( _keyOffsets[entry] >= 0 ) {
+            keys[i++] = keyOf(entry);
+         }
+      }
+      return keys;
+   }
+
+   public int size() {
+      return _size;
+   }
+
+   protected int entryLimit() {
+      return _entryLimit;
+   }
+
+   /**
+    * @return the entry of the key or -1 if the key is not contained
+    */
+   protected int entryOf( CharSequence key ) {
+      int length = encode(key);
+      return length > MAX_KEY_LENGTH ? -1 : entryOf(_encodeBuffer, length);
+   }
+
+   /**
+    * @return the entry of the modified UTF-8 encoded key or -1 if the key is not contained
+    */
+   protected int entryOf( byte[] utf, int length ) {
+      long hash = HashUtils.hash64(utf, 0, length);
+      int mask = _slots.length - 1;
+      for ( int i = (int)hash & mask; ; i = (i + 1) & mask ) {
+         int entry = _slots[i];
+         if ( entry == FREE ) {
+            return -1;
+         }
+         if ( entry != REMOVED && keyEquals(_keyOffsets[entry], utf, length) ) {
+            return entry;
+         }
+      }
+   }
+
+   /**
+    * @return the existing entry of the key, or <code>-(newEntry + 1)</code> if the key was added
+    */
+   protected int insert( CharSequence key ) {
+      int length = encode(key);
+      if ( length > MAX_KEY_LENGTH ) {
+         throw new IllegalArgumentException("key too long: " + length + " bytes");
+      }
+      return insert(_encodeBuffer, length);
+   }
+
+   /**
+    * @return the existing entry of the modified UTF-8 encoded key, or <code>-(newEntry + 1)</code> if the key was added
+    */
+   protected int insert( byte[] utf, int length ) {
+      if ( length > MAX_KEY_LENGTH ) {
+         throw new IllegalArgumentException("key too long: " + length + " bytes");
+      }
+      long hash = HashUtils.hash64(utf, 0, length);
+      int mask = _slots.length - 1;
+      int firstRemoved = -1;
+      int i = (int)hash & mask;
+      for ( ; ; i = (i + 1) & mask ) {
+         int entry = _slots[i];
+         if ( entry == FREE ) {
+            break;
+         }
+         if ( entry == REMOVED ) {
+            if ( firstRemoved < 0 ) {
+               firstRemoved = i;
+            }
+         } else if ( keyEquals(_keyOffsets[entry], utf, length) ) {
+            return entry;
+         }
+      }
+
+      if ( firstRemoved >= 0 ) {
+         i = firstRemoved;
+         _removedSlots--;
+      }
+      int entry = allocateEntry();
+      _keyOffsets[entry] = appendKey(utf, length);
+      _slots[i] = entry;
+      _size++;
+
+      if ( _size + _removedSlots > _slots.length * LOAD_FACTOR ) {
+         rehash(_size > _slots.length * LOAD_FACTOR / 2 ? _slots.length << 1 : _slots.length);
+      }
+      return -entry - 1;
+   }
+
+   protected boolean isUsed( int entry ) {
+      return _keyOffsets[entry] >= 0;
+   }
+
+   protected String keyOf( int entry ) {
+      long offset = _keyOffsets[entry];
+      byte[] page = _pages[(int)(offset >>> PAGE_BITS)];
+      int p = (int)(offset & PAGE_MASK);
+      int length = keyLength(page, p);
+      p += varIntLength(length);
+
+      char[] chars = new char[length];
+      int n = 0;
+      for ( int end = p + length; p < end; ) {
+         int b = page[p++] & 0xff;
+         if ( b < 0x80 ) {
+            chars[n++] = (char)b;
+         } else if ( (b & 0xE0) == 0xC0 ) {
+            chars[n++] = (char)(((b & 0x1F) << 6) | (page[p++] & 0x3F));
+         } else {
+            chars[n++] = (char)(((b & 0x0F) << 12) | ((page[p++] & 0x3F) << 6) | (page[p++] & 0x3F));
+         }
+      }
+      return new String(chars, 0, n);
+   }
+
+   /**
+    * Called when an entry is renumbered during {@link #compact()}.
+    */
+   protected abstract void moveValue( int fromEntry, int toEntry );
+
+   /**
+    * @return the removed entry, whose value should be cleared by the caller, or -1 if the key was not contained
+    */
+   protected int removeEntry( CharSequence key ) {
+      int length = encode(key);
+      return length > MAX_KEY_LENGTH ? -1 : removeEntry(_encodeBuffer, length);
+   }
+
+   /**
+    * Same as {@link #removeEntry(CharSequence)} with the modified UTF-8 encoded key.
+    */
+   protected int removeEntry( byte[] utf, int length ) {
+      long hash = HashUtils.hash64(utf, 0, length);
+      int mask = _slots.length - 1;
+      for ( int i = (int)hash & mask; ; i = (i + 1) & mask ) {
+         int entry = _slots[i];
+         if ( entry == FREE ) {
+            return -1;
+         }
+         if ( entry != REMOVED && keyEquals(_keyOffsets[entry], utf, length) ) {
+            removeSlot(i);
+            return entry;
+         }
+      }
+   }
+
+   /**
+    * Called whenever the number of entries changes, the value storage must be resized to <code>length</code> entries.
+    */
+   protected abstract void resizeValues( int length );
+
+   private int allocateEntry() {
+      if ( _firstFreeEntry >= 0 ) {
+         int entry = _firstFreeEntry;
+         _firstFreeEntry = (int)(-_keyOffsets[entry] - 2);
+         return entry;
+      }
+      if ( _entryLimit == _keyOffsets.length ) {
+         int length = _keyOffsets.length == 0 ? _initialEntries : (int)Math.min(Integer.MAX_VALUE - 8, _keyOffsets.length + (_keyOffsets.length >> 1) + 1L);
+         _keyOffsets = Arrays.copyOf(_keyOffsets, length);
+         resizeValues(length);
+      }
+      return _entryLimit++;
+   }
+
+   private long appendKey( byte[] utf, int length ) {
+      int needed = varIntLength(length) + length;
+      int last = _pages.length - 1;
+      if ( last < 0 || _pageFill + needed > PAGE_SIZE ) {
+         _pages = Arrays.copyOf(_pages, _pages.length + 1);
+         last++;
+         // the first page grows on demand, so small maps don't waste a whole page
+         _pages[last] = new byte[last == 0 ? Math.max(MIN_FIRST_PAGE_SIZE, needed) : PAGE_SIZE];
+         _pageFill = 0;
+      } else if ( _pageFill + needed > _pages[last].length ) {
+         _pages[last] = Arrays.copyOf(_pages[last], Math.min(PAGE_SIZE, Math.max(_pages[last].length * 2, _pageFill + needed)));
+      }
+
+      byte[] page = _pages[last];
+      long offset = ((long)last << PAGE_BITS) | _pageFill;
+      int p = _pageFill;
+      if ( length < (1 << 7) ) {
+         page[p++] = (byte)length;
+      } else {
+         page[p++] = (byte)(0x80 | (length & 0x7F));
+         if ( length < (1 << 14) ) {
+            page[p++] = (byte)(length >>> 7);
+         } else {
+            page[p++] = (byte)(0x80 | ((length >>> 7) & 0x7F));
+            page[p++] = (byte)(length >>> 14);
+         }
+      }
+      System.arraycopy(utf, 0, page, p, length);
+      _pageFill += needed;
+      _liveBytes += needed;
+      return offset;
+   }
+
+   private void compactArena() {
+      byte[][] oldPages = _pages;
+      _pages = new byte[0][];
+      _pageFill = 0;
+      _liveBytes = 0;
+      _garbageBytes = 0;
+      for ( int entry = 0; entry < _entryLimit; entry++ ) {
+         long offset = _keyOffsets[entry];
+         if ( offset < 0 ) {
+            continue;
+         }
+         byte[] page = oldPages[(int)(offset >>> PAGE_BITS)];
+         int p = (int)(offset & PAGE_MASK);
+         int length = keyLength(page, p);
+         if ( _encodeBuffer.length < length ) {
+            _encodeBuffer = new byte[length];
+         }
+         System.arraycopy(page, p + varIntLength(length), _encodeBuffer, 0, length);
+         _keyOffsets[entry] = appendKey(_encodeBuffer, length);
+      }
+      int last = _pages.length - 1;
+      if ( last >= 0 && _pages[last].length > _pageFill ) {
+         // the last page grows again on demand in appendKey(.)
+         _pages[last] = Arrays.copyOf(_pages[last], _pageFill);
+      }
+   }
+
+   /**
+    * Encodes the key into <code>_encodeBuffer</code> unless it is longer than {@link #MAX_KEY_LENGTH}.
+    * @return the length of the modified UTF-8 encoding of the key
+    */
+   private int encode( CharSequence key ) {
+      int length = DumpUtils.utfLength(key);
+      if ( length > MAX_KEY_LENGTH ) {
+         return length;
+      }
+      if ( _encodeBuffer.length < length ) {
+         _encodeBuffer = new byte[Math.max(length, _encodeBuffer.length * 2)];
+      }
+      DumpUtils.encodeUTF(key, _encodeBuffer, 0);
+      return length;
+   }
+
+   private long keyBytes( long offset ) {
+      int length = keyLength(_pages[(int)(offset >>> PAGE_BITS)], (int)(offset & PAGE_MASK));
+      return varIntLength(length) + length;
+   }
+
+   private boolean keyEquals( long offset, byte[] utf, int length ) {
+      byte[] page = _pages[(int)(offset >>> PAGE_BITS)];
+      int p = (int)(offset & PAGE_MASK);
+      if ( keyLength(page, p) != length ) {
+         return false;
+      }
+      p += varIntLength(length);
+      return Arrays.equals(page, p, p + length, utf, 0, length);
+   }
+
+   private int keyLength( byte[] page, int p ) {
+      int length = page[p++];
+      if ( length < 0 ) {
+         length &= 0x7F;
+         int b = page[p++];
+         length |= (b & 0x7F) << 7;
+         if ( b < 0 ) {
+            length |= (page[p] & 0x7F) << 14;
+         }
+      }
+      return length;
+   }
+
+   private int[] newSlots( int capacity ) {
+      int[] slots = new int[capacity];
+      Arrays.fill(slots, FREE);
+      return slots;
+   }
+
+   private void rehash( int capacity ) {
+      int[] slots = newSlots(capacity);
+      int mask = capacity - 1;
+      for ( int entry = 0; entry < _entryLimit; entry++ ) {
+         long offset = _keyOffsets[entry];
+         if ( offset < 0 ) {
+            continue;
+         }
+         byte[] page = _pages[(int)(offset >>> PAGE_BITS)];
+         int p = (int)(offset & PAGE_MASK);
+         int length = keyLength(page, p);
+         long hash = HashUtils.hash64(page, p + varIntLength(length), length);
+         int i = (int)hash & mask;
+         while ( slots[i] != FREE ) {
+            i = (i + 1) & mask;
+         }
+         slots[i] = entry;
+      }
+      _slots = slots;
+      _removedSlots = 0;
+   }
+
+   private void removeSlot( int slot ) {
+      int entry = _slots[slot];
+      _slots[slot] = REMOVED;
+      _removedSlots++;
+      _size--;
+      long keyBytes = keyBytes(_keyOffsets[entry]);
+      _liveBytes -= keyBytes;
+      _garbageBytes += keyBytes;
+      _keyOffsets[entry] = -(_firstFreeEntry + 2);
+      _firstFreeEntry = entry;
+      if ( _garbageBytes > PAGE_SIZE && _garbageBytes > _liveBytes ) {
+         compactArena();
+      }
+   }
+}
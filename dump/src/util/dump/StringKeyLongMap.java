@@ -0,0 +1,122 @@
+package util.dump;
+
+import java.util.Arrays;
+
+
+/**
+ * A String to long map with the compact key storage of {@link StringKeyArenaMap}.
+ */
+class StringKeyLongMap extends StringKeyArenaMap {
+
+   public static final long NO_ENTRY_VALUE = -1;
+
+   private long[] _values = new long[0];
+
+   StringKeyLongMap() {
+      this(16);
+   }
+
+   StringKeyLongMap( int expectedSize ) {
+      super(expectedSize);
+   }
+
+   /**
+    * @return the value of the key or {@link #NO_ENTRY_VALUE} if the key is not contained
+    */
+   public long get( String key ) {
+      int entry = entryOf(key);
+      return entry < 0 ? NO_ENTRY_VALUE : _values[entry];
+   }
+
+   /**
+    * Same as {@link #get(String)} with the modified UTF-8 bytes of the key.
+    */
+   public long get( byte[] utf, int length ) {
+      int entry = entryOf(utf, length);
+      return entry < 0 ? NO_ENTRY_VALUE : _values[entry];
+   }
+
+   /**
+    * @return the previous value of the key or {@link #NO_ENTRY_VALUE} if the key was not contained
+    */
+   public long put( String key, long value ) {
+      return put(insert(key), value);
+   }
+
+   /**
+    * Same as {@link #put(String, long)} with the modified UTF-8 bytes of the key, as read from a stream written by
+    * {@link java.io.DataOutput#writeUTF(String)}.
+    */
+   public long put( byte[] utf, int length, long value ) {
+      return put(insert(utf, length), value);
+   }
+
+   /**
+    * @return the value of the key, or {@link #NO_ENTRY_VALUE} if the key was not contained and <code>value</code> was put
+    */
+   public long putIfAbsent( String key, long value ) {
+      return putIfAbsent(insert(key), value);
+   }
+
+   /**
+    * Same as {@link #putIfAbsent(String, long)} with the modified UTF-8 bytes of the key.
+    */
+   public long putIfAbsent( byte[] utf, int length, long value ) {
+      return putIfAbsent(insert(utf, length), value);
+   }
+
+   /**
+    * @return the removed value of the key or {@link #NO_ENTRY_VALUE} if the key was not contained
+    */
+   public long remove( String key ) {
+      int entry = removeEntry(key);
+      return entry < 0 ? NO_ENTRY_VALUE : _values[entry];
+   }
+
+   /**
+    * Same as {@link #remove(String)} with the modified UTF-8 bytes of the key.
+    */
+   public long remove( byte[] utf, int length ) {
+      int entry = removeEntry(utf, length);
+      return entry < 0 ? NO_ENTRY_VALUE : _values[entry];
+   }
+
+   public long[] values() {
+      long[] values = new long[size()];
+      int i = 0;
+      for ( int entry = 0, limit = entryLimit(); entry < limit; entry++ ) {
+         if ( isUsed(entry) ) {
+            values[i++] = _values[entry];
+         }
+      }
+      return values;
+   }
+
+   @Override
+   protected void moveValue( int fromEntry, int toEntry ) {
+      _values[toEntry] = _values[fromEntry];
+   }
+
+   @Override
+   protected void resizeValues( int length ) {
+      _values = Arrays.copyOf(_values, length);
+   }
+
+   private long put( int entry, long value ) {
+      if ( entry < 0 ) {
+         _values[-entry - 1] = value;
+         return NO_ENTRY_VALUE;
+      }
+      long previous = _values[entry];
+      _values[entry] = value;
+      return previous;
+   }
+
+   private long putIfAbsent( int entry, long value ) {
+      if ( entry < 0 ) {
+         _values[-entry - 1] = value;
+         return NO_ENTRY_VALUE;
+      }
+      return _values[entry];
+   }
+}
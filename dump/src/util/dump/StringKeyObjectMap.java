@@ -0,0 +1,115 @@
+package util.dump;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gnu.trove.procedure.TObjectObjectProcedure;
+
+
+/**
+ * A String to Object map with the compact key storage of {@link StringKeyArenaMap}.
+ */
+class StringKeyObjectMap<V> extends StringKeyArenaMap {
+
+   private Object[] _values = new Object[0];
+
+   StringKeyObjectMap() {
+      this(16);
+   }
+
+   StringKeyObjectMap( int expectedSize ) {
+      super(expectedSize);
+   }
+
+   /**
+    * Creates a String instance for each key, so don't use this for lookups.
+    */
+   public boolean forEachEntry( TObjectObjectProcedure<String, V> procedure ) {
+      for ( int entry = 0, limit = entryLimit(); entry < limit; entry++ ) {
+         if ( isUsed(entry) && !procedure.execute(keyOf(entry), (V)_values[entry]) ) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   public V get( String key ) {
+      int entry = entryOf(key);
+      return entry < 0 ? null : (V)_values[entry];
+   }
+
+   /**
+    * Same as {@link #get(String)} with the modified UTF-8 bytes of the key, as read from a stream written by
+    * {@link java.io.DataOutput#writeUTF(String)}.
+    */
+   public V get( byte[] utf, int length ) {
+      int entry = entryOf(utf, length);
+      return entry < 0 ? null : (V)_values[entry];
+   }
+
+   public V put( String key, V value ) {
+      return put(insert(key), value);
+   }
+
+   /**
+    * Same as {@link #put(String, Object)} with the modified UTF-8 bytes of the key.
+    */
+   public V put( byte[] utf, int length, V value ) {
+      return put(insert(utf, length), value);
+   }
+
+   public V remove( String key ) {
+      int entry = removeEntry(key);
+      if ( entry < 0 ) {
+         return null;
+      }
+      V previous = (V)_values[entry];
+      _values[entry] = null;
+      return previous;
+   }
+
+   /**
+    * Same as {@link #remove(String)} with the modified UTF-8 bytes of the key.
+    */
+   public V remove( byte[] utf, int length ) {
+      int entry = removeEntry(utf, length);
+      if ( entry < 0 ) {
+         return null;
+      }
+      V previous = (V)_values[entry];
+      _values[entry] = null;
+      return previous;
+   }
+
+   public List<V> values() {
+      List<V> values = new ArrayList<>(size());
+      for ( int entry = 0, limit = entryLimit(); entry < limit; entry++ ) {
+         if ( isUsed(entry) ) {
+            values.add((V)_values[entry]);
+         }
+      }
+      return values;
+   }
+
+   @Override
+   protected void moveValue( int fromEntry, int toEntry ) {
+      _values[toEntry] = _values[fromEntry];
+      _values[fromEntry] = null;
+   }
+
+   @Override
+   protected void resizeValues( int length ) {
+      _values = Arrays.copyOf(_values, length);
+   }
+
+   private V put( int entry, V value ) {
+      if ( entry < 0 ) {
+         _values[-entry - 1] = value;
+         return null;
+      }
+      V previous = (V)_values[entry];
+      _values[entry] = value;
+      return previous;
+   }
+}
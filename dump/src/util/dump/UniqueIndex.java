@@ -10,16 +10,22 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.security.AccessControlException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import gnu.trove.TLongCollection;
 import gnu.trove.iterator.TLongIterator;
 import gnu.trove.list.TLongList;
 import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.impl.Constants;
 import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.hash.TIntLongHashMap;
 import gnu.trove.map.hash.TLongIntHashMap;
 import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.map.hash.TObjectLongHashMap;
 import util.dump.reflection.FieldAccessor;
 import util.dump.stream.ExternalizableObjectInputStream;
@@ -28,17 +34,27 @@ import util.dump.stream.SingleTypeObjectInputStream;
 
 public class UniqueIndex<E> extends DumpIndex<E> {
 
-   protected TObjectLongHashMap _lookupObject;
-   protected TLongLongHashMap   _lookupLong;
-   protected TIntLongHashMap    _lookupInt;
+   private static final float HASHED_KEYS_LOAD_FACTOR = 0.8f;
 
-   public UniqueIndex( Dump<E> dump, FieldAccessor fieldAccessor ) {
-      super(dump, fieldAccessor);
+   protected TObjectLongHashMap             _lookupObject;
+   protected TLongLongHashMap               _lookupLong;
+   protected TIntLongHashMap                _lookupInt;
+   /** only used instead of {@link #_lookupObject} with {@link IndexOption#compactStringKeys} */
+   protected StringKeyLongMap               _lookupString;
+   /** only used instead of {@link #_lookupObject} with {@link IndexOption#hashedKeys}, maps the 64-bit hash of a key to its position */
+   protected TLongLongHashMap               _lookupHash;
+   /** the positions of further keys with the same hash as a key in {@link #_lookupHash} */
+   protected TLongObjectMap<TLongArrayList> _lookupHashCollisions;
+   /** only used instead of {@link #_lookupInt} and {@link #_lookupLong} with {@link IndexOption#packedPositions} */
+   protected PackedPositionMap              _lookupPacked;
+
+   public UniqueIndex( Dump<E> dump, FieldAccessor fieldAccessor, IndexOption... options ) {
+      super(dump, fieldAccessor, options);
       init();
    }
 
-   public UniqueIndex( Dump<E> dump, String fieldName ) throws NoSuchFieldException {
-      super(dump, fieldName);
+   public UniqueIndex( Dump<E> dump, String fieldName, IndexOption... options ) throws NoSuchFieldException {
+      super(dump, fieldName, options);
       init();
    }
 
@@ -47,27 +63,55 @@ public class UniqueIndex<E> extends DumpIndex<E> {
       try {
          if ( _fieldIsInt ) {
             int key = getIntKey(o);
-            if ( _lookupInt.containsKey(key) ) {
+            if ( getPosition(key) >= 0 ) {
                throw new DuplicateKeyException("Dump already contains an instance with the key " + key);
             }
-            _lookupInt.put(key, pos);
+            if ( _lookupPacked != null ) {
+               _lookupPacked.put(key, pos);
+            } else {
+               _lookupInt.put(key, pos);
+            }
             _lookupOutputStream.writeInt(key);
          } else if ( _fieldIsLong ) {
             long key = getLongKey(o);
-            if ( _lookupLong.containsKey(key) ) {
+            if ( getPosition(key) >= 0 ) {
                throw new DuplicateKeyException("Dump already contains an instance with the key " + key);
             }
-            _lookupLong.put(key, pos);
+            if ( _lookupPacked != null ) {
+               _lookupPacked.put(key, pos);
+            } else {
+               _lookupLong.put(key, pos);
+            }
             _lookupOutputStream.writeLong(key);
+         } else if ( _fieldIsComposite ) {
+            byte[] key = packCompositeKey(o);
+            if ( _lookupString.putIfAbsent(key, key.length, pos) != StringKeyLongMap.NO_ENTRY_VALUE ) {
+               throw new DuplicateKeyException("Dump already contains an instance with the key " + getObjectKey(o));
+            }
+            // the same framing as writeUTF(.), so the lookup file is loaded like compact String keys
+            _lookupOutputStream.writeShort(key.length);
+            _lookupOutputStream.write(key);
          } else {
             Object key = getObjectKey(o);
             if ( key == null ) {
                return;
             }
-            if ( _lookupObject.containsKey(key) ) {
-               throw new DuplicateKeyException("Dump already contains an instance with the key " + key);
+            if ( _lookupHash != null ) {
+               if ( getHashedPosition(key) >= 0 ) {
+                  throw new DuplicateKeyException("Dump already contains an instance with the key " + key);
+               }
+               putHashed(HashUtils.hash64(key), pos);
+            } else if ( _lookupString != null ) {
+               if ( _lookupString.containsKey((String)key) ) {
+                  throw new DuplicateKeyException("Dump already contains an instance with the key " + key);
+               }
+               _lookupString.put((String)key, pos);
+            } else {
+               if ( _lookupObject.containsKey(key) ) {
+                  throw new DuplicateKeyException("Dump already contains an instance with the key " + key);
+               }
+               _lookupObject.put(key, pos);
             }
-            _lookupObject.put(key, pos);
             if ( _fieldIsString ) {
                _lookupOutputStream.writeUTF(key.toString());
             } else {
@@ -75,7 +119,7 @@ public class UniqueIndex<E> extends DumpIndex<E> {
             }
          }
 
-         _lookupOutputStream.writeLong(pos);
+         writePosition(_lookupOutputStream, pos);
 
          if ( isCompactLookupNeeded() ) {
             compactLookup();
@@ -88,28 +132,33 @@ public class UniqueIndex<E> extends DumpIndex<E> {
 
    @Override
    public boolean contains( int key ) {
+      checkRebuilt();
       synchronized ( _dump ) {
          if ( !_fieldIsInt ) {
             throw new IllegalArgumentException(
                   "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate contains(.) method.");
          }
-         return _lookupInt.containsKey(key) && !_dump._deletedPositions.contains(_lookupInt.get(key));
+         long pos = getPosition(key);
+         return pos >= 0 && !_dump._deletedPositions.contains(pos);
       }
    }
 
    @Override
    public boolean contains( long key ) {
+      checkRebuilt();
       synchronized ( _dump ) {
          if ( !_fieldIsLong ) {
             throw new IllegalArgumentException(
                   "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate contains(.) method.");
          }
-         return _lookupLong.containsKey(key) && !_dump._deletedPositions.contains(_lookupLong.get(key));
+         long pos = getPosition(key);
+         return pos >= 0 && !_dump._deletedPositions.contains(pos);
       }
    }
 
    @Override
    public boolean contains( Object key ) {
+      checkRebuilt();
       synchronized ( _dump ) {
          if ( (_fieldIsLong || _fieldIsLongObject) && key instanceof Long ) {
             return contains(((Long)key).longValue());
@@ -121,6 +170,21 @@ public class UniqueIndex<E> extends DumpIndex<E> {
             throw new IllegalArgumentException(
                   "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate contains(.) method.");
          }
+         if ( _fieldIsComposite ) {
+            long pos = getPosition(key);
+            return pos >= 0 && !_dump._deletedPositions.contains(pos);
+         }
+         if ( _lookupHash != null ) {
+            long pos = getHashedPosition(key);
+            return pos >= 0 && !_dump._deletedPositions.contains(pos);
+         }
+         if ( _lookupString != null ) {
+            if ( !(key instanceof String) ) {
+               return false;
+            }
+            long pos = _lookupString.get((String)key);
+            return pos >= 0 && !_dump._deletedPositions.contains(pos);
+         }
          return _lookupObject.containsKey(key) && !_dump._deletedPositions.contains(_lookupObject.get(key));
       }
    }
@@ -156,20 +220,54 @@ public class UniqueIndex<E> extends DumpIndex<E> {
    }
 
    public int[] getAllIntKeys() {
-      return _lookupInt.keys();
+      checkRebuilt();
+      return _lookupPacked != null ? _lookupPacked.intKeys() : _lookupInt.keys();
    }
 
    public long[] getAllLongKeys() {
-      return _lookupLong.keys();
+      checkRebuilt();
+      return _lookupPacked != null ? _lookupPacked.longKeys() : _lookupLong.keys();
    }
 
+   /**
+    * With {@link IndexOption#hashedKeys} and {@link CompositeFieldAccessor} the keys are not in memory as instances, so all
+    * elements are read from the dump.
+    */
    public Object[] getAllObjectKeys() {
+      checkRebuilt();
+      if ( _lookupHash != null || _fieldIsComposite ) {
+         synchronized ( _dump ) {
+            TLongList positions = getAllPositions();
+            Object[] keys = new Object[positions.size()];
+            for ( int i = 0, length = positions.size(); i < length; i++ ) {
+               keys[i] = getObjectKey(_dump.get(positions.get(i)));
+            }
+            return keys;
+         }
+      }
+      if ( _lookupString != null ) {
+         return _lookupString.keys();
+      }
       return _lookupObject.keys();
    }
 
    @Override
    public TLongList getAllPositions() {
+      checkRebuilt();
       TLongList pos = new TLongArrayList(100000, 10000);
+      if ( _lookupHash != null ) {
+         addLivePositions(pos, _lookupHash.values());
+         for ( TLongArrayList collisions : _lookupHashCollisions.valueCollection() ) {
+            addLivePositions(pos, collisions.toArray());
+         }
+         pos.sort();
+         return pos;
+      }
+      if ( _lookupString != null || _lookupPacked != null ) {
+         addLivePositions(pos, _lookupString != null ? _lookupString.values() : _lookupPacked.values());
+         pos.sort();
+         return pos;
+      }
       TLongCollection c = _fieldIsInt ? _lookupInt.valueCollection() : (_fieldIsLong ? _lookupLong.valueCollection() : _lookupObject.valueCollection());
       for ( TLongIterator iterator = c.iterator(); iterator.hasNext(); ) {
          long p = iterator.next();
@@ -193,6 +291,20 @@ public class UniqueIndex<E> extends DumpIndex<E> {
 
    @Override
    public int getNumKeys() {
+      checkRebuilt();
+      if ( _lookupHash != null ) {
+         int n = _lookupHash.size();
+         for ( TLongArrayList collisions : _lookupHashCollisions.valueCollection() ) {
+            n += collisions.size();
+         }
+         return n;
+      }
+      if ( _lookupString != null ) {
+         return _lookupString.size();
+      }
+      if ( _lookupPacked != null ) {
+         return _lookupPacked.size();
+      }
       if ( _lookupObject != null ) {
          return _lookupObject.size();
       }
@@ -206,6 +318,7 @@ public class UniqueIndex<E> extends DumpIndex<E> {
    }
 
    public E lookup( int key ) {
+      checkRebuilt();
       synchronized ( _dump ) {
          if ( !_fieldIsInt ) {
             throw new IllegalArgumentException(
@@ -220,6 +333,7 @@ public class UniqueIndex<E> extends DumpIndex<E> {
    }
 
    public E lookup( long key ) {
+      checkRebuilt();
       synchronized ( _dump ) {
          if ( !_fieldIsLong ) {
             throw new IllegalArgumentException(
@@ -234,6 +348,7 @@ public class UniqueIndex<E> extends DumpIndex<E> {
    }
 
    public E lookup( Object key ) {
+      checkRebuilt();
       synchronized ( _dump ) {
          if ( (_fieldIsLong || _fieldIsLongObject) && key instanceof Long ) {
             return lookup(((Long)key).longValue());
@@ -245,6 +360,9 @@ public class UniqueIndex<E> extends DumpIndex<E> {
             throw new IllegalArgumentException(
                   "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate lookup(.) method.");
          }
+         if ( _lookupHash != null ) {
+            return lookupHashed(key);
+         }
          long pos = getPosition(key);
          if ( pos < 0 ) {
             return (E)null;
@@ -253,13 +371,74 @@ public class UniqueIndex<E> extends DumpIndex<E> {
       }
    }
 
+   /**
+    * Looks up a batch of keys under a single lock of the dump. The elements are read in the order of their positions, so the
+    * reads are mostly sequential and elements close to each other are served from the same read buffer.
+    *
+    * @return the elements in the order of <code>keys</code>, <code>null</code> for keys not contained. Keys contained several
+    *          times in <code>keys</code> share the same instance.
+    */
+   public List<E> lookupAll( int[] keys ) {
+      checkRebuilt();
+      synchronized ( _dump ) {
+         if ( !_fieldIsInt ) {
+            throw new IllegalArgumentException(
+                  "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate lookupAll(.) method.");
+         }
+         long[] positions = new long[keys.length];
+         for ( int i = 0; i < keys.length; i++ ) {
+            positions[i] = getPosition(keys[i]);
+         }
+         return getAll(positions);
+      }
+   }
+
+   /**
+    * @see #lookupAll(int[])
+    */
+   public List<E> lookupAll( long[] keys ) {
+      checkRebuilt();
+      synchronized ( _dump ) {
+         if ( !_fieldIsLong ) {
+            throw new IllegalArgumentException(
+                  "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate lookupAll(.) method.");
+         }
+         long[] positions = new long[keys.length];
+         for ( int i = 0; i < keys.length; i++ ) {
+            positions[i] = getPosition(keys[i]);
+         }
+         return getAll(positions);
+      }
+   }
+
+   /**
+    * @see #lookupAll(int[])
+    */
+   public List<E> lookupAll( Collection<?> keys ) {
+      checkRebuilt();
+      synchronized ( _dump ) {
+         long[] positions = new long[keys.size()];
+         int i = 0;
+         for ( Object key : keys ) {
+            positions[i++] = getPosition(key);
+         }
+         return getAll(positions);
+      }
+   }
+
    protected void cachePayload( long pos, Object payload ) {}
 
    protected void compactLookup() {
-      if ( _fieldIsInt ) {
+      if ( _lookupPacked != null ) {
+         _lookupPacked.compact();
+      } else if ( _fieldIsInt ) {
          _lookupInt.compact();
       } else if ( _fieldIsLong ) {
          _lookupLong.compact();
+      } else if ( _lookupHash != null ) {
+         _lookupHash.compact();
+      } else if ( _lookupString != null ) {
+         _lookupString.compact();
       } else {
          _lookupObject.compact();
       }
@@ -275,6 +454,9 @@ public class UniqueIndex<E> extends DumpIndex<E> {
          throw new IllegalArgumentException(
                "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate getPosition(.) method.");
       }
+      if ( _lookupPacked != null ) {
+         return _lookupPacked.get(key);
+      }
       if ( !_lookupInt.containsKey(key) ) {
          return -1;
       }
@@ -286,6 +468,9 @@ public class UniqueIndex<E> extends DumpIndex<E> {
          throw new IllegalArgumentException(
                "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate getPosition(.) method.");
       }
+      if ( _lookupPacked != null ) {
+         return _lookupPacked.get(key);
+      }
       if ( !_lookupLong.containsKey(key) ) {
          return -1;
       }
@@ -303,6 +488,16 @@ public class UniqueIndex<E> extends DumpIndex<E> {
          throw new IllegalArgumentException(
                "The type of the used key class of this index is " + _fieldAccessor.getType() + ". Please use the appropriate getPosition(.) method.");
       }
+      if ( _fieldIsComposite ) {
+         byte[] bytes = getCompositeKeyBytes(key);
+         return bytes == null ? -1 : _lookupString.get(bytes, bytes.length);
+      }
+      if ( _lookupHash != null ) {
+         return getHashedPosition(key);
+      }
+      if ( _lookupString != null ) {
+         return key instanceof String ? _lookupString.get((String)key) : -1;
+      }
       if ( !_lookupObject.containsKey(key) ) {
          return -1;
       }
@@ -312,7 +507,9 @@ public class UniqueIndex<E> extends DumpIndex<E> {
    @Override
    protected void init() {
       super.init();
-      compactLookup();
+      if ( !isRebuilding() ) { // otherwise the maps are still growing
+         compactLookup();
+      }
    }
 
    @Override
@@ -329,20 +526,37 @@ public class UniqueIndex<E> extends DumpIndex<E> {
 
    @Override
    protected void initLookupMap() {
-      if ( _fieldIsInt ) {
+      if ( (_fieldIsInt || _fieldIsLong) && getPositionBytes() != 8 ) {
+         _lookupPacked = new PackedPositionMap(_fieldIsLong);
+      } else if ( _fieldIsInt ) {
          _lookupInt = new TIntLongHashMap();
       } else if ( _fieldIsLong ) {
          _lookupLong = new TLongLongHashMap();
+      } else if ( _fieldIsComposite ) {
+         // the packed keys are small and of fixed width, so hashedKeys would save nothing
+         _lookupString = new StringKeyLongMap();
+      } else if ( hasOption(IndexOption.hashedKeys) ) {
+         _lookupHash = new TLongLongHashMap(Constants.DEFAULT_CAPACITY, HASHED_KEYS_LOAD_FACTOR);
+         _lookupHashCollisions = new TLongObjectHashMap<>();
+      } else if ( _fieldIsString && hasOption(IndexOption.compactStringKeys) ) {
+         _lookupString = new StringKeyLongMap();
       } else {
          _lookupObject = new TObjectLongHashMap();
       }
    }
 
    protected boolean isCompactLookupNeeded() {
-      if ( _fieldIsInt ) {
+      if ( _lookupPacked != null ) {
+         // after a compaction, the capacity of a PackedPositionMap may be up to 2.7 times its size
+         return _lookupPacked.size() > 1000 && _lookupPacked.size() * 4 < _lookupPacked.capacity();
+      } else if ( _fieldIsInt ) {
          return _lookupInt.size() > 1000 && _lookupInt.size() * 2.5 < _lookupInt._set.length;
       } else if ( _fieldIsLong ) {
          return _lookupLong.size() > 1000 && _lookupLong.size() * 2.5 < _lookupLong._set.length;
+      } else if ( _lookupHash != null ) {
+         return _lookupHash.size() > 1000 && _lookupHash.size() * 2.5 < _lookupHash._set.length;
+      } else if ( _lookupString != null ) {
+         return _lookupString.size() > 1000 && _lookupString.size() * 2.5 < _lookupString.capacity();
       } else {
          return _lookupObject.size() > 1000 && _lookupObject.size() * 2.5 < _lookupObject._set.length;
       }
@@ -376,9 +590,13 @@ public class UniqueIndex<E> extends DumpIndex<E> {
 
          boolean mayEOF = true;
          if ( _fieldIsInt ) {
-            int size = (int)(getLookupFile().length() / (4 + 8));
+            int size = (int)(getLookupFile().length() / (4 + getPositionBytes()));
             size = Math.max(10000, size + 1000);
-            _lookupInt = new TIntLongHashMap(size);
+            if ( _lookupPacked != null ) {
+               _lookupPacked = new PackedPositionMap(false, size);
+            } else {
+               _lookupInt = new TIntLongHashMap(size);
+            }
             DataInputStream in = null;
             try {
                in = new DataInputStream(new BufferedInputStream(new FileInputStream(getLookupFile())));
@@ -389,17 +607,22 @@ public class UniqueIndex<E> extends DumpIndex<E> {
                   }
                   int key = in.readInt();
                   mayEOF = false;
-                  long pos = in.readLong();
+                  long pos = readPosition(in);
                   mayEOF = true;
+                  _numLoadedLookupEntries++;
                   if ( positionsToIgnore.get(pos) > 0 ) {
                      positionsToIgnore.adjustValue(pos, -1);
                      continue;
                   }
-                  if ( _lookupInt.containsKey(key) ) {
+                  if ( getPosition(key) >= 0 ) {
                      throw new DuplicateKeyException("index lookup " + getLookupFile() + " is broken - contains non unique key " + key);
                   }
                   if ( !_dump._deletedPositions.contains(pos) ) {
-                     _lookupInt.put(key, pos);
+                     if ( _lookupPacked != null ) {
+                        _lookupPacked.put(key, pos);
+                     } else {
+                        _lookupInt.put(key, pos);
+                     }
                      cachePayload(pos, payload);
                   }
                }
@@ -423,9 +646,13 @@ public class UniqueIndex<E> extends DumpIndex<E> {
                }
             }
          } else if ( _fieldIsLong ) {
-            int size = (int)(getLookupFile().length() / (8 + 8));
+            int size = (int)(getLookupFile().length() / (8 + getPositionBytes()));
             size = Math.max(10000, size + 1000);
-            _lookupLong = new TLongLongHashMap(size);
+            if ( _lookupPacked != null ) {
+               _lookupPacked = new PackedPositionMap(true, size);
+            } else {
+               _lookupLong = new TLongLongHashMap(size);
+            }
             DataInputStream in = null;
             try {
                in = new DataInputStream(new BufferedInputStream(new FileInputStream(getLookupFile())));
@@ -436,17 +663,86 @@ public class UniqueIndex<E> extends DumpIndex<E> {
                   }
                   long key = in.readLong();
                   mayEOF = false;
-                  long pos = in.readLong();
+                  long pos = readPosition(in);
                   mayEOF = true;
+                  _numLoadedLookupEntries++;
                   if ( positionsToIgnore.get(pos) > 0 ) {
                      positionsToIgnore.adjustValue(pos, -1);
                      continue;
                   }
-                  if ( _lookupLong.containsKey(key) ) {
+                  if ( getPosition(key) >= 0 ) {
                      throw new DuplicateKeyException("index lookup " + getLookupFile() + " is broken - contains non unique key " + key);
                   }
                   if ( !_dump._deletedPositions.contains(pos) ) {
-                     _lookupLong.put(key, pos);
+                     if ( _lookupPacked != null ) {
+                        _lookupPacked.put(key, pos);
+                     } else {
+                        _lookupLong.put(key, pos);
+                     }
+                     cachePayload(pos, payload);
+                  }
+               }
+            }
+            catch ( EOFException argh ) {
+               if ( !mayEOF ) {
+                  throw new RuntimeException("Failed to read lookup from " + getLookupFile() + ", file is unbalanced - unexpected EoF", argh);
+               }
+            }
+            catch ( IOException argh ) {
+               throw new RuntimeException("Failed to read lookup from " + getLookupFile(), argh);
+            }
+            finally {
+               if ( in != null ) {
+                  try {
+                     in.close();
+                  }
+                  catch ( IOException argh ) {
+                     throw new RuntimeException("Failed to close input stream.", argh);
+                  }
+               }
+            }
+         } else if ( (_fieldIsString || _fieldIsComposite) && (_lookupString != null || _lookupHash != null) ) {
+            int size = (int)(getLookupFile().length() / (10 + getPositionBytes())); // let's assume an average length of the String keys of 10 bytes
+            size = Math.max(10000, size + 1000);
+            if ( _lookupHash != null ) {
+               _lookupHash = new TLongLongHashMap(size, HASHED_KEYS_LOAD_FACTOR);
+            } else {
+               _lookupString = new StringKeyLongMap(size);
+            }
+            byte[] utf = new byte[256];
+            DataInputStream in = null;
+            try {
+               in = new DataInputStream(new BufferedInputStream(new FileInputStream(getLookupFile())));
+               while ( true ) {
+                  Object payload = readPayload(in);
+                  if ( payload != null ) {
+                     mayEOF = false;
+                  }
+                  // the key is read as the raw bytes of writeUTF, to avoid creating a String instance per key
+                  int length = in.readUnsignedShort();
+                  mayEOF = false;
+                  if ( length > utf.length ) {
+                     utf = new byte[Math.max(length, utf.length * 2)];
+                  }
+                  in.readFully(utf, 0, length);
+                  long pos = readPosition(in);
+                  mayEOF = true;
+                  _numLoadedLookupEntries++;
+                  if ( positionsToIgnore.get(pos) > 0 ) {
+                     positionsToIgnore.adjustValue(pos, -1);
+                     continue;
+                  }
+                  if ( _lookupHash != null ) {
+                     // the lookup file is not verified against the dump here, keys are checked for uniqueness when added
+                     if ( !_dump._deletedPositions.contains(pos) ) {
+                        putHashed(HashUtils.hash64(utf, 0, length), pos);
+                        cachePayload(pos, payload);
+                     }
+                  } else if ( !_dump._deletedPositions.contains(pos) ) {
+                     if ( _lookupString.put(utf, length, pos) != StringKeyLongMap.NO_ENTRY_VALUE ) {
+                        throw new DuplicateKeyException("index lookup " + getLookupFile() + " is broken - contains non unique key "
+                              + DumpUtils.decodeUTF(utf, length));
+                     }
                      cachePayload(pos, payload);
                   }
                }
@@ -470,7 +766,7 @@ public class UniqueIndex<E> extends DumpIndex<E> {
                }
             }
          } else if ( _fieldIsString ) {
-            int size = (int)(getLookupFile().length() / (10 + 8)); // let's assume an average length of the String keys of 10 bytes
+            int size = (int)(getLookupFile().length() / (10 + getPositionBytes())); // let's assume an average length of the String keys of 10 bytes
             size = Math.max(10000, size + 1000);
             _lookupObject = new TObjectLongHashMap(size);
             DataInputStream in = null;
@@ -483,8 +779,9 @@ public class UniqueIndex<E> extends DumpIndex<E> {
                   }
                   String key = in.readUTF();
                   mayEOF = false;
-                  long pos = in.readLong();
+                  long pos = readPosition(in);
                   mayEOF = true;
+                  _numLoadedLookupEntries++;
                   if ( positionsToIgnore.get(pos) > 0 ) {
                      positionsToIgnore.adjustValue(pos, -1);
                      continue;
@@ -517,9 +814,13 @@ public class UniqueIndex<E> extends DumpIndex<E> {
                }
             }
          } else {
-            int size = (int)(getLookupFile().length() / (20 + 8)); // let's assume an average length of the keys of 20 bytes
+            int size = (int)(getLookupFile().length() / (20 + getPositionBytes())); // let's assume an average length of the keys of 20 bytes
             size = Math.max(10000, size + 1000);
-            _lookupObject = new TObjectLongHashMap(size);
+            if ( _lookupHash != null ) {
+               _lookupHash = new TLongLongHashMap(size, HASHED_KEYS_LOAD_FACTOR);
+            } else {
+               _lookupObject = new TObjectLongHashMap(size);
+            }
             ObjectInput in = null;
             try {
                if ( _fieldIsExternalizable ) {
@@ -539,12 +840,20 @@ public class UniqueIndex<E> extends DumpIndex<E> {
                   }
                   Object key = in.readObject();
                   mayEOF = false;
-                  long pos = in.readLong();
+                  long pos = readPosition(in);
                   mayEOF = true;
+                  _numLoadedLookupEntries++;
                   if ( positionsToIgnore.get(pos) > 0 ) {
                      positionsToIgnore.adjustValue(pos, -1);
                      continue;
                   }
+                  if ( _lookupHash != null ) {
+                     if ( !_dump._deletedPositions.contains(pos) ) {
+                        putHashed(HashUtils.hash64(key), pos);
+                        cachePayload(pos, payload);
+                     }
+                     continue;
+                  }
                   if ( _lookupObject.containsKey(key) ) {
                      throw new DuplicateKeyException("index lookup " + getLookupFile() + " is broken - contains non unique key " + key);
                   }
@@ -603,25 +912,61 @@ public class UniqueIndex<E> extends DumpIndex<E> {
       return null;
    }
 
+   @Override
+   protected boolean supportsBackgroundRebuild() {
+      return true;
+   }
+
+   @Override
+   protected boolean supportsPackedPositions() {
+      return true;
+   }
+
+   @Override
+   protected boolean supportsReplay() {
+      return true;
+   }
+
    @Override
    void delete( E o, long pos ) {
       if ( _fieldIsInt ) {
          int key = getIntKey(o);
-         long p = _lookupInt.get(key);
-         if ( p == pos ) {
-            _lookupInt.remove(key);
+         if ( getPosition(key) == pos ) {
+            if ( _lookupPacked != null ) {
+               _lookupPacked.remove(key);
+            } else {
+               _lookupInt.remove(key);
+            }
          }
       } else if ( _fieldIsLong ) {
          long key = getLongKey(o);
-         long p = _lookupLong.get(key);
-         if ( p == pos ) {
-            _lookupLong.remove(key);
+         if ( getPosition(key) == pos ) {
+            if ( _lookupPacked != null ) {
+               _lookupPacked.remove(key);
+            } else {
+               _lookupLong.remove(key);
+            }
+         }
+      } else if ( _fieldIsComposite ) {
+         byte[] key = packCompositeKey(o);
+         if ( _lookupString.get(key, key.length) == pos ) {
+            _lookupString.remove(key, key.length);
          }
       } else {
          Object key = getObjectKey(o);
          if ( key == null ) {
             return;
          }
+         if ( _lookupHash != null ) {
+            removeHashed(HashUtils.hash64(key), pos);
+            return;
+         }
+         if ( _lookupString != null ) {
+            if ( _lookupString.get((String)key) == pos ) {
+               _lookupString.remove((String)key);
+            }
+            return;
+         }
          long p = _lookupObject.get(key);
          if ( p == pos ) {
             _lookupObject.remove(key);
@@ -649,6 +994,14 @@ public class UniqueIndex<E> extends DumpIndex<E> {
        * This is handled during load() using getUpdatesFile() */
    }
 
+   private void addLivePositions( TLongList pos, long[] positions ) {
+      for ( long p : positions ) {
+         if ( !_dump._deletedPositions.contains(p) ) {
+            pos.add(p);
+         }
+      }
+   }
+
    private void addToIgnoredPositions( long pos ) {
       try {
          // we add this position to the stream of ignored positions used during load()
@@ -659,6 +1012,114 @@ public class UniqueIndex<E> extends DumpIndex<E> {
       }
    }
 
+   /**
+    * @return the position of the element with the key, verified by reading the candidates with the same hash from the dump, or -1
+    */
+   private long getHashedPosition( Object key ) {
+      synchronized ( _dump ) {
+         long hash = HashUtils.hash64(key);
+         if ( !_lookupHash.containsKey(hash) ) {
+            return -1;
+         }
+         long pos = _lookupHash.get(hash);
+         if ( isKeyAt(key, pos) ) {
+            return pos;
+         }
+         TLongArrayList collisions = _lookupHashCollisions.get(hash);
+         if ( collisions != null ) {
+            for ( int i = 0, length = collisions.size(); i < length; i++ ) {
+               if ( isKeyAt(key, collisions.getQuick(i)) ) {
+                  return collisions.getQuick(i);
+               }
+            }
+         }
+         return -1;
+      }
+   }
+
+   /**
+    * Reads the elements at <code>positions</code> in ascending position order, each position once.
+    */
+   private List<E> getAll( long[] positions ) {
+      long[] sortedPositions = positions.clone();
+      Arrays.sort(sortedPositions);
+      TLongObjectMap<E> elements = new TLongObjectHashMap<>(positions.length);
+      long lastPos = -1;
+      for ( long pos : sortedPositions ) {
+         if ( pos >= 0 && pos != lastPos ) {
+            elements.put(pos, _dump.get(pos));
+            lastPos = pos;
+         }
+      }
+      List<E> result = new ArrayList<>(positions.length);
+      for ( long pos : positions ) {
+         result.add(pos < 0 ? null : elements.get(pos));
+      }
+      return result;
+   }
+
+   private boolean isKeyAt( Object key, long pos ) {
+      E e = _dump.get(pos);
+      return e != null && key.equals(getObjectKey(e));
+   }
+
+   /**
+    * Same as {@link #getHashedPosition(Object)}, but the element read for verification is returned, so it needs no second read.
+    */
+   private E lookupHashed( Object key ) {
+      long hash = HashUtils.hash64(key);
+      if ( !_lookupHash.containsKey(hash) ) {
+         return null;
+      }
+      E e = _dump.get(_lookupHash.get(hash));
+      if ( e != null && key.equals(getObjectKey(e)) ) {
+         return e;
+      }
+      TLongArrayList collisions = _lookupHashCollisions.get(hash);
+      if ( collisions != null ) {
+         for ( int i = 0, length = collisions.size(); i < length; i++ ) {
+            e = _dump.get(collisions.getQuick(i));
+            if ( e != null && key.equals(getObjectKey(e)) ) {
+               return e;
+            }
+         }
+      }
+      return null;
+   }
+
+   private void putHashed( long hash, long pos ) {
+      if ( !_lookupHash.containsKey(hash) ) {
+         _lookupHash.put(hash, pos);
+         return;
+      }
+      TLongArrayList collisions = _lookupHashCollisions.get(hash);
+      if ( collisions == null ) {
+         collisions = new TLongArrayList(2);
+         _lookupHashCollisions.put(hash, collisions);
+      }
+      collisions.add(pos);
+   }
+
+   private void removeHashed( long hash, long pos ) {
+      if ( !_lookupHash.containsKey(hash) ) {
+         return;
+      }
+      TLongArrayList collisions = _lookupHashCollisions.get(hash);
+      if ( _lookupHash.get(hash) == pos ) {
+         if ( collisions == null ) {
+            _lookupHash.remove(hash);
+            return;
+         }
+         // promote the last colliding position
+         _lookupHash.put(hash, collisions.removeAt(collisions.size() - 1));
+      } else if ( collisions == null || !collisions.remove(pos) ) {
+         return;
+      }
+      if ( collisions.isEmpty() ) {
+         _lookupHashCollisions.remove(hash);
+      }
+   }
+
    /**
     * This Exception is thrown, when trying to add a non-unique index-value to a dump.
     */
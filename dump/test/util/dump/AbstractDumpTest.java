@@ -0,0 +1,68 @@
+package util.dump;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+
+
+/**
+ * Runs each test in its own temporary directory, which is deleted with all files in it afterwards. The {@link Bean} with an
+ * id and a group is shared by the tests which don't need other fields, the others declare their own nested Bean.
+ */
+public abstract class AbstractDumpTest {
+
+   private final List<File> _dirs = new ArrayList<>();
+
+   protected File _dir;
+
+
+   @Before
+   public void createDir() throws IOException {
+      _dir = createTempDir();
+   }
+
+   @After
+   public void deleteFiles() {
+      for ( File dir : _dirs ) {
+         for ( File f : dir.listFiles() ) {
+            f.delete();
+         }
+         dir.delete();
+      }
+      _dirs.clear();
+   }
+
+   /**
+    * @return a new empty directory, which is deleted after the test
+    */
+   protected File createTempDir() throws IOException {
+      File dir = File.createTempFile(getClass().getSimpleName(), "");
+      dir.delete();
+      dir.mkdir();
+      _dirs.add(dir);
+      return dir;
+   }
+
+
+   public static class Bean implements ExternalizableBean {
+
+      @externalize(1)
+      int _id;
+      @externalize(2)
+      int _group;
+
+
+      public Bean() {
+         // for Externalization
+      }
+
+      public Bean( int id, int group ) {
+         _id = id;
+         _group = group;
+      }
+   }
+}
@@ -153,6 +153,7 @@ abstract public class AbstractGroupIndexTest {
             Assert.assertNull("Found a Bean for index which should be out of range", bean);
          }
          Assert.assertEquals(0, n);
+         Assert.assertEquals(0, index.count(k));
 
          /* iterate dump and delete half of it */
          long t = System.currentTimeMillis();
@@ -265,6 +266,8 @@ abstract public class AbstractGroupIndexTest {
          }
 
          assertThat(n).as("wrong number of elements in group " + k).isEqualTo(expectedGroupNumber);
+         assertThat(index.count(k)).as("wrong count of group " + k).isEqualTo(expectedGroupNumber);
+         assertThat(index.positions(k).size()).as("wrong number of positions in group " + k).isEqualTo(expectedGroupNumber);
       }
       System.out.println("Read " + READ_NUMBER + " groups from dump. Needed " + (System.currentTimeMillis() - t) / (float)READ_NUMBER + " ms/group.");
 
@@ -0,0 +1,131 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import util.dump.reflection.FieldAccessor;
+
+
+public class AdaptiveGroupIndexTest extends AbstractGroupIndexTest {
+
+   /**
+    * keeps about 900 int postings in memory
+    */
+   private static final long HEAP_BUDGET = 40_000;
+
+
+   public AdaptiveGroupIndexTest( int dumpSize ) {
+      super(dumpSize);
+   }
+
+   @Test
+   public void testExternalizableKeyIndex() throws Exception {
+      testIndex("_groupExternalizable", new AdaptiveGroupIndexConfig() {
+
+         @Override
+         public Object createKey( int id ) {
+            return new ExternalizableId(id);
+         }
+      });
+   }
+
+   @Test
+   public void testIntKeyIndex() throws Exception {
+      testIndex("_groupInt", new AdaptiveGroupIndexConfig() {
+
+         @Override
+         public Object createKey( int id ) {
+            return Integer.valueOf(id);
+         }
+      });
+   }
+
+   @Test
+   public void testLongKeyIndex() throws Exception {
+      testIndex("_groupLong", new AdaptiveGroupIndexConfig() {
+
+         @Override
+         public Object createKey( int id ) {
+            return Long.valueOf(id);
+         }
+      });
+   }
+
+   @Test
+   public void testSpilling() throws Exception {
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+      Dump<Bean> dump = new Dump<>(Bean.class, dumpFile);
+      try {
+         AdaptiveGroupIndex<Bean> index = new AdaptiveGroupIndex<>(dump, "_groupInt", HEAP_BUDGET);
+         for ( int i = 0; i < _dumpSize; i++ ) {
+            dump.add(new Bean(i, i + "----"));
+         }
+         index.awaitMerge();
+         assertLookups(index);
+
+         dump.close();
+         dump = new Dump<>(Bean.class, dumpFile);
+         index = new AdaptiveGroupIndex<>(dump, "_groupInt", HEAP_BUDGET);
+         assertLookups(index);
+         // the most recently looked up keys are cached, even for spilled postings
+         index.lookup(0);
+         assertThat(index.getPositionsFromCache(0)).hasSize(10);
+         // the LRU cache size caps the number of cached keys within the budget
+         index.setLRUCacheSize(1);
+         index.lookup(1);
+         assertThat(index.getPositionsFromCache(0)).isNull();
+         assertThat(index.getPositionsFromCache(1)).isNotNull();
+         index.setLRUCacheSize(0);
+         assertThat(index.getPositionsFromCache(1)).isNull();
+
+         // a rebuild fills the index in memory, too, and spills only if the postings exceed the budget
+         File metaFile = index.getMetaFile();
+         dump.close();
+         assertThat(metaFile.delete()).isTrue();
+         dump = new Dump<>(Bean.class, dumpFile);
+         index = new AdaptiveGroupIndex<>(dump, "_groupInt", HEAP_BUDGET);
+         index.awaitMerge();
+         assertLookups(index);
+      }
+      finally {
+         dump.close();
+      }
+   }
+
+   @Test
+   public void testStringKeyIndex() throws Exception {
+      testIndex("_groupString", new AdaptiveGroupIndexConfig() {
+
+         @Override
+         public Object createKey( int id ) {
+            return (id < 0 ? "" : "+") + id;
+         }
+      });
+   }
+
+   private void assertLookups( AdaptiveGroupIndex<Bean> index ) {
+      boolean fitsIntoBudget = _dumpSize * 32 <= HEAP_BUDGET * AdaptiveGroupIndex.RECENT_POSTINGS_SHARE;
+      assertThat(index.getLookupFile().length() == 0).isEqualTo(fitsIntoBudget);
+      for ( int key = 0; key < _dumpSize / 10; key++ ) {
+         int n = 0;
+         for ( Bean bean : index.lookup(key) ) {
+            assertThat(bean._groupInt).isEqualTo(key);
+            n++;
+         }
+         assertThat(n).as("wrong number of elements in group " + key).isEqualTo(10);
+      }
+      assertThat(index.getNumKeys()).isEqualTo(_dumpSize / 10);
+   }
+
+
+   public abstract static class AdaptiveGroupIndexConfig extends TestConfiguration {
+
+      @Override
+      public NonUniqueIndex createIndex( Dump dump, FieldAccessor fieldAccessor ) {
+         return new AdaptiveGroupIndex<Bean>(dump, fieldAccessor, HEAP_BUDGET);
+      }
+   }
+}
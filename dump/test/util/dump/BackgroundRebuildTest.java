@@ -0,0 +1,105 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import util.dump.DumpIndex.IndexOption;
+import util.dump.DumpIndex.IndexRebuildingException;
+
+
+public class BackgroundRebuildTest extends AbstractDumpTest {
+
+   private static final int NUM_ELEMENTS = 30000;
+
+   @Test
+   public void testChangesDuringRebuild() throws Exception {
+      File dumpFile = new File(_dir, "BackgroundRebuildTest.dmp");
+      long[] positions = createDump(dumpFile);
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         UniqueIndex<Bean> idIndex;
+         GroupIndex<Bean> groupIndex;
+         synchronized ( dump ) { // the rebuild can't read anything while we hold the lock
+            idIndex = new UniqueIndex<>(dump, "_id", IndexOption.backgroundRebuild);
+            groupIndex = new GroupIndex<>(dump, "_group", IndexOption.backgroundRebuild);
+
+            // changes of elements not read by the rebuild yet are picked up by the rebuild
+            dump.delete(positions[7]);
+            dump.update(positions[8], new Bean(8, 99));
+         }
+         dump.add(new Bean(NUM_ELEMENTS, 5));
+
+         assertThat(idIndex.lookup(7)).isNull();
+         assertThat(idIndex.lookup(8)._group).isEqualTo(99);
+         assertThat(idIndex.lookup(NUM_ELEMENTS)._group).isEqualTo(5);
+         assertThat(idIndex.getNumKeys()).isEqualTo(NUM_ELEMENTS);
+         assertThat(groupIndex.count(7)).isEqualTo(299);
+         assertThat(groupIndex.count(8)).isEqualTo(299);
+         assertThat(groupIndex.count(99)).isEqualTo(301);
+         assertThat(groupIndex.count(5)).isEqualTo(301);
+         assertThat(groupIndex.awaitRebuild(1, TimeUnit.MINUTES)).isTrue();
+         assertThat(groupIndex.isRebuilding()).isFalse();
+         assertThat(groupIndex.getRebuildProgress()).isEqualTo(1f);
+      }
+   }
+
+   @Test
+   public void testRebuildWaitTimeout() throws Exception {
+      File dumpFile = new File(_dir, "BackgroundRebuildTest.dmp");
+      createDump(dumpFile);
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         UniqueIndex<Bean> idIndex;
+         synchronized ( dump ) {
+            idIndex = new UniqueIndex<>(dump, "_id", IndexOption.backgroundRebuild);
+            assertThat(idIndex.isRebuilding()).isTrue();
+            assertThat(idIndex.getRebuildProgress()).isZero();
+
+            idIndex.setRebuildWaitTimeout(0, TimeUnit.MILLISECONDS);
+            assertThatThrownBy(() -> idIndex.lookup(5)).isInstanceOf(IndexRebuildingException.class);
+            idIndex.setRebuildWaitTimeout(1, TimeUnit.MINUTES);
+         }
+         assertThat(idIndex.lookup(5)._group).isEqualTo(5);
+      }
+   }
+
+   @Test
+   public void testValidIndexesAreLoaded() throws Exception {
+      File dumpFile = new File(_dir, "BackgroundRebuildTest.dmp");
+      createDump(dumpFile);
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         new UniqueIndex<>(dump, "_id");
+         new GroupIndex<>(dump, "_group");
+      }
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         synchronized ( dump ) {
+            UniqueIndex<Bean> idIndex = new UniqueIndex<>(dump, "_id", IndexOption.backgroundRebuild);
+            GroupIndex<Bean> groupIndex = new GroupIndex<>(dump, "_group", IndexOption.backgroundRebuild);
+            assertThat(idIndex.isRebuilding()).isFalse();
+            assertThat(groupIndex.isRebuilding()).isFalse();
+            assertThat(idIndex.lookup(8)._group).isEqualTo(8);
+            assertThat(groupIndex.count(8)).isEqualTo(300);
+         }
+      }
+   }
+
+   /**
+    * @return the positions of the elements of a dump without indexes
+    */
+   private long[] createDump( File dumpFile ) throws Exception {
+      long[] positions = new long[NUM_ELEMENTS];
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         for ( int id = 0; id < NUM_ELEMENTS; id++ ) {
+            positions[id] = dump.getDumpSize();
+            dump.add(new Bean(id, id % 100));
+         }
+      }
+      return positions;
+   }
+}
@@ -141,6 +141,7 @@ public class CombinedIndexTest {
             n++;
          }
          Assert.assertEquals("wrong number of elements in group " + id, id / 24 % 2 == 0 ? 0 : 4, n);
+         Assert.assertEquals("wrong count for group " + id, n, combinedIndex.count(id / 12, "" + (id / 4), id / 24));
       }
       System.out.println("Read " + READ_NUMBER + " groups from dump. Needed " + (System.currentTimeMillis() - t) / (float)READ_NUMBER + " ms/group.");
 
@@ -0,0 +1,120 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import util.dump.UniqueIndex.DuplicateKeyException;
+
+
+public class CompositeIndexTest extends AbstractDumpTest {
+
+   @Test
+   public void testGroupIndex() throws Exception {
+      File dumpFile = new File(_dir, "CompositeIndexTest.dmp");
+      CompositeFieldAccessor accessor = new CompositeFieldAccessor(Bean.class, "_shopId", "_active");
+      CompositeKey key = accessor.newKey();
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         GroupIndex<Bean> index = new GroupIndex<>(dump, accessor);
+         for ( int id = 0; id < 1000; id++ ) {
+            dump.add(new Bean(id % 10, id, id % 3 == 0));
+         }
+         assertThat(index.count(key.clear().add(4).add(true))).isEqualTo(33);
+         assertThat(index.count(key.clear().add(4).add(false))).isEqualTo(67);
+         assertThat(index.contains(key.clear().add(10).add(false))).isFalse();
+         assertThat(productIds(index.lookup(key.clear().add(1).add(true)))).startsWith(21L, 51L, 81L).hasSize(33);
+         assertThat(index.getNumKeys()).isEqualTo(20);
+
+         for ( long pos : index.positions(key.clear().add(1).add(true)).toArray() ) {
+            dump.delete(pos);
+         }
+         assertThat(index.contains(key)).isFalse();
+         assertThat(index.count(key.clear().add(1).add(false))).isEqualTo(67);
+      }
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         GroupIndex<Bean> index = new GroupIndex<>(dump, accessor);
+         assertThat(index.contains(key.clear().add(1).add(true))).isFalse();
+         assertThat(index.count(key.clear().add(4).add(true))).isEqualTo(33);
+      }
+   }
+
+   @Test
+   public void testUniqueIndex() throws Exception {
+      File dumpFile = new File(_dir, "CompositeIndexTest.dmp");
+      CompositeFieldAccessor accessor = new CompositeFieldAccessor(Bean.class, "_shopId", "_productId");
+      CompositeKey key = accessor.newKey();
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         UniqueIndex<Bean> index = new UniqueIndex<>(dump, accessor);
+         for ( int id = 0; id < 1000; id++ ) {
+            dump.add(new Bean(id % 10, -id * 1000000000000L, false));
+         }
+         assertThat(new File(_dir, "CompositeIndexTest.dmp._shopId+_productId.lookup")).exists();
+         assertThat(index.lookup(key.clear().add(7).add(-17000000000000L))._productId).isEqualTo(-17000000000000L);
+         assertThat(index.lookup(key.clear().add(6).add(-17000000000000L))).isNull();
+         assertThat(index.contains(key.clear().add(3).add(-3000000000000L))).isTrue();
+         assertThat(index.lookup(accessor.get(new Bean(5, -5000000000000L, true)))._shopId).isEqualTo(5);
+         assertThat(index.getAllObjectKeys()).hasSize(1000).contains(accessor.get(new Bean(9, -999000000000000L, false)));
+
+         assertThatThrownBy(() -> dump.add(new Bean(3, -3000000000000L, true))).isInstanceOf(DuplicateKeyException.class)
+               .hasMessageContaining("CompositeKey[3, -3000000000000]");
+         assertThatThrownBy(() -> index.lookup(key.clear().add(3))).isInstanceOf(IllegalArgumentException.class);
+         assertThatThrownBy(() -> key.clear().add(3L)).isInstanceOf(IllegalArgumentException.class);
+         assertThatThrownBy(() -> key.clear().add(3).add(3L).add(3L)).isInstanceOf(IllegalStateException.class);
+
+         // the key changes, so the old key is gone
+         long pos = index.getPosition(key.clear().add(2).add(-2000000000000L));
+         dump.update(pos, new Bean(2, 1L, false));
+         assertThat(index.contains(key.clear().add(2).add(-2000000000000L))).isFalse();
+         assertThat(index.lookup(key.clear().add(2).add(1L))).isNotNull();
+      }
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         UniqueIndex<Bean> index = new UniqueIndex<>(dump, accessor);
+         assertThat(index.getNumKeys()).isEqualTo(1000);
+         assertThat(index.contains(key.clear().add(2).add(-2000000000000L))).isFalse();
+         assertThat(index.lookup(key.clear().add(2).add(1L))).isNotNull();
+         assertThat(index.lookup(key.clear().add(8).add(-998000000000000L))._shopId).isEqualTo(8);
+      }
+
+      assertThatThrownBy(() -> new CompositeFieldAccessor(Bean.class, "_shopId", "_name")).isInstanceOf(IllegalArgumentException.class);
+   }
+
+   private List<Long> productIds( Iterable<Bean> beans ) {
+      List<Long> ids = new ArrayList<>();
+      for ( Bean bean : beans ) {
+         ids.add(bean._productId);
+      }
+      return ids;
+   }
+
+
+   public static class Bean implements ExternalizableBean {
+
+      @externalize(1)
+      private int     _shopId;
+      @externalize(2)
+      private long    _productId;
+      @externalize(3)
+      private boolean _active;
+      @externalize(4)
+      private String  _name;
+
+
+      public Bean() {
+         // for Externalization
+      }
+
+      public Bean( int shopId, long productId, boolean active ) {
+         _shopId = shopId;
+         _productId = productId;
+         _active = active;
+         _name = "" + productId;
+      }
+   }
+}
@@ -11,6 +11,7 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.Arrays;
 
 import org.assertj.core.util.Files;
 import org.junit.After;
@@ -183,6 +184,25 @@ public class DumpUtilsTest {
       }
    }
 
+   @Test
+   public void testEncodeDecodeUtf() throws Exception {
+      // modified UTF-8 differs from UTF-8 in the encoding of \0 and of supplementary characters
+      String s = "a\0b\u00e4\u07ff\u0800\u20ac\ud83d\ude00";
+
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      new DataOutputStream(bos).writeUTF(s);
+      byte[] expected = bos.toByteArray();
+
+      byte[] utf = new byte[DumpUtils.utfLength(s) + 1];
+      assertThat(utf.length - 1).isEqualTo(expected.length - 2);
+      assertThat(DumpUtils.encodeUTF(s, utf, 1)).isEqualTo(utf.length);
+      for ( int i = 1; i < utf.length; i++ ) {
+         assertThat(utf[i]).isEqualTo(expected[i + 1]);
+      }
+
+      assertThat(DumpUtils.decodeUTF(Arrays.copyOfRange(utf, 1, utf.length), utf.length - 1)).isEqualTo(s);
+   }
+
    @Test
    public void testReadWriteUtf() throws Exception {
       StringBuilder s = new StringBuilder();
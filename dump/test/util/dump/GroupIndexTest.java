@@ -2,10 +2,14 @@ package util.dump;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.File;
+import java.util.Arrays;
+
 import org.junit.Test;
 
 import gnu.trove.set.TLongSet;
 import gnu.trove.set.hash.TLongHashSet;
+import util.dump.DumpIndex.IndexOption;
 import util.dump.GroupIndex.Positions;
 import util.dump.reflection.FieldAccessor;
 
@@ -60,6 +64,22 @@ public class GroupIndexTest extends AbstractGroupIndexTest {
       });
    }
 
+   @Test
+   public void testIntKeyIndexWithPackedPositions() throws Exception {
+      testIndex("_groupInt", new TestConfiguration() {
+
+         @Override
+         public NonUniqueIndex createIndex( Dump dump, FieldAccessor fieldAccessor ) {
+            return new GroupIndex<Bean>(dump, fieldAccessor, IndexOption.packedPositions);
+         }
+
+         @Override
+         public Object createKey( int id ) {
+            return Integer.valueOf(id);
+         }
+      });
+   }
+
    @Test
    public void testLongKeyIndex() throws Exception {
       testIndex("_groupLong", new GroupIndexTestConfig() {
@@ -71,6 +91,82 @@ public class GroupIndexTest extends AbstractGroupIndexTest {
       });
    }
 
+   @Test
+   public void testPositions() throws Exception {
+      Positions positions = new Positions();
+      TLongSet expected = new TLongHashSet();
+      long pos = 0;
+      for ( int i = 0; i < 10000; i++ ) {
+         // mostly ascending, like positions appended to a dump, with some updates in between
+         long p = _random.nextInt(10) == 0 ? _random.nextInt(1000000) : (pos += 1 + _random.nextInt(100000));
+         if ( expected.add(p) ) {
+            positions.add(p);
+         }
+      }
+      assertThat(positions.size()).isEqualTo(expected.size());
+
+      TLongSet iterated = new TLongHashSet();
+      positions.forEach(iterated::add);
+      assertThat(iterated).isEqualTo(expected);
+
+      for ( long p : expected.toArray() ) {
+         if ( _random.nextBoolean() ) {
+            assertThat(positions.remove(p)).isTrue();
+            expected.remove(p);
+         }
+      }
+      assertThat(positions.remove(-1)).isFalse();
+
+      positions.sort();
+      positions.trimToSize();
+      assertThat(positions.isSorted()).isTrue();
+      long[] sorted = expected.toArray();
+      Arrays.sort(sorted);
+      assertThat(positions.toArray()).isEqualTo(sorted);
+   }
+
+   @Test
+   public void testPositionsRemoveMany() throws Exception {
+      Positions positions = new Positions();
+      int n = 100000;
+      for ( long p = 0; p < n; p++ ) {
+         positions.add(p * 3);
+      }
+      positions.add(30);
+
+      // 30 is contained twice, once encoded and once in the unsorted tail
+      assertThat(positions.remove(30)).isTrue();
+      assertThat(positions.remove(30)).isTrue();
+      assertThat(positions.remove(30)).isFalse();
+      assertThat(positions.remove(31)).isFalse();
+      assertThat(positions.remove(3L * n)).isFalse();
+
+      long[] shuffled = new long[n - 1];
+      for ( int i = 0, p = 0; p < n; p++ ) {
+         if ( p != 10 ) {
+            shuffled[i++] = p * 3L;
+         }
+      }
+      for ( int i = shuffled.length - 1; i > 0; i-- ) {
+         int j = _random.nextInt(i + 1);
+         long t = shuffled[i];
+         shuffled[i] = shuffled[j];
+         shuffled[j] = t;
+      }
+      int kept = 1000;
+      for ( int i = kept; i < shuffled.length; i++ ) {
+         assertThat(positions.remove(shuffled[i])).isTrue();
+         assertThat(positions.remove(shuffled[i])).isFalse();
+      }
+      assertThat(positions.size()).isEqualTo(kept);
+
+      long[] expected = Arrays.copyOf(shuffled, kept);
+      Arrays.sort(expected);
+      assertThat(positions.toArray()).isEqualTo(expected);
+      positions.sort();
+      assertThat(positions.toArray()).isEqualTo(expected);
+   }
+
    @Test
    public void testRemovePosition() throws Exception {
 
@@ -101,13 +197,54 @@ public class GroupIndexTest extends AbstractGroupIndexTest {
 
          Positions newArray = GroupIndex.removePosition(array, valueToDelete);
 
-         TLongSet after = new TLongHashSet(newArray);
+         TLongSet after = new TLongHashSet(newArray.toArray());
 
          before.remove(valueToDelete);
          assertThat(before).isEqualTo(after);
       }
    }
 
+   @Test
+   public void testSinglePositionKeys() throws Exception {
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         GroupIndex<Bean> intIndex = new GroupIndex<>(dump, "_groupInt");
+         GroupIndex<Bean> stringIndex = new GroupIndex<>(dump, "_groupString", IndexOption.compactStringKeys);
+
+         dump.add(new Bean(10, "a"));
+         assertThat(intIndex._singleInt.size()).isEqualTo(1);
+         assertThat(intIndex._lookupInt.size()).isZero();
+         assertThat(stringIndex._singleString.size()).isEqualTo(1);
+
+         // a second position promotes the key to a Positions instance
+         dump.add(new Bean(11, "b"));
+         assertThat(intIndex._singleInt.size()).isZero();
+         assertThat(intIndex._lookupInt.size()).isEqualTo(1);
+         assertThat(stringIndex._lookupString.size()).isEqualTo(1);
+         assertThat(intIndex.getNumValues(1)).isEqualTo(2);
+         assertThat(stringIndex.getNumValues("+1")).isEqualTo(2);
+
+         // deleting one of them demotes the key again
+         for ( Bean bean : intIndex.lookup(1) ) {
+            if ( bean._data.equals("a") ) {
+               dump.deleteLast();
+            }
+         }
+         assertThat(intIndex._singleInt.size()).isEqualTo(1);
+         assertThat(intIndex._lookupInt.size()).isZero();
+         assertThat(stringIndex._singleString.size()).isEqualTo(1);
+         assertThat(stringIndex._lookupString.size()).isZero();
+         assertThat(intIndex.lookup(1).iterator().next()._data).isEqualTo("b");
+         assertThat(stringIndex.lookup("+1").iterator().next()._data).isEqualTo("b");
+         assertThat(intIndex.getNumKeys()).isEqualTo(1);
+
+         dump.deleteLast();
+         assertThat(intIndex.getNumKeys()).isZero();
+         assertThat(stringIndex.getNumKeys()).isZero();
+         assertThat(intIndex.contains(1)).isFalse();
+      }
+   }
+
    @Test
    public void testStringKeyIndex() throws Exception {
       testIndex("_groupString", new GroupIndexTestConfig() {
@@ -119,6 +256,22 @@ public class GroupIndexTest extends AbstractGroupIndexTest {
       });
    }
 
+   @Test
+   public void testStringKeyIndexWithCompactStringKeys() throws Exception {
+      testIndex("_groupString", new TestConfiguration() {
+
+         @Override
+         public NonUniqueIndex createIndex( Dump dump, FieldAccessor fieldAccessor ) {
+            return new GroupIndex<Bean>(dump, fieldAccessor, IndexOption.compactStringKeys);
+         }
+
+         @Override
+         public Object createKey( int id ) {
+            return (id < 0 ? "" : "+") + id;
+         }
+      });
+   }
+
    public abstract static class GroupIndexTestConfig extends TestConfiguration {
 
       @Override
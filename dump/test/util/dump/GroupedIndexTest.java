@@ -1,5 +1,11 @@
 package util.dump;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 import util.dump.reflection.FieldAccessor;
@@ -22,6 +28,64 @@ public class GroupedIndexTest extends AbstractGroupIndexTest {
       });
    }
 
+   @Test
+   public void testGroupRead() throws Exception {
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         GroupedIndex<Bean> index = new GroupedIndex<>(dump, "_groupInt");
+         for ( int i = 0; i < 200; i++ ) {
+            dump.add(new Bean(i, "data" + i));
+         }
+         dump.delete(index.positions(3).get(4));
+         dump.delete(index.positions(5).get(0));
+         dump.add(new Bean(199, "appended to the last group"));
+
+         // reading other elements in between doesn't disturb the group read
+         List<String> data = new ArrayList<>();
+         for ( Bean bean : index.lookup(3) ) {
+            data.add(bean._data);
+            assertThat(dump.get(index.positions(17).get(5))._data).isEqualTo("data175");
+         }
+         assertThat(data).containsExactly("data30", "data31", "data32", "data33", "data35", "data36", "data37", "data38", "data39");
+         assertThat(index.count(19)).isEqualTo(11);
+         assertThat(index.lookup(20)).isEmpty();
+      }
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         GroupedIndex<Bean> index = new GroupedIndex<>(dump, "_groupInt");
+         assertThat(index.count(3)).isEqualTo(9);
+         assertThat(index.count(4)).isEqualTo(10); // the group 5 lost its start, which doesn't extend the group 4
+         assertThat(index.count(18)).isEqualTo(10);
+         assertThat(index.count(19)).isEqualTo(11);
+         assertThat(index.lookup(0).iterator().next()._data).isEqualTo("data0");
+      }
+   }
+
+   @Test
+   public void testLastGroupRead() throws Exception {
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         GroupedIndex<Bean> index = new GroupedIndex<>(dump, "_groupInt");
+         dump.add(new Bean(0, "data0"));
+         StringBuilder sb = new StringBuilder();
+         for ( int i = 0; i < 100; i++ ) {
+            sb.append('x');
+         }
+         // the last group is read with a buffer growing from a few KB, which must cover many I/Os for this one
+         for ( int i = 0; i < 20000; i++ ) {
+            dump.add(new Bean(10, i + sb.toString()));
+         }
+         assertThat(index.count(0)).isEqualTo(1);
+         assertThat(index.count(1)).isEqualTo(20000);
+
+         int i = 0;
+         for ( Bean bean : index.lookup(1) ) {
+            assertThat(bean._data).startsWith(i++ + "x");
+         }
+         assertThat(i).isEqualTo(20000);
+      }
+   }
+
    @Test
    public void testIntKeyIndex() throws Exception {
       testIndex("_groupInt", new GroupedIndexTestConfig() {
@@ -0,0 +1,115 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+
+public class IndexRecoveryTest extends AbstractDumpTest {
+
+   private static final int ID_LOOKUP_ENTRY_LENGTH = 4 + 8;
+
+   @Test
+   public void testRecoveryAfterCrash() throws Exception {
+      File dumpFile = new File(_dir, "IndexRecoveryTest.dmp");
+      long[] positions = createIndexedDump(dumpFile, 1200);
+
+      File crashDir = createTempDir();
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         new UniqueIndex<>(dump, "_id");
+         new GroupIndex<>(dump, "_group");
+
+         // simulate a crash after flushing the dump, without writing the metas
+         add(dump, positions, 1000, 1200);
+         dump.flush();
+         for ( File f : _dir.listFiles() ) {
+            Files.copy(f.toPath(), new File(crashDir, f.getName()).toPath());
+         }
+      }
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, new File(crashDir, dumpFile.getName()))) {
+         // the lookup file is truncated to the checkpoint before the appended elements are replayed
+         UniqueIndex<Bean> idIndex = new UniqueIndex<>(dump, "_id");
+         GroupIndex<Bean> groupIndex = new GroupIndex<>(dump, "_group");
+         assertThat(new File(crashDir, getIdLookupFile(dumpFile).getName()).length()).isEqualTo(1200 * ID_LOOKUP_ENTRY_LENGTH);
+         assertThat(idIndex.lookup(1199)._group).isEqualTo(9);
+         assertThat(idIndex.getNumKeys()).isEqualTo(1200);
+         assertThat(groupIndex.count(0)).isEqualTo(120);
+      }
+   }
+
+   @Test
+   public void testReplayFromCheckpoint() throws Exception {
+      File dumpFile = new File(_dir, "IndexRecoveryTest.dmp");
+      long[] positions = createIndexedDump(dumpFile, 1500);
+
+      // elements deleted and added while the indexes weren't open are replayed from the checkpoint
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         for ( int id = 0; id < 1000; id += 100 ) {
+            dump.delete(positions[id]);
+         }
+         add(dump, positions, 1000, 1500);
+      }
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         UniqueIndex<Bean> idIndex = new UniqueIndex<>(dump, "_id");
+         GroupIndex<Bean> groupIndex = new GroupIndex<>(dump, "_group");
+         // a rebuild would have dropped the lookup entries of the deleted elements
+         assertThat(getIdLookupFile(dumpFile).length()).isEqualTo(1500 * ID_LOOKUP_ENTRY_LENGTH);
+         assertThat(idIndex.contains(100)).isFalse();
+         assertThat(idIndex.lookup(1499)._group).isEqualTo(9);
+         assertThat(groupIndex.count(0)).isEqualTo(140);
+         assertThat(groupIndex.count(1)).isEqualTo(150);
+      }
+   }
+
+   @Test
+   public void testUpdateInvalidatesCheckpoints() throws Exception {
+      File dumpFile = new File(_dir, "IndexRecoveryTest.dmp");
+      long[] positions = createIndexedDump(dumpFile, 1000);
+
+      // an update in place can't be replayed, so the indexes are rebuilt
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         dump.delete(positions[100]);
+         dump.update(positions[5], new Bean(5, 42));
+      }
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         UniqueIndex<Bean> idIndex = new UniqueIndex<>(dump, "_id");
+         GroupIndex<Bean> groupIndex = new GroupIndex<>(dump, "_group");
+         assertThat(getIdLookupFile(dumpFile).length()).isEqualTo(999 * ID_LOOKUP_ENTRY_LENGTH);
+         assertThat(idIndex.lookup(5)._group).isEqualTo(42);
+         assertThat(idIndex.contains(100)).isFalse();
+         assertThat(groupIndex.count(42)).isEqualTo(1);
+         assertThat(groupIndex.count(5)).isEqualTo(99);
+      }
+   }
+
+   private void add( Dump<Bean> dump, long[] positions, int fromId, int toId ) throws IOException {
+      for ( int id = fromId; id < toId; id++ ) {
+         positions[id] = dump.getDumpSize();
+         dump.add(new Bean(id, id % 10));
+      }
+   }
+
+   /**
+    * @return the positions of the first 1000 elements, with room for <code>numElements</code> in total
+    */
+   private long[] createIndexedDump( File dumpFile, int numElements ) throws Exception {
+      long[] positions = new long[numElements];
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         new UniqueIndex<>(dump, "_id");
+         new GroupIndex<>(dump, "_group");
+         add(dump, positions, 0, 1000);
+      }
+      return positions;
+   }
+
+   private File getIdLookupFile( File dumpFile ) {
+      return new File(dumpFile.getParentFile(), dumpFile.getName() + "._id.lookup");
+   }
+}
@@ -3,9 +3,25 @@ package util.dump;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TIntHashSet;
+import gnu.trove.set.hash.TLongHashSet;
 import util.dump.reflection.FieldAccessor;
 
 
@@ -15,6 +31,86 @@ public class InfiniteGroupIndexTest extends AbstractGroupIndexTest {
       super(dumpSize);
    }
 
+   @Test
+   public void testConcurrentLookups() throws Exception {
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         InfiniteGroupIndex<Bean> index = new InfiniteGroupIndex<>(dump, "_groupInt", 10);
+         AtomicInteger numAdded = new AtomicInteger();
+         AtomicBoolean done = new AtomicBoolean();
+         AtomicReference<Throwable> failure = new AtomicReference<>();
+
+         List<Thread> readers = new ArrayList<>();
+         for ( int t = 0; t < 2; t++ ) {
+            Thread reader = new Thread(() -> {
+               Random random = new Random();
+               try {
+                  while ( !done.get() ) {
+                     int numCompleteGroups = numAdded.get() / 10;
+                     if ( numCompleteGroups == 0 ) {
+                        continue;
+                     }
+                     int key = random.nextInt(numCompleteGroups);
+                     int n = 0;
+                     // the elements are read lazily, without the lock they might be updated meanwhile
+                     synchronized ( dump ) {
+                        for ( Bean bean : index.lookup(key) ) {
+                           assertThat(bean._groupInt).isEqualTo(key);
+                           n++;
+                        }
+                     }
+                     // the elements of groups with an even key are updated to another key after all elements are added
+                     if ( key % 2 == 0 ) {
+                        assertThat(n).isLessThanOrEqualTo(10);
+                     } else {
+                        assertThat(n).isEqualTo(10);
+                     }
+                  }
+               }
+               catch ( Throwable argh ) {
+                  failure.compareAndSet(null, argh);
+               }
+            });
+            reader.start();
+            readers.add(reader);
+         }
+
+         try {
+            for ( int i = 0; i < _dumpSize; i++ ) {
+               dump.add(new Bean(i, "" + i));
+               numAdded.incrementAndGet();
+            }
+            List<Long> positions = new ArrayList<>();
+            try (DumpIterator<Bean> iterator = dump.iterator()) {
+               while ( iterator.hasNext() ) {
+                  if ( iterator.next()._groupInt % 2 == 0 ) {
+                     positions.add(iterator.getPosition());
+                  }
+               }
+            }
+            for ( long pos : positions ) {
+               Bean bean = dump.get(pos);
+               bean._groupInt = -bean._groupInt - 1;
+               dump.update(pos, bean);
+            }
+         }
+         finally {
+            done.set(true);
+            for ( Thread reader : readers ) {
+               reader.join();
+            }
+         }
+         assertThat(failure.get()).isNull();
+
+         index.awaitMerge();
+         for ( int key = 0; key < _dumpSize / 10; key++ ) {
+            assertThat(index.lookup(key)).hasSize(key % 2 == 0 ? 0 : 10);
+            assertThat(index.lookup(-key - 1)).hasSize(key % 2 == 0 ? 10 : 0);
+         }
+         assertThat(index.getNumKeys()).isEqualTo(_dumpSize / 10);
+      }
+   }
+
    @Test
    public void testExternalizableKeyIndex() throws Exception {
       testIndex("_groupExternalizable", new InfiniteGroupIndexConfig() {
@@ -37,6 +133,61 @@ public class InfiniteGroupIndexTest extends AbstractGroupIndexTest {
       });
    }
 
+   @Test
+   public void testFullIndexScan() throws Exception {
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         InfiniteGroupIndex<Bean> intIndex = new InfiniteGroupIndex<>(dump, "_groupInt", 100);
+         InfiniteGroupIndex<Bean> longIndex = new InfiniteGroupIndex<>(dump, "_groupLong", 100);
+         InfiniteGroupIndex<Bean> stringIndex = new InfiniteGroupIndex<>(dump, "_groupString", 100);
+         InfiniteGroupIndex<Bean> externalizableIndex = new InfiniteGroupIndex<>(dump, "_groupExternalizable", 100);
+         for ( int i = 0; i < _dumpSize; i++ ) {
+            long pos = dump._outputStream._n;
+            dump.add(new Bean(_random.nextInt(_dumpSize), i + "----"));
+            if ( _random.nextInt(10) == 0 ) {
+               dump.delete(pos);
+            }
+         }
+
+         // many keys are merged with the runs, few keys are looked up with binary searches
+         for ( int numKeys : new int[] { _dumpSize / 5, 3 } ) {
+            TIntSet intKeys = new TIntHashSet();
+            TLongSet longKeys = new TLongHashSet();
+            Set<String> stringKeys = new HashSet<>();
+            Set<ExternalizableId> externalizableKeys = new HashSet<>();
+            for ( int i = 0; i < numKeys; i++ ) {
+               int key = _random.nextInt(_dumpSize / 5) - 1;
+               intKeys.add(key);
+               longKeys.add(key);
+               stringKeys.add((key < 0 ? "" : "+") + key);
+               externalizableKeys.add(new ExternalizableId(key));
+            }
+
+            TIntObjectMap<long[]> intPositions = intIndex.fullIndexScan(intKeys);
+            TLongObjectMap<long[]> longPositions = longIndex.fullIndexScan(longKeys);
+            Map<String, long[]> stringPositions = stringIndex.fullIndexScan(stringKeys);
+            Map<ExternalizableId, long[]> externalizablePositions = externalizableIndex.fullIndexScan(externalizableKeys);
+            for ( int key : intKeys.toArray() ) {
+               long[] expected = intIndex.getPositions(key);
+               Arrays.sort(expected);
+               String stringKey = (key < 0 ? "" : "+") + key;
+               ExternalizableId externalizableKey = new ExternalizableId(key);
+               if ( expected.length == 0 ) {
+                  assertThat(intPositions.containsKey(key)).isFalse();
+                  assertThat(longPositions.containsKey(key)).isFalse();
+                  assertThat(stringPositions).doesNotContainKey(stringKey);
+                  assertThat(externalizablePositions).doesNotContainKey(externalizableKey);
+               } else {
+                  assertThat(intPositions.get(key)).isEqualTo(expected);
+                  assertThat(longPositions.get(key)).isEqualTo(expected);
+                  assertThat(stringPositions.get(stringKey)).isEqualTo(expected);
+                  assertThat(externalizablePositions.get(externalizableKey)).isEqualTo(expected);
+               }
+            }
+         }
+      }
+   }
+
    @Test
    public void testGetNumKeysExternalizable() throws Exception {
       int numKeys = 5;
@@ -159,6 +310,29 @@ public class InfiniteGroupIndexTest extends AbstractGroupIndexTest {
       });
    }
 
+   @Test
+   public void testKeySpanningSeveralBlocks() throws Exception {
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         // the runs have a fence key every 4 KB, i.e. every 341 int keys or 256 long keys
+         int[] groupSizes = { 340, _dumpSize, 1, 1000 };
+         for ( int key = 0; key < groupSizes.length; key++ ) {
+            for ( int i = 0; i < groupSizes[key]; i++ ) {
+               dump.add(new Bean(key * 10, i + "----"));
+            }
+         }
+
+         InfiniteGroupIndex<Bean> intIndex = new InfiniteGroupIndex<>(dump, "_groupInt");
+         InfiniteGroupIndex<Bean> longIndex = new InfiniteGroupIndex<>(dump, "_groupLong");
+         for ( int key = -1; key <= groupSizes.length; key++ ) {
+            int expected = key < 0 || key == groupSizes.length ? 0 : groupSizes[key];
+            assertThat(intIndex.getPositions(key)).hasSize(expected);
+            assertThat(longIndex.getPositions((long)key)).hasSize(expected);
+         }
+         assertThat(longIndex.rangeLookup(1, 3)).hasSize(_dumpSize + 1);
+      }
+   }
+
    @Test
    public void testLongKeyIndex() throws Exception {
       testIndex("_groupLong", new InfiniteGroupIndexConfig() {
@@ -197,6 +371,74 @@ public class InfiniteGroupIndexTest extends AbstractGroupIndexTest {
       }
    }
 
+   @Test
+   public void testSortedRuns() throws Exception {
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+      Dump<Bean> dump = new Dump<>(Bean.class, dumpFile);
+      try {
+         InfiniteGroupIndex<Bean> index = new InfiniteGroupIndex<>(dump, "_groupInt", 10);
+         for ( int i = 0; i < _dumpSize; i++ ) {
+            dump.add(new Bean(i, i + "----"));
+         }
+         // each flush of the overflow writes a small run, runs of the same tier are merged in the background
+         index.awaitMerge();
+         int numRuns = index.getNumRuns();
+         assertThat(numRuns).isLessThanOrEqualTo(20);
+         assertSortedRunLookups(index);
+
+         dump.close();
+         dump = new Dump<>(Bean.class, dumpFile);
+         index = new InfiniteGroupIndex<>(dump, "_groupInt", 10);
+         assertThat(index.getNumRuns()).isEqualTo(numRuns);
+         assertSortedRunLookups(index);
+         assertThat(index.getNumKeys()).isEqualTo(_dumpSize / 10);
+      }
+      finally {
+         dump.close();
+      }
+   }
+
+   @Test
+   public void testStringKeysInlineAndHashed() throws Exception {
+      // short keys are stored inline in the runs, long keys as 64-bit hash pointing into the key dump
+      String[] keys = { "", "a", "1234567", "12345678", "\u0000", "äöü", "äöüß", "€€", "€€€", "a much longer key, which is hashed" };
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+      Dump<Bean> dump = new Dump<>(Bean.class, dumpFile);
+      try {
+         InfiniteGroupIndex<Bean> index = new InfiniteGroupIndex<>(dump, "_groupString", 10);
+         for ( int i = 0; i < keys.length * 20; i++ ) {
+            Bean bean = new Bean(i, "" + i);
+            bean._groupString = keys[i % keys.length];
+            dump.add(bean);
+         }
+         assertStringKeyLookups(index, keys, 20);
+
+         dump.delete(0);
+         assertThat(index.lookup(keys[0])).hasSize(19);
+
+         Set<String> scannedKeys = new HashSet<>(Arrays.asList(keys));
+         scannedKeys.add("b");
+         scannedKeys.add("a much longer key, which is not in the index");
+         Map<String, long[]> scannedPositions = index.fullIndexScan(scannedKeys);
+         assertThat(scannedPositions).hasSize(keys.length);
+         for ( String key : keys ) {
+            assertThat(scannedPositions.get(key)).isEqualTo(index.positions(key).toArray());
+         }
+
+         dump.close();
+         dump = new Dump<>(Bean.class, dumpFile);
+         index = new InfiniteGroupIndex<>(dump, "_groupString", 10);
+         assertThat(index.lookup(keys[0])).hasSize(19);
+         assertThat(index.lookup(keys[1])).hasSize(20);
+         assertThat(index.getAllPositions().size()).isEqualTo(keys.length * 20 - 1);
+         assertThat(index.lookup("b").iterator().hasNext()).isFalse();
+         assertThat(index.lookup("a much longer key, which is not in the index").iterator().hasNext()).isFalse();
+      }
+      finally {
+         dump.close();
+      }
+   }
+
    @Test
    public void testStringKeyIndex() throws Exception {
       testIndex("_groupString", new InfiniteGroupIndexConfig() {
@@ -219,6 +461,25 @@ public class InfiniteGroupIndexTest extends AbstractGroupIndexTest {
       });
    }
 
+   private void assertStringKeyLookups( InfiniteGroupIndex<Bean> index, String[] keys, int numPerKey ) {
+      assertThat(index.getNumKeys()).isEqualTo(keys.length);
+      assertThat(index.getAllPositions().size()).isEqualTo(keys.length * numPerKey);
+      for ( String key : keys ) {
+         assertThat(index.lookup(key)).hasSize(numPerKey).allMatch(bean -> bean._groupString.equals(key));
+      }
+   }
+
+   private void assertSortedRunLookups( InfiniteGroupIndex<Bean> index ) {
+      for ( int key = 0; key < _dumpSize / 10; key++ ) {
+         int n = 0;
+         for ( Bean bean : index.lookup(key) ) {
+            assertThat(bean._groupInt).isEqualTo(key);
+            n++;
+         }
+         assertThat(n).as("wrong number of elements in group " + key).isEqualTo(10);
+      }
+   }
+
    private void testRangeLookup( Dump<Bean> dump, InfiniteGroupIndex<Bean> index, int lowerKey, int upperKey ) {
       Iterable<Bean> beans = index.rangeLookup(lowerKey, upperKey);
       int numberFoundByIndex = 0;
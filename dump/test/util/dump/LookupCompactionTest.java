@@ -0,0 +1,93 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+
+import org.junit.Test;
+
+
+public class LookupCompactionTest extends AbstractDumpTest {
+
+   private static final int NUM_ELEMENTS           = 20000;
+   private static final int ID_LOOKUP_ENTRY_LENGTH = 4 + 8;
+
+   @Test
+   public void testCompactionOnLoad() throws Exception {
+      File dumpFile = new File(_dir, "LookupCompactionTest.dmp");
+      File idLookupFile = new File(_dir, "LookupCompactionTest.dmp._id.lookup");
+      File idUpdatesFile = new File(_dir, "LookupCompactionTest.dmp._id.updatedPositions");
+      File groupLookupFile = new File(_dir, "LookupCompactionTest.dmp._group.lookup");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         UniqueIndex<Bean> idIndex = new UniqueIndex<>(dump, "_id");
+         new GroupIndex<>(dump, "_group");
+         add(dump);
+         // changing the keys leaves outdated entries in the lookup files
+         for ( int id = 0; id < 15000; id++ ) {
+            Bean bean = idIndex.lookup(id);
+            bean._id = -id - 1;
+            bean._group += 100;
+            dump.update(idIndex.getPosition(id), bean);
+            bean._id = id + NUM_ELEMENTS;
+            bean._group += 100;
+            dump.update(idIndex.getPosition(-id - 1), bean);
+         }
+      }
+      assertThat(idLookupFile.length()).isEqualTo((NUM_ELEMENTS + 30000) * ID_LOOKUP_ENTRY_LENGTH);
+      long groupLookupLength = groupLookupFile.length();
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         UniqueIndex<Bean> idIndex = new UniqueIndex<>(dump, "_id");
+         GroupIndex<Bean> groupIndex = new GroupIndex<>(dump, "_group");
+         assertThat(idLookupFile.length()).isEqualTo(NUM_ELEMENTS * ID_LOOKUP_ENTRY_LENGTH);
+         assertThat(idUpdatesFile.exists()).isFalse();
+         assertThat(groupLookupFile.length()).isLessThan(groupLookupLength);
+         assertThat(idIndex.contains(5)).isFalse();
+         assertThat(idIndex.lookup(NUM_ELEMENTS + 5)._group).isEqualTo(205);
+         assertThat(idIndex.lookup(15000)._group).isZero();
+         assertThat(groupIndex.count(205)).isEqualTo(150);
+         assertThat(groupIndex.count(5)).isEqualTo(50);
+      }
+   }
+
+   @Test
+   public void testExplicitCompaction() throws Exception {
+      File dumpFile = new File(_dir, "LookupCompactionTest.dmp");
+      File idLookupFile = new File(_dir, "LookupCompactionTest.dmp._id.lookup");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         UniqueIndex<Bean> idIndex = new UniqueIndex<>(dump, "_id");
+         GroupIndex<Bean> groupIndex = new GroupIndex<>(dump, "_group");
+         add(dump);
+
+         // the explicit compaction removes the entries of deleted elements, too
+         for ( int id = 15000; id < 15100; id++ ) {
+            dump.delete(idIndex.getPosition(id));
+         }
+         idIndex.compactLookupFile();
+         groupIndex.compactLookupFile();
+         assertThat(idLookupFile.length()).isEqualTo((NUM_ELEMENTS - 100) * ID_LOOKUP_ENTRY_LENGTH);
+         assertThat(idIndex.contains(15000)).isFalse();
+         assertThat(idIndex.lookup(15100)._group).isZero();
+         assertThat(groupIndex.count(0)).isEqualTo(199);
+
+         // the compacted lookup files are appended to as before
+         dump.add(new Bean(-1, 0));
+         assertThat(groupIndex.count(0)).isEqualTo(200);
+      }
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         UniqueIndex<Bean> idIndex = new UniqueIndex<>(dump, "_id");
+         GroupIndex<Bean> groupIndex = new GroupIndex<>(dump, "_group");
+         assertThat(idIndex.getNumKeys()).isEqualTo(NUM_ELEMENTS - 100 + 1);
+         assertThat(idIndex.lookup(-1)._group).isZero();
+         assertThat(groupIndex.count(0)).isEqualTo(200);
+         assertThat(groupIndex.count(1)).isEqualTo(199);
+      }
+   }
+
+   private void add( Dump<Bean> dump ) throws Exception {
+      for ( int id = 0; id < NUM_ELEMENTS; id++ ) {
+         dump.add(new Bean(id, id % 100));
+      }
+   }
+}
@@ -0,0 +1,141 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import util.dump.DumpIndex.IndexOption;
+
+
+public class MultiValueGroupIndexTest extends AbstractDumpTest {
+
+   @Test
+   public void testCompactStringKeys() throws Exception {
+      File dumpFile = new File(_dir, "MultiValueGroupIndexTest.dmp");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         MultiValueGroupIndex<Bean> tagIndex = new MultiValueGroupIndex<>(dump, "_tags");
+         new MultiValueGroupIndex<>(dump, "_categoryIds");
+         add(dump);
+         update(dump, tagIndex);
+         dump.delete(tagIndex.positions("even").get(1));
+      }
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         // the same lookup file loaded into the compact representation
+         MultiValueGroupIndex<Bean> tagIndex = new MultiValueGroupIndex<>(dump, "_tags", IndexOption.compactStringKeys);
+         MultiValueGroupIndex<Bean> categoryIndex = new MultiValueGroupIndex<>(dump, "_categoryIds");
+         assertUpdated(tagIndex, categoryIndex);
+         assertThat(tagIndex.count("all")).isEqualTo(99);
+         assertThat(tagIndex.count("even")).isEqualTo(49);
+         assertThat(categoryIndex.count(1000L)).isEqualTo(98);
+      }
+   }
+
+   @Test
+   public void testLookup() throws Exception {
+      File dumpFile = new File(_dir, "MultiValueGroupIndexTest.dmp");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         MultiValueGroupIndex<Bean> tagIndex = new MultiValueGroupIndex<>(dump, "_tags");
+         MultiValueGroupIndex<Bean> categoryIndex = new MultiValueGroupIndex<>(dump, "_categoryIds");
+         add(dump);
+         assertThat(ids(tagIndex.lookup("even"))).hasSize(50).startsWith(0, 2, 4);
+         assertThat(ids(tagIndex.lookup("mod3-1"))).hasSize(33).startsWith(1, 4, 7);
+         assertThat(tagIndex.count("all")).isEqualTo(100); // contained twice in each element, indexed once
+         assertThat(ids(categoryIndex.lookup(7L))).containsExactly(7, 17, 27, 37, 47, 57, 67, 77, 87, 97);
+         assertThat(categoryIndex.count(1000L)).isEqualTo(100);
+         assertThat(categoryIndex.getNumKeys()).isEqualTo(11);
+      }
+   }
+
+   @Test
+   public void testSingleValueFieldIsRejected() throws Exception {
+      try (Dump<Bean> dump = new Dump<>(Bean.class, new File(_dir, "MultiValueGroupIndexTest.dmp"))) {
+         assertThatThrownBy(() -> new MultiValueGroupIndex<>(dump, "_id")).isInstanceOf(IllegalArgumentException.class);
+      }
+   }
+
+   @Test
+   public void testUpdateAndDelete() throws Exception {
+      File dumpFile = new File(_dir, "MultiValueGroupIndexTest.dmp");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         MultiValueGroupIndex<Bean> tagIndex = new MultiValueGroupIndex<>(dump, "_tags");
+         MultiValueGroupIndex<Bean> categoryIndex = new MultiValueGroupIndex<>(dump, "_categoryIds");
+         add(dump);
+
+         // an update in place, only the changed elements are updated
+         long pos = update(dump, tagIndex);
+         assertThat(tagIndex.positions("new").toArray()).containsExactly(pos);
+         assertThat(tagIndex.count("all")).isEqualTo(100);
+         assertThat(categoryIndex.count(1000L)).isEqualTo(99);
+         assertUpdated(tagIndex, categoryIndex);
+
+         dump.delete(tagIndex.positions("even").get(1));
+         assertThat(tagIndex.count("all")).isEqualTo(99);
+         assertThat(categoryIndex.count(1000L)).isEqualTo(98);
+      }
+   }
+
+   private void add( Dump<Bean> dump ) throws Exception {
+      for ( int id = 0; id < 100; id++ ) {
+         dump.add(new Bean(id));
+      }
+   }
+
+   private void assertUpdated( MultiValueGroupIndex<Bean> tagIndex, MultiValueGroupIndex<Bean> categoryIndex ) {
+      assertThat(ids(tagIndex.lookup("new"))).containsExactly(3);
+      assertThat(ids(tagIndex.lookup("mod3-0"))).hasSize(34).contains(3);
+      assertThat(ids(tagIndex.lookup("odd"))).hasSize(49).doesNotContain(3);
+      assertThat(ids(categoryIndex.lookup(3L))).containsExactly(3, 13, 23, 33, 43, 53, 63, 73, 83, 93);
+      assertThat(ids(categoryIndex.lookup(1001L))).containsExactly(3);
+   }
+
+   /**
+    * Changes the tags and categories of the element with id 3 in place.
+    * @return its position
+    */
+   private long update( Dump<Bean> dump, MultiValueGroupIndex<Bean> tagIndex ) throws Exception {
+      long pos = tagIndex.positions("mod3-0").get(1);
+      Bean bean = dump.get(pos);
+      assertThat(bean._id).isEqualTo(3);
+      bean._tags = new ArrayList<>(Arrays.asList("all", "new", "mod3-0", "all"));
+      bean._categoryIds = new long[] { 3, 1001 };
+      dump.update(pos, bean);
+      return pos;
+   }
+
+   private List<Integer> ids( Iterable<Bean> beans ) {
+      List<Integer> ids = new ArrayList<>();
+      for ( Bean bean : beans ) {
+         ids.add(bean._id);
+      }
+      return ids;
+   }
+
+
+   public static class Bean implements ExternalizableBean {
+
+      @externalize(1)
+      private int          _id;
+      @externalize(2)
+      private List<String> _tags;
+      @externalize(3)
+      private long[]       _categoryIds;
+
+
+      public Bean() {
+         // for Externalization
+      }
+
+      public Bean( int id ) {
+         _id = id;
+         _tags = new ArrayList<>(Arrays.asList("all", id % 2 == 0 ? "even" : "odd", "mod3-" + (id % 3), "all"));
+         _categoryIds = new long[] { id % 10, 1000 };
+      }
+   }
+}
@@ -0,0 +1,77 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+public class PackedPositionMapTest {
+
+   @Test
+   public void testIntKeys() {
+      PackedPositionMap map = new PackedPositionMap(false);
+      int n = 100000;
+      for ( int i = 0; i < n; i++ ) {
+         assertThat(map.put(i - n / 2, i * 1000L)).isEqualTo(PackedPositionMap.NO_ENTRY_VALUE);
+      }
+      assertThat(map.size()).isEqualTo(n);
+      for ( int i = 0; i < n; i += 2 ) {
+         assertThat(map.remove(i - n / 2)).isEqualTo(i * 1000L);
+      }
+      assertThat(map.size()).isEqualTo(n / 2);
+      for ( int i = 0; i < n; i++ ) {
+         assertThat(map.get(i - n / 2)).isEqualTo(i % 2 == 0 ? PackedPositionMap.NO_ENTRY_VALUE : i * 1000L);
+      }
+
+      int capacity = map.capacity();
+      map.compact();
+      assertThat(map.capacity()).isLessThan(capacity);
+      for ( int i = 1; i < n; i += 2 ) {
+         assertThat(map.put(i - n / 2, i)).isEqualTo(i * 1000L);
+      }
+      assertThat(map.intKeys()).hasSize(n / 2).contains(1 - n / 2, n / 2 - 1);
+      assertThat(map.values()).hasSize(n / 2).contains(1, n - 1);
+   }
+
+   @Test
+   public void testLargePositions() {
+      PackedPositionMap map = new PackedPositionMap(true);
+      long[] positions = { 0, 1, (1L << 32) - 1, 1L << 32, PackedPositionMap.MAX_POSITION };
+      for ( int i = 0; i < positions.length; i++ ) {
+         map.put(Long.MIN_VALUE + i, positions[i]);
+      }
+      for ( int i = 0; i < positions.length; i++ ) {
+         assertThat(map.get(Long.MIN_VALUE + i)).isEqualTo(positions[i]);
+      }
+      assertThatThrownBy(() -> map.put(42, PackedPositionMap.MAX_POSITION + 1)).isInstanceOf(IllegalArgumentException.class);
+      assertThatThrownBy(() -> map.put(42, -1)).isInstanceOf(IllegalArgumentException.class);
+   }
+
+   @Test
+   public void testRandomOperations() {
+      // removals shift colliding entries back, compare against a HashMap with a small key range for long clusters
+      Random random = new Random(4711);
+      PackedPositionMap map = new PackedPositionMap(true, 4);
+      Map<Long, Long> expected = new HashMap<>();
+      for ( int i = 0; i < 200000; i++ ) {
+         long key = random.nextInt(5000);
+         if ( random.nextInt(3) == 0 ) {
+            Long removed = expected.remove(key);
+            assertThat(map.remove(key)).isEqualTo(removed == null ? PackedPositionMap.NO_ENTRY_VALUE : removed);
+         } else {
+            long pos = random.nextLong() & PackedPositionMap.MAX_POSITION;
+            Long previous = expected.put(key, pos);
+            assertThat(map.put(key, pos)).isEqualTo(previous == null ? PackedPositionMap.NO_ENTRY_VALUE : previous);
+         }
+      }
+      assertThat(map.size()).isEqualTo(expected.size());
+      for ( long key = 0; key < 5000; key++ ) {
+         assertThat(map.get(key)).isEqualTo(expected.getOrDefault(key, PackedPositionMap.NO_ENTRY_VALUE));
+      }
+   }
+}
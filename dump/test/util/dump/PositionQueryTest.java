@@ -0,0 +1,156 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+
+
+public class PositionQueryTest extends AbstractDumpTest {
+
+   private static final int DUMP_SIZE = 10000;
+
+   @Test
+   public void testDefaultMethodsOfNonUniqueIndex() {
+      NonUniqueIndex<String> index = new NonUniqueIndex<String>() {
+
+         @Override
+         public Iterable<String> lookup( int key ) {
+            return Collections.nCopies(key, "x");
+         }
+
+         @Override
+         public Iterable<String> lookup( long key ) {
+            return lookup((int)key);
+         }
+
+         @Override
+         public Iterable<String> lookup( Object key ) {
+            return lookup(((Integer)key).intValue());
+         }
+      };
+      assertThat(index.count(3)).isEqualTo(3);
+      assertThat(index.count(0L)).isZero();
+      assertThat(index.count((Object)2)).isEqualTo(2);
+      assertThatThrownBy(() -> index.positions(3)).isInstanceOf(UnsupportedOperationException.class);
+   }
+
+   @Test
+   public void testPositionSet() {
+      Random random = new Random(42);
+      for ( int run = 0; run < 100; run++ ) {
+         // different size ratios, so both the linear merge and galloping are used
+         PositionSet a = randomSet(random, 1 + random.nextInt(50), 1000);
+         PositionSet b = randomSet(random, 1 + random.nextInt(run < 50 ? 50 : 900), 1000);
+         for ( long pos = -1; pos <= 1000; pos++ ) {
+            assertThat(a.and(b).contains(pos)).isEqualTo(a.contains(pos) && b.contains(pos));
+            assertThat(b.and(a).contains(pos)).isEqualTo(a.contains(pos) && b.contains(pos));
+            assertThat(a.or(b).contains(pos)).isEqualTo(a.contains(pos) || b.contains(pos));
+            assertThat(a.andNot(b).contains(pos)).isEqualTo(a.contains(pos) && !b.contains(pos));
+            assertThat(b.andNot(a).contains(pos)).isEqualTo(b.contains(pos) && !a.contains(pos));
+         }
+      }
+      assertThat(PositionSet.of(5, 3, 5, 1).toArray()).containsExactly(1, 3, 5);
+   }
+
+   @Test
+   public void testQueries() throws Exception {
+      File dumpFile = new File(_dir, "PositionQueryTest.dmp");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         UniqueIndex<Bean> idIndex = new UniqueIndex<>(dump, "_id");
+         GroupIndex<Bean> mod7Index = new GroupIndex<>(dump, "_mod7");
+         GroupedIndex<Bean> blockIndex = new GroupedIndex<>(dump, "_block");
+         InfiniteGroupIndex<Bean> mod5Index = new InfiniteGroupIndex<>(dump, "_mod5", 100);
+
+         for ( int i = 0; i < DUMP_SIZE; i++ ) {
+            dump.add(new Bean(i));
+         }
+
+         assertQuery(PositionQuery.and(PositionQuery.of(mod7Index, 3), PositionQuery.of(mod5Index, "2")), dump, id -> id % 7 == 3 && id % 5 == 2);
+         assertQuery(PositionQuery.and(PositionQuery.of(blockIndex, 17L), PositionQuery.of(mod7Index, 0)), dump, id -> id / 100 == 17 && id % 7 == 0);
+         assertQuery(PositionQuery.or(PositionQuery.of(idIndex, 4711), PositionQuery.of(blockIndex, 3L), PositionQuery.of(idIndex, -1)), dump,
+               id -> id == 4711 || id / 100 == 3);
+         assertQuery(PositionQuery.and(PositionQuery.of(mod7Index, 1), PositionQuery.not(PositionQuery.of(mod5Index, "1"))), dump,
+               id -> id % 7 == 1 && id % 5 != 1);
+         assertQuery(PositionQuery.and(PositionQuery.or(PositionQuery.of(mod7Index, 1), PositionQuery.of(mod7Index, 2)), PositionQuery.of(blockIndex, 5L),
+               PositionQuery.not(PositionQuery.of(idIndex, 506))), dump, id -> (id % 7 == 1 || id % 7 == 2) && id / 100 == 5 && id != 506);
+         assertQuery(PositionQuery.and(PositionQuery.of(mod7Index, 1), PositionQuery.of(mod7Index, 2)), dump, id -> false);
+         assertQuery(PositionQuery.and(PositionQuery.of(blockIndex, 1000L), PositionQuery.of(mod7Index, 1)), dump, id -> false);
+
+         // deleted elements are no matches
+         for ( int id = 0; id < 1000; id++ ) {
+            if ( id % 7 == 3 ) {
+               dump.delete(idIndex.getPosition(id));
+            }
+         }
+         assertQuery(PositionQuery.and(PositionQuery.of(mod7Index, 3), PositionQuery.of(mod5Index, "2")), dump,
+               id -> id >= 1000 && id % 7 == 3 && id % 5 == 2);
+         assertQuery(PositionQuery.of(blockIndex, 2L), dump, id -> id / 100 == 2 && id % 7 != 3);
+
+         assertThatThrownBy(() -> PositionQuery.not(PositionQuery.of(mod7Index, 1)).count()).isInstanceOf(UnsupportedOperationException.class);
+         assertThatThrownBy(() -> PositionQuery.and(PositionQuery.not(PositionQuery.of(mod7Index, 1)))).isInstanceOf(IllegalArgumentException.class);
+         assertThatThrownBy(() -> PositionQuery.or(PositionQuery.of(mod7Index, 1), PositionQuery.not(PositionQuery.of(mod7Index, 2))))
+               .isInstanceOf(IllegalArgumentException.class);
+      }
+   }
+
+   private void assertQuery( PositionQuery<Bean> query, Dump<Bean> dump, IntPredicate matches ) {
+      List<Integer> expected = new ArrayList<>();
+      for ( int id = 0; id < DUMP_SIZE; id++ ) {
+         if ( matches.test(id) ) {
+            expected.add(id);
+         }
+      }
+      List<Integer> ids = new ArrayList<>();
+      synchronized ( dump ) {
+         for ( Bean bean : query.lookup() ) {
+            ids.add(bean._id);
+         }
+      }
+      assertThat(ids).isEqualTo(expected);
+      assertThat(query.count()).isEqualTo(expected.size());
+   }
+
+   private PositionSet randomSet( Random random, int size, int maxPos ) {
+      TLongList positions = new TLongArrayList();
+      for ( int i = 0; i < size; i++ ) {
+         positions.add(random.nextInt(maxPos));
+      }
+      return PositionSet.of(positions);
+   }
+
+
+   public static class Bean implements ExternalizableBean {
+
+      @externalize(1)
+      private int    _id;
+      @externalize(2)
+      private int    _mod7;
+      @externalize(3)
+      private long   _block;
+      @externalize(4)
+      private String _mod5;
+
+
+      public Bean() {
+         // for Externalization
+      }
+
+      public Bean( int id ) {
+         _id = id;
+         _mod7 = id % 7;
+         _block = id / 100;
+         _mod5 = "" + (id % 5);
+      }
+   }
+}
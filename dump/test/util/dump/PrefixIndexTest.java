@@ -0,0 +1,136 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+
+public class PrefixIndexTest extends AbstractDumpTest {
+
+   private static final int NUM_ELEMENTS = 5000; // more than the minimal buffer size, so the buffer is merged
+
+   @Test
+   public void testNonStringFieldIsRejected() throws Exception {
+      try (Dump<Bean> dump = new Dump<>(Bean.class, new File(_dir, "PrefixIndexTest.dmp"))) {
+         assertThatThrownBy(() -> new PrefixIndex<>(dump, "_id")).isInstanceOf(IllegalArgumentException.class);
+      }
+   }
+
+   @Test
+   public void testPrefixLookup() throws Exception {
+      try (Dump<Bean> dump = new Dump<>(Bean.class, new File(_dir, "PrefixIndexTest.dmp"))) {
+         PrefixIndex<Bean> index = new PrefixIndex<>(dump, "_sku");
+         add(dump);
+         assertFound(dump, index);
+      }
+   }
+
+   @Test
+   public void testReload() throws Exception {
+      File dumpFile = new File(_dir, "PrefixIndexTest.dmp");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         PrefixIndex<Bean> index = new PrefixIndex<>(dump, "_sku");
+         add(dump);
+         update(dump, index);
+      }
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         PrefixIndex<Bean> index = new PrefixIndex<>(dump, "_sku");
+         assertUpdated(dump, index);
+         assertThat(index.getNumKeys()).isEqualTo(NUM_ELEMENTS / 2 + 3);
+      }
+   }
+
+   @Test
+   public void testUpdateAndDelete() throws Exception {
+      try (Dump<Bean> dump = new Dump<>(Bean.class, new File(_dir, "PrefixIndexTest.dmp"))) {
+         PrefixIndex<Bean> index = new PrefixIndex<>(dump, "_sku");
+         add(dump);
+         update(dump, index);
+         assertUpdated(dump, index);
+      }
+   }
+
+   private void add( Dump<Bean> dump ) throws Exception {
+      for ( int id = 0; id < NUM_ELEMENTS; id++ ) {
+         dump.add(new Bean(id, sku(id)));
+      }
+      dump.add(new Bean(NUM_ELEMENTS, "ÄÖÜ-1"));
+      dump.add(new Bean(NUM_ELEMENTS + 1, "ÄÖ€"));
+      dump.add(new Bean(NUM_ELEMENTS + 2, null));
+   }
+
+   private void assertFound( Dump<Bean> dump, PrefixIndex<Bean> index ) {
+      // the keys 12, 120 - 129 and 1200 - 1299
+      assertThat(ids(dump, index.prefixLookup("ABC-12"))).hasSize(222).contains(12, 120, 1299, 2512, 2620, 3799).doesNotContain(13, 1300);
+      assertThat(index.prefixLookup("ABC-").size()).isEqualTo(NUM_ELEMENTS);
+      assertThat(index.prefixLookup("").size()).isEqualTo(NUM_ELEMENTS + 2);
+      assertThat(index.prefixLookup("ABD").size()).isZero();
+      assertThat(ids(dump, index.prefixLookup("ÄÖ"))).containsExactly(NUM_ELEMENTS, NUM_ELEMENTS + 1);
+      assertThat(ids(dump, index.prefixLookup("ÄÖÜ"))).containsExactly(NUM_ELEMENTS);
+      assertThat(index.count("ABC-7")).isEqualTo(2);
+      assertThat(index.contains("ABC-")).isFalse();
+      List<Integer> ids = new ArrayList<>();
+      for ( Bean bean : index.lookup("ABC-7") ) {
+         ids.add(bean._id);
+      }
+      assertThat(ids).containsExactly(7, 2507);
+   }
+
+   private void assertUpdated( Dump<Bean> dump, PrefixIndex<Bean> index ) {
+      assertThat(ids(dump, index.prefixLookup("ABC-12"))).hasSize(220).doesNotContain(12, 120);
+      assertThat(ids(dump, index.prefixLookup("ABD"))).containsExactly(12);
+      assertThat(ids(dump, index.positions("ABC-12"))).containsExactly(2512);
+      assertThat(ids(dump, index.positions("ABD-12"))).containsExactly(12);
+      assertThat(index.contains("ABC-120")).isTrue();
+      assertThat(index.count("ABC-120")).isEqualTo(1);
+      assertThat(index.getAllPositions().size()).isEqualTo(NUM_ELEMENTS + 1);
+   }
+
+   /**
+    * Changes the key of id 12 in place and deletes id 120.
+    */
+   private void update( Dump<Bean> dump, PrefixIndex<Bean> index ) throws Exception {
+      dump.update(index.positions("ABC-12").get(0), new Bean(12, "ABD-12"));
+      dump.delete(index.positions("ABC-120").get(0));
+   }
+
+   private List<Integer> ids( Dump<Bean> dump, PositionSet positions ) {
+      List<Integer> ids = new ArrayList<>();
+      for ( long pos : positions.toArray() ) {
+         ids.add(dump.get(pos)._id);
+      }
+      return ids;
+   }
+
+   /**
+    * two elements per SKU
+    */
+   private String sku( int id ) {
+      return "ABC-" + (id % (NUM_ELEMENTS / 2));
+   }
+
+
+   public static class Bean implements ExternalizableBean {
+
+      @externalize(1)
+      private int    _id;
+      @externalize(2)
+      private String _sku;
+
+
+      public Bean() {
+         // for Externalization
+      }
+
+      public Bean( int id, String sku ) {
+         _id = id;
+         _sku = sku;
+      }
+   }
+}
@@ -0,0 +1,232 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.security.AccessControlException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import util.dump.UniqueIndex.DuplicateKeyException;
+import util.dump.reflection.FieldAccessor;
+import util.dump.reflection.FieldFieldAccessor;
+import util.dump.reflection.Reflection;
+import util.dump.stream.SingleTypeObjectStreamProvider;
+
+
+public class SealedDumpTest extends AbstractDumpTest {
+
+   private static final int DUMP_SIZE = 20000;
+
+   @Test
+   public void testMinimalPerfectHash() {
+      Random random = new Random(42);
+      Set<Long> distinctHashes = new HashSet<>();
+      while ( distinctHashes.size() < 100000 ) {
+         distinctHashes.add(random.nextLong());
+      }
+      long[] hashes = distinctHashes.stream().mapToLong(Long::longValue).toArray();
+      MinimalPerfectHash hash = MinimalPerfectHash.build(hashes);
+      boolean[] used = new boolean[hashes.length];
+      for ( long h : hashes ) {
+         int index = hash.index(h);
+         assertThat(index).isBetween(0, hashes.length - 1);
+         assertThat(used[index]).as("index " + index + " is used twice").isFalse();
+         used[index] = true;
+      }
+
+      assertThatThrownBy(() -> MinimalPerfectHash.build(new long[] { 1, 2, 1 })).isInstanceOf(IllegalArgumentException.class);
+   }
+
+   @Test
+   public void testPackedPositions() {
+      long[] positions = { 0, 1, 4711, (1L << 40) - 1, 5L << 32, 17 };
+      PackedPositions packed = PackedPositions.pack(positions);
+      assertThat(packed.size()).isEqualTo(positions.length);
+      for ( int i = 0; i < positions.length; i++ ) {
+         assertThat(packed.get(i)).isEqualTo(positions[i]);
+      }
+   }
+
+   @Test
+   public void testSealAllDeleted() throws Exception {
+      File dumpFile = new File(_dir, "SealedDumpTest.dmp");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         new UniqueIndex<>(dump, "_id");
+         for ( int id = 0; id < 100; id++ ) {
+            long pos = dump.getDumpSize();
+            dump.add(new Bean(id));
+            dump.delete(pos);
+         }
+         dump.seal(null);
+      }
+      assertSealedEmpty(dumpFile);
+   }
+
+   @Test
+   public void testSealEmpty() throws Exception {
+      File dumpFile = new File(_dir, "SealedDumpTest.dmp");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         new UniqueIndex<>(dump, "_id");
+         new UniqueIndex<>(dump, "_name");
+         dump.seal(null);
+      }
+      assertSealedEmpty(dumpFile);
+   }
+
+   @Test
+   public void testSealedIndexRejectsDuplicateKeys() throws Exception {
+      File dumpFile = new File(_dir, "SealedDumpTest.dmp");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         for ( int id = 0; id < 1000; id++ ) {
+            dump.add(new Bean(id));
+         }
+         dump.seal(null);
+      }
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile, Dump.READ_ONLY_MODE)) {
+         assertThatThrownBy(() -> new SealedUniqueIndex<>(dump, "_group")).hasRootCauseInstanceOf(DuplicateKeyException.class)
+               .hasStackTraceContaining("Dump already contains an instance with the key");
+         assertThatThrownBy(() -> new SealedUniqueIndex<>(dump, "_groupName")).hasRootCauseInstanceOf(DuplicateKeyException.class)
+               .hasStackTraceContaining("Dump already contains an instance with the key group");
+         assertThat(new SealedUniqueIndex<>(dump, "_name").lookup("name17")._id).isEqualTo(17);
+      }
+   }
+
+   @Test
+   public void testSealRejectsDuplicateKeys() throws Exception {
+      // a UniqueIndex doesn't accept duplicate keys, so the lookups written by a seal are checked without one
+      File dumpFile = new File(_dir, "SealedDumpTest.dmp");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         for ( int id = 0; id < 1000; id++ ) {
+            dump.add(new Bean(id));
+         }
+      }
+      List<FieldAccessor> fields = Arrays.asList(new FieldFieldAccessor(Reflection.getField(Bean.class, "_id")),
+            new FieldFieldAccessor(Reflection.getField(Bean.class, "_groupName")));
+      assertThatThrownBy(() -> SealedUniqueIndex.writeLookups(dumpFile, new SingleTypeObjectStreamProvider<>(Bean.class), fields))
+            .isInstanceOf(DuplicateKeyException.class);
+      assertThat(_dir.list()).noneMatch(name -> name.endsWith(".lookup"));
+
+      List<File> lookupFiles = SealedUniqueIndex.writeLookups(dumpFile, new SingleTypeObjectStreamProvider<>(Bean.class), fields.subList(0, 1));
+      assertThat(lookupFiles).hasSize(1);
+      assertThat(lookupFiles.get(0)).exists();
+   }
+
+   @Test
+   public void testSeal() throws Exception {
+      File dumpFile = new File(_dir, "SealedDumpTest.dmp");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         new UniqueIndex<>(dump, "_id");
+         new UniqueIndex<>(dump, "_longId");
+         new UniqueIndex<>(dump, "_name");
+         new GroupIndex<>(dump, "_group");
+         for ( int id = 0; id < DUMP_SIZE; id++ ) {
+            long pos = dump.getDumpSize();
+            dump.add(new Bean(id));
+            if ( id % 7 == 0 ) {
+               dump.delete(pos);
+            }
+         }
+         assertThatThrownBy(() -> new SealedUniqueIndex<>(dump, "_id")).isInstanceOf(IllegalArgumentException.class);
+
+         dump.seal(Comparator.comparingInt(( Bean b ) -> b._group).thenComparing(b -> -b._id));
+         assertThat(dump.isClosed()).isTrue();
+      }
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile, Dump.READ_ONLY_MODE)) {
+         assertThat(dump.isSealed()).isTrue();
+         SealedUniqueIndex<Bean> idIndex = new SealedUniqueIndex<>(dump, "_id");
+         SealedUniqueIndex<Bean> longIdIndex = new SealedUniqueIndex<>(dump, "_longId");
+         SealedUniqueIndex<Bean> nameIndex = new SealedUniqueIndex<>(dump, "_name");
+         GroupIndex<Bean> groupIndex = new GroupIndex<>(dump, "_group");
+
+         int expectedNumKeys = DUMP_SIZE - (DUMP_SIZE + 6) / 7;
+         assertThat(idIndex.getNumKeys()).isEqualTo(expectedNumKeys);
+         assertThat(nameIndex.getAllPositions().size()).isEqualTo(expectedNumKeys);
+         for ( int id = 0; id < DUMP_SIZE; id++ ) {
+            if ( id % 7 == 0 ) {
+               assertThat(idIndex.lookup(id)).isNull();
+               assertThat(longIdIndex.contains(Bean.toLongId(id))).isFalse();
+               assertThat(nameIndex.lookup("name" + id)).isNull();
+            } else {
+               assertThat(idIndex.lookup(id)._id).isEqualTo(id);
+               assertThat(longIdIndex.lookup(Bean.toLongId(id))._id).isEqualTo(id);
+               assertThat(nameIndex.lookup("name" + id)._id).isEqualTo(id);
+            }
+         }
+         assertThat(idIndex.lookup(-1)).isNull();
+         assertThat(nameIndex.lookup("unknown")).isNull();
+         assertThat(groupIndex.count(3)).isEqualTo(IntStream.range(300, 400).filter(id -> id % 7 != 0).count());
+
+         Bean previous = null;
+         for ( Bean bean : dump ) {
+            if ( previous != null ) {
+               assertThat(bean._group > previous._group || (bean._group == previous._group && bean._id < previous._id)).isTrue();
+            }
+            previous = bean;
+         }
+      }
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         assertThatThrownBy(() -> dump.add(new Bean(DUMP_SIZE))).isInstanceOf(AccessControlException.class);
+         assertThatThrownBy(() -> dump.delete(0)).isInstanceOf(AccessControlException.class);
+         assertThatThrownBy(() -> dump.seal(null)).isInstanceOf(IllegalStateException.class);
+      }
+   }
+
+   private void assertSealedEmpty( File dumpFile ) throws Exception {
+      // reopening twice checks that the sealed indexes were written and not only built in memory
+      for ( int i = 0; i < 2; i++ ) {
+         try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile, Dump.READ_ONLY_MODE)) {
+            assertThat(dump.isSealed()).isTrue();
+            SealedUniqueIndex<Bean> idIndex = new SealedUniqueIndex<>(dump, "_id");
+            assertThat(idIndex.getNumKeys()).isZero();
+            assertThat(idIndex.lookup(1)).isNull();
+            assertThat(idIndex.getAllPositions().isEmpty()).isTrue();
+            assertThat(new SealedUniqueIndex<>(dump, "_name").lookup("name1")).isNull();
+            assertThat(dump.iterator().hasNext()).isFalse();
+         }
+      }
+   }
+
+
+   public static class Bean implements ExternalizableBean {
+
+      static long toLongId( int id ) {
+         return id * 1_000_000_007L;
+      }
+
+
+      @externalize(1)
+      private int    _id;
+      @externalize(2)
+      private long   _longId;
+      @externalize(3)
+      private String _name;
+      @externalize(4)
+      private int    _group;
+      @externalize(5)
+      private String _groupName;
+
+
+      public Bean() {
+         // for Externalization
+      }
+
+      public Bean( int id ) {
+         _id = id;
+         _longId = toLongId(id);
+         _name = "name" + id;
+         _group = id / 100;
+         _groupName = "group" + _group;
+      }
+   }
+}
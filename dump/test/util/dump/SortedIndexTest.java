@@ -0,0 +1,142 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import util.dump.DumpIndex.IndexOption;
+
+
+public class SortedIndexTest extends AbstractDumpTest {
+
+   @Test
+   public void testGroupIndex() throws Exception {
+      File dumpFile = new File(_dir, "SortedIndexTest.dmp");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         // the groups have 3 elements, the long keys are in descending order
+         for ( int id = 0; id < 3000; id++ ) {
+            dump.add(new Bean(id));
+         }
+         SortedGroupIndex<Bean> intIndex = new SortedGroupIndex<>(dump, "_group");
+         SortedGroupIndex<Bean> longIndex = new SortedGroupIndex<>(dump, "_groupLong");
+         SortedGroupIndex<Bean> stringIndex = new SortedGroupIndex<>(dump, "_name", IndexOption.compactStringKeys);
+
+         assertThat(ids(intIndex.rangeLookup(10, 12))).containsExactly(30, 31, 32, 33, 34, 35);
+         assertThat(ids(longIndex.rangeLookup(-12L, -10L))).containsExactly(36, 37, 38, 33, 34, 35);
+         assertThat(ids(stringIndex.rangeLookup("g0010", "g0012"))).containsExactly(30, 31, 32, 33, 34, 35);
+         assertThat(ids(stringIndex.prefixLookup("g099"))).hasSize(30).startsWith(2970, 2971, 2972).endsWith(2999);
+         assertThat(ids(intIndex.orderedLookup())).hasSize(3000).startsWith(0, 1, 2).endsWith(2997, 2998, 2999);
+         assertThat(intIndex.floorKey(-1)).isNull();
+         assertThat(intIndex.ceilingKey(1000)).isNull();
+         assertThat(longIndex.floorKey(0L)).isEqualTo(0L);
+         assertThat(stringIndex.ceilingKey("g00105")).isEqualTo("g0011");
+
+         // new keys after the sorted keys were built, enough to merge the write buffer
+         for ( int id = 3000; id < 6000; id++ ) {
+            dump.add(new Bean(id));
+         }
+         assertThat(ids(intIndex.rangeLookup(999, 1001))).containsExactly(2997, 2998, 2999, 3000, 3001, 3002);
+         assertThat(ids(stringIndex.rangeLookup("g1999", null))).containsExactly(5997, 5998, 5999);
+         assertThat(ids(longIndex.orderedLookup())).hasSize(6000).startsWith(5997, 5998, 5999);
+
+         // deleted groups are skipped
+         for ( long pos : intIndex.rangePositions(1000, 1001).toArray() ) {
+            dump.delete(pos);
+         }
+         assertThat(intIndex.ceilingKey(1000)).isEqualTo(1001);
+         assertThat(intIndex.floorKey(1000)).isEqualTo(999);
+         assertThat(stringIndex.floorKey("g1000")).isEqualTo("g0999");
+         assertThat(ids(intIndex.rangeLookup(999, 1002))).containsExactly(2997, 2998, 2999, 3003, 3004, 3005);
+
+         // updated keys move
+         long pos = intIndex.rangePositions(5, 6).get(0);
+         Bean bean = dump.get(pos);
+         bean._group = 100000;
+         dump.update(pos, bean);
+         assertThat(ids(intIndex.rangeLookup(5, 6))).containsExactly(16, 17);
+         assertThat(intIndex.floorKey(Integer.MAX_VALUE)).isEqualTo(100000);
+
+         assertThatThrownBy(() -> intIndex.rangeLookup(0L, 1L)).isInstanceOf(IllegalArgumentException.class);
+         assertThatThrownBy(() -> intIndex.prefixLookup("g")).isInstanceOf(IllegalArgumentException.class);
+      }
+
+      // the sorted keys are rebuilt from the loaded index
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         SortedGroupIndex<Bean> intIndex = new SortedGroupIndex<>(dump, "_group");
+         assertThat(ids(intIndex.rangeLookup(999, 1002))).containsExactly(2997, 2998, 2999, 3003, 3004, 3005);
+         assertThat(ids(intIndex.rangeLookup(5, 6))).containsExactly(16, 17);
+      }
+   }
+
+   @Test
+   public void testUniqueIndex() throws Exception {
+      File dumpFile = new File(_dir, "SortedIndexTest.dmp");
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         SortedUniqueIndex<Bean> idIndex = new SortedUniqueIndex<>(dump, "_id");
+         SortedUniqueIndex<Bean> stringIndex = new SortedUniqueIndex<>(dump, "_uniqueName");
+         for ( int id = 0; id < 1000; id += 2 ) {
+            dump.add(new Bean(id));
+         }
+         assertThat(ids(idIndex.rangeLookup(10, 20))).containsExactly(10, 12, 14, 16, 18);
+         for ( int id = 999; id > 0; id -= 2 ) {
+            dump.add(new Bean(id));
+         }
+         assertThat(ids(idIndex.rangeLookup(10, 20))).containsExactly(10, 11, 12, 13, 14, 15, 16, 17, 18, 19);
+         assertThat(ids(stringIndex.prefixLookup("u01"))).containsExactly(10, 11, 12, 13, 14, 15, 16, 17, 18, 19);
+         assertThat(ids(idIndex.orderedLookup())).hasSize(1000).startsWith(0, 1, 2).endsWith(999);
+
+         dump.delete(idIndex.rangePositions(500, 501).get(0));
+         assertThat(idIndex.floorKey(500)).isEqualTo(499);
+         assertThat(idIndex.ceilingKey(500)).isEqualTo(501);
+         assertThat(stringIndex.ceilingKey("u500")).isEqualTo("u501");
+         assertThat(stringIndex.floorKey("u")).isNull();
+      }
+
+      assertThatThrownBy(() -> {
+         try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+            new SortedUniqueIndex<>(dump, "_uniqueName", IndexOption.hashedKeys);
+         }
+      }).isInstanceOf(IllegalArgumentException.class);
+   }
+
+   private List<Integer> ids( Iterable<Bean> beans ) {
+      List<Integer> ids = new ArrayList<>();
+      for ( Bean bean : beans ) {
+         ids.add(bean._id);
+      }
+      return ids;
+   }
+
+
+   public static class Bean implements ExternalizableBean {
+
+      @externalize(1)
+      private int    _id;
+      @externalize(2)
+      private int    _group;
+      @externalize(3)
+      private long   _groupLong;
+      @externalize(4)
+      private String _name;
+      @externalize(5)
+      private String _uniqueName;
+
+
+      public Bean() {
+         // for Externalization
+      }
+
+      public Bean( int id ) {
+         _id = id;
+         _group = id / 3;
+         _groupLong = -(id / 3);
+         _name = String.format("g%04d", id / 3);
+         _uniqueName = String.format("u%03d", id);
+      }
+   }
+}
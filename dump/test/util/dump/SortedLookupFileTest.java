@@ -0,0 +1,126 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+
+
+public class SortedLookupFileTest extends AbstractDumpTest {
+
+   @Test
+   public void testBloomFilter() throws IOException {
+      File file = new File(_dir, "lookup");
+      int n = 100000;
+      try (SortedLookupFile.Writer writer = new SortedLookupFile.Writer(file, true, n)) {
+         for ( int i = 0; i < n; i++ ) {
+            writer.add(i * 2L, i);
+         }
+      }
+      File bloomFile = SortedLookupFile.getBloomFile(file);
+      assertThat(bloomFile).exists();
+
+      for ( int pass = 0; pass < 2; pass++ ) {
+         try (SortedLookupFile lookupFile = new SortedLookupFile(file, true)) {
+            int falsePositives = 0;
+            for ( int i = 0; i < n; i++ ) {
+               assertThat(lookupFile.mightContain(i * 2L)).isTrue();
+               if ( lookupFile.mightContain(i * 2L + 1) ) {
+                  falsePositives++;
+               }
+            }
+            assertThat(falsePositives).isLessThan(n / 50);
+         }
+         if ( pass == 0 ) {
+            // files without a Bloom filter get one when opened
+            assertThat(bloomFile.delete()).isTrue();
+         }
+      }
+      assertThat(bloomFile).exists();
+   }
+
+   @Test
+   public void testForEachEntry() throws IOException {
+      for ( boolean longKeys : new boolean[] { false, true } ) {
+         File file = new File(_dir, "lookup" + longKeys);
+         int n = 10000;
+         try (SortedLookupFile.Writer writer = new SortedLookupFile.Writer(file, longKeys, n)) {
+            for ( int i = 0; i < n; i++ ) {
+               // every key three times, so some keys span two blocks
+               writer.add((i / 3) * 2L, i);
+            }
+         }
+         assertThat(file.length()).isEqualTo(n * (longKeys ? 16L : 12L));
+
+         try (SortedLookupFile lookupFile = new SortedLookupFile(file, longKeys)) {
+            assertThat(lookupFile.getNumEntries()).isEqualTo(n);
+            for ( int key = -1; key <= (n / 3) * 2 + 1; key++ ) {
+               TLongList positions = new TLongArrayList();
+               lookupFile.forEachEntry(key, key, ( k, pos, index ) -> positions.add(pos));
+               if ( key < 0 || key % 2 != 0 || key > ((n - 1) / 3) * 2 ) {
+                  assertThat(positions.isEmpty()).isTrue();
+               } else {
+                  TLongList expected = new TLongArrayList();
+                  for ( int i = (key / 2) * 3; i < Math.min(n, (key / 2) * 3 + 3); i++ ) {
+                     expected.add(i);
+                  }
+                  assertThat(positions).isEqualTo(expected);
+               }
+            }
+
+            TLongList range = new TLongArrayList();
+            lookupFile.forEachEntry(3, 6, ( k, pos, index ) -> range.add(pos));
+            assertThat(range.toArray()).containsExactly(6, 7, 8, 9, 10, 11);
+         }
+      }
+   }
+
+   @Test
+   public void testMerge() throws IOException {
+      File a = new File(_dir, "a");
+      File b = new File(_dir, "b");
+      try (SortedLookupFile.Writer writer = new SortedLookupFile.Writer(a, false, 3)) {
+         writer.add(1, 10);
+         writer.add(3, 30);
+         writer.add(5, 50);
+      }
+      try (SortedLookupFile.Writer writer = new SortedLookupFile.Writer(b, false, 3)) {
+         writer.add(2, 20);
+         writer.add(3, 31);
+         writer.add(6, 60);
+      }
+
+      try (SortedLookupFile fa = new SortedLookupFile(a, false); SortedLookupFile fb = new SortedLookupFile(b, false)) {
+         fb.setPosition(2, -1);
+
+         TLongList keys = new TLongArrayList();
+         TLongList positions = new TLongArrayList();
+         for ( SortedLookupFile.Cursor entries = SortedLookupFile.merge(Arrays.asList(fa, fb)); entries.next(); ) {
+            keys.add(entries.key());
+            positions.add(entries.position());
+         }
+         assertThat(keys.toArray()).containsExactly(1, 2, 3, 3, 5, 6);
+         assertThat(positions.toArray()).contains(10, 20, 30, 31, 50, -1);
+      }
+
+      // the updated position is persisted
+      try (SortedLookupFile fb = new SortedLookupFile(b, false)) {
+         assertThat(fb.getPosition(2)).isEqualTo(-1);
+      }
+   }
+
+   @Test
+   public void testUnsortedKeys() throws IOException {
+      try (SortedLookupFile.Writer writer = new SortedLookupFile.Writer(new File(_dir, "unsorted"), true, 2)) {
+         writer.add(2, 0);
+         assertThatThrownBy(() -> writer.add(1, 1)).isInstanceOf(IllegalArgumentException.class);
+      }
+   }
+}
@@ -0,0 +1,83 @@
+package util.dump;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+
+public class StringKeyArenaMapTest {
+
+   private static final String[] SPECIAL_KEYS = { "", "\u0000", "äöü", "€ uro", "😀", "a\u0000b" };
+
+   @Test
+   public void testPutGetRemove() {
+      StringKeyLongMap map = new StringKeyLongMap();
+      int n = 100000;
+      for ( int i = 0; i < n; i++ ) {
+         assertThat(map.put("key" + i, i)).isEqualTo(StringKeyLongMap.NO_ENTRY_VALUE);
+      }
+      assertThat(map.size()).isEqualTo(n);
+      for ( int i = 0; i < n; i += 2 ) {
+         assertThat(map.remove("key" + i)).isEqualTo(i);
+      }
+      assertThat(map.size()).isEqualTo(n / 2);
+      for ( int i = 0; i < n; i++ ) {
+         assertThat(map.get("key" + i)).isEqualTo(i % 2 == 0 ? StringKeyLongMap.NO_ENTRY_VALUE : i);
+      }
+
+      map.compact();
+      assertThat(map.size()).isEqualTo(n / 2);
+      for ( int i = 1; i < n; i += 2 ) {
+         assertThat(map.get("key" + i)).isEqualTo(i);
+         assertThat(map.put("key" + i, -i)).isEqualTo(i);
+      }
+      assertThat(map.keys()).hasSize(n / 2).contains("key1", "key" + (n - 1));
+      assertThat(map.values()).hasSize(n / 2).contains(-1, -(n - 1));
+   }
+
+   @Test
+   public void testRemoveAndReAdd() {
+      StringKeyObjectMap<String> map = new StringKeyObjectMap<>(4);
+      for ( int round = 0; round < 50; round++ ) {
+         for ( int i = 0; i < 1000; i++ ) {
+            map.put("k" + i, "v" + i + "-" + round);
+         }
+         for ( int i = 0; i < 1000; i++ ) {
+            assertThat(map.remove("k" + i)).isEqualTo("v" + i + "-" + round);
+         }
+         assertThat(map.size()).isZero();
+      }
+      assertThat(map.get("k0")).isNull();
+   }
+
+   @Test
+   public void testSpecialCharacters() throws IOException {
+      StringKeyObjectMap<String> map = new StringKeyObjectMap<>();
+      for ( String key : SPECIAL_KEYS ) {
+         byte[] utf = toModifiedUtf8(key);
+         map.put(utf, utf.length, key);
+      }
+      assertThat(map.size()).isEqualTo(SPECIAL_KEYS.length);
+      for ( String key : SPECIAL_KEYS ) {
+         byte[] utf = toModifiedUtf8(key);
+         assertThat(map.get(key)).isEqualTo(key);
+         assertThat(map.get(utf, utf.length)).isEqualTo(key);
+         assertThat(HashUtils.hash64(key)).isEqualTo(HashUtils.hash64(utf, 0, utf.length));
+      }
+      assertThat(map.keys()).containsOnly((Object[])SPECIAL_KEYS);
+      assertThat(map.get("\u0001")).isNull();
+   }
+
+   private byte[] toModifiedUtf8( String key ) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      new DataOutputStream(bytes).writeUTF(key);
+      byte[] b = bytes.toByteArray();
+      byte[] utf = new byte[b.length - 2];
+      System.arraycopy(b, 2, utf, 0, utf.length);
+      return utf;
+   }
+}
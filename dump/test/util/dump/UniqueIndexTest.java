@@ -23,6 +23,7 @@ import org.junit.runners.Parameterized.Parameters;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 import junit.framework.Assert;
+import util.dump.DumpIndex.IndexOption;
 import util.dump.reflection.FieldFieldAccessor;
 import util.dump.reflection.Reflection;
 
@@ -105,6 +106,22 @@ public class UniqueIndexTest {
 
    }
 
+   @Test
+   public void testExternalizableKeyIndexWithHashedKeys() throws Exception {
+      testIndex("_idExternalizable", new TestConfiguration() {
+
+         @Override
+         public Object createKey( int id ) {
+            return new ExternalizableId(id);
+         }
+
+         @Override
+         public IndexOption[] getOptions() {
+            return new IndexOption[] { IndexOption.hashedKeys };
+         }
+      });
+   }
+
    @Test
    public void testGetNumKeys() throws Exception {
       File dumpFile = new File(_tmpdir, DUMP_FILENAME);
@@ -144,6 +161,71 @@ public class UniqueIndexTest {
       }
    }
 
+   @Test
+   public void testHashedKeysWithCollisions() throws Exception {
+      int dumpSize = Math.min(_dumpSize, 1000);
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+      FieldFieldAccessor collidingIdAccessor = new FieldFieldAccessor(Reflection.getField(Bean.class, "_idInt")) {
+
+         @Override
+         public Object get( Object obj ) throws Exception {
+            return new CollidingId(((Bean)obj)._idInt);
+         }
+
+         @Override
+         public String getName() {
+            return "collidingId";
+         }
+
+         @Override
+         public Class getType() {
+            return CollidingId.class;
+         }
+      };
+
+      Dump<Bean> dump = new Dump<>(Bean.class, dumpFile);
+      try {
+         UniqueIndex<Bean> index = new UniqueIndex<>(dump, collidingIdAccessor, IndexOption.hashedKeys);
+         fillDump(dump, dumpSize);
+         for ( int i = 0; i < dumpSize; i++ ) {
+            assertThat(index.lookup(new CollidingId(i))._idInt).isEqualTo(i);
+         }
+         assertThat(index.lookup(new CollidingId(dumpSize))).isNull();
+
+         try {
+            dump.add(new Bean(1, "duplicate"));
+            Assert.fail("duplicate key not detected");
+         }
+         catch ( UniqueIndex.DuplicateKeyException e ) {
+            // expected
+         }
+
+         for ( Bean bean : dump ) {
+            if ( bean._idInt % 2 == 0 ) {
+               dump.deleteLast();
+            }
+         }
+         dump.close();
+
+         dump = new Dump<>(Bean.class, dumpFile);
+         index = new UniqueIndex<>(dump, collidingIdAccessor, IndexOption.hashedKeys);
+         assertThat(index.getNumKeys()).isEqualTo(dumpSize / 2);
+         for ( int i = 0; i < dumpSize; i++ ) {
+            Bean bean = index.lookup(new CollidingId(i));
+            if ( i % 2 == 0 ) {
+               assertThat(bean).isNull();
+               assertThat(index.contains(new CollidingId(i))).isFalse();
+            } else {
+               assertThat(bean._idInt).isEqualTo(i);
+               assertThat(index.contains(new CollidingId(i))).isTrue();
+            }
+         }
+      }
+      finally {
+         dump.close();
+      }
+   }
+
    @Test
    public void testIntKeyIndex() throws Exception {
       testIndex("_idInt", new TestConfiguration() {
@@ -155,6 +237,22 @@ public class UniqueIndexTest {
       });
    }
 
+   @Test
+   public void testIntKeyIndexWithPackedPositions() throws Exception {
+      testIndex("_idInt", new TestConfiguration() {
+
+         @Override
+         public Object createKey( int id ) {
+            return id;
+         }
+
+         @Override
+         public IndexOption[] getOptions() {
+            return new IndexOption[] { IndexOption.packedPositions };
+         }
+      });
+   }
+
    @Test
    public void testLongKeyIndex() throws Exception {
       testIndex("_idLong", new TestConfiguration() {
@@ -166,6 +264,22 @@ public class UniqueIndexTest {
       });
    }
 
+   @Test
+   public void testLongKeyIndexWithPackedPositions() throws Exception {
+      testIndex("_idLong", new TestConfiguration() {
+
+         @Override
+         public Object createKey( int id ) {
+            return (long)id;
+         }
+
+         @Override
+         public IndexOption[] getOptions() {
+            return new IndexOption[] { IndexOption.packedPositions };
+         }
+      });
+   }
+
    @Test
    public void testLongObjectKeyIndex() throws Exception {
       testIndex("_idLongObject", new TestConfiguration() {
@@ -177,6 +291,66 @@ public class UniqueIndexTest {
       });
    }
 
+   @Test
+   public void testLookupAll() throws Exception {
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         UniqueIndex<Bean> intIndex = new UniqueIndex<>(dump, "_idInt");
+         UniqueIndex<Bean> longIndex = new UniqueIndex<>(dump, "_idLong");
+         UniqueIndex<Bean> stringIndex = new UniqueIndex<>(dump, "_idString");
+         fillDump(dump);
+         dump.delete(intIndex.getPosition(1));
+
+         int[] intKeys = new int[_dumpSize + 3];
+         long[] longKeys = new long[intKeys.length];
+         List<String> stringKeys = new ArrayList<>();
+         for ( int i = 0; i < intKeys.length; i++ ) {
+            // descending with a duplicate, a deleted and a missing key
+            intKeys[i] = i == 0 ? 1 : i == 1 ? -1 : _dumpSize - i + 1;
+            longKeys[i] = intKeys[i];
+            stringKeys.add((intKeys[i] < 0 ? "" : "+") + intKeys[i]);
+         }
+         for ( List<Bean> beans : Arrays.array(intIndex.lookupAll(intKeys), longIndex.lookupAll(longKeys), stringIndex.lookupAll(stringKeys)) ) {
+            assertThat(beans).hasSize(intKeys.length);
+            assertThat(beans.get(0)).isNull();
+            assertThat(beans.get(1)).isNull();
+            for ( int i = 2; i < intKeys.length; i++ ) {
+               if ( intKeys[i] == 1 ) {
+                  assertThat(beans.get(i)).isNull();
+               } else {
+                  assertThat(beans.get(i)).isEqualTo(intIndex.lookup(intKeys[i]));
+               }
+            }
+         }
+         assertThat(intIndex.lookupAll(new int[] { 0, 0 })).containsExactly(intIndex.lookup(0), intIndex.lookup(0));
+      }
+   }
+
+   @Test
+   public void testPackedPositionsSwitched() throws Exception {
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         new UniqueIndex<>(dump, "_idInt");
+         new UniqueIndex<>(dump, "_idString");
+         fillDump(dump);
+      }
+
+      // the lookup files written with 8 bytes per position are rebuilt with 5 bytes per position
+      for ( IndexOption[] options : Arrays.array(new IndexOption[] { IndexOption.packedPositions }, new IndexOption[0]) ) {
+         try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+            UniqueIndex<Bean> intIndex = new UniqueIndex<>(dump, "_idInt", options);
+            UniqueIndex<Bean> stringIndex = new UniqueIndex<>(dump, "_idString", options);
+            int positionBytes = options.length == 0 ? 8 : 5;
+            assertThat(intIndex.getLookupFile().length()).isEqualTo((long)_dumpSize * (4 + positionBytes));
+            assertThat(intIndex.getNumKeys()).isEqualTo(_dumpSize);
+            for ( int id = 0; id < _dumpSize; id += Math.max(1, _dumpSize / READ_NUMBER) ) {
+               assertThat(intIndex.lookup(id)._idInt).isEqualTo(id);
+               assertThat(stringIndex.lookup("+" + id)._idInt).isEqualTo(id);
+            }
+         }
+      }
+   }
+
    @Test
    public void testRecreateIndex() throws NoSuchFieldException, IOException {
       File dumpFile = new File(_tmpdir, DUMP_FILENAME);
@@ -230,6 +404,54 @@ public class UniqueIndexTest {
       });
    }
 
+   @Test
+   public void testStringKeyIndexWithCompactStringKeys() throws Exception {
+      testIndex("_idString", new TestConfiguration() {
+
+         @Override
+         public Object createKey( int id ) {
+            return (id < 0 ? "" : "+") + id;
+         }
+
+         @Override
+         public IndexOption[] getOptions() {
+            return new IndexOption[] { IndexOption.compactStringKeys };
+         }
+      });
+   }
+
+   @Test
+   public void testStringKeyIndexWithHashedKeys() throws Exception {
+      testIndex("_idString", new TestConfiguration() {
+
+         @Override
+         public Object createKey( int id ) {
+            return (id < 0 ? "" : "+") + id;
+         }
+
+         @Override
+         public IndexOption[] getOptions() {
+            return new IndexOption[] { IndexOption.hashedKeys };
+         }
+      });
+   }
+
+   @Test
+   public void testStringKeyIndexWithPackedPositions() throws Exception {
+      testIndex("_idString", new TestConfiguration() {
+
+         @Override
+         public Object createKey( int id ) {
+            return (id < 0 ? "" : "+") + id;
+         }
+
+         @Override
+         public IndexOption[] getOptions() {
+            return new IndexOption[] { IndexOption.packedPositions };
+         }
+      });
+   }
+
    protected void testIndex( String fieldName, TestConfiguration config ) throws Exception {
 
       testLateOpenIndex(fieldName, config);
@@ -242,7 +464,7 @@ public class UniqueIndexTest {
       Dump<Bean> dump = new Dump<>(Bean.class, dumpFile);
       try {
          Field field = Reflection.getField(Bean.class, fieldName);
-         UniqueIndex<Bean> index = new UniqueIndex<>(dump, new FieldFieldAccessor(field));
+         UniqueIndex<Bean> index = new UniqueIndex<>(dump, new FieldFieldAccessor(field), config.getOptions());
 
          fillDump(dump);
 
@@ -255,7 +477,7 @@ public class UniqueIndexTest {
          System.out.println("Closing and re-opening dump");
 
          dump = new Dump<>(Bean.class, dumpFile);
-         index = new UniqueIndex<>(dump, new FieldFieldAccessor(field));
+         index = new UniqueIndex<>(dump, new FieldFieldAccessor(field), config.getOptions());
 
          validateNumKeys(dump, index);
 
@@ -343,7 +565,7 @@ public class UniqueIndexTest {
          System.out.println("Closing and re-opening dump");
 
          dump = new Dump<>(Bean.class, dumpFile);
-         index = new UniqueIndex<>(dump, new FieldFieldAccessor(field));
+         index = new UniqueIndex<>(dump, new FieldFieldAccessor(field), config.getOptions());
 
          validateNumKeys(dump, index);
 
@@ -364,7 +586,7 @@ public class UniqueIndexTest {
          }
          /* re-open, enforcing the index to be re-created */
          dump = new Dump<>(Bean.class, dumpFile);
-         index = new UniqueIndex<>(dump, new FieldFieldAccessor(field));
+         index = new UniqueIndex<>(dump, new FieldFieldAccessor(field), config.getOptions());
 
          validateNumKeys(dump, index);
 
@@ -378,6 +600,10 @@ public class UniqueIndexTest {
    }
 
    private void fillDump( Dump<Bean> dump ) throws IOException {
+      fillDump(dump, _dumpSize);
+   }
+
+   private void fillDump( Dump<Bean> dump, int dumpSize ) throws IOException {
       StringBuilder sb = new StringBuilder("-");
       for ( int i = 0; i < BEAN_SIZE - 15; i++ ) { // 15 is an estimation for the size of the Bean instance without this padding
          sb.append('0');
@@ -385,10 +611,10 @@ public class UniqueIndexTest {
 
       /* add some elements */
       long t = System.currentTimeMillis();
-      for ( int i = 0; i < _dumpSize; i++ ) {
+      for ( int i = 0; i < dumpSize; i++ ) {
          dump.add(new Bean(i, i + sb.toString()));
       }
-      System.out.println("Written " + _dumpSize + " instances to dump. Needed " + (System.currentTimeMillis() - t) / (float)_dumpSize + " ms/instance.");
+      System.out.println("Written " + dumpSize + " instances to dump. Needed " + (System.currentTimeMillis() - t) / (float)dumpSize + " ms/instance.");
    }
 
    private void testLateOpenIndex( String fieldName, TestConfiguration config ) throws Exception {
@@ -400,7 +626,7 @@ public class UniqueIndexTest {
          Field field = Reflection.getField(Bean.class, fieldName);
 
          fillDump(dump);
-         UniqueIndex<Bean> index = new UniqueIndex<>(dump, new FieldFieldAccessor(field));
+         UniqueIndex<Bean> index = new UniqueIndex<>(dump, new FieldFieldAccessor(field), config.getOptions());
 
          testLookup(config, field, index);
       }
@@ -549,6 +775,34 @@ public class UniqueIndexTest {
    }
 
 
+   /**
+    * A key with lots of hash collisions.
+    */
+   public static class CollidingId implements ExternalizableBean {
+
+      @externalize(1)
+      long _id;
+
+      public CollidingId() {
+         // for Externalization
+      }
+
+      public CollidingId( long id ) {
+         _id = id;
+      }
+
+      @Override
+      public boolean equals( Object obj ) {
+         return obj instanceof CollidingId && ((CollidingId)obj)._id == _id;
+      }
+
+      @Override
+      public int hashCode() {
+         return (int)(_id % 3);
+      }
+   }
+
+
    public static class ExternalizableId implements ExternalizableBean {
 
       @externalize(1)
@@ -593,6 +847,10 @@ public class UniqueIndexTest {
    protected static abstract class TestConfiguration {
 
       public abstract Object createKey( int id );
+
+      public IndexOption[] getOptions() {
+         return new IndexOption[0];
+      }
    }
 
 }
@@ -46,6 +46,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
 import util.dump.reflection.FieldAccessor;
 import util.dump.reflection.FieldFieldAccessor;
 import util.dump.reflection.Reflection;
@@ -238,6 +239,44 @@ public class SearchIndex<E> extends DumpIndex<E> {
       return _taxoReader;
    }
 
+   /**
+    * Creates an operand for a {@link PositionQuery} matching the given Lucene query, so the matches can be combined with lookups
+    * of the other indexes of the dump. The number of matches serves as estimated size, the matching positions are only read,
+    * if the query gets evaluated.
+    * @param query a valid Lucene Query, which will be parsed using the provided Analyzer or StandardAnalyzer, if none provided.
+    */
+   public PositionQuery<E> query( String query ) throws ParseException {
+      Query q = parse(query);
+      return new PositionQuery<E>(_dump) {
+
+         @Override
+         protected long estimateSize() {
+            try {
+               return retryOnAlreadyClosed(() -> withSearcher(s -> s.count(q)));
+            }
+            catch ( ParseException | IOException e ) {
+               throw new RuntimeException("Failed to count matches", e);
+            }
+         }
+
+         @Override
+         protected PositionSet evaluate() {
+            try {
+               return retryOnAlreadyClosed(() -> withSearcher(s -> {
+                  TLongList positions = new TLongArrayList();
+                  for ( ScoreDoc doc : s.search(q, Math.max(1, s.getIndexReader().numDocs())).scoreDocs ) {
+                     positions.add(Long.parseLong(s.doc(doc.doc).get("pos")));
+                  }
+                  return PositionSet.of(positions);
+               }));
+            }
+            catch ( ParseException | IOException e ) {
+               throw new RuntimeException("Failed to search", e);
+            }
+         }
+      };
+   }
+
    /**
     * Searches for entries in the dump using the given Lucene query, loading all matching items lazily from the dump during iteration.
     * Due to this lazy iteration the elements returned by this iterator might be null, if they have been meanwhile deleted. If you need
@@ -165,6 +165,29 @@ public class SearchIndexTest {
       }
    }
 
+   @Test
+   public void testPositionQuery() throws Exception {
+      File dumpFile = new File(_tmpdir, DUMP_FILENAME);
+
+      try (Dump<Bean> dump = new Dump<>(Bean.class, dumpFile)) {
+         SearchIndex<Bean> index = with(dump, "_idLong", ( doc, o ) -> doc.add(new TextField("data", o._data, Store.NO))).build();
+         UniqueIndex<Bean> idIndex = new UniqueIndex<>(dump, "_idInt");
+
+         for ( int i = 0; i < 20; i++ ) {
+            dump.add(new Bean(i, i % 2 == 0 ? "even" : "odd"));
+         }
+
+         PositionQuery<Bean> query = PositionQuery.and(index.query("data:even"),
+               PositionQuery.or(PositionQuery.of(idIndex, 4), PositionQuery.of(idIndex, 5), PositionQuery.of(idIndex, 6)),
+               PositionQuery.not(PositionQuery.of(idIndex, 6)));
+         synchronized ( dump ) {
+            assertThat(query.lookup()).containsExactly(new Bean(4, "even"));
+         }
+         assertThat(PositionQuery.and(index.query("data:odd"), index.query("data:even")).count()).isEqualTo(0);
+         assertThat(PositionQuery.or(index.query("data:odd"), index.query("data:even")).count()).isEqualTo(20);
+      }
+   }
+
    @Test
    public void testVersion() throws Exception {
       File dumpFile = new File(_tmpdir, DUMP_FILENAME);